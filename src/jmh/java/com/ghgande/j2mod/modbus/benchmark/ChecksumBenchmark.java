@@ -0,0 +1,71 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.benchmark;
+
+import com.ghgande.j2mod.modbus.util.ModbusChecksum;
+import com.ghgande.j2mod.modbus.util.ModbusUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the RTU CRC and ASCII LRC checksums
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+
+    @Param({"8", "256"})
+    private int length;
+
+    private byte[] data;
+    private ByteBuffer direct;
+
+    @Setup
+    public void setUp() {
+        data = new byte[length];
+        new Random(42).nextBytes(data);
+        direct = ByteBuffer.allocateDirect(length);
+        direct.put(data);
+        direct.flip();
+    }
+
+    @Benchmark
+    public int[] crcLegacy() {
+        return ModbusUtil.calculateCRC(data, 0, length);
+    }
+
+    @Benchmark
+    public int crc() {
+        return ModbusChecksum.crc16(data, 0, length);
+    }
+
+    @Benchmark
+    public int crcDirect() {
+        return ModbusChecksum.crc16(direct);
+    }
+
+    @Benchmark
+    public int lrc() {
+        return ModbusChecksum.lrc(data, 0, length);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.benchmark;
+
+import com.ghgande.j2mod.modbus.Modbus;
+import com.ghgande.j2mod.modbus.io.BytesInputStream;
+import com.ghgande.j2mod.modbus.io.BytesOutputStream;
+import com.ghgande.j2mod.modbus.io.ModbusTCPTransport;
+import com.ghgande.j2mod.modbus.msg.ModbusRequest;
+import com.ghgande.j2mod.modbus.msg.ReadMultipleRegistersRequest;
+import com.ghgande.j2mod.modbus.msg.ReadMultipleRegistersResponse;
+import com.ghgande.j2mod.modbus.procimg.Register;
+import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks decoding of requests and encoding of responses as done by the TCP
+ * transports
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"1", "125"})
+    private int wordCount;
+
+    private byte[] requestFrame;
+    private int requestLength;
+    private BytesInputStream input;
+    private BytesOutputStream output;
+    private ReadMultipleRegistersResponse response;
+
+    @Setup
+    public void setUp() throws IOException {
+        ReadMultipleRegistersRequest request = new ReadMultipleRegistersRequest(0, wordCount);
+        request.setUnitID(1);
+        request.setTransactionID(1);
+        output = new BytesOutputStream(Modbus.MAX_MESSAGE_LENGTH + 6);
+        ModbusTCPTransport.writeFrame(output, request, false, false);
+        requestFrame = output.toByteArray();
+        requestLength = requestFrame.length;
+        input = new BytesInputStream(requestFrame);
+
+        Register[] registers = new Register[wordCount];
+        for (int i = 0; i < wordCount; i++) {
+            registers[i] = new SimpleRegister(i);
+        }
+        response = new ReadMultipleRegistersResponse(registers);
+        response.setUnitID(1);
+        response.setTransactionID(1);
+    }
+
+    @Benchmark
+    public ModbusRequest decodeRequest() throws IOException {
+        input.reset(requestFrame, requestLength);
+        input.skip(7);
+        int functionCode = input.readUnsignedByte();
+        input.reset(requestFrame, requestLength);
+        ModbusRequest request = ModbusRequest.createModbusRequest(functionCode);
+        request.readFrom(input);
+        return request;
+    }
+
+    @Benchmark
+    public int encodeResponse() throws IOException {
+        output.reset();
+        response.writeTo(output);
+        return output.size();
+    }
+
+    @Benchmark
+    public int encodeResponseFrame() throws IOException {
+        ModbusTCPTransport.writeFrame(output, response, false, false);
+        return output.size();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.benchmark;
+
+import com.ghgande.j2mod.modbus.procimg.ArrayProcessImage;
+import com.ghgande.j2mod.modbus.procimg.Register;
+import com.ghgande.j2mod.modbus.procimg.SimpleProcessImage;
+import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks reading a full register range from the process image
+ * implementations
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessImageBenchmark {
+
+    private static final int SIZE = 10000;
+    private static final int COUNT = 125;
+
+    private SimpleProcessImage simpleImage;
+    private ArrayProcessImage arrayImage;
+
+    @Setup
+    public void setUp() {
+        simpleImage = new SimpleProcessImage(1);
+        arrayImage = new ArrayProcessImage(1, SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            simpleImage.addRegister(new SimpleRegister(i));
+            arrayImage.setRegisterValue(i, i);
+        }
+    }
+
+    @Benchmark
+    public Register[] simpleRegisterRange() {
+        return simpleImage.getRegisterRange(SIZE / 2, COUNT);
+    }
+
+    @Benchmark
+    public short[] arrayRegisterValues() {
+        short[] values = new short[COUNT];
+        arrayImage.getRegisterValues(SIZE / 2, COUNT, values, 0);
+        return values;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.benchmark;
+
+import com.ghgande.j2mod.modbus.facade.AbstractModbusMaster;
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMaster;
+import com.ghgande.j2mod.modbus.facade.ModbusUDPMaster;
+import com.ghgande.j2mod.modbus.procimg.Register;
+import com.ghgande.j2mod.modbus.procimg.SimpleProcessImage;
+import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
+import com.ghgande.j2mod.modbus.slave.ModbusSlave;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a loopback read of holding registers from a slave through the
+ * master facade
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+
+    private static final String LOCALHOST = "127.0.0.1";
+    private static final int PORT = 2602;
+    private static final int UNIT_ID = 1;
+
+    @Param({"tcp", "udp"})
+    private String transport;
+
+    @Param({"10"})
+    private int wordCount;
+
+    private ModbusSlave slave;
+    private AbstractModbusMaster master;
+
+    @Setup
+    public void setUp() throws Exception {
+        SimpleProcessImage image = new SimpleProcessImage(UNIT_ID);
+        for (int i = 0; i < wordCount; i++) {
+            image.addRegister(new SimpleRegister(i));
+        }
+        if ("udp".equals(transport)) {
+            slave = ModbusSlaveFactory.createUDPSlave(PORT);
+            master = new ModbusUDPMaster(LOCALHOST, PORT);
+        }
+        else {
+            slave = ModbusSlaveFactory.createTCPSlave(PORT, 5);
+            master = new ModbusTCPMaster(LOCALHOST, PORT);
+        }
+        slave.addProcessImage(UNIT_ID, image);
+        slave.open();
+        master.connect();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (master != null) {
+            master.disconnect();
+        }
+        if (slave != null) {
+            ModbusSlaveFactory.close(slave);
+        }
+    }
+
+    @Benchmark
+    public Register[] readMultipleRegisters() throws Exception {
+        return master.readMultipleRegisters(UNIT_ID, 0, wordCount);
+    }
+}
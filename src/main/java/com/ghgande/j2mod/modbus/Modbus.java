@@ -179,6 +179,24 @@ public interface Modbus {
      */
     int MAX_BITS = 2000;
 
+    /**
+     * Defines the maximum number of registers in a read of
+     * input or holding registers (<b>125</b>).
+     */
+    int MAX_REGISTERS = 125;
+
+    /**
+     * Defines the maximum number of coils in a single
+     * <tt>write multiple coils</tt> request (<b>1968</b>).
+     */
+    int MAX_WRITE_BITS = 1968;
+
+    /**
+     * Defines the maximum number of registers in a single
+     * <tt>write multiple registers</tt> request (<b>123</b>).
+     */
+    int MAX_WRITE_REGISTERS = 123;
+
     /**
      * Defines the Modbus slave exception offset that is added to the
      * function code, to flag an exception.
@@ -236,6 +254,13 @@ public interface Modbus {
      */
     int NEGATIVE_ACKNOWLEDGEMENT = 7;
 
+    /**
+     * Defines the Modbus slave exception type <tt>Gateway path unavailable</tt>.
+     * This exception code indicates that a Modbus gateway could not allocate
+     * a path to the target, e.g. because the path is overloaded.
+     */
+    int GATEWAY_PATH_UNAVAILABLE = 10;
+
     /**
      * Defines the Modbus slave exception type <tt>Gateway target failed to
      * respond</tt>.  This exception code indicates that a Modbus gateway
@@ -282,6 +307,12 @@ public interface Modbus {
      */
     int DEFAULT_TIMEOUT = 3000;
 
+    /**
+     * Defines the default size of the socket receive buffer
+     * of a UDP slave in bytes (=<tt>262144</tt>).
+     */
+    int DEFAULT_UDP_RECEIVE_BUFFER_SIZE = 262144;
+
     /**
      * Defines the sleep period between transaction retries
      * in milliseconds (=<tt>200</tt>).
@@ -337,6 +368,18 @@ public interface Modbus {
      */
     int MAX_TRANSACTION_ID = Short.MAX_VALUE;
 
+    /**
+     * Defines the default number of requests that a pipelined TCP
+     * master will keep in flight on a single connection.
+     */
+    int DEFAULT_PIPELINE_DEPTH = 16;
+
+    /**
+     * Defines the default number of requests that a gateway will queue
+     * for a single bus before it turns new ones away (=<tt>32</tt>).
+     */
+    int DEFAULT_GATEWAY_QUEUE_SIZE = 32;
+
     /**
      * Defines the serial encoding "ASCII".
      */
@@ -17,6 +17,7 @@ package com.ghgande.j2mod.modbus.facade;
 
 import com.ghgande.j2mod.modbus.Modbus;
 import com.ghgande.j2mod.modbus.ModbusException;
+import com.ghgande.j2mod.modbus.ModbusSlaveException;
 import com.ghgande.j2mod.modbus.io.AbstractModbusTransport;
 import com.ghgande.j2mod.modbus.io.ModbusTransaction;
 import com.ghgande.j2mod.modbus.msg.*;
@@ -24,11 +25,18 @@ import com.ghgande.j2mod.modbus.procimg.InputRegister;
 import com.ghgande.j2mod.modbus.procimg.Register;
 import com.ghgande.j2mod.modbus.util.BitVector;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
 /**
  * Modbus/TCP Master facade - common methods for all the facade implementations
  * The emphasis is in making callas to Modbus devices as simple as possible
  * for the most common Function Codes.
  * This class makes sure that no NPE is raised and that the methods are thread-safe.
+ * Each function code also has an <tt>Async</tt> variant that returns a
+ * <tt>CompletableFuture</tt> instead of blocking the caller.
  *
  * @author Steve O'Hara (4NG)
  * @version 2.0 (March 2016)
@@ -48,6 +56,7 @@ public abstract class AbstractModbusMaster {
     private WriteMultipleRegistersRequest writeMultipleRegistersRequest;
     private MaskWriteRegisterRequest maskWriteRegisterRequest;
     protected int timeout = Modbus.DEFAULT_TIMEOUT;
+    private ExecutorService asyncExecutor;
 
     /**
      * Sets the transaction to use
@@ -321,6 +330,43 @@ public abstract class AbstractModbusMaster {
                response.getOrMask() == maskWriteRegisterRequest.getOrMask();
     }
 
+    /**
+     * Reads a set of scattered points using as few requests as possible.
+     *
+     * Points on the same unit and table are coalesced into blocks that never
+     * exceed the limit of the function code. Holes of up to <tt>maxGap</tt>
+     * addresses between points are read through rather than split into
+     * another request.
+     *
+     * @param points the points to read.
+     * @param maxGap the largest number of unwanted addresses to read to join two blocks.
+     *
+     * @return the value of each point, registers as unsigned shorts and bits as 1 or 0.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public Map<ModbusReadPlanner.Point, Integer> readPoints(Collection<ModbusReadPlanner.Point> points, int maxGap) throws ModbusException {
+        ModbusReadPlanner planner = new ModbusReadPlanner();
+        planner.setMaxGap(maxGap);
+        return planner.execute(this, points);
+    }
+
+    /**
+     * Writes a batch of single points using as few requests as possible.
+     *
+     * Contiguous points on the same unit and table are merged into
+     * <tt>Write Multiple</tt> requests. A failed request doesn't stop the
+     * rest of the batch.
+     *
+     * @param batch the points to write.
+     *
+     * @return the outcome of each point.
+     */
+    public ModbusWriteBatch.Result writePoints(ModbusWriteBatch batch) {
+        return batch.commit(this);
+    }
+
     /**
      * Reads a given number of coil states from the slave.
      *
@@ -474,6 +520,241 @@ public abstract class AbstractModbusMaster {
         return maskWriteRegister(DEFAULT_UNIT_ID, ref, andMask, orMask);
     }
 
+    /**
+     * Reads a given number of coil states from the slave without blocking.
+     *
+     * @param unitId the slave unit id.
+     * @param ref    the offset of the coil to start reading from.
+     * @param count  the number of coil states to be read.
+     *
+     * @return a future completed with a <tt>BitVector</tt> holding the received coil states.
+     */
+    public CompletableFuture<BitVector> readCoilsAsync(int unitId, int ref, int count) {
+        ReadCoilsRequest request = new ReadCoilsRequest(ref, count);
+        request.setUnitID(unitId);
+        return executeAsync(request, response -> {
+            BitVector bv = ((ReadCoilsResponse)response).getCoils();
+            bv.forceSize(count);
+            return bv;
+        });
+    }
+
+    /**
+     * Writes a coil state to the slave without blocking.
+     *
+     * @param unitId the slave unit id.
+     * @param ref    the offset of the coil to be written.
+     * @param state  the coil state to be written.
+     *
+     * @return a future completed with the state of the coil as returned from the slave.
+     */
+    public CompletableFuture<Boolean> writeCoilAsync(int unitId, int ref, boolean state) {
+        WriteCoilRequest request = new WriteCoilRequest(ref, state);
+        request.setUnitID(unitId);
+        return executeAsync(request, response -> ((WriteCoilResponse)response).getCoil());
+    }
+
+    /**
+     * Writes a given number of coil states to the slave without blocking.
+     *
+     * @param unitId the slave unit id.
+     * @param ref    the offset of the coil to start writing to.
+     * @param coils  a <tt>BitVector</tt> which holds the coil states to be written.
+     *
+     * @return a future completed when the slave has acknowledged the write.
+     */
+    public CompletableFuture<Void> writeMultipleCoilsAsync(int unitId, int ref, BitVector coils) {
+        WriteMultipleCoilsRequest request = new WriteMultipleCoilsRequest(ref, coils);
+        request.setUnitID(unitId);
+        return executeAsync(request, response -> null);
+    }
+
+    /**
+     * Reads a given number of input discrete states from the slave without blocking.
+     *
+     * @param unitId the slave unit id.
+     * @param ref    the offset of the input discrete to start reading from.
+     * @param count  the number of input discrete states to be read.
+     *
+     * @return a future completed with a <tt>BitVector</tt> holding the received input discrete states.
+     */
+    public CompletableFuture<BitVector> readInputDiscretesAsync(int unitId, int ref, int count) {
+        ReadInputDiscretesRequest request = new ReadInputDiscretesRequest(ref, count);
+        request.setUnitID(unitId);
+        return executeAsync(request, response -> {
+            BitVector bv = ((ReadInputDiscretesResponse)response).getDiscretes();
+            bv.forceSize(count);
+            return bv;
+        });
+    }
+
+    /**
+     * Reads a given number of input registers from the slave without blocking.
+     *
+     * @param unitId the slave unit id.
+     * @param ref    the offset of the input register to start reading from.
+     * @param count  the number of input registers to be read.
+     *
+     * @return a future completed with the received input registers.
+     */
+    public CompletableFuture<InputRegister[]> readInputRegistersAsync(int unitId, int ref, int count) {
+        ReadInputRegistersRequest request = new ReadInputRegistersRequest(ref, count);
+        request.setUnitID(unitId);
+        return executeAsync(request, response -> ((ReadInputRegistersResponse)response).getRegisters());
+    }
+
+    /**
+     * Reads a given number of registers from the slave without blocking.
+     *
+     * @param unitId the slave unit id.
+     * @param ref    the offset of the register to start reading from.
+     * @param count  the number of registers to be read.
+     *
+     * @return a future completed with the received registers.
+     */
+    public CompletableFuture<Register[]> readMultipleRegistersAsync(int unitId, int ref, int count) {
+        ReadMultipleRegistersRequest request = new ReadMultipleRegistersRequest(ref, count);
+        request.setUnitID(unitId);
+        return executeAsync(request, response -> ((ReadMultipleRegistersResponse)response).getRegisters());
+    }
+
+    /**
+     * Writes a single register to the slave without blocking.
+     *
+     * @param unitId   the slave unit id.
+     * @param ref      the offset of the register to be written.
+     * @param register a <tt>Register</tt> holding the value of the register to be written.
+     *
+     * @return a future completed with the value of the register as returned from the slave.
+     */
+    public CompletableFuture<Integer> writeSingleRegisterAsync(int unitId, int ref, Register register) {
+        WriteSingleRegisterRequest request = new WriteSingleRegisterRequest(ref, register);
+        request.setUnitID(unitId);
+        return executeAsync(request, response -> ((WriteSingleRegisterResponse)response).getRegisterValue());
+    }
+
+    /**
+     * Writes a number of registers to the slave without blocking.
+     *
+     * @param unitId    the slave unit id.
+     * @param ref       the offset of the register to start writing to.
+     * @param registers a <tt>Register[]</tt> holding the values of the registers to be written.
+     *
+     * @return a future completed with the number of registers that have been written.
+     */
+    public CompletableFuture<Integer> writeMultipleRegistersAsync(int unitId, int ref, Register[] registers) {
+        WriteMultipleRegistersRequest request = new WriteMultipleRegistersRequest(ref, registers);
+        request.setUnitID(unitId);
+        return executeAsync(request, response -> ((WriteMultipleRegistersResponse)response).getWordCount());
+    }
+
+    /**
+     * Mask write a single register to the slave without blocking.
+     *
+     * @param unitId  the slave unit id.
+     * @param ref     the offset of the register to start writing to.
+     * @param andMask AND mask.
+     * @param orMask  OR mask.
+     *
+     * @return a future completed with true if the response data equals the request data.
+     */
+    public CompletableFuture<Boolean> maskWriteRegisterAsync(int unitId, int ref, int andMask, int orMask) {
+        MaskWriteRegisterRequest request = new MaskWriteRegisterRequest(ref, andMask, orMask);
+        request.setUnitID(unitId);
+        return executeAsync(request, response -> {
+            MaskWriteRegisterResponse maskResponse = (MaskWriteRegisterResponse)response;
+            return maskResponse.getReference() == ref &&
+                   maskResponse.getAndMask() == andMask &&
+                   maskResponse.getOrMask() == orMask;
+        });
+    }
+
+    /**
+     * Sends the request without blocking the caller.
+     * <p>
+     * Masters whose transport can have several requests in flight override this
+     * so that the future is completed by the transport itself. The default
+     * implementation queues the request to a single background thread that
+     * executes it using the master's transaction, so requests are still sent one
+     * at a time but the caller is free to carry on.
+     *
+     * @param request Request to send
+     *
+     * @return Future completed with the raw response from the slave
+     */
+    protected CompletableFuture<ModbusResponse> executeAsync(ModbusRequest request) {
+        CompletableFuture<ModbusResponse> future = new CompletableFuture<ModbusResponse>();
+        try {
+            getAsyncExecutor().execute(() -> {
+                try {
+                    future.complete(execute(request));
+                }
+                catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            future.completeExceptionally(new ModbusException("Cannot queue request - %s", e.getMessage()));
+        }
+        return future;
+    }
+
+    /**
+     * Sends the request without blocking and converts the response
+     *
+     * @param request   Request to send
+     * @param converter Converts the response into the result
+     * @param <T>       Type of the result
+     *
+     * @return Future result - fails with a <tt>ModbusSlaveException</tt> if the slave returns an exception
+     */
+    private <T> CompletableFuture<T> executeAsync(ModbusRequest request, Function<ModbusResponse, T> converter) {
+        return executeAsync(request).thenApply(response -> {
+            if (response instanceof ExceptionResponse) {
+                throw new CompletionException(new ModbusSlaveException(((ExceptionResponse)response).getExceptionCode()));
+            }
+            return converter.apply(response);
+        });
+    }
+
+    /**
+     * Executes the request using the transaction of this master
+     *
+     * @param request Request to execute
+     *
+     * @return Response from the slave
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    private synchronized ModbusResponse execute(ModbusRequest request) throws ModbusException {
+        checkTransaction();
+        transaction.setRequest(request);
+        transaction.execute();
+        return getAndCheckResponse();
+    }
+
+    /**
+     * Returns the executor used to run asynchronous requests for masters
+     * that can only have one request in flight. The thread is a daemon and
+     * is discarded when it has been idle for a while.
+     *
+     * @return Executor
+     */
+    private synchronized ExecutorService getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+                Thread thread = new Thread(runnable, String.format("%s Async", getClass().getSimpleName()));
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+            asyncExecutor = executor;
+        }
+        return asyncExecutor;
+    }
+
     /**
      * Reads the response from the transaction
      * If there is no response, then it throws an error
@@ -0,0 +1,857 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.facade;
+
+import com.ghgande.j2mod.modbus.ModbusException;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Point;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Read;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class that scans groups of points on a schedule.
+ * <p>
+ * Each {@link Group} names a device, the points to read from it and how often
+ * to scan them. Cycle <tt>n</tt> of a group is released at
+ * <tt>start + n * period</tt> and is due by the release of the next one. A
+ * fixed set of worker threads always scans the released group with the
+ * earliest deadline first, so fast groups are not held up behind slow ones,
+ * and a group is never scanned by two workers at once.
+ * <p>
+ * Scans borrow their connection from a {@link ModbusTCPMasterPool}, which
+ * keeps the connections open between cycles and caps how many are opened to
+ * each device. The points of a group are merged into as few reads as possible
+ * by a {@link ModbusReadPlanner}.
+ * <p>
+ * If a scan takes longer than the period, the cycles that were missed are
+ * handled according to the {@link OverrunPolicy}. The lateness and jitter of
+ * the scans are recorded in the {@link Stats} of each group.
+ * <pre>
+ *     ModbusPoller poller = new ModbusPoller(pool, 4);
+ *     poller.addGroup(new ModbusPoller.Group("boiler", "10.0.0.5", 502, 1000, listener)
+ *             .addBlock(1, Table.HOLDING_REGISTER, 0, 50));
+ *     poller.start();
+ * </pre>
+ */
+public class ModbusPoller {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModbusPoller.class);
+
+    /**
+     * What to do with the cycles of a group that were due while its previous scan was running
+     */
+    public enum OverrunPolicy {
+        /**
+         * Drop every cycle that has already been released and wait for the next one
+         */
+        SKIP,
+
+        /**
+         * Merge the missed cycles into a single scan that runs straight away
+         */
+        MERGE
+    }
+
+    /**
+     * Receives the results of the scans of a group. The methods are called on
+     * the worker thread, so they should return quickly.
+     */
+    public interface Listener {
+
+        /**
+         * Called when every read of a scan succeeded
+         *
+         * @param group  Group that was scanned
+         * @param values Value of each point, registers as unsigned shorts and bits as 1 or 0
+         */
+        void scanCompleted(Group group, Map<Point, Integer> values);
+
+        /**
+         * Called when a scan failed
+         *
+         * @param group Group that was scanned
+         * @param error Reason for the failure
+         */
+        void scanFailed(Group group, ModbusException error);
+    }
+
+    private final ModbusTCPMasterPool pool;
+    private final int workerThreads;
+    private final ModbusReadPlanner planner = new ModbusReadPlanner();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final PriorityQueue<Group> waiting = new PriorityQueue<Group>(11, (a, b) -> Long.signum(a.release - b.release));
+    private final PriorityQueue<Group> ready = new PriorityQueue<Group>(11, (a, b) -> Long.signum(a.deadline - b.deadline));
+    private final Set<Group> groups = new LinkedHashSet<Group>();
+    private volatile OverrunPolicy overrunPolicy = OverrunPolicy.MERGE;
+    private boolean running;
+    private Thread[] workers;
+
+    /**
+     * Constructs a poller
+     *
+     * @param pool          Pool to borrow the connections to the devices from
+     * @param workerThreads Maximum number of groups scanned at the same time
+     */
+    public ModbusPoller(ModbusTCPMasterPool pool, int workerThreads) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool is required");
+        }
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("workerThreads must be > 0: " + workerThreads);
+        }
+        this.pool = pool;
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * Returns the planner used to merge the points of a group into reads. Its
+     * gap can be widened for devices that allow reads across unused addresses.
+     *
+     * @return Planner
+     */
+    public ModbusReadPlanner getPlanner() {
+        return planner;
+    }
+
+    /**
+     * Returns what is done with cycles that were missed because a scan overran
+     *
+     * @return Policy
+     */
+    public OverrunPolicy getOverrunPolicy() {
+        return overrunPolicy;
+    }
+
+    /**
+     * Sets what is done with cycles that were missed because a scan overran
+     *
+     * @param overrunPolicy Policy
+     */
+    public void setOverrunPolicy(OverrunPolicy overrunPolicy) {
+        if (overrunPolicy == null) {
+            throw new IllegalArgumentException("Overrun policy is required");
+        }
+        this.overrunPolicy = overrunPolicy;
+    }
+
+    /**
+     * Adds a group to the schedule. Its first cycle is released straight away.
+     *
+     * @param group Group to scan
+     */
+    public void addGroup(Group group) {
+        lock.lock();
+        try {
+            if (group.poller != null) {
+                throw new IllegalArgumentException(String.format("Group %s has already been added to a poller", group.getName()));
+            }
+            group.poller = this;
+            groups.add(group);
+
+            // A group removed and added back while it is being scanned is rescheduled when the scan ends
+            if (group.scanner != this) {
+                group.release = System.nanoTime();
+                group.deadline = group.release + group.periodNanos;
+                waiting.add(group);
+                available.signal();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a group from the schedule. A scan of the group that is already
+     * running is allowed to finish.
+     *
+     * @param group Group to remove
+     */
+    public void removeGroup(Group group) {
+        lock.lock();
+        try {
+            if (group.poller == this) {
+                group.poller = null;
+                groups.remove(group);
+                waiting.remove(group);
+                ready.remove(group);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the groups on the schedule
+     *
+     * @return Groups in the order they were added
+     */
+    public List<Group> getGroups() {
+        lock.lock();
+        try {
+            return new ArrayList<Group>(groups);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts the worker threads
+     */
+    public void start() {
+        lock.lock();
+        try {
+            if (running) {
+                return;
+            }
+            running = true;
+            workers = new Thread[workerThreads];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new Thread(new Worker(), String.format("Modbus Poller Worker %d", i));
+                workers[i].setDaemon(true);
+                workers[i].start();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the worker threads once their current scans have finished. The
+     * groups stay on the schedule, so the poller can be started again.
+     */
+    public void stop() {
+        Thread[] current;
+        lock.lock();
+        try {
+            if (!running) {
+                return;
+            }
+            running = false;
+            current = workers;
+            workers = null;
+            available.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        for (Thread worker : current) {
+            try {
+                worker.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the worker threads are running
+     *
+     * @return True if started
+     */
+    public boolean isRunning() {
+        lock.lock();
+        try {
+            return running;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the released group with the earliest deadline
+     *
+     * @return Group to scan or null if the poller has been stopped
+     *
+     * @throws InterruptedException If the worker is interrupted
+     */
+    private Group next() throws InterruptedException {
+        lock.lock();
+        try {
+            while (running) {
+                long now = System.nanoTime();
+                while (!waiting.isEmpty() && waiting.peek().release - now <= 0) {
+                    ready.add(waiting.poll());
+                }
+                Group group = ready.poll();
+                if (group != null) {
+                    group.scanner = this;
+                    return group;
+                }
+                if (waiting.isEmpty()) {
+                    available.await();
+                }
+                else {
+                    available.awaitNanos(waiting.peek().release - now);
+                }
+            }
+            return null;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts a group back on the schedule for its next cycle, dealing with any
+     * cycles that were missed while it was being scanned
+     *
+     * @param group Group that has been scanned
+     */
+    private void reschedule(Group group) {
+        lock.lock();
+        try {
+            group.scanner = null;
+            if (group.poller != this) {
+                return;
+            }
+            long period = group.periodNanos;
+            long next = group.release + period;
+            long now = System.nanoTime();
+            long missed = 0;
+            if (overrunPolicy == OverrunPolicy.SKIP) {
+                if (now - next >= 0) {
+                    missed = (now - next) / period + 1;
+                }
+            }
+            else if (now - next >= period) {
+                missed = (now - next) / period;
+            }
+            if (missed > 0) {
+                logger.debug("Group {} overran its period of {} ms - {} cycles missed", group.getName(), group.getPeriodMillis(), missed);
+                next += missed * period;
+            }
+            group.stats.cyclesMissed(missed);
+            group.release = next;
+            group.deadline = next + period;
+            waiting.add(group);
+            available.signal();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A set of points on one device that are scanned together at a fixed period
+     */
+    public static class Group {
+        private final String name;
+        private final String host;
+        private final int port;
+        private final long periodMillis;
+        private final long periodNanos;
+        private final Listener listener;
+        private final Set<Point> points = new LinkedHashSet<Point>();
+        private final Stats stats = new Stats();
+        private Plan plan;
+        private Plan scanned;
+
+        // Scheduling state, guarded by the lock of the poller
+        private ModbusPoller poller;
+        private long release;
+        private long deadline;
+        private ModbusPoller scanner;
+
+        /**
+         * Creates a group
+         *
+         * @param name         Name of the group, for logging
+         * @param host         Host name or address of the device
+         * @param port         Port of the device
+         * @param periodMillis Scan period in milliseconds
+         * @param listener     Listener to receive the results of the scans
+         */
+        public Group(String name, String host, int port, long periodMillis, Listener listener) {
+            this(name, host, port, periodMillis, listener, true);
+        }
+
+        /**
+         * Creates a group for a subclass that handles the results of the scans itself
+         * by overriding {@link #scanCompleted(List, int[][])} and {@link #scanFailed(ModbusException)}
+         *
+         * @param name         Name of the group, for logging
+         * @param host         Host name or address of the device
+         * @param port         Port of the device
+         * @param periodMillis Scan period in milliseconds
+         */
+        protected Group(String name, String host, int port, long periodMillis) {
+            this(name, host, port, periodMillis, null, false);
+        }
+
+        private Group(String name, String host, int port, long periodMillis, Listener listener, boolean listenerRequired) {
+            if (host == null || host.isEmpty()) {
+                throw new IllegalArgumentException("Host is required");
+            }
+            if (periodMillis <= 0) {
+                throw new IllegalArgumentException("periodMillis must be > 0: " + periodMillis);
+            }
+            if (listenerRequired && listener == null) {
+                throw new IllegalArgumentException("Listener is required");
+            }
+            this.name = name;
+            this.host = host;
+            this.port = port;
+            this.periodMillis = periodMillis;
+            this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+            this.listener = listener;
+        }
+
+        /**
+         * Adds a point to the scan
+         *
+         * @param point Point to read
+         *
+         * @return This group
+         */
+        public synchronized Group addPoint(Point point) {
+            points.add(point);
+            plan = null;
+            return this;
+        }
+
+        /**
+         * Removes a point from the scan
+         *
+         * @param point Point to stop reading
+         *
+         * @return This group
+         */
+        public synchronized Group removePoint(Point point) {
+            if (points.remove(point)) {
+                plan = null;
+            }
+            return this;
+        }
+
+        /**
+         * Adds a block of consecutive points to the scan
+         *
+         * @param unitId    Unit ID
+         * @param table     Table the points are in
+         * @param reference Address of the first point
+         * @param count     Number of points
+         *
+         * @return This group
+         */
+        public synchronized Group addBlock(int unitId, Table table, int reference, int count) {
+            for (int i = 0; i < count; i++) {
+                points.add(new Point(unitId, table, reference + i));
+            }
+            plan = null;
+            return this;
+        }
+
+        /**
+         * @return Name of the group
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return Host name or address of the device
+         */
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * @return Port of the device
+         */
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * @return Scan period in milliseconds
+         */
+        public long getPeriodMillis() {
+            return periodMillis;
+        }
+
+        /**
+         * @return Points scanned
+         */
+        public synchronized Set<Point> getPoints() {
+            return Collections.unmodifiableSet(new LinkedHashSet<Point>(points));
+        }
+
+        /**
+         * @return Snapshot of the scan statistics
+         */
+        public Stats getStats() {
+            return stats.snapshot();
+        }
+
+        /**
+         * Returns the reads for the points, planning them again if the points have changed
+         *
+         * @param planner Planner to use
+         *
+         * @return Plan
+         */
+        private synchronized Plan getPlan(ModbusReadPlanner planner) {
+            if (plan == null) {
+                plan = new Plan(new HashSet<Point>(points), planner.plan(points));
+            }
+            return plan;
+        }
+
+        /**
+         * Reads every point in the group into the blocks of the plan
+         *
+         * @param planner Planner to use
+         * @param pool    Pool to borrow the connection from
+         *
+         * @return Plan holding the values that were read
+         *
+         * @throws ModbusException If any read fails
+         */
+        private Plan scan(ModbusReadPlanner planner, ModbusTCPMasterPool pool) throws ModbusException {
+            Plan current = getPlan(planner);
+            return pool.execute(host, port, master -> {
+                for (int i = 0; i < current.reads.size(); i++) {
+                    current.reads.get(i).execute(master, current.blocks[i]);
+                }
+                scanned = current;
+                return current;
+            });
+        }
+
+        /**
+         * Called on the worker thread when every read of a scan succeeded.
+         * Passes the value of each point to the listener of the group.
+         * <p>
+         * The same block arrays are filled by each scan until the points of the
+         * group change, so a subclass can compare them against its own snapshot
+         * without allocating.
+         *
+         * @param reads  Reads that were carried out, the same list until the points change
+         * @param blocks Values of each read, registers as unsigned shorts and bits as 1 or 0
+         */
+        protected void scanCompleted(List<Read> reads, int[][] blocks) {
+            if (listener == null) {
+                return;
+            }
+            Set<Point> wanted = scanned.wanted;
+            Map<Point, Integer> values = new HashMap<Point, Integer>(wanted.size() * 2);
+            for (int r = 0; r < reads.size(); r++) {
+                Read read = reads.get(r);
+                for (int i = 0; i < read.getCount(); i++) {
+                    Point point = new Point(read.getUnitId(), read.getTable(), read.getReference() + i);
+                    if (wanted.contains(point)) {
+                        values.put(point, blocks[r][i]);
+                    }
+                }
+            }
+            listener.scanCompleted(this, values);
+        }
+
+        /**
+         * Called on the worker thread when a scan failed. Passes the error to the
+         * listener of the group.
+         *
+         * @param error Reason for the failure
+         */
+        protected void scanFailed(ModbusException error) {
+            if (listener != null) {
+                listener.scanFailed(this, error);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%s:%d every %d ms)", name, host, port, periodMillis);
+        }
+    }
+
+    /**
+     * The reads planned for the points of a group
+     */
+    private static class Plan {
+        private final Set<Point> wanted;
+        private final List<Read> reads;
+        private final int[][] blocks;
+
+        Plan(Set<Point> wanted, List<Read> reads) {
+            this.wanted = wanted;
+            this.reads = Collections.unmodifiableList(reads);
+            blocks = new int[reads.size()][];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = new int[reads.get(i).getCount()];
+            }
+        }
+    }
+
+    /**
+     * Scan statistics of a group. Lateness is how long after its release a
+     * cycle started, and jitter is how far the time between the starts of
+     * two consecutive cycles strayed from the period.
+     */
+    public static class Stats {
+        private long scans;
+        private long failures;
+        private long missedCycles;
+        private long deadlineMisses;
+        private long lastLateness;
+        private long maxLateness;
+        private long totalLateness;
+        private long maxJitter;
+        private long totalJitter;
+        private long jitterSamples;
+        private long lastDuration;
+        private long maxDuration;
+        private long lastStart;
+        private boolean consecutive;
+
+        /**
+         * Records a scan
+         *
+         * @param release  Time the cycle was released
+         * @param deadline Time the cycle was due
+         * @param period   Period of the group
+         * @param start    Time the scan started
+         * @param end      Time the scan ended
+         * @param failed   True if the scan failed
+         */
+        private synchronized void scanned(long release, long deadline, long period, long start, long end, boolean failed) {
+            scans++;
+            if (failed) {
+                failures++;
+            }
+            if (end - deadline > 0) {
+                deadlineMisses++;
+            }
+            lastLateness = Math.max(0, start - release);
+            maxLateness = Math.max(maxLateness, lastLateness);
+            totalLateness += lastLateness;
+            if (consecutive) {
+                long jitter = Math.abs(start - lastStart - period);
+                maxJitter = Math.max(maxJitter, jitter);
+                totalJitter += jitter;
+                jitterSamples++;
+            }
+            lastStart = start;
+            consecutive = true;
+            lastDuration = end - start;
+            maxDuration = Math.max(maxDuration, lastDuration);
+        }
+
+        /**
+         * Records cycles that were not scanned
+         *
+         * @param count Number of cycles
+         */
+        private synchronized void cyclesMissed(long count) {
+            if (count > 0) {
+                missedCycles += count;
+                consecutive = false;
+            }
+        }
+
+        /**
+         * @return Copy of these statistics
+         */
+        private synchronized Stats snapshot() {
+            Stats copy = new Stats();
+            copy.scans = scans;
+            copy.failures = failures;
+            copy.missedCycles = missedCycles;
+            copy.deadlineMisses = deadlineMisses;
+            copy.lastLateness = lastLateness;
+            copy.maxLateness = maxLateness;
+            copy.totalLateness = totalLateness;
+            copy.maxJitter = maxJitter;
+            copy.totalJitter = totalJitter;
+            copy.jitterSamples = jitterSamples;
+            copy.lastDuration = lastDuration;
+            copy.maxDuration = maxDuration;
+            return copy;
+        }
+
+        /**
+         * @return Number of scans carried out
+         */
+        public long getScans() {
+            return scans;
+        }
+
+        /**
+         * @return Number of scans that failed
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return Number of cycles skipped or merged because a scan overran
+         */
+        public long getMissedCycles() {
+            return missedCycles;
+        }
+
+        /**
+         * @return Number of scans that finished after their deadline
+         */
+        public long getDeadlineMisses() {
+            return deadlineMisses;
+        }
+
+        /**
+         * @return Lateness of the last scan in nanoseconds
+         */
+        public long getLastLatenessNanos() {
+            return lastLateness;
+        }
+
+        /**
+         * @return Greatest lateness in nanoseconds
+         */
+        public long getMaxLatenessNanos() {
+            return maxLateness;
+        }
+
+        /**
+         * @return Mean lateness in nanoseconds
+         */
+        public long getMeanLatenessNanos() {
+            return scans == 0 ? 0 : totalLateness / scans;
+        }
+
+        /**
+         * @return Greatest jitter in nanoseconds
+         */
+        public long getMaxJitterNanos() {
+            return maxJitter;
+        }
+
+        /**
+         * @return Mean jitter in nanoseconds
+         */
+        public long getMeanJitterNanos() {
+            return jitterSamples == 0 ? 0 : totalJitter / jitterSamples;
+        }
+
+        /**
+         * @return Duration of the last scan in nanoseconds
+         */
+        public long getLastDurationNanos() {
+            return lastDuration;
+        }
+
+        /**
+         * @return Longest scan in nanoseconds
+         */
+        public long getMaxDurationNanos() {
+            return maxDuration;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("scans=%d failures=%d missed=%d deadlineMisses=%d meanLateness=%dus maxLateness=%dus meanJitter=%dus maxJitter=%dus maxDuration=%dus",
+                    scans, failures, missedCycles, deadlineMisses,
+                    TimeUnit.NANOSECONDS.toMicros(getMeanLatenessNanos()), TimeUnit.NANOSECONDS.toMicros(maxLateness),
+                    TimeUnit.NANOSECONDS.toMicros(getMeanJitterNanos()), TimeUnit.NANOSECONDS.toMicros(maxJitter),
+                    TimeUnit.NANOSECONDS.toMicros(maxDuration));
+        }
+    }
+
+    /**
+     * A thread that scans the released group with the earliest deadline
+     */
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                Group group;
+                while ((group = next()) != null) {
+                    try {
+                        scan(group);
+                    }
+                    catch (RuntimeException e) {
+                        logger.error("Scan of group {} failed", group.getName(), e);
+                    }
+                    finally {
+                        reschedule(group);
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Scans a group and passes the result to its listener
+         *
+         * @param group Group to scan
+         */
+        private void scan(Group group) {
+            long release;
+            long deadline;
+            lock.lock();
+            try {
+                release = group.release;
+                deadline = group.deadline;
+            }
+            finally {
+                lock.unlock();
+            }
+            long start = System.nanoTime();
+            Plan plan = null;
+            ModbusException error = null;
+            try {
+                plan = group.scan(planner, pool);
+            }
+            catch (ModbusException e) {
+                logger.debug("Scan of group {} failed - {}", group.getName(), e.getMessage());
+                error = e;
+            }
+            catch (RuntimeException e) {
+                logger.error("Scan of group {} failed", group.getName(), e);
+                error = new ModbusException("Scan failed - " + e.getMessage(), e);
+            }
+            long end = System.nanoTime();
+            group.stats.scanned(release, deadline, group.periodNanos, start, end, error != null);
+            try {
+                if (error == null) {
+                    group.scanCompleted(plan.reads, plan.blocks);
+                }
+                else {
+                    group.scanFailed(error);
+                }
+            }
+            catch (RuntimeException e) {
+                logger.error("Listener of group {} failed", group.getName(), e);
+            }
+        }
+    }
+}
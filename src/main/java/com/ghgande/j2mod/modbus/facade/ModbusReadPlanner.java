@@ -0,0 +1,329 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.facade;
+
+import com.ghgande.j2mod.modbus.Modbus;
+import com.ghgande.j2mod.modbus.ModbusException;
+import com.ghgande.j2mod.modbus.procimg.InputRegister;
+import com.ghgande.j2mod.modbus.util.BitVector;
+
+import java.util.*;
+
+/**
+ * Class that plans the reads needed to fetch a set of scattered points.
+ * <p>
+ * Points on the same unit and table are sorted and merged into as few
+ * <tt>Read</tt> blocks as possible. A block never exceeds the limit of the
+ * function code, {@link Modbus#MAX_REGISTERS} registers or {@link Modbus#MAX_BITS}
+ * bits, and holes of up to <tt>maxGap</tt> unwanted addresses are read through
+ * to save a round trip. Holes are only bridged if the slave will accept a read
+ * of the addresses in between, so the gap defaults to 0.
+ * <p>
+ * {@link #execute(AbstractModbusMaster, Collection)} runs the plan against a
+ * master and scatters the values back to the points that asked for them.
+ */
+public class ModbusReadPlanner {
+
+    /**
+     * The Modbus data tables a point can be read from
+     */
+    public enum Table {
+        COIL(Modbus.MAX_BITS),
+        DISCRETE_INPUT(Modbus.MAX_BITS),
+        INPUT_REGISTER(Modbus.MAX_REGISTERS),
+        HOLDING_REGISTER(Modbus.MAX_REGISTERS);
+
+        private final int maxCount;
+
+        Table(int maxCount) {
+            this.maxCount = maxCount;
+        }
+
+        /**
+         * Returns the largest number of points a single read of this table can fetch
+         *
+         * @return Maximum count
+         */
+        public int getMaxCount() {
+            return maxCount;
+        }
+    }
+
+    private int maxGap = 0;
+
+    /**
+     * Returns the largest number of unwanted addresses that will be read to
+     * join two blocks
+     *
+     * @return Maximum gap
+     */
+    public int getMaxGap() {
+        return maxGap;
+    }
+
+    /**
+     * Sets the largest number of unwanted addresses that will be read to
+     * join two blocks
+     *
+     * @param maxGap Maximum gap
+     */
+    public void setMaxGap(int maxGap) {
+        if (maxGap < 0) {
+            throw new IllegalArgumentException("Maximum gap cannot be negative");
+        }
+        this.maxGap = maxGap;
+    }
+
+    /**
+     * Builds the reads needed to fetch the points
+     *
+     * @param points Points to read
+     *
+     * @return Reads ordered by unit, table and reference
+     */
+    public List<Read> plan(Collection<Point> points) {
+        Map<Integer, Map<Table, TreeSet<Integer>>> grouped = new TreeMap<Integer, Map<Table, TreeSet<Integer>>>();
+        for (Point point : points) {
+            grouped.computeIfAbsent(point.getUnitId(), unit -> new EnumMap<Table, TreeSet<Integer>>(Table.class))
+                    .computeIfAbsent(point.getTable(), table -> new TreeSet<Integer>())
+                    .add(point.getAddress());
+        }
+
+        List<Read> reads = new ArrayList<Read>();
+        for (Map.Entry<Integer, Map<Table, TreeSet<Integer>>> unit : grouped.entrySet()) {
+            for (Map.Entry<Table, TreeSet<Integer>> table : unit.getValue().entrySet()) {
+                int maxCount = table.getKey().getMaxCount();
+                int start = -1;
+                int end = -1;
+                for (int address : table.getValue()) {
+                    if (start >= 0 && address - end - 1 <= maxGap && address - start < maxCount) {
+                        end = address;
+                    }
+                    else {
+                        if (start >= 0) {
+                            reads.add(new Read(unit.getKey(), table.getKey(), start, end - start + 1));
+                        }
+                        start = address;
+                        end = address;
+                    }
+                }
+                if (start >= 0) {
+                    reads.add(new Read(unit.getKey(), table.getKey(), start, end - start + 1));
+                }
+            }
+        }
+        return reads;
+    }
+
+    /**
+     * Plans and executes the reads for the points. Register values are
+     * returned as unsigned shorts and bits as 1 or 0.
+     *
+     * @param master Master to read with
+     * @param points Points to read
+     *
+     * @return Value of each point
+     *
+     * @throws ModbusException If any read fails
+     */
+    public Map<Point, Integer> execute(AbstractModbusMaster master, Collection<Point> points) throws ModbusException {
+        Set<Point> wanted = new HashSet<Point>(points);
+        Map<Point, Integer> values = new HashMap<Point, Integer>();
+        for (Read read : plan(wanted)) {
+            int[] block = read.execute(master);
+            for (int i = 0; i < block.length; i++) {
+                Point point = new Point(read.getUnitId(), read.getTable(), read.getReference() + i);
+                if (wanted.contains(point)) {
+                    values.put(point, block[i]);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * A single addressable point on a unit
+     */
+    public static class Point {
+        private final int unitId;
+        private final Table table;
+        private final int address;
+
+        /**
+         * Creates a point
+         *
+         * @param unitId  Unit ID
+         * @param table   Table the point is in
+         * @param address Address of the point
+         */
+        public Point(int unitId, Table table, int address) {
+            if (table == null) {
+                throw new IllegalArgumentException("Table is required");
+            }
+            if (address < 0 || address > 0xFFFF) {
+                throw new IllegalArgumentException("Address must be between 0 and 65535");
+            }
+            this.unitId = unitId;
+            this.table = table;
+            this.address = address;
+        }
+
+        /**
+         * @return Unit ID
+         */
+        public int getUnitId() {
+            return unitId;
+        }
+
+        /**
+         * @return Table the point is in
+         */
+        public Table getTable() {
+            return table;
+        }
+
+        /**
+         * @return Address of the point
+         */
+        public int getAddress() {
+            return address;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Point)) {
+                return false;
+            }
+            Point point = (Point)o;
+            return unitId == point.unitId && address == point.address && table == point.table;
+        }
+
+        @Override
+        public int hashCode() {
+            return (unitId * 31 + table.ordinal()) * 65537 + address;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d:%s:%d", unitId, table, address);
+        }
+    }
+
+    /**
+     * A contiguous read of one table on one unit
+     */
+    public static class Read {
+        private final int unitId;
+        private final Table table;
+        private final int reference;
+        private final int count;
+
+        Read(int unitId, Table table, int reference, int count) {
+            this.unitId = unitId;
+            this.table = table;
+            this.reference = reference;
+            this.count = count;
+        }
+
+        /**
+         * @return Unit ID
+         */
+        public int getUnitId() {
+            return unitId;
+        }
+
+        /**
+         * @return Table to read
+         */
+        public Table getTable() {
+            return table;
+        }
+
+        /**
+         * @return Reference of the first point
+         */
+        public int getReference() {
+            return reference;
+        }
+
+        /**
+         * @return Number of points to read
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Executes the read with the function code for the table
+         *
+         * @param master Master to read with
+         *
+         * @return Values read, bits as 1 or 0
+         *
+         * @throws ModbusException If the read fails
+         */
+        int[] execute(AbstractModbusMaster master) throws ModbusException {
+            int[] values = new int[count];
+            execute(master, values);
+            return values;
+        }
+
+        /**
+         * Executes the read with the function code for the table into an existing array
+         *
+         * @param master Master to read with
+         * @param values Array of at least <tt>count</tt> elements to hold the values, bits as 1 or 0
+         *
+         * @throws ModbusException If the read fails
+         */
+        void execute(AbstractModbusMaster master, int[] values) throws ModbusException {
+            switch (table) {
+                case COIL:
+                    toValues(master.readCoils(unitId, reference, count), values);
+                    break;
+                case DISCRETE_INPUT:
+                    toValues(master.readInputDiscretes(unitId, reference, count), values);
+                    break;
+                case INPUT_REGISTER:
+                    toValues(master.readInputRegisters(unitId, reference, count), values);
+                    break;
+                default:
+                    toValues(master.readMultipleRegisters(unitId, reference, count), values);
+                    break;
+            }
+        }
+
+        private void toValues(BitVector bits, int[] values) {
+            for (int i = 0; i < count; i++) {
+                values[i] = bits.getBit(i) ? 1 : 0;
+            }
+        }
+
+        private void toValues(InputRegister[] registers, int[] values) {
+            for (int i = 0; i < count && i < registers.length; i++) {
+                values[i] = registers[i].toUnsignedShort();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d:%s:%d+%d", unitId, table, reference, count);
+        }
+    }
+}
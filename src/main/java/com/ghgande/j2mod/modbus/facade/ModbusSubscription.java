@@ -0,0 +1,394 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.facade;
+
+import com.ghgande.j2mod.modbus.ModbusException;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Point;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Read;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Poll group that only reports the points whose values have changed.
+ * <p>
+ * Each {@link Subscription} interprets one or two consecutive points as a
+ * {@link DataType} and can have a deadband, either an absolute amount or a
+ * percentage of the last value reported. After every scan, the blocks that
+ * were read are compared in place against the raw value of each subscription,
+ * and its listener is only called if the value has moved by more than the
+ * deadband. The first scan, and the first scan after a failure, reports every
+ * value.
+ * <p>
+ * Comparing the scans needs no allocation, so a steady plant costs little
+ * more than the reads themselves.
+ * <pre>
+ *     ModbusSubscription subscription = new ModbusSubscription("boiler", "10.0.0.5", 502, 1000);
+ *     subscription.subscribe(new Point(1, Table.HOLDING_REGISTER, 100), DataType.FLOAT32, 0.5, false, listener);
+ *     poller.addGroup(subscription);
+ * </pre>
+ */
+public class ModbusSubscription extends ModbusPoller.Group {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModbusSubscription.class);
+
+    /**
+     * How the points of a subscription are interpreted. Values that span two
+     * registers are big-endian, with the high word first, unless they are
+     * <tt>SWAPPED</tt>, in which case the low word comes first.
+     */
+    public enum DataType {
+        BIT(1),
+        INT16(1),
+        UINT16(1),
+        INT32(2),
+        UINT32(2),
+        FLOAT32(2),
+        INT32_SWAPPED(2),
+        UINT32_SWAPPED(2),
+        FLOAT32_SWAPPED(2);
+
+        private final int count;
+
+        DataType(int count) {
+            this.count = count;
+        }
+
+        /**
+         * @return Number of points the value occupies
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Joins the raw points into a value
+         *
+         * @param first  First point
+         * @param second Second point, ignored for single point types
+         *
+         * @return Raw value
+         */
+        long toRaw(int first, int second) {
+            switch (this) {
+                case INT32:
+                case UINT32:
+                case FLOAT32:
+                    return ((long)first << 16) | second;
+                case INT32_SWAPPED:
+                case UINT32_SWAPPED:
+                case FLOAT32_SWAPPED:
+                    return ((long)second << 16) | first;
+                default:
+                    return first;
+            }
+        }
+
+        /**
+         * Interprets a raw value
+         *
+         * @param raw Raw value from {@link #toRaw(int, int)}
+         *
+         * @return Value
+         */
+        double toValue(long raw) {
+            switch (this) {
+                case INT16:
+                    return (short)raw;
+                case INT32:
+                case INT32_SWAPPED:
+                    return (int)raw;
+                case FLOAT32:
+                case FLOAT32_SWAPPED:
+                    return Float.intBitsToFloat((int)raw);
+                default:
+                    return raw;
+            }
+        }
+    }
+
+    /**
+     * Receives the changes of a subscription. It is called on the worker
+     * thread of the poller, so it should return quickly.
+     */
+    public interface ChangeListener {
+
+        /**
+         * Called when the value of a subscription has changed by more than its deadband
+         *
+         * @param subscription Subscription that changed
+         * @param value        New value
+         * @param previous     Value last reported, or <tt>NaN</tt> if this is the first
+         */
+        void valueChanged(Subscription subscription, double value, double previous);
+    }
+
+    private final List<Subscription> subscriptions = new ArrayList<Subscription>();
+    private volatile Subscription[] active = new Subscription[0];
+    private volatile boolean remap = true;
+    private List<Read> mappedReads;
+
+    /**
+     * Creates a subscription group
+     *
+     * @param name         Name of the group, for logging
+     * @param host         Host name or address of the device
+     * @param port         Port of the device
+     * @param periodMillis Scan period in milliseconds
+     */
+    public ModbusSubscription(String name, String host, int port, long periodMillis) {
+        super(name, host, port, periodMillis);
+    }
+
+    /**
+     * Subscribes to every change of a value
+     *
+     * @param point    First point of the value
+     * @param type     How the points are interpreted
+     * @param listener Listener to receive the changes
+     *
+     * @return Subscription
+     */
+    public Subscription subscribe(Point point, DataType type, ChangeListener listener) {
+        return subscribe(point, type, 0, false, listener);
+    }
+
+    /**
+     * Subscribes to changes of a value that are larger than a deadband
+     *
+     * @param point    First point of the value
+     * @param type     How the points are interpreted
+     * @param deadband Change that must be exceeded before the value is reported, 0 for any change
+     * @param percent  True if the deadband is a percentage of the last value reported
+     * @param listener Listener to receive the changes
+     *
+     * @return Subscription
+     */
+    public synchronized Subscription subscribe(Point point, DataType type, double deadband, boolean percent, ChangeListener listener) {
+        if (point == null || type == null || listener == null) {
+            throw new IllegalArgumentException("Point, type and listener are required");
+        }
+        boolean bit = point.getTable() == Table.COIL || point.getTable() == Table.DISCRETE_INPUT;
+        if (bit != (type == DataType.BIT)) {
+            throw new IllegalArgumentException(String.format("Type %s cannot be used with the %s table", type, point.getTable()));
+        }
+        if (deadband < 0 || Double.isNaN(deadband)) {
+            throw new IllegalArgumentException("deadband must be >= 0: " + deadband);
+        }
+        Subscription subscription = new Subscription(point, type, deadband, percent, listener);
+        for (Point used : subscription.getPoints()) {
+            addPoint(used);
+        }
+        subscriptions.add(subscription);
+        active = subscriptions.toArray(new Subscription[subscriptions.size()]);
+        remap = true;
+        return subscription;
+    }
+
+    /**
+     * Cancels a subscription. Its points are no longer read unless another
+     * subscription uses them.
+     *
+     * @param subscription Subscription to cancel
+     */
+    public synchronized void unsubscribe(Subscription subscription) {
+        if (!subscriptions.remove(subscription)) {
+            return;
+        }
+        active = subscriptions.toArray(new Subscription[subscriptions.size()]);
+        Set<Point> used = new HashSet<Point>();
+        for (Subscription remaining : subscriptions) {
+            used.addAll(remaining.getPoints());
+        }
+        for (Point point : subscription.getPoints()) {
+            if (!used.contains(point)) {
+                removePoint(point);
+            }
+        }
+        remap = true;
+    }
+
+    /**
+     * @return Current subscriptions
+     */
+    public List<Subscription> getSubscriptions() {
+        return Collections.unmodifiableList(Arrays.asList(active));
+    }
+
+    @Override
+    protected void scanCompleted(List<Read> reads, int[][] blocks) {
+        Subscription[] current = active;
+        if (remap || reads != mappedReads) {
+            remap = false;
+            mappedReads = reads;
+            for (Subscription subscription : current) {
+                subscription.map(reads);
+            }
+        }
+        for (Subscription subscription : current) {
+            subscription.update(blocks);
+        }
+    }
+
+    @Override
+    protected void scanFailed(ModbusException error) {
+        logger.debug("Scan of {} failed - {}", getName(), error.getMessage());
+
+        // Report every value once the device answers again
+        for (Subscription subscription : active) {
+            subscription.reported = false;
+        }
+    }
+
+    /**
+     * Interest in one value
+     */
+    public static class Subscription {
+        private final Point point;
+        private final DataType type;
+        private final double deadband;
+        private final boolean percent;
+        private final ChangeListener listener;
+
+        // Position of the points in the blocks of the current plan, -1 if not read
+        private int firstBlock = -1;
+        private int firstOffset;
+        private int secondBlock = -1;
+        private int secondOffset;
+
+        private volatile boolean reported;
+        private long raw;
+        private volatile double value = Double.NaN;
+
+        Subscription(Point point, DataType type, double deadband, boolean percent, ChangeListener listener) {
+            this.point = point;
+            this.type = type;
+            this.deadband = deadband;
+            this.percent = percent;
+            this.listener = listener;
+        }
+
+        /**
+         * @return First point of the value
+         */
+        public Point getPoint() {
+            return point;
+        }
+
+        /**
+         * @return How the points are interpreted
+         */
+        public DataType getType() {
+            return type;
+        }
+
+        /**
+         * @return Change that must be exceeded before the value is reported
+         */
+        public double getDeadband() {
+            return deadband;
+        }
+
+        /**
+         * @return True if the deadband is a percentage of the last value reported
+         */
+        public boolean isPercent() {
+            return percent;
+        }
+
+        /**
+         * @return Value last reported, or <tt>NaN</tt> if none has been
+         */
+        public double getValue() {
+            return value;
+        }
+
+        /**
+         * @return Points the value occupies
+         */
+        List<Point> getPoints() {
+            if (type.getCount() == 1) {
+                return Collections.singletonList(point);
+            }
+            return Arrays.asList(point, new Point(point.getUnitId(), point.getTable(), point.getAddress() + 1));
+        }
+
+        /**
+         * Finds the points of this subscription in a plan
+         *
+         * @param reads Reads of the plan
+         */
+        void map(List<Read> reads) {
+            firstBlock = -1;
+            secondBlock = -1;
+            for (int r = 0; r < reads.size(); r++) {
+                Read read = reads.get(r);
+                if (read.getUnitId() == point.getUnitId() && read.getTable() == point.getTable()) {
+                    int offset = point.getAddress() - read.getReference();
+                    if (offset >= 0 && offset < read.getCount()) {
+                        firstBlock = r;
+                        firstOffset = offset;
+                    }
+                    if (offset + 1 >= 0 && offset + 1 < read.getCount()) {
+                        secondBlock = r;
+                        secondOffset = offset + 1;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Compares the latest scan with the value last reported and calls the
+         * listener if it has moved by more than the deadband
+         *
+         * @param blocks Values read by the scan
+         */
+        void update(int[][] blocks) {
+            if (firstBlock < 0 || (type.getCount() == 2 && secondBlock < 0)) {
+                return;
+            }
+            int first = blocks[firstBlock][firstOffset];
+            long newRaw = type.toRaw(first, type.getCount() == 2 ? blocks[secondBlock][secondOffset] : 0);
+            if (reported && newRaw == raw) {
+                return;
+            }
+            double newValue = type.toValue(newRaw);
+            double previous = reported ? value : Double.NaN;
+            if (reported && deadband > 0) {
+                double threshold = percent ? Math.abs(previous) * deadband / 100 : deadband;
+                if (Math.abs(newValue - previous) <= threshold) {
+                    return;
+                }
+            }
+            raw = newRaw;
+            value = newValue;
+            reported = true;
+            try {
+                listener.valueChanged(this, newValue, previous);
+            }
+            catch (RuntimeException e) {
+                logger.error("Listener of {} failed", this, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s", point, type);
+        }
+    }
+}
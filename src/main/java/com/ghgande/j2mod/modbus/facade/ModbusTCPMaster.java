@@ -17,14 +17,22 @@ package com.ghgande.j2mod.modbus.facade;
 
 import com.ghgande.j2mod.modbus.Modbus;
 import com.ghgande.j2mod.modbus.io.AbstractModbusTransport;
+import com.ghgande.j2mod.modbus.io.ModbusTCPPipeline;
 import com.ghgande.j2mod.modbus.io.ModbusTCPTransaction;
+import com.ghgande.j2mod.modbus.msg.ModbusRequest;
+import com.ghgande.j2mod.modbus.msg.ModbusResponse;
 import com.ghgande.j2mod.modbus.net.TCPMasterConnection;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Modbus/TCP Master facade.
+ * <p>
+ * If a pipeline depth is set before connecting, all requests are sent through a
+ * <tt>ModbusTCPPipeline</tt> so that the <tt>Async</tt> methods can have many
+ * requests in flight on the one connection, completed by the pipeline reader.
  *
  * @author Dieter Wimberger
  * @author Steve O'Hara (4NG)
@@ -35,6 +43,8 @@ public class ModbusTCPMaster extends AbstractModbusMaster {
     private final TCPMasterConnection connection;
     private boolean reconnecting = false;
     private final boolean useRtuOverTcp;
+    private int pipelineDepth = 0;
+    private ModbusTCPPipeline pipeline;
 
     /**
      * Constructs a new master facade instance for communication
@@ -133,9 +143,20 @@ public class ModbusTCPMaster extends AbstractModbusMaster {
     @Override
     public synchronized void connect() throws Exception {
         if (connection != null && !connection.isConnected()) {
+            if (pipeline != null) {
+                pipeline.close();
+                pipeline = null;
+            }
             connection.connect(useRtuOverTcp);
-            transaction = connection.getModbusTransport().createTransaction();
-            ((ModbusTCPTransaction)transaction).setReconnecting(reconnecting);
+            if (pipelineDepth > 0 && !useRtuOverTcp) {
+                pipeline = new ModbusTCPPipeline(connection, pipelineDepth);
+                pipeline.open();
+                transaction = pipeline.createTransaction();
+            }
+            else {
+                transaction = connection.getModbusTransport().createTransaction();
+                ((ModbusTCPTransaction)transaction).setReconnecting(reconnecting);
+            }
             setTransaction(transaction);
         }
     }
@@ -145,6 +166,12 @@ public class ModbusTCPMaster extends AbstractModbusMaster {
      */
     @Override
     public synchronized void disconnect() {
+        if (pipeline != null) {
+            pipeline.close();
+            pipeline = null;
+            transaction = null;
+            setTransaction(null);
+        }
         if (connection != null && connection.isConnected()) {
             connection.close();
             transaction = null;
@@ -172,7 +199,7 @@ public class ModbusTCPMaster extends AbstractModbusMaster {
      */
     public synchronized void setReconnecting(boolean b) {
         reconnecting = b;
-        if (transaction != null) {
+        if (transaction instanceof ModbusTCPTransaction) {
             ((ModbusTCPTransaction)transaction).setReconnecting(b);
         }
     }
@@ -180,11 +207,50 @@ public class ModbusTCPMaster extends AbstractModbusMaster {
     @Override
     public synchronized void setTimeout(int timeout) {
         super.setTimeout(timeout);
-        if (connection != null) {
+        if (pipeline != null) {
+            pipeline.setTimeout(timeout);
+        }
+        else if (connection != null) {
             connection.setTimeout(timeout);
         }
     }
 
+    /**
+     * Returns the number of requests that can be in flight at once, 0 if
+     * pipelining is disabled
+     *
+     * @return Pipeline depth
+     */
+    public synchronized int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /**
+     * Sets the number of requests that can be in flight at once on the connection.
+     * Takes effect the next time the master connects. Pipelining is not available
+     * for RTU over TCP and is disabled by default (pipelineDepth == 0)
+     *
+     * @param pipelineDepth 0 to disable pipelining, or the maximum number of outstanding requests
+     */
+    public synchronized void setPipelineDepth(int pipelineDepth) {
+        if (pipelineDepth < 0) {
+            throw new IllegalArgumentException("pipelineDepth must be >= 0: " + pipelineDepth);
+        }
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    @Override
+    protected CompletableFuture<ModbusResponse> executeAsync(ModbusRequest request) {
+        ModbusTCPPipeline current;
+        synchronized (this) {
+            current = pipeline;
+        }
+        if (current == null) {
+            return super.executeAsync(request);
+        }
+        return current.submit(request);
+    }
+
     @Override
     public AbstractModbusTransport getTransport() {
         return connection == null ? null : connection.getModbusTransport();
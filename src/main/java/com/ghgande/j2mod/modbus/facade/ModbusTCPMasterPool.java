@@ -0,0 +1,495 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.facade;
+
+import com.ghgande.j2mod.modbus.Modbus;
+import com.ghgande.j2mod.modbus.ModbusException;
+import com.ghgande.j2mod.modbus.ModbusIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of <tt>ModbusTCPMaster</tt> connections, kept per host:port.
+ * <p>
+ * Callers lease a connected master, use it exclusively and hand it back. The
+ * number of masters per endpoint is capped, so a device that only accepts a few
+ * sockets is never sent more than that, and callers over the limit wait for a
+ * lease to be returned. Masters that have been idle for too long, or whose
+ * connection has broken, are closed rather than handed out again.
+ */
+public class ModbusTCPMasterPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModbusTCPMasterPool.class);
+
+    /**
+     * Work to carry out with a leased master
+     *
+     * @param <T> Type of the result
+     */
+    public interface Action<T> {
+
+        /**
+         * Carries out the work
+         *
+         * @param master Leased master - must not be kept after returning
+         * @return Result
+         * @throws ModbusException If the work fails
+         */
+        T execute(ModbusTCPMaster master) throws ModbusException;
+    }
+
+    private final int maxConnectionsPerEndpoint;
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+    private final Map<ModbusTCPMaster, Endpoint> leases = new ConcurrentHashMap<ModbusTCPMaster, Endpoint>();
+    private final ScheduledExecutorService evictor;
+    private volatile int timeout = Modbus.DEFAULT_TIMEOUT;
+    private volatile int borrowTimeout = Modbus.DEFAULT_TIMEOUT;
+    private volatile long maxIdleMillis = 60000;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a pool
+     *
+     * @param maxConnectionsPerEndpoint Maximum number of connections open to any one host:port
+     */
+    public ModbusTCPMasterPool(int maxConnectionsPerEndpoint) {
+        if (maxConnectionsPerEndpoint < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerEndpoint must be > 0: " + maxConnectionsPerEndpoint);
+        }
+        this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Modbus TCP Master Pool Evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evictIdle, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the maximum number of connections open to any one host:port
+     *
+     * @return Maximum connections
+     */
+    public int getMaxConnectionsPerEndpoint() {
+        return maxConnectionsPerEndpoint;
+    }
+
+    /**
+     * Returns the socket timeout given to new masters
+     *
+     * @return Timeout in milliseconds
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the socket timeout given to new masters
+     *
+     * @param timeout Timeout in milliseconds
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns how long a caller waits for a lease when the endpoint is at its limit
+     *
+     * @return Timeout in milliseconds
+     */
+    public int getBorrowTimeout() {
+        return borrowTimeout;
+    }
+
+    /**
+     * Sets how long a caller waits for a lease when the endpoint is at its limit
+     *
+     * @param borrowTimeout Timeout in milliseconds
+     */
+    public void setBorrowTimeout(int borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    /**
+     * Returns how long a master can sit unused in the pool before it is closed
+     *
+     * @return Idle time in milliseconds
+     */
+    public long getMaxIdleMillis() {
+        return maxIdleMillis;
+    }
+
+    /**
+     * Sets how long a master can sit unused in the pool before it is closed
+     *
+     * @param maxIdleMillis Idle time in milliseconds
+     */
+    public void setMaxIdleMillis(long maxIdleMillis) {
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    /**
+     * Leases a connected master for the endpoint, waiting up to the borrow timeout
+     * if the endpoint is at its connection limit. The master must be handed back
+     * with {@link #release(ModbusTCPMaster)} or {@link #invalidate(ModbusTCPMaster)}.
+     *
+     * @param host Host name or address of the slave
+     * @param port Port of the slave
+     * @return Connected master
+     * @throws ModbusException If no lease is available in time or the connection fails
+     */
+    public ModbusTCPMaster borrow(String host, int port) throws ModbusException {
+        if (closed) {
+            throw new ModbusException("Pool is closed");
+        }
+        Endpoint endpoint = endpoints.computeIfAbsent(host + ":" + port, key -> new Endpoint(host, port));
+        try {
+            if (!endpoint.permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+                endpoint.waitTimeouts.incrementAndGet();
+                throw new ModbusException("Connection limit of %d reached for %s:%d", maxConnectionsPerEndpoint, host, port);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ModbusException("Interrupted waiting for a connection to %s:%d", host, port);
+        }
+
+        ModbusTCPMaster master = endpoint.takeIdle(maxIdleMillis);
+        if (master == null) {
+            try {
+                master = new ModbusTCPMaster(host, port, timeout, false);
+                master.connect();
+                endpoint.created.incrementAndGet();
+                logger.debug("Opened pooled connection to {}:{}", host, port);
+            }
+            catch (Exception e) {
+                endpoint.permits.release();
+                if (master != null) {
+                    master.disconnect();
+                }
+                throw new ModbusIOException("Connection failed for %s:%d %s", host, port, e.getMessage());
+            }
+        }
+        endpoint.borrowed.incrementAndGet();
+        endpoint.leased.incrementAndGet();
+        leases.put(master, endpoint);
+        return master;
+    }
+
+    /**
+     * Hands a leased master back to the pool for re-use
+     *
+     * @param master Master returned by {@link #borrow(String, int)}
+     */
+    public void release(ModbusTCPMaster master) {
+        giveBack(master, true);
+    }
+
+    /**
+     * Hands a leased master back to the pool and closes it, e.g. because
+     * its connection is suspect
+     *
+     * @param master Master returned by {@link #borrow(String, int)}
+     */
+    public void invalidate(ModbusTCPMaster master) {
+        giveBack(master, false);
+    }
+
+    /**
+     * Leases a master, carries out the action with it and hands it back.
+     * If the action fails with an I/O error the master is closed rather
+     * than re-used.
+     *
+     * @param host   Host name or address of the slave
+     * @param port   Port of the slave
+     * @param action Work to carry out
+     * @param <T>    Type of the result
+     * @return Result of the action
+     * @throws ModbusException If no lease is available or the action fails
+     */
+    public <T> T execute(String host, int port, Action<T> action) throws ModbusException {
+        ModbusTCPMaster master = borrow(host, port);
+        boolean reusable = false;
+        try {
+            T result = action.execute(master);
+            reusable = true;
+            return result;
+        }
+        catch (ModbusIOException e) {
+            throw e;
+        }
+        catch (ModbusException e) {
+            reusable = true;
+            throw e;
+        }
+        finally {
+            giveBack(master, reusable);
+        }
+    }
+
+    /**
+     * Closes any pooled masters that have been idle for too long or have lost their connection.
+     * This is run every second by the pool itself.
+     */
+    public void evictIdle() {
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.evict(maxIdleMillis);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the statistics for an endpoint
+     *
+     * @param host Host name or address of the slave
+     * @param port Port of the slave
+     * @return Statistics or null if the endpoint has never been used
+     */
+    public Stats getStats(String host, int port) {
+        Endpoint endpoint = endpoints.get(host + ":" + port);
+        return endpoint == null ? null : endpoint.getStats();
+    }
+
+    /**
+     * Returns a snapshot of the statistics for every endpoint, keyed by host:port
+     *
+     * @return Statistics
+     */
+    public Map<String, Stats> getStats() {
+        Map<String, Stats> stats = new TreeMap<String, Stats>();
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Closes all the idle masters and stops the evictor. Masters that are still
+     * leased are closed when they are handed back.
+     */
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.evict(-1);
+        }
+    }
+
+    /**
+     * Hands a leased master back
+     *
+     * @param master   Master to return
+     * @param reusable True if the master can be leased again
+     */
+    private void giveBack(ModbusTCPMaster master, boolean reusable) {
+        Endpoint endpoint = master == null ? null : leases.remove(master);
+        if (endpoint == null) {
+            throw new IllegalArgumentException("Master was not leased from this pool");
+        }
+        endpoint.leased.decrementAndGet();
+        if (reusable && !closed && master.isConnected()) {
+            endpoint.putIdle(master);
+        }
+        else {
+            master.disconnect();
+            endpoint.evicted.incrementAndGet();
+        }
+        endpoint.permits.release();
+    }
+
+    /**
+     * A snapshot of the pool statistics for one endpoint
+     */
+    public static class Stats {
+        private final int maxConnections;
+        private final int leased;
+        private final int idle;
+        private final long created;
+        private final long evicted;
+        private final long borrowed;
+        private final long waitTimeouts;
+
+        Stats(int maxConnections, int leased, int idle, long created, long evicted, long borrowed, long waitTimeouts) {
+            this.maxConnections = maxConnections;
+            this.leased = leased;
+            this.idle = idle;
+            this.created = created;
+            this.evicted = evicted;
+            this.borrowed = borrowed;
+            this.waitTimeouts = waitTimeouts;
+        }
+
+        /**
+         * @return Maximum number of connections allowed to the endpoint
+         */
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        /**
+         * @return Number of masters currently leased
+         */
+        public int getLeased() {
+            return leased;
+        }
+
+        /**
+         * @return Number of connected masters waiting in the pool
+         */
+        public int getIdle() {
+            return idle;
+        }
+
+        /**
+         * @return Number of connections opened
+         */
+        public long getCreated() {
+            return created;
+        }
+
+        /**
+         * @return Number of connections closed because they were idle, broken or invalidated
+         */
+        public long getEvicted() {
+            return evicted;
+        }
+
+        /**
+         * @return Number of leases handed out
+         */
+        public long getBorrowed() {
+            return borrowed;
+        }
+
+        /**
+         * @return Number of callers that gave up waiting for a lease
+         */
+        public long getWaitTimeouts() {
+            return waitTimeouts;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("max=%d leased=%d idle=%d created=%d evicted=%d borrowed=%d waitTimeouts=%d",
+                    maxConnections, leased, idle, created, evicted, borrowed, waitTimeouts);
+        }
+    }
+
+    /**
+     * The masters belonging to one host:port
+     */
+    private class Endpoint {
+        private final String host;
+        private final int port;
+        private final Semaphore permits = new Semaphore(maxConnectionsPerEndpoint, true);
+        private final Deque<IdleMaster> idle = new ArrayDeque<IdleMaster>();
+        private final AtomicInteger leased = new AtomicInteger();
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong evicted = new AtomicLong();
+        private final AtomicLong borrowed = new AtomicLong();
+        private final AtomicLong waitTimeouts = new AtomicLong();
+
+        Endpoint(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * Takes the most recently used idle master that is still usable
+         *
+         * @param maxIdle Maximum idle time in milliseconds
+         * @return Master or null if there isn't one
+         */
+        ModbusTCPMaster takeIdle(long maxIdle) {
+            long now = System.currentTimeMillis();
+            while (true) {
+                IdleMaster candidate;
+                synchronized (this) {
+                    candidate = idle.pollFirst();
+                }
+                if (candidate == null) {
+                    return null;
+                }
+                if (now - candidate.since <= maxIdle && candidate.master.isConnected()) {
+                    return candidate.master;
+                }
+                candidate.master.disconnect();
+                evicted.incrementAndGet();
+            }
+        }
+
+        /**
+         * Puts a master back in the pool
+         *
+         * @param master Master to add
+         */
+        synchronized void putIdle(ModbusTCPMaster master) {
+            idle.addFirst(new IdleMaster(master));
+        }
+
+        /**
+         * Closes the idle masters that have expired or lost their connection
+         *
+         * @param maxIdle Maximum idle time in milliseconds, negative to close them all
+         */
+        void evict(long maxIdle) {
+            List<ModbusTCPMaster> expired = new ArrayList<ModbusTCPMaster>();
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                Iterator<IdleMaster> iterator = idle.iterator();
+                while (iterator.hasNext()) {
+                    IdleMaster candidate = iterator.next();
+                    if (maxIdle < 0 || now - candidate.since > maxIdle || !candidate.master.isConnected()) {
+                        iterator.remove();
+                        expired.add(candidate.master);
+                    }
+                }
+            }
+            for (ModbusTCPMaster master : expired) {
+                logger.debug("Closing idle pooled connection to {}:{}", host, port);
+                master.disconnect();
+                evicted.incrementAndGet();
+            }
+        }
+
+        /**
+         * @return Snapshot of the statistics
+         */
+        Stats getStats() {
+            int idleCount;
+            synchronized (this) {
+                idleCount = idle.size();
+            }
+            return new Stats(maxConnectionsPerEndpoint, leased.get(), idleCount, created.get(), evicted.get(), borrowed.get(), waitTimeouts.get());
+        }
+    }
+
+    /**
+     * A master waiting in the pool and when it was put there
+     */
+    private static class IdleMaster {
+        private final ModbusTCPMaster master;
+        private final long since = System.currentTimeMillis();
+
+        IdleMaster(ModbusTCPMaster master) {
+            this.master = master;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.facade;
+
+import com.ghgande.j2mod.modbus.Modbus;
+import com.ghgande.j2mod.modbus.ModbusException;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Point;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Table;
+import com.ghgande.j2mod.modbus.procimg.Register;
+import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
+import com.ghgande.j2mod.modbus.util.BitVector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Class that collects single point writes and sends them with as few
+ * requests as possible.
+ * <p>
+ * Writes to the same unit and table are sorted and contiguous runs are merged
+ * into <tt>Write Multiple Registers</tt> or <tt>Write Multiple Coils</tt>
+ * requests of at most {@link Modbus#MAX_WRITE_REGISTERS} registers or
+ * {@link Modbus#MAX_WRITE_BITS} coils. A run of one point is sent as a single
+ * write. Unlike reads, gaps are never bridged because that would overwrite
+ * the points in between. If the same point is written more than once, the
+ * last value wins.
+ * <p>
+ * A failed request doesn't stop the rest of the batch; the
+ * {@link Result} of {@link #commit(AbstractModbusMaster)} says which points
+ * were written and why the others weren't.
+ * <pre>
+ *     ModbusWriteBatch batch = new ModbusWriteBatch();
+ *     batch.writeRegister(1, 100, 1234);
+ *     batch.writeRegister(1, 101, 5678);
+ *     batch.writeCoil(1, 7, true);
+ *     ModbusWriteBatch.Result result = batch.commit(master);
+ * </pre>
+ */
+public class ModbusWriteBatch {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModbusWriteBatch.class);
+
+    private final Map<Point, Integer> values = new LinkedHashMap<Point, Integer>();
+
+    /**
+     * Queues a write of a holding register
+     *
+     * @param unitId  Unit ID
+     * @param address Address of the register
+     * @param value   Value to write
+     *
+     * @return This batch
+     */
+    public ModbusWriteBatch writeRegister(int unitId, int address, int value) {
+        values.put(new Point(unitId, Table.HOLDING_REGISTER, address), value & 0xFFFF);
+        return this;
+    }
+
+    /**
+     * Queues a write of a coil
+     *
+     * @param unitId  Unit ID
+     * @param address Address of the coil
+     * @param state   State to write
+     *
+     * @return This batch
+     */
+    public ModbusWriteBatch writeCoil(int unitId, int address, boolean state) {
+        values.put(new Point(unitId, Table.COIL, address), state ? 1 : 0);
+        return this;
+    }
+
+    /**
+     * @return Number of points queued
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Removes all the queued writes
+     */
+    public void clear() {
+        values.clear();
+    }
+
+    /**
+     * Builds the writes needed to send the queued points
+     *
+     * @return Writes ordered by unit, table and reference
+     */
+    public List<Write> plan() {
+        Map<Integer, Map<Table, TreeMap<Integer, Integer>>> grouped = new TreeMap<Integer, Map<Table, TreeMap<Integer, Integer>>>();
+        for (Map.Entry<Point, Integer> entry : values.entrySet()) {
+            Point point = entry.getKey();
+            grouped.computeIfAbsent(point.getUnitId(), unit -> new EnumMap<Table, TreeMap<Integer, Integer>>(Table.class))
+                    .computeIfAbsent(point.getTable(), table -> new TreeMap<Integer, Integer>())
+                    .put(point.getAddress(), entry.getValue());
+        }
+
+        List<Write> writes = new ArrayList<Write>();
+        for (Map.Entry<Integer, Map<Table, TreeMap<Integer, Integer>>> unit : grouped.entrySet()) {
+            for (Map.Entry<Table, TreeMap<Integer, Integer>> table : unit.getValue().entrySet()) {
+                int maxCount = table.getKey() == Table.COIL ? Modbus.MAX_WRITE_BITS : Modbus.MAX_WRITE_REGISTERS;
+                List<Integer> run = new ArrayList<Integer>();
+                int start = -1;
+                for (Map.Entry<Integer, Integer> point : table.getValue().entrySet()) {
+                    int address = point.getKey();
+                    if (start < 0 || address != start + run.size() || run.size() == maxCount) {
+                        if (start >= 0) {
+                            writes.add(new Write(unit.getKey(), table.getKey(), start, run));
+                        }
+                        start = address;
+                        run = new ArrayList<Integer>();
+                    }
+                    run.add(point.getValue());
+                }
+                if (start >= 0) {
+                    writes.add(new Write(unit.getKey(), table.getKey(), start, run));
+                }
+            }
+        }
+        return writes;
+    }
+
+    /**
+     * Plans and executes the writes for the queued points. The batch is left
+     * as it is, so it can be committed again or cleared.
+     *
+     * @param master Master to write with
+     *
+     * @return Outcome of each point
+     */
+    public Result commit(AbstractModbusMaster master) {
+        Result result = new Result();
+        for (Write write : plan()) {
+            ModbusException error = null;
+            try {
+                write.execute(master);
+            }
+            catch (ModbusException e) {
+                logger.debug("Batch write {} failed - {}", write, e.getMessage());
+                error = e;
+            }
+            result.requests++;
+            for (int i = 0; i < write.getCount(); i++) {
+                Point point = new Point(write.getUnitId(), write.getTable(), write.getReference() + i);
+                if (error == null) {
+                    result.written.add(point);
+                }
+                else {
+                    result.failures.put(point, error);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A contiguous write of one table on one unit
+     */
+    public static class Write {
+        private final int unitId;
+        private final Table table;
+        private final int reference;
+        private final int[] values;
+
+        Write(int unitId, Table table, int reference, List<Integer> values) {
+            this.unitId = unitId;
+            this.table = table;
+            this.reference = reference;
+            this.values = new int[values.size()];
+            for (int i = 0; i < this.values.length; i++) {
+                this.values[i] = values.get(i);
+            }
+        }
+
+        /**
+         * @return Unit ID
+         */
+        public int getUnitId() {
+            return unitId;
+        }
+
+        /**
+         * @return Table to write
+         */
+        public Table getTable() {
+            return table;
+        }
+
+        /**
+         * @return Reference of the first point
+         */
+        public int getReference() {
+            return reference;
+        }
+
+        /**
+         * @return Number of points to write
+         */
+        public int getCount() {
+            return values.length;
+        }
+
+        /**
+         * Executes the write with the function code for the table and count
+         *
+         * @param master Master to write with
+         *
+         * @throws ModbusException If the write fails
+         */
+        void execute(AbstractModbusMaster master) throws ModbusException {
+            if (table == Table.COIL) {
+                if (values.length == 1) {
+                    master.writeCoil(unitId, reference, values[0] != 0);
+                }
+                else {
+                    BitVector coils = new BitVector(values.length);
+                    for (int i = 0; i < values.length; i++) {
+                        coils.setBit(i, values[i] != 0);
+                    }
+                    master.writeMultipleCoils(unitId, reference, coils);
+                }
+            }
+            else if (values.length == 1) {
+                master.writeSingleRegister(unitId, reference, new SimpleRegister(values[0]));
+            }
+            else {
+                Register[] registers = new Register[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    registers[i] = new SimpleRegister(values[i]);
+                }
+                master.writeMultipleRegisters(unitId, reference, registers);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d:%s:%d+%d", unitId, table, reference, values.length);
+        }
+    }
+
+    /**
+     * The outcome of committing a batch
+     */
+    public static class Result {
+        private final Set<Point> written = new LinkedHashSet<Point>();
+        private final Map<Point, ModbusException> failures = new LinkedHashMap<Point, ModbusException>();
+        private int requests;
+
+        /**
+         * @return True if every point was written
+         */
+        public boolean isSuccessful() {
+            return failures.isEmpty();
+        }
+
+        /**
+         * Returns true if a point was written
+         *
+         * @param point Point
+         *
+         * @return True if the request that carried it succeeded
+         */
+        public boolean isWritten(Point point) {
+            return written.contains(point);
+        }
+
+        /**
+         * @return Points that were written
+         */
+        public Set<Point> getWritten() {
+            return Collections.unmodifiableSet(written);
+        }
+
+        /**
+         * @return Points that were not written, with the error from the request that carried them
+         */
+        public Map<Point, ModbusException> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * @return Number of requests sent
+         */
+        public int getRequestCount() {
+            return requests;
+        }
+    }
+}
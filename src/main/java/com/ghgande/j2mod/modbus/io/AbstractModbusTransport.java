@@ -20,6 +20,7 @@ import com.ghgande.j2mod.modbus.ModbusIOException;
 import com.ghgande.j2mod.modbus.msg.ModbusRequest;
 import com.ghgande.j2mod.modbus.msg.ModbusResponse;
 import com.ghgande.j2mod.modbus.net.AbstractModbusListener;
+import com.ghgande.j2mod.modbus.util.ModbusMetrics;
 
 import java.io.IOException;
 
@@ -34,6 +35,8 @@ import java.io.IOException;
 public abstract class AbstractModbusTransport {
 
     protected int timeout = Modbus.DEFAULT_TIMEOUT;
+    private final TransactionIDAllocator transactionIDs = new TransactionIDAllocator();
+    private volatile ModbusMetrics.Source metrics;
 
     /**
      * Set the socket timeout
@@ -44,6 +47,48 @@ public abstract class AbstractModbusTransport {
         timeout = time;
     }
 
+    /**
+     * Returns the allocator of the transaction IDs used on this transport
+     *
+     * @return Transaction ID allocator
+     */
+    public TransactionIDAllocator getTransactionIDs() {
+        return transactionIDs;
+    }
+
+    /**
+     * Returns the recorder that the statistics of this transport and its
+     * transactions are collected by
+     *
+     * @return Recorder
+     */
+    public ModbusMetrics.Recorder getMetrics() {
+        ModbusMetrics.Source source = metrics;
+        if (source == null) {
+            source = new ModbusMetrics.Source(getMetricsName());
+            metrics = source;
+        }
+        return source.get();
+    }
+
+    /**
+     * Drops the recorder of this transport, so that the next one is looked up
+     * under the name of the endpoint the transport is then connected to
+     */
+    protected void resetMetrics() {
+        metrics = null;
+    }
+
+    /**
+     * Returns the name that the statistics of this transport are recorded
+     * under, transports to the same endpoint sharing the same name
+     *
+     * @return Name
+     */
+    protected String getMetricsName() {
+        return getClass().getSimpleName();
+    }
+
     /**
      * Closes the raw input and output streams of
      * this <tt>ModbusTransport</tt>.
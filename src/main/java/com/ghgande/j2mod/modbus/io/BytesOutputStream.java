@@ -18,6 +18,7 @@ package com.ghgande.j2mod.modbus.io;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class implementing a byte array output stream with
@@ -70,6 +71,31 @@ public class BytesOutputStream extends FastByteArrayOutputStream implements Data
         count = 0;
     }
 
+    /**
+     * Overwrites two bytes already written to the buffer with a short in
+     * big-endian order, e.g. to fill in a length once the data is known.
+     *
+     * @param offset the position of the first byte.
+     * @param v      the value to write.
+     */
+    public synchronized void setShort(int offset, int v) {
+        if (offset < 0 || offset + 2 > count) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " is outside the " + count + " bytes written");
+        }
+        buf[offset] = (byte)(v >> 8);
+        buf[offset + 1] = (byte)v;
+    }
+
+    /**
+     * Copies the bytes written so far into a <tt>ByteBuffer</tt> without
+     * creating an intermediate array.
+     *
+     * @param dest the buffer to copy into.
+     */
+    public synchronized void writeTo(ByteBuffer dest) {
+        dest.put(buf, 0, count);
+    }
+
     @Override
     public void writeBoolean(boolean v) throws IOException {
         dataOutputStream.writeBoolean(v);
@@ -107,7 +107,12 @@ public class ModbusASCIITransport extends ModbusSerialTransport {
                         byteInputOutputStream.writeByte(in);
                     }
                     //check LRC
-                    if (inBuffer[byteInputOutputStream.size() - 1] != calculateLRC(inBuffer, 0, byteInputOutputStream.size(), 1)) {
+                    if (inBuffer[byteInputOutputStream.size() - 1] != ModbusUtil.calculateLRC(inBuffer, 0, byteInputOutputStream.size(), 1)) {
+                        getMetrics().checksumError();
+                        listener.getDiagnostics().busMessage();
+
+                        // The Unit ID of a corrupt frame can't be trusted, so only the bus counter is updated
+                        listener.getDiagnostics().communicationError(-1);
                         continue;
                     }
                     byteInputStream.reset(inBuffer, byteInputOutputStream.size());
@@ -162,7 +167,8 @@ public class ModbusASCIITransport extends ModbusSerialTransport {
                         logger.debug("Received: {}", ModbusUtil.toHex(inBuffer, 0, len));
                     }
                     //check LRC
-                    if (inBuffer[len - 1] != calculateLRC(inBuffer, 0, len, 1)) {
+                    if (inBuffer[len - 1] != ModbusUtil.calculateLRC(inBuffer, 0, len, 1)) {
+                        getMetrics().checksumError();
                         continue;
                     }
 
@@ -187,7 +193,7 @@ public class ModbusASCIITransport extends ModbusSerialTransport {
         }
         catch (Exception ex) {
             logger.debug(ex.getMessage());
-            throw new ModbusIOException("I/O exception - failed to read");
+            throw new ModbusIOException("I/O exception - failed to read", ex);
         }
     }
 
@@ -200,24 +206,7 @@ public class ModbusASCIITransport extends ModbusSerialTransport {
      * @return Checksum
      */
     private static int calculateLRC(byte[] data, int off, int length) {
-        return calculateLRC(data, off, length, 0);
-    }
-
-    /**
-     * Calculates a LRC checksum
-     *
-     * @param data     Data to use
-     * @param off      Offset into byte array
-     * @param length   Number of bytes to use
-     * @param tailskip Bytes to skip at tail
-     * @return Checksum
-     */
-    private static byte calculateLRC(byte[] data, int off, int length, int tailskip) {
-        int lrc = 0;
-        for (int i = off; i < length - tailskip; i++) {
-            lrc += ((int) data[i]) & 0xFF;
-        }
-        return (byte) ((-lrc) & 0xff);
+        return ModbusUtil.calculateLRC(data, off, length, 0);
     }
 
 }
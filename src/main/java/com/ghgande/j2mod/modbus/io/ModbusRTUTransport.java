@@ -21,6 +21,7 @@ import com.ghgande.j2mod.modbus.msg.ModbusMessage;
 import com.ghgande.j2mod.modbus.msg.ModbusRequest;
 import com.ghgande.j2mod.modbus.msg.ModbusResponse;
 import com.ghgande.j2mod.modbus.net.AbstractModbusListener;
+import com.ghgande.j2mod.modbus.util.ModbusChecksum;
 import com.ghgande.j2mod.modbus.util.ModbusUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +45,7 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
     private final BytesInputStream byteInputStream = new BytesInputStream(inBuffer); // to read message from
     private final BytesOutputStream byteInputOutputStream = new BytesOutputStream(inBuffer); // to buffer message to
     private final BytesOutputStream byteOutputStream = new BytesOutputStream(Modbus.MAX_MESSAGE_LENGTH); // write frames
+    private final byte[] readBuffer = new byte[Modbus.MAX_MESSAGE_LENGTH + 2]; // payload and CRC
     private byte[] lastRequest = null;
 
     /**
@@ -55,9 +57,8 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
      */
     private void readRequestData(int byteCount, BytesOutputStream out) throws IOException {
         byteCount += 2;
-        byte[] inpBuf = new byte[byteCount];
-        readBytes(inpBuf, byteCount);
-        out.write(inpBuf, 0, byteCount);
+        readBytes(readBuffer, byteCount);
+        out.write(readBuffer, 0, byteCount);
     }
 
     /**
@@ -68,7 +69,6 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
      */
     private void getRequest(int function, BytesOutputStream out) throws IOException {
         int byteCount;
-        byte[] inpBuf = new byte[256];
         try {
             if ((function & 0x80) == 0) {
                 switch (function) {
@@ -108,8 +108,8 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
 
                     case Modbus.WRITE_MULTIPLE_COILS:
                     case Modbus.WRITE_MULTIPLE_REGISTERS:
-                        readBytes(inpBuf, 4);
-                        out.write(inpBuf, 0, 4);
+                        readBytes(readBuffer, 4);
+                        out.write(readBuffer, 0, 4);
                         byteCount = readByte();
                         out.write(byteCount);
                         readRequestData(byteCount, out);
@@ -140,7 +140,6 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
      * @throws IOException If data cannot be read from the port
      */
     private void getResponse(int function, BytesOutputStream out) throws IOException {
-        byte[] inpBuf = new byte[256];
         try {
             if ((function & 0x80) == 0) {
                 switch (function) {
@@ -203,16 +202,16 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
                         // next few bytes are just copied.
                         int id;
                         int fieldCount;
-                        readBytes(inpBuf, 5);
-                        out.write(inpBuf, 0, 5);
-                        fieldCount = (int) inpBuf[4];
+                        readBytes(readBuffer, 5);
+                        out.write(readBuffer, 0, 5);
+                        fieldCount = (int) readBuffer[4];
                         for (int i = 0; i < fieldCount; i++) {
                             id = readByte();
                             out.write(id);
                             int len = readByte();
                             out.write(len);
-                            readBytes(inpBuf, len);
-                            out.write(inpBuf, 0, len);
+                            readBytes(readBuffer, len);
+                            out.write(readBuffer, 0, len);
                         }
                         if (fieldCount == 0) {
                             int err = readByte();
@@ -257,9 +256,9 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
                 msg.setHeadless();
                 msg.writeTo(byteOutputStream);
                 len = byteOutputStream.size();
-                int[] crc = ModbusUtil.calculateCRC(byteOutputStream.getBuffer(), 0, len);
-                byteOutputStream.writeByte(crc[0]);
-                byteOutputStream.writeByte(crc[1]);
+                int crc = ModbusChecksum.crc16(byteOutputStream.getBuffer(), 0, len);
+                byteOutputStream.writeByte(crc & 0xFF);
+                byteOutputStream.writeByte(crc >>> 8);
                 // write message
                 writeBytes(byteOutputStream.getBuffer(), byteOutputStream.size());
                 if (logger.isDebugEnabled()) {
@@ -317,13 +316,19 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
 
                         byteInputStream.reset(inBuffer, dlength);
 
-                        // check CRC
-                        int[] crc = ModbusUtil.calculateCRC(inBuffer, 0, dlength); // does not include CRC
-                        if (ModbusUtil.unsignedByteToInt(inBuffer[dlength]) != crc[0] || ModbusUtil.unsignedByteToInt(inBuffer[dlength + 1]) != crc[1]) {
+                        // check CRC, which comes out as 0 over a frame that ends in its own CRC
+                        if (ModbusChecksum.crc16(inBuffer, 0, dlength + 2) != 0) {
                             if (logger.isDebugEnabled()) {
-                                logger.debug("CRC should be {}, {}", Integer.toHexString(crc[0]), Integer.toHexString(crc[1]));
+                                int crc = ModbusChecksum.crc16(inBuffer, 0, dlength);
+                                logger.debug("CRC should be {}, {}", Integer.toHexString(crc & 0xFF), Integer.toHexString(crc >>> 8));
                             }
 
+                            getMetrics().checksumError();
+                            listener.getDiagnostics().busMessage();
+
+                            // The Unit ID of a corrupt frame can't be trusted, so only the bus counter is updated
+                            listener.getDiagnostics().communicationError(-1);
+
                             // Drain the input in case the frame was misread and more
                             // was to follow.
                             clearInput();
@@ -348,7 +353,7 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
                                 if (logger.isDebugEnabled()) {
                                     logger.debug("Waiting for {} microsec", getMaxCharDelay());
                                 }
-                                bytesAvailable = spinUntilBytesAvailable(getMaxCharDelay());
+                                bytesAvailable = waitUntilBytesAvailable(getMaxCharDelay());
                             }
 
                             if (bytesAvailable) {
@@ -368,17 +373,22 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
                         if (logger.isDebugEnabled()) {
                             logger.debug("Waiting for {} microsec", getCharIntervalMicro(2));
                         }
-                        if (spinUntilBytesAvailable(getCharIntervalMicro(2))) {
+                        if (waitUntilBytesAvailable(getCharIntervalMicro(2))) {
                             // Discard the message
                             if (logger.isDebugEnabled()) {
                                 logger.debug("Discarding message (More than 1.5t between characters!) - {}", ModbusUtil.toHex(byteInputOutputStream.getBuffer(), 0, byteInputOutputStream.size()));
                             }
+                            listener.getDiagnostics().communicationError(-1);
                         }
                         else {
                             // This message is complete
                             if (logger.isDebugEnabled()) {
                                 logger.debug("Read message not meant for us: {}", ModbusUtil.toHex(byteInputOutputStream.getBuffer(), 0, byteInputOutputStream.size()));
                             }
+                            listener.getDiagnostics().busMessage();
+                            if (byteInputOutputStream.size() > Modbus.MAX_MESSAGE_LENGTH) {
+                                listener.getDiagnostics().characterOverrun(-1);
+                            }
                         }
                     }
                 }
@@ -444,10 +454,13 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
                         }
                         byteInputStream.reset(inBuffer, dlength);
 
-                        // check CRC
-                        int[] crc = ModbusUtil.calculateCRC(inBuffer, 0, dlength); // does not include CRC
-                        if (ModbusUtil.unsignedByteToInt(inBuffer[dlength]) != crc[0] || ModbusUtil.unsignedByteToInt(inBuffer[dlength + 1]) != crc[1]) {
-                            logger.debug("CRC should be {}, {}", crc[0], crc[1]);
+                        // check CRC, which comes out as 0 over a frame that ends in its own CRC
+                        if (ModbusChecksum.crc16(inBuffer, 0, dlength + 2) != 0) {
+                            if (logger.isDebugEnabled()) {
+                                int crc = ModbusChecksum.crc16(inBuffer, 0, dlength);
+                                logger.debug("CRC should be {}, {}", crc & 0xFF, crc >>> 8);
+                            }
+                            getMetrics().checksumError();
                             throw new IOException("CRC Error in received frame: " + dlength + " bytes: " + ModbusUtil.toHex(byteInputStream.getBuffer(), 0, dlength));
                         }
                     }
@@ -465,7 +478,7 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
         }
         catch (IOException ex) {
             // FIXME: This printout is wrong when reading response from other slave
-            throw new ModbusIOException("I/O exception - failed to read response for request [%s] - %s", ModbusUtil.toHex(lastRequest), ex.getMessage());
+            throw new ModbusIOException(String.format("I/O exception - failed to read response for request [%s] - %s", ModbusUtil.toHex(lastRequest), ex.getMessage()), ex);
         }
     }
 }
@@ -26,6 +26,8 @@ import com.ghgande.j2mod.modbus.util.ModbusUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.InterruptedIOException;
+
 /**
  * Class implementing the <tt>ModbusTransaction</tt>
  * interface.
@@ -125,6 +127,7 @@ public class ModbusSerialTransaction extends ModbusTransaction {
         //   while holding the lock on the IO object
         int tries = 0;
         boolean finished = false;
+        long start = System.nanoTime();
         do {
             try {
                 // Wait between adjacent requests
@@ -133,15 +136,24 @@ public class ModbusSerialTransaction extends ModbusTransaction {
                 synchronized (this) {
                     //write request message
                     transport.writeRequest(request);
+                    transport.getMetrics().bytesOut(request.getOutputLength());
                     //read response message
                     response = transport.readResponse();
+                    if (response != null) {
+                        transport.getMetrics().bytesIn(response.getOutputLength());
+                    }
                     finished = true;
                 }
             }
             catch (ModbusIOException e) {
                 if (++tries >= retries) {
+                    if (e.getCause() instanceof InterruptedIOException) {
+                        transport.getMetrics().timeout(request.getUnitID());
+                    }
+                    transport.getMetrics().requestFailed(request.getUnitID(), request.getFunctionCode());
                     throw e;
                 }
+                transport.getMetrics().retry(request.getFunctionCode());
                 ModbusUtil.sleep(getRandomSleepTime(tries));
                 logger.debug("Execute try {} error: {}", tries, e.getMessage());
             }
@@ -149,6 +161,7 @@ public class ModbusSerialTransaction extends ModbusTransaction {
 
         //4. deal with exceptions
         if (response instanceof ExceptionResponse) {
+            transport.getMetrics().requestFailed(request.getUnitID(), request.getFunctionCode());
             throw new ModbusSlaveException(((ExceptionResponse) response).getExceptionCode());
         }
 
@@ -159,6 +172,7 @@ public class ModbusSerialTransaction extends ModbusTransaction {
 
         // Set the last transaction timestamp
         lastTransactionTimestamp = System.nanoTime();
+        transport.getMetrics().requestCompleted(request.getUnitID(), request.getFunctionCode(), lastTransactionTimestamp - start);
     }
 
 }
@@ -28,13 +28,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Abstract base class for serial <tt>ModbusTransport</tt>
  * implementations.
+ * <p>
+ * Received bytes are read from the port in bulk into a ring buffer and
+ * handed out from there, so reading a frame a byte at a time does not cost a
+ * native call per byte. While waiting for the silent intervals that delimit
+ * RTU frames the reading thread is parked, and woken early by the port's data
+ * available event where the connection supports one.
  *
  * @author Dieter Wimberger
  * @author John Charlton
@@ -58,10 +66,28 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
      * The number of nanoseconds there is in a millisecond
      */
     private static final int NS_IN_A_MS = 1000000;
+
+    /**
+     * Size of the receive ring buffer, a power of two that holds several frames
+     */
+    private static final int RING_SIZE = 1024;
+    private static final int RING_MASK = RING_SIZE - 1;
+
+    /**
+     * How often to check for data when the port cannot signal its arrival
+     */
+    private static final long POLL_INTERVAL_NS = 100000;
     private static final String CANNOT_READ_FROM_SERIAL_PORT = "Cannot read from serial port";
+    private static final String SERIAL_PORT_TIMEOUT = "No data received from serial port within the timeout";
     private static final String COMM_PORT_IS_NOT_VALID_OR_NOT_OPEN = "Comm port is not valid or not open";
     private AbstractSerialConnection commPort;
     boolean echo = false;     // require RS-485 echo processing
+    private final byte[] ring = new byte[RING_SIZE];
+    private int ringHead;     // next byte to hand out
+    private int ringTail;     // next free slot
+    private byte[] echoBuffer = new byte[Modbus.MAX_MESSAGE_LENGTH];
+    private boolean dataEvents = false;
+    private volatile Thread dataWaiter;
     private final Set<AbstractSerialTransportListener> listeners = Collections.synchronizedSet(new HashSet<AbstractSerialTransportListener>());
 
     /**
@@ -117,17 +143,15 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
             double delayNanoSeconds = delay % 1000000;
             try {
 
-                // For delays less than a millisecond, we need to chew CPU cycles unfortunately
+                // For delays less than a millisecond, park rather than sleep as sleep rounds up to milliseconds
                 // There are some fiddle factors here to allow for some oddities in the hardware
 
                 if (delayMilliSeconds == 0.0) {
-                    int priority = Thread.currentThread().getPriority();
-                    Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
                     long end = startTime + ((int) (delayNanoSeconds * 1.3));
-                    while (System.nanoTime() < end) {
-                        // noop
+                    long remaining;
+                    while ((remaining = end - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(remaining);
                     }
-                    Thread.currentThread().setPriority(priority);
                 }
                 else {
                     Thread.sleep((int) (delayMilliSeconds * 1.7), (int) (delayNanoSeconds * 1.5));
@@ -327,7 +351,23 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
      */
     public void setCommPort(AbstractSerialConnection cp) throws IOException {
         commPort = cp;
+        discardBuffered();
+        resetMetrics();
         setTimeout(timeout);
+        dataEvents = cp != null && cp.setDataAvailableListener(new Runnable() {
+            @Override
+            public void run() {
+                Thread waiter = dataWaiter;
+                if (waiter != null) {
+                    LockSupport.unpark(waiter);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected String getMetricsName() {
+        return commPort == null ? super.getMetricsName() : "serial:" + commPort.getPortName();
     }
 
     /**
@@ -366,19 +406,74 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
      * @throws IOException if a I/O error occurred.
      */
     protected void readEcho(int len) throws IOException {
-        byte[] echoBuf = new byte[len];
-        int echoLen = commPort.readBytes(echoBuf, len);
-        if (logger.isDebugEnabled()) {
-            logger.debug("Echo: {}", ModbusUtil.toHex(echoBuf, 0, echoLen));
+
+        // ASCII frames can be longer than an RTU one, so grow the buffer the first time one is echoed
+        if (echoBuffer.length < len) {
+            echoBuffer = new byte[len];
+        }
+        byte[] echoBuf = echoBuffer;
+        try {
+            readBytes(echoBuf, len);
         }
-        if (echoLen != len) {
+        catch (IOException e) {
             logger.debug("Error: Transmit echo not received");
             throw new IOException("Echo not received");
         }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Echo: {}", ModbusUtil.toHex(echoBuf, 0, len));
+        }
     }
 
+    /**
+     * Returns the number of bytes that can be read without blocking, i.e.
+     * those already buffered plus those waiting at the port
+     *
+     * @return Number of bytes available
+     */
     protected int availableBytes() {
-        return commPort.bytesAvailable();
+        return ringTail - ringHead + commPort.bytesAvailable();
+    }
+
+    /**
+     * Reads everything waiting at the port into the ring buffer, blocking
+     * until at least <tt>minBytes</tt> have arrived or the port times out
+     *
+     * @param minBytes Number of bytes to wait for
+     * @throws IOException If the port is invalid or cannot be read
+     */
+    private void fill(int minBytes) throws IOException {
+        if (commPort == null || !commPort.isOpen()) {
+            throw new IOException(COMM_PORT_IS_NOT_VALID_OR_NOT_OPEN);
+        }
+        if (ringTail == ringHead) {
+            ringHead = 0;
+            ringTail = 0;
+        }
+        int want = Math.min(RING_SIZE - (ringTail - ringHead), Math.max(minBytes, commPort.bytesAvailable()));
+        while (want > 0) {
+            int pos = ringTail & RING_MASK;
+            int chunk = Math.min(want, RING_SIZE - pos);
+            int cnt = commPort.readBytes(ring, chunk, pos);
+            if (cnt < 0) {
+                throw new IOException(CANNOT_READ_FROM_SERIAL_PORT);
+            }
+            if (cnt == 0) {
+                break;
+            }
+            ringTail += cnt;
+            want -= cnt;
+            if (cnt < chunk) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Throws away anything in the ring buffer
+     */
+    private void discardBuffered() {
+        ringHead = 0;
+        ringTail = 0;
     }
 
     /**
@@ -386,22 +481,17 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
      *
      * @return Value of the byte
      *
-     * @throws IOException If it cannot read or times out
+     * @throws IOException If it cannot read, or an <tt>InterruptedIOException</tt>
+     *                     if no byte arrives within the timeout
      */
     protected int readByte() throws IOException {
-        if (commPort != null && commPort.isOpen()) {
-            byte[] buffer = new byte[1];
-            int cnt = commPort.readBytes(buffer, 1);
-            if (cnt != 1) {
-                throw new IOException(CANNOT_READ_FROM_SERIAL_PORT);
-            }
-            else {
-                return buffer[0] & 0xff;
+        if (ringTail == ringHead) {
+            fill(1);
+            if (ringTail == ringHead) {
+                throw new InterruptedIOException(SERIAL_PORT_TIMEOUT);
             }
         }
-        else {
-            throw new IOException(COMM_PORT_IS_NOT_VALID_OR_NOT_OPEN);
-        }
+        return ring[ringHead++ & RING_MASK] & 0xff;
     }
 
     /**
@@ -412,15 +502,20 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
      * @throws IOException If the port is invalid or if the number of bytes returned is not equal to that asked for
      */
     void readBytes(byte[] buffer, long bytesToRead) throws IOException {
-        if (commPort != null && commPort.isOpen()) {
-            int cnt = commPort.readBytes(buffer, bytesToRead);
-            if (cnt != bytesToRead) {
+        int len = (int)bytesToRead;
+        int buffered = ringTail - ringHead;
+        if (buffered < len) {
+            fill(len - buffered);
+            if (ringTail - ringHead < len) {
+                discardBuffered();
                 throw new IOException("Cannot read from serial port - truncated");
             }
         }
-        else {
-            throw new IOException(COMM_PORT_IS_NOT_VALID_OR_NOT_OPEN);
-        }
+        int pos = ringHead & RING_MASK;
+        int first = Math.min(len, RING_SIZE - pos);
+        System.arraycopy(ring, pos, buffer, 0, first);
+        System.arraycopy(ring, 0, buffer, first, len - first);
+        ringHead += len;
     }
 
     /**
@@ -450,38 +545,23 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
      * @throws IOException If a problem with the port
      */
     int readAsciiByte() throws IOException {
-        if (commPort != null && commPort.isOpen()) {
-            byte[] buffer = new byte[1];
-            int cnt = commPort.readBytes(buffer, 1);
-            if (cnt != 1) {
-                throw new IOException(CANNOT_READ_FROM_SERIAL_PORT);
-            }
-            else if (buffer[0] == ':') {
-                return FRAME_START;
-            }
-            else if (buffer[0] == '\r' || buffer[0] == '\n') {
-                return FRAME_END;
-            }
-            else {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Read From buffer: {} ({})", buffer[0], String.format("%02X", buffer[0]));
-                }
-                byte firstValue = buffer[0];
-                cnt = commPort.readBytes(buffer, 1);
-                if (cnt != 1) {
-                    throw new IOException(CANNOT_READ_FROM_SERIAL_PORT);
-                }
-                else {
-                    int combinedValue = (Character.digit(firstValue, 16) << 4) + Character.digit(buffer[0], 16);
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Returning combined value of: {}", String.format("%02X", combinedValue));
-                    }
-                    return combinedValue;
-                }
-            }
+        int firstValue = readByte();
+        if (firstValue == ':') {
+            return FRAME_START;
+        }
+        else if (firstValue == '\r' || firstValue == '\n') {
+            return FRAME_END;
         }
         else {
-            throw new IOException(COMM_PORT_IS_NOT_VALID_OR_NOT_OPEN);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Read From buffer: {} ({})", firstValue, String.format("%02X", firstValue));
+            }
+            int secondValue = readByte();
+            int combinedValue = (Character.digit(firstValue, 16) << 4) + Character.digit(secondValue, 16);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Returning combined value of: {}", String.format("%02X", combinedValue));
+            }
+            return combinedValue;
         }
     }
 
@@ -556,13 +636,20 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
      * @throws IOException If a problem with the port
      */
     void clearInput() throws IOException {
-        if (commPort.bytesAvailable() > 0) {
-            int len = commPort.bytesAvailable();
-            byte[] buf = new byte[len];
-            readBytes(buf, len);
+        while (availableBytes() > 0) {
+            if (ringTail == ringHead) {
+                fill(0);
+            }
+            int len = ringTail - ringHead;
+            if (len == 0) {
+                break;
+            }
             if (logger.isDebugEnabled()) {
+                byte[] buf = new byte[len];
+                readBytes(buf, len);
                 logger.debug("Clear input: {}", ModbusUtil.toHex(buf, 0, len));
             }
+            discardBuffered();
         }
     }
 
@@ -573,7 +660,9 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
      */
     @Override
     public void close() throws IOException {
+        discardBuffered();
         commPort.close();
+        resetMetrics();
     }
 
     /**
@@ -670,20 +759,29 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
     }
 
     /**
-     * Spins until the timeout or the condition is met.
-     * This method will repeatedly poll the available bytes, so it should not have any side effects.
+     * Waits until data is available or the time is up.
+     * The thread is parked while it waits and is woken by the port's data
+     * available event, or checks the port every {@link #POLL_INTERVAL_NS}
+     * nanoseconds if the connection has no such event.
      *
-     * @param waitTimeMicroSec The time to wait for the condition to be true in microseconds
-     * @return true if the condition ended the spin, false if the tim
+     * @param waitTimeMicroSec The time to wait for data in microseconds
+     * @return true if data arrived, false if the time ran out
      */
-    boolean spinUntilBytesAvailable(long waitTimeMicroSec) {
-        long start = System.nanoTime();
-        while (availableBytes() < 1) {
-            long delta = System.nanoTime() - start;
-            if (delta > waitTimeMicroSec * 1000) {
-                return false;
+    boolean waitUntilBytesAvailable(long waitTimeMicroSec) {
+        long deadline = System.nanoTime() + waitTimeMicroSec * 1000;
+        dataWaiter = Thread.currentThread();
+        try {
+            while (availableBytes() < 1) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, dataEvents ? remaining : Math.min(remaining, POLL_INTERVAL_NS));
             }
+            return true;
+        }
+        finally {
+            dataWaiter = null;
         }
-        return true;
     }
 }
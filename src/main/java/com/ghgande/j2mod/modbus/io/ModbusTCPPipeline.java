@@ -0,0 +1,495 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.io;
+
+import com.ghgande.j2mod.modbus.Modbus;
+import com.ghgande.j2mod.modbus.ModbusException;
+import com.ghgande.j2mod.modbus.ModbusIOException;
+import com.ghgande.j2mod.modbus.msg.ModbusRequest;
+import com.ghgande.j2mod.modbus.msg.ModbusResponse;
+import com.ghgande.j2mod.modbus.net.TCPMasterConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Class that pipelines requests over a single <tt>TCPMasterConnection</tt>.
+ * <p>
+ * Instead of the strict write/read lock-step of the <tt>ModbusTCPTransaction</tt>,
+ * up to <tt>depth</tt> requests are written to the socket without waiting for
+ * the previous response. A dedicated reader thread decodes the MBAP frames as
+ * they arrive and hands each response to the request with the matching
+ * transaction ID, so a slow answer never holds up the ones behind it.
+ * <p>
+ * Pipelining relies on the transaction ID of the MBAP header, so it cannot be
+ * used for RTU over TCP or headless connections.
+ */
+public class ModbusTCPPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModbusTCPPipeline.class);
+
+    private final TCPMasterConnection connection;
+    private final int depth;
+    private final Semaphore window;
+    private final Map<Integer, PendingRequest> pending = new ConcurrentHashMap<Integer, PendingRequest>();
+    private final Object writeLock = new Object();
+    private int nextTransactionID = Modbus.DEFAULT_TRANSACTION_ID;
+    private volatile int timeout;
+    private volatile ModbusTCPTransport transport;
+    private Thread reader;
+    private volatile ScheduledExecutorService timer;
+    private ExecutorService sender;
+
+    /**
+     * Constructs a new <tt>ModbusTCPPipeline</tt> with the default depth
+     *
+     * @param connection Connection to pipeline requests over
+     */
+    public ModbusTCPPipeline(TCPMasterConnection connection) {
+        this(connection, Modbus.DEFAULT_PIPELINE_DEPTH);
+    }
+
+    /**
+     * Constructs a new <tt>ModbusTCPPipeline</tt>
+     *
+     * @param connection Connection to pipeline requests over
+     * @param depth      Maximum number of requests in flight at any one time
+     */
+    public ModbusTCPPipeline(TCPMasterConnection connection, int depth) {
+        if (connection == null) {
+            throw new IllegalArgumentException("Connection cannot be null");
+        }
+        if (depth < 1 || depth > Modbus.MAX_TRANSACTION_ID) {
+            throw new IllegalArgumentException(String.format("Pipeline depth must be between 1 and %d", Modbus.MAX_TRANSACTION_ID));
+        }
+        this.connection = connection;
+        this.depth = depth;
+        window = new Semaphore(depth, true);
+        timeout = connection.getTimeout();
+    }
+
+    /**
+     * Returns the connection used by this pipeline
+     *
+     * @return Connection
+     */
+    public TCPMasterConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns the maximum number of requests in flight
+     *
+     * @return Depth of the pipeline
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the timeout (msec) applied to each request
+     *
+     * @return Timeout in milliseconds
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the timeout (msec) applied to each request and used when connecting.
+     * This must be used instead of setting the timeout on the connection, which
+     * would make the reader give up on an idle socket.
+     *
+     * @param timeout Timeout in milliseconds
+     */
+    public synchronized void setTimeout(int timeout) {
+        this.timeout = timeout;
+        connection.setTimeout(timeout);
+        if (transport != null) {
+            transport.setTimeout(0);
+        }
+    }
+
+    /**
+     * Returns the number of requests currently awaiting a response
+     *
+     * @return Number of outstanding requests
+     */
+    public int getOutstanding() {
+        return pending.size();
+    }
+
+    /**
+     * Creates a transaction that executes its request through this pipeline
+     *
+     * @return New transaction
+     */
+    public ModbusTCPPipelinedTransaction createTransaction() {
+        return new ModbusTCPPipelinedTransaction(this);
+    }
+
+    /**
+     * Connects the underlying connection if necessary and starts the reader
+     *
+     * @throws ModbusIOException If the connection cannot be opened
+     */
+    public void open() throws ModbusIOException {
+        ensureOpen();
+    }
+
+    /**
+     * Closes the connection and fails any requests that are still outstanding
+     */
+    public synchronized void close() {
+        ModbusTCPTransport current = transport;
+        transport = null;
+        if (current != null) {
+            connection.close();
+        }
+        if (reader != null) {
+            reader.interrupt();
+            reader = null;
+        }
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+        ModbusIOException closed = new ModbusIOException("Pipeline to %s:%d closed", connection.getAddress(), connection.getPort());
+        if (sender != null) {
+            for (Runnable queued : sender.shutdownNow()) {
+                ((Submission)queued).future.completeExceptionally(closed);
+            }
+            sender = null;
+        }
+        failPending(null, closed);
+    }
+
+    /**
+     * Queues the request and returns immediately with a future that is completed
+     * by the reader thread when the matching response arrives.
+     * <p>
+     * Connecting and waiting for a free slot in the window are done by the
+     * sender thread of the pipeline, so the caller is never blocked. The request
+     * is given a transaction ID unique within the pipeline. The returned future
+     * fails with a <tt>ModbusIOException</tt> if there is no room in the window or
+     * no response is received within the timeout, or the connection is lost.
+     *
+     * @param request Request to send
+     *
+     * @return Future response
+     */
+    public CompletableFuture<ModbusResponse> submit(ModbusRequest request) {
+        CompletableFuture<ModbusResponse> future = new CompletableFuture<ModbusResponse>();
+        if (request == null) {
+            future.completeExceptionally(new ModbusIOException("Invalid request"));
+            return future;
+        }
+        Submission submission = new Submission(request, future, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+        try {
+            getSender().execute(submission);
+        }
+        catch (RejectedExecutionException ex) {
+            future.completeExceptionally(new ModbusIOException("Pipeline to %s:%d closed", connection.getAddress(), connection.getPort()));
+        }
+        return future;
+    }
+
+    /**
+     * Sends the request and waits for the matching response
+     *
+     * @param request Request to send
+     *
+     * @return Response from the slave
+     *
+     * @throws ModbusException If the request times out or the connection fails
+     */
+    public ModbusResponse execute(ModbusRequest request) throws ModbusException {
+        if (request == null) {
+            throw new ModbusIOException("Invalid request");
+        }
+
+        // The caller is going to wait anyway, so the request is sent from its own thread
+        CompletableFuture<ModbusResponse> future = new CompletableFuture<ModbusResponse>();
+        send(request, future, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+        try {
+            return future.get();
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof ModbusException) {
+                throw (ModbusException)ex.getCause();
+            }
+            throw new ModbusIOException("Pipelined request failed - %s", ex.getCause().getMessage());
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            throw new ModbusIOException("Interrupted waiting for response to transaction %d", request.getTransactionID());
+        }
+    }
+
+    /**
+     * Connects if necessary, waits until the deadline for a free slot in the
+     * window and writes the request. Any failure completes the future.
+     *
+     * @param request  Request to send
+     * @param future   Future to complete with the response
+     * @param deadline Time (nanoTime) by which a slot in the window must be free
+     */
+    private void send(ModbusRequest request, CompletableFuture<ModbusResponse> future, long deadline) {
+        if (future.isDone()) {
+            return;
+        }
+        ModbusTCPTransport currentTransport;
+        try {
+            currentTransport = ensureOpen();
+        }
+        catch (ModbusIOException ex) {
+            future.completeExceptionally(ex);
+            return;
+        }
+        int timeout = this.timeout;
+        try {
+            if (!window.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                future.completeExceptionally(new ModbusIOException("No free slot in the pipeline window of %d after %d ms", depth, timeout));
+                return;
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(new ModbusIOException("Interrupted waiting for a free slot in the pipeline"));
+            return;
+        }
+
+        final PendingRequest pendingRequest = new PendingRequest(currentTransport, future);
+        final int id = register(pendingRequest);
+        request.setTransactionID(id);
+        future.whenComplete((response, ex) -> {
+            pending.remove(id, pendingRequest);
+            window.release();
+            if (pendingRequest.expiry != null) {
+                pendingRequest.expiry.cancel(false);
+            }
+        });
+
+        ScheduledExecutorService currentTimer = timer;
+        if (timeout > 0 && currentTimer != null) {
+            try {
+                pendingRequest.expiry = currentTimer.schedule(() ->
+                        future.completeExceptionally(new ModbusIOException("Timeout waiting for response to transaction %d from %s:%d", id, connection.getAddress(), connection.getPort())),
+                        timeout, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException ex) {
+                future.completeExceptionally(new ModbusIOException("Pipeline to %s:%d closed", connection.getAddress(), connection.getPort()));
+                return;
+            }
+        }
+
+        try {
+            synchronized (writeLock) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Writing pipelined request: {} transaction ID = {} to {}:{}", request.getHexMessage(), id, connection.getAddress(), connection.getPort());
+                }
+                currentTransport.writeRequest(request);
+            }
+        }
+        catch (ModbusIOException ex) {
+            future.completeExceptionally(ex);
+            fail(currentTransport, ex);
+        }
+    }
+
+    /**
+     * Returns the thread that sends the submitted requests, starting it if necessary
+     *
+     * @return Sender
+     */
+    private synchronized ExecutorService getSender() {
+        if (sender == null) {
+            sender = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, String.format("Modbus TCP Pipeline Sender %s:%d", connection.getAddress(), connection.getPort()));
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sender;
+    }
+
+    /**
+     * Makes sure the connection is open and the reader thread is running
+     *
+     * @return Transport to write requests to
+     *
+     * @throws ModbusIOException If the connection cannot be opened
+     */
+    private synchronized ModbusTCPTransport ensureOpen() throws ModbusIOException {
+        if (transport != null && connection.isConnected()) {
+            return transport;
+        }
+        if (transport != null) {
+            fail(transport, new ModbusIOException("Connection to %s:%d lost", connection.getAddress(), connection.getPort()));
+        }
+        if (connection.isUseRtuOverTcp()) {
+            throw new ModbusIOException("Pipelining is not supported for RTU over TCP connections");
+        }
+        try {
+            if (!connection.isConnected()) {
+                logger.debug("Connecting to: {}:{}", connection.getAddress(), connection.getPort());
+                connection.connect();
+            }
+        }
+        catch (Exception ex) {
+            throw new ModbusIOException("Connection failed for %s:%d %s", connection.getAddress(), connection.getPort(), ex.getMessage());
+        }
+        AbstractModbusTransport connectionTransport = connection.getModbusTransport();
+        if (!(connectionTransport instanceof ModbusTCPTransport) || connectionTransport instanceof ModbusRTUTCPTransport) {
+            throw new ModbusIOException("Pipelining requires a Modbus TCP transport");
+        }
+        transport = (ModbusTCPTransport)connectionTransport;
+
+        // The reader blocks until a frame arrives - timeouts are applied to each request instead
+        transport.setTimeout(0);
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, String.format("Modbus TCP Pipeline Timer %s:%d", connection.getAddress(), connection.getPort()));
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        reader = new Thread(new Reader(transport), String.format("Modbus TCP Pipeline Reader %s:%d", connection.getAddress(), connection.getPort()));
+        reader.setDaemon(true);
+        reader.start();
+        return transport;
+    }
+
+    /**
+     * Allocates a transaction ID that is not in use by an outstanding request
+     *
+     * @param request Request to register
+     *
+     * @return Transaction ID
+     */
+    private synchronized int register(PendingRequest request) {
+        while (true) {
+            int id = nextTransactionID;
+            nextTransactionID = id >= Modbus.MAX_TRANSACTION_ID ? Modbus.DEFAULT_TRANSACTION_ID : id + 1;
+            if (pending.putIfAbsent(id, request) == null) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Closes the connection after a failure and fails the requests sent over it
+     *
+     * @param failedTransport Transport that failed
+     * @param ex              Reason for the failure
+     */
+    private synchronized void fail(ModbusTCPTransport failedTransport, ModbusIOException ex) {
+        if (failedTransport == transport) {
+            logger.debug("Pipeline to {}:{} failed - {}", connection.getAddress(), connection.getPort(), ex.getMessage());
+            transport = null;
+            reader = null;
+            connection.close();
+        }
+        failPending(failedTransport, ex);
+    }
+
+    /**
+     * Fails all the outstanding requests sent over the given transport
+     *
+     * @param failedTransport Transport to fail the requests of or null for all requests
+     * @param ex              Reason for the failure
+     */
+    private void failPending(ModbusTCPTransport failedTransport, ModbusIOException ex) {
+        for (PendingRequest request : pending.values()) {
+            if (failedTransport == null || request.transport == failedTransport) {
+                request.future.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /**
+     * A request that has been written and is waiting for its response
+     */
+    private static class PendingRequest {
+        private final CompletableFuture<ModbusResponse> future;
+        private final ModbusTCPTransport transport;
+        private volatile ScheduledFuture<?> expiry;
+
+        PendingRequest(ModbusTCPTransport transport, CompletableFuture<ModbusResponse> future) {
+            this.transport = transport;
+            this.future = future;
+        }
+    }
+
+    /**
+     * A submitted request waiting for the sender thread
+     */
+    private class Submission implements Runnable {
+        private final ModbusRequest request;
+        private final CompletableFuture<ModbusResponse> future;
+        private final long deadline;
+
+        Submission(ModbusRequest request, CompletableFuture<ModbusResponse> future, long deadline) {
+            this.request = request;
+            this.future = future;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            try {
+                send(request, future, deadline);
+            }
+            catch (RuntimeException ex) {
+                future.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /**
+     * Reads responses from the transport and completes the matching requests
+     */
+    private class Reader implements Runnable {
+        private final ModbusTCPTransport readerTransport;
+
+        Reader(ModbusTCPTransport readerTransport) {
+            this.readerTransport = readerTransport;
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    ModbusResponse response = readerTransport.readResponse();
+                    PendingRequest request = pending.get(response.getTransactionID());
+                    if (request == null || request.transport != readerTransport) {
+                        logger.debug("Discarding response for unknown or expired transaction ID {}", response.getTransactionID());
+                    }
+                    else {
+                        request.future.complete(response);
+                    }
+                }
+                catch (ModbusIOException ex) {
+                    fail(readerTransport, ex);
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.io;
+
+import com.ghgande.j2mod.modbus.Modbus;
+import com.ghgande.j2mod.modbus.ModbusException;
+import com.ghgande.j2mod.modbus.ModbusIOException;
+import com.ghgande.j2mod.modbus.ModbusSlaveException;
+import com.ghgande.j2mod.modbus.msg.ExceptionResponse;
+import com.ghgande.j2mod.modbus.msg.ModbusRequest;
+import com.ghgande.j2mod.modbus.util.ModbusUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class implementing a <tt>ModbusTransaction</tt> that is executed through a
+ * <tt>ModbusTCPPipeline</tt>.
+ * <p>
+ * Each thread should use its own transaction - transactions sharing the same
+ * pipeline execute concurrently over the one connection.
+ */
+public class ModbusTCPPipelinedTransaction extends ModbusTransaction {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModbusTCPPipelinedTransaction.class);
+
+    private final ModbusTCPPipeline pipeline;
+
+    /**
+     * Constructs a new <tt>ModbusTCPPipelinedTransaction</tt> instance
+     *
+     * @param pipeline Pipeline to execute the request through
+     */
+    public ModbusTCPPipelinedTransaction(ModbusTCPPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Constructs a new <tt>ModbusTCPPipelinedTransaction</tt> instance with a given
+     * <tt>ModbusRequest</tt> to be sent when the transaction is executed.
+     *
+     * @param pipeline Pipeline to execute the request through
+     * @param request  a <tt>ModbusRequest</tt> instance.
+     */
+    public ModbusTCPPipelinedTransaction(ModbusTCPPipeline pipeline, ModbusRequest request) {
+        this.pipeline = pipeline;
+        setRequest(request);
+    }
+
+    @Override
+    public synchronized void execute() throws ModbusException {
+
+        if (request == null || pipeline == null) {
+            throw new ModbusException("Invalid request or pipeline");
+        }
+
+        int retryCounter = 0;
+        int retryLimit = (retries > 0 ? retries : Modbus.DEFAULT_RETRIES);
+        response = null;
+        while (response == null) {
+            try {
+                response = pipeline.execute(request);
+            }
+            catch (ModbusIOException ex) {
+                retryCounter++;
+                if (retryCounter >= retryLimit) {
+                    throw new ModbusIOException("Executing transaction %s failed (tried %d times) %s", request.getHexMessage(), retryLimit, ex.getMessage());
+                }
+                long sleepTime = getRandomSleepTime(retryCounter);
+                logger.debug("Failed pipelined request: {} (try: {}) - {} retrying after {} milliseconds", request.getHexMessage(), retryCounter, ex.getMessage(), sleepTime);
+                ModbusUtil.sleep(sleepTime);
+            }
+        }
+
+        // The slave may have returned an exception -- check for that.
+        if (response instanceof ExceptionResponse) {
+            throw new ModbusSlaveException(((ExceptionResponse)response).getExceptionCode());
+        }
+        if (isCheckingValidity()) {
+            checkValidity();
+        }
+    }
+}
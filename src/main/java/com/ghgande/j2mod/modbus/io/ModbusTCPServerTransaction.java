@@ -45,16 +45,22 @@ public class ModbusTCPServerTransaction extends ModbusTransaction {
             // Make sure the timeout is set
             transport.setTimeout(connection.getTimeout());
 
+            // The ID is released after every attempt, whether or not it was answered
+            TransactionIDAllocator ids = getTransactionIDs();
+            int transactionID = request.getTransactionID();
             try {
 
                 // Write the message to the endpoint
                 if (logger.isDebugEnabled()) {
                     logger.debug("Writing request: {} (try: {}) request transaction ID = {} to {}:{}", request.getHexMessage(), retryCounter, request.getTransactionID(), connection.getAddress(), connection.getPort());
                 }
+                if (validityCheck) {
+                    ids.register(transactionID);
+                }
                 transport.writeRequest(request);
 
                 // Read the response
-                response = transport.readResponse();
+                response = readResponse();
                 if (logger.isDebugEnabled()) {
                     logger.debug("Read response: {} (try: {}) response transaction ID = {} from {}:{}", response.getHexMessage(), retryCounter, response.getTransactionID(), connection.getAddress(), connection.getPort());
                 }
@@ -98,6 +104,10 @@ public class ModbusTCPServerTransaction extends ModbusTransaction {
                 // If this has happened, then we should close and re-open the connection before re-trying
                 logger.debug("Failed request {} (try: {}) request transaction ID = {} - {} closing and re-opening connection {}:{}", request.getHexMessage(), retryCounter, request.getTransactionID(), ex.getMessage(), connection.getAddress().toString(), connection.getPort());
                 connection.close();
+            } finally {
+                if (validityCheck) {
+                    ids.release(transactionID);
+                }
             }
 
             // Increment the transaction ID if we are still trying
@@ -125,23 +135,4 @@ public class ModbusTCPServerTransaction extends ModbusTransaction {
             return false;
         }
     }
-
-    /**
-     * incrementTransactionID -- Increment the transaction ID for the next
-     * transaction. Note that the caller must get the new transaction ID with
-     * getTransactionID(). This is only done validity checking is enabled so
-     * that dumb slaves don't cause problems. The original request will have its
-     * transaction ID incremented as well so that sending the same transaction
-     * again won't cause problems.
-     */
-    private synchronized void incrementTransactionID() {
-        if (isCheckingValidity()) {
-            if (transactionID >= Modbus.MAX_TRANSACTION_ID) {
-                transactionID = Modbus.DEFAULT_TRANSACTION_ID;
-            } else {
-                transactionID++;
-            }
-        }
-        request.setTransactionID(getTransactionID());
-    }
 }
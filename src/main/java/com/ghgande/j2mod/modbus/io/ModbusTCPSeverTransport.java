@@ -16,6 +16,7 @@ import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ModbusTCPSeverTransport extends AbstractModbusTransport {
 
@@ -26,10 +27,11 @@ public class ModbusTCPSeverTransport extends AbstractModbusTransport {
     private DataInputStream dataInputStream; // input stream
     private DataOutputStream dataOutputStream; // output stream
     private final BytesInputStream byteInputStream = new BytesInputStream(Modbus.MAX_MESSAGE_LENGTH + 6);
+    private final ReentrantLock readLock = new ReentrantLock(); // not a monitor, so a virtual thread blocked reading does not pin its carrier
     private final BytesOutputStream byteOutputStream = new BytesOutputStream(Modbus.MAX_MESSAGE_LENGTH + 6); // write frames
     protected Socket socket = null;
     private boolean headless = false; // Some TCP implementations are.
-    private long lastActivityTimestamp;  // System.nanoTime() of last transportation
+    private volatile long lastActivityTimestamp;  // System.nanoTime() of last transportation
 
     private TCPListenerConnection master;
 
@@ -73,7 +75,8 @@ public class ModbusTCPSeverTransport extends AbstractModbusTransport {
         try {
             byteInputStream.reset();
 
-            synchronized (byteInputStream) {
+            readLock.lock();
+            try {
                 byte[] buffer = byteInputStream.getBuffer();
 
                 if (!headless) {
@@ -129,6 +132,9 @@ public class ModbusTCPSeverTransport extends AbstractModbusTransport {
                     }
                 }
             }
+            finally {
+                readLock.unlock();
+            }
             return req;
         } catch (EOFException eoex) {
             throw new ModbusIOException("End of File", true);
@@ -148,7 +154,8 @@ public class ModbusTCPSeverTransport extends AbstractModbusTransport {
         try {
             ModbusResponse response;
 
-            synchronized (byteInputStream) {
+            readLock.lock();
+            try {
                 // use same buffer
                 byte[] buffer = byteInputStream.getBuffer();
                 logger.debug("Reading response...");
@@ -202,6 +209,9 @@ public class ModbusTCPSeverTransport extends AbstractModbusTransport {
                     dataInputStream.readShort();
                 }
             }
+            finally {
+                readLock.unlock();
+            }
             if (logger.isDebugEnabled()) {
                 logger.debug("Successfully read: {}", response.getHexMessage());
             }
@@ -209,7 +219,7 @@ public class ModbusTCPSeverTransport extends AbstractModbusTransport {
         } catch (EOFException ex1) {
             throw new ModbusIOException("Premature end of stream (Message truncated) - %s", ex1.getMessage());
         } catch (SocketTimeoutException ex2) {
-            throw new ModbusIOException("Socket timeout reading response - %s", ex2.getMessage());
+            throw new ModbusIOException("Socket timeout reading response - " + ex2.getMessage(), ex2);
         } catch (Exception ex3) {
             throw new ModbusIOException("General exception - failed to read - %s", ex3.getMessage());
         }
@@ -310,29 +320,8 @@ public class ModbusTCPSeverTransport extends AbstractModbusTransport {
             if (logger.isDebugEnabled()) {
                 logger.debug("Sending: {}", msg.getHexMessage());
             }
-            byte[] message = msg.getMessage();
-
-            byteOutputStream.reset();
-            if (!headless) {
-                byteOutputStream.writeShort(msg.getTransactionID());
-                byteOutputStream.writeShort(msg.getProtocolID());
-                byteOutputStream.writeShort((message != null ? message.length : 0) + 2);
-            }
-            byteOutputStream.writeByte(msg.getUnitID());
-            byteOutputStream.writeByte(msg.getFunctionCode());
-            if (message != null && message.length > 0) {
-                byteOutputStream.write(message);
-            }
-
-            // Add CRC for RTU over TCP
-            if (useRtuOverTcp) {
-                int len = byteOutputStream.size();
-                int[] crc = ModbusUtil.calculateCRC(byteOutputStream.getBuffer(), 0, len);
-                byteOutputStream.writeByte(crc[0]);
-                byteOutputStream.writeByte(crc[1]);
-            }
-
-            dataOutputStream.write(byteOutputStream.toByteArray());
+            ModbusTCPTransport.writeFrame(byteOutputStream, msg, headless, useRtuOverTcp);
+            byteOutputStream.writeTo(dataOutputStream);
             dataOutputStream.flush();
             if (logger.isDebugEnabled()) {
                 logger.debug("Successfully sent: {}", ModbusUtil.toHex(byteOutputStream.toByteArray()));
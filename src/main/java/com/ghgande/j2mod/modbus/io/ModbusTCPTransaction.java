@@ -26,6 +26,8 @@ import com.ghgande.j2mod.modbus.util.ModbusUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.SocketTimeoutException;
+
 /**
  * Class implementing the <tt>ModbusTransaction</tt> interface.
  *
@@ -119,6 +121,7 @@ public class ModbusTCPTransaction extends ModbusTransaction {
         int retryCounter = 0;
         int retryLimit = (retries > 0 ? retries : Modbus.DEFAULT_RETRIES);
         boolean keepTrying = true;
+        long start = System.nanoTime();
 
         // While we haven't exhausted all the retry attempts
         while (keepTrying) {
@@ -138,16 +141,26 @@ public class ModbusTCPTransaction extends ModbusTransaction {
             // Make sure the timeout is set
             transport.setTimeout(connection.getTimeout());
 
+            // The ID is released after every attempt, whether or not it was answered
+            TransactionIDAllocator ids = getTransactionIDs();
+            int transactionID = request.getTransactionID();
             try {
 
                 // Write the message to the endpoint
                 if (logger.isDebugEnabled()) {
                     logger.debug("Writing request: {} (try: {}) request transaction ID = {} to {}:{}", request.getHexMessage(), retryCounter, request.getTransactionID(), connection.getAddress(), connection.getPort());
                 }
+                if (validityCheck) {
+                    ids.register(transactionID);
+                }
                 transport.writeRequest(request);
+                transport.getMetrics().bytesOut(request.getOutputLength());
 
                 // Read the response
-                response = transport.readResponse();
+                response = readResponse();
+                if (response != null) {
+                    transport.getMetrics().bytesIn(response.getOutputLength());
+                }
                 if (logger.isDebugEnabled()) {
                     logger.debug("Read response: {} (try: {}) response transaction ID = {} from {}:{}", response.getHexMessage(), retryCounter, response.getTransactionID(), connection.getAddress(), connection.getPort());
                 }
@@ -155,6 +168,7 @@ public class ModbusTCPTransaction extends ModbusTransaction {
 
                 // The slave may have returned an exception -- check for that.
                 if (response instanceof ExceptionResponse) {
+                    transport.getMetrics().requestFailed(request.getUnitID(), request.getFunctionCode());
                     throw new ModbusSlaveException(((ExceptionResponse)response).getExceptionCode());
                 }
 
@@ -165,8 +179,13 @@ public class ModbusTCPTransaction extends ModbusTransaction {
                 if (responseIsInValid()) {
                     retryCounter++;
                     if (retryCounter >= retryLimit) {
+                        if (response == null) {
+                            transport.getMetrics().timeout(request.getUnitID());
+                        }
+                        transport.getMetrics().requestFailed(request.getUnitID(), request.getFunctionCode());
                         throw new ModbusIOException("Executing transaction failed (tried %d times)", retryLimit);
                     }
+                    transport.getMetrics().retry(request.getFunctionCode());
                     keepTrying = true;
                     long sleepTime = getRandomSleepTime(retryCounter);
                     if (response == null) {
@@ -183,9 +202,14 @@ public class ModbusTCPTransaction extends ModbusTransaction {
                 // Up the retry counter and check if we are exhausted
                 retryCounter++;
                 if (retryCounter >= retryLimit) {
+                    if (ex.getCause() instanceof SocketTimeoutException) {
+                        transport.getMetrics().timeout(request.getUnitID());
+                    }
+                    transport.getMetrics().requestFailed(request.getUnitID(), request.getFunctionCode());
                     throw new ModbusIOException("Executing transaction %s failed (tried %d times) %s", request.getHexMessage(), retryLimit, ex.getMessage());
                 }
                 else {
+                    transport.getMetrics().retry(request.getFunctionCode());
                     long sleepTime = getRandomSleepTime(retryCounter);
                     logger.debug("Failed transaction Request: {} (try: {}) - retrying after {} milliseconds", request.getHexMessage(), retryCounter, sleepTime);
                     ModbusUtil.sleep(sleepTime);
@@ -195,6 +219,11 @@ public class ModbusTCPTransaction extends ModbusTransaction {
                 logger.debug("Failed request {} (try: {}) request transaction ID = {} - {} closing and re-opening connection {}:{}", request.getHexMessage(), retryCounter, request.getTransactionID(), ex.getMessage(), connection.getAddress().toString(), connection.getPort());
                 connection.close();
             }
+            finally {
+                if (validityCheck) {
+                    ids.release(transactionID);
+                }
+            }
 
             // Increment the transaction ID if we are still trying
             if (keepTrying) {
@@ -202,6 +231,8 @@ public class ModbusTCPTransaction extends ModbusTransaction {
             }
         }
 
+        transport.getMetrics().requestCompleted(request.getUnitID(), request.getFunctionCode(), System.nanoTime() - start);
+
         // Close the connection if it isn't supposed to stick around.
         if (isReconnecting()) {
             connection.close();
@@ -228,24 +259,4 @@ public class ModbusTCPTransaction extends ModbusTransaction {
         }
     }
 
-    /**
-     * incrementTransactionID -- Increment the transaction ID for the next
-     * transaction. Note that the caller must get the new transaction ID with
-     * getTransactionID(). This is only done validity checking is enabled so
-     * that dumb slaves don't cause problems. The original request will have its
-     * transaction ID incremented as well so that sending the same transaction
-     * again won't cause problems.
-     */
-    private synchronized void incrementTransactionID() {
-        if (isCheckingValidity()) {
-            if (transactionID >= Modbus.MAX_TRANSACTION_ID) {
-                transactionID = Modbus.DEFAULT_TRANSACTION_ID;
-            }
-            else {
-                transactionID++;
-            }
-        }
-        request.setTransactionID(getTransactionID());
-    }
-
 }
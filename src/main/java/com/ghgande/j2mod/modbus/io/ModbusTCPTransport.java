@@ -22,6 +22,7 @@ import com.ghgande.j2mod.modbus.msg.ModbusRequest;
 import com.ghgande.j2mod.modbus.msg.ModbusResponse;
 import com.ghgande.j2mod.modbus.net.AbstractModbusListener;
 import com.ghgande.j2mod.modbus.net.TCPMasterConnection;
+import com.ghgande.j2mod.modbus.util.ModbusChecksum;
 import com.ghgande.j2mod.modbus.util.ModbusUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +31,7 @@ import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Class that implements the Modbus transport flavor.
@@ -46,11 +48,12 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
     private DataInputStream dataInputStream; // input stream
     private DataOutputStream dataOutputStream; // output stream
     private final BytesInputStream byteInputStream = new BytesInputStream(Modbus.MAX_MESSAGE_LENGTH + 6);
+    private final ReentrantLock readLock = new ReentrantLock(); // not a monitor, so a virtual thread blocked reading does not pin its carrier
     private final BytesOutputStream byteOutputStream = new BytesOutputStream(Modbus.MAX_MESSAGE_LENGTH + 6); // write frames
     protected Socket socket = null;
     protected TCPMasterConnection master = null;
     private boolean headless = false; // Some TCP implementations are.
-    private long lastActivityTimestamp;  // System.nanoTime() of last transportation
+    private volatile long lastActivityTimestamp;  // System.nanoTime() of last transportation
 
     /**
      * Default constructor
@@ -94,6 +97,8 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
             this.socket = null;
         }
         this.socket = socket;
+        getTransactionIDs().clear();
+        resetMetrics();
         setTimeout(timeout);
         prepareStreams(socket);
     }
@@ -149,6 +154,15 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
         dataInputStream.close();
         dataOutputStream.close();
         socket.close();
+        resetMetrics();
+    }
+
+    @Override
+    protected String getMetricsName() {
+        if (socket == null || socket.getInetAddress() == null) {
+            return super.getMetricsName();
+        }
+        return "tcp:" + socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
     }
 
     @Override
@@ -179,7 +193,8 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
         try {
             byteInputStream.reset();
 
-            synchronized (byteInputStream) {
+            readLock.lock();
+            try {
                 byte[] buffer = byteInputStream.getBuffer();
 
                 if (!headless) {
@@ -236,6 +251,9 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
                     }
                 }
             }
+            finally {
+                readLock.unlock();
+            }
             return req;
         }
         catch (EOFException eoex) {
@@ -259,7 +277,8 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
         try {
             ModbusResponse response;
 
-            synchronized (byteInputStream) {
+            readLock.lock();
+            try {
                 // use same buffer
                 byte[] buffer = byteInputStream.getBuffer();
                 logger.debug("Reading response...");
@@ -314,6 +333,9 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
                     dataInputStream.readShort();
                 }
             }
+            finally {
+                readLock.unlock();
+            }
             if (logger.isDebugEnabled()) {
                 logger.debug("Successfully read: {}", response.getHexMessage());
             }
@@ -323,7 +345,7 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
             throw new ModbusIOException("Premature end of stream (Message truncated) - %s", ex1.getMessage());
         }
         catch (SocketTimeoutException ex2) {
-            throw new ModbusIOException("Socket timeout reading response - %s", ex2.getMessage());
+            throw new ModbusIOException("Socket timeout reading response - " + ex2.getMessage(), ex2);
         }
         catch (Exception ex3) {
             throw new ModbusIOException("General exception - failed to read - %s", ex3.getMessage());
@@ -377,29 +399,8 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
             if (logger.isDebugEnabled()) {
                 logger.debug("Sending: {}", msg.getHexMessage());
             }
-            byte[] message = msg.getMessage();
-
-            byteOutputStream.reset();
-            if (!headless) {
-                byteOutputStream.writeShort(msg.getTransactionID());
-                byteOutputStream.writeShort(msg.getProtocolID());
-                byteOutputStream.writeShort((message != null ? message.length : 0) + 2);
-            }
-            byteOutputStream.writeByte(msg.getUnitID());
-            byteOutputStream.writeByte(msg.getFunctionCode());
-            if (message != null && message.length > 0) {
-                byteOutputStream.write(message);
-            }
-
-            // Add CRC for RTU over TCP
-            if (useRtuOverTcp) {
-                int len = byteOutputStream.size();
-                int[] crc = ModbusUtil.calculateCRC(byteOutputStream.getBuffer(), 0, len);
-                byteOutputStream.writeByte(crc[0]);
-                byteOutputStream.writeByte(crc[1]);
-            }
-
-            dataOutputStream.write(byteOutputStream.toByteArray());
+            writeFrame(byteOutputStream, msg, headless, useRtuOverTcp);
+            byteOutputStream.writeTo(dataOutputStream);
             dataOutputStream.flush();
             if (logger.isDebugEnabled()) {
                 logger.debug("Successfully sent: {}", ModbusUtil.toHex(byteOutputStream.toByteArray()));
@@ -422,4 +423,38 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
         }
     }
 
+    /**
+     * Encodes a message as a TCP frame into a reusable buffer. The message data
+     * is written straight into the buffer, rather than being built with
+     * <tt>getMessage()</tt> and copied, and the MBAP length is filled in from
+     * the number of bytes written.
+     *
+     * @param out           the buffer to encode into, it is reset first.
+     * @param msg           the message to encode.
+     * @param headless      true if the frame has no MBAP header.
+     * @param useRtuOverTcp true if a CRC should be appended.
+     *
+     * @throws IOException if the message cannot be encoded.
+     */
+    public static void writeFrame(BytesOutputStream out, ModbusMessage msg, boolean headless, boolean useRtuOverTcp) throws IOException {
+        out.reset();
+        if (!headless) {
+            out.writeShort(msg.getTransactionID());
+            out.writeShort(msg.getProtocolID());
+            out.writeShort(0);
+        }
+        out.writeByte(msg.getUnitID());
+        out.writeByte(msg.getFunctionCode());
+        msg.writeData(out);
+        if (!headless) {
+            out.setShort(4, out.size() - 6);
+        }
+
+        // Add CRC for RTU over TCP
+        if (useRtuOverTcp) {
+            int crc = ModbusChecksum.crc16(out.buf, 0, out.size());
+            out.writeByte(crc & 0xFF);
+            out.writeByte(crc >>> 8);
+        }
+    }
 }
@@ -20,8 +20,12 @@ import com.ghgande.j2mod.modbus.ModbusException;
 import com.ghgande.j2mod.modbus.ModbusIOException;
 import com.ghgande.j2mod.modbus.msg.ModbusRequest;
 import com.ghgande.j2mod.modbus.msg.ModbusResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.net.SocketTimeoutException;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Interface defining a ModbusTransaction.
@@ -36,13 +40,15 @@ import java.util.Random;
  */
 public abstract class ModbusTransaction {
 
+    private static final Logger logger = LoggerFactory.getLogger(ModbusTransaction.class);
+
     protected AbstractModbusTransport transport;
     protected ModbusRequest request;
     protected ModbusResponse response;
     boolean validityCheck = Modbus.DEFAULT_VALIDITYCHECK;
     int retries = Modbus.DEFAULT_RETRIES;
     private final Random random = new Random(System.nanoTime());
-    static int transactionID = Modbus.DEFAULT_TRANSACTION_ID;
+    private final TransactionIDAllocator localTransactionIDs = new TransactionIDAllocator();
 
     /**
      * Returns the <tt>ModbusRequest</tt> instance
@@ -130,19 +136,67 @@ public abstract class ModbusTransaction {
      * getTransactionID -- get the next transaction ID to use.
      * @return next transaction ID to use
      */
-    public synchronized int getTransactionID() {
-        /*
-         * Ensure that the transaction ID is in the valid range between
-         * 0 and MAX_TRANSACTION_ID (65534).  If not, the value will be forced
-         * to 0.
-         */
-        if (transactionID < Modbus.DEFAULT_TRANSACTION_ID && isCheckingValidity()) {
-            transactionID = Modbus.DEFAULT_TRANSACTION_ID;
-        }
-        if (transactionID >= Modbus.MAX_TRANSACTION_ID) {
-            transactionID = Modbus.DEFAULT_TRANSACTION_ID;
+    public int getTransactionID() {
+        return getTransactionIDs().current();
+    }
+
+    /**
+     * Returns the allocator of transaction IDs for the connection this
+     * transaction runs on. Each transport has its own so that masters on
+     * different connections don't share or contend for IDs.
+     *
+     * @return Transaction ID allocator
+     */
+    TransactionIDAllocator getTransactionIDs() {
+        AbstractModbusTransport currentTransport = transport;
+        return currentTransport != null ? currentTransport.getTransactionIDs() : localTransactionIDs;
+    }
+
+    /**
+     * incrementTransactionID -- Increment the transaction ID for the next
+     * transaction. This is only done validity checking is enabled so
+     * that dumb slaves don't cause problems. The original request will have its
+     * transaction ID incremented as well so that sending the same transaction
+     * again won't cause problems.
+     */
+    void incrementTransactionID() {
+        TransactionIDAllocator ids = getTransactionIDs();
+        request.setTransactionID(isCheckingValidity() ? ids.next() : ids.current());
+    }
+
+    /**
+     * Reads the response to the current request from the transport. When
+     * validity checking is enabled, responses carrying a different transaction
+     * ID are discarded - they are late replies to earlier requests that timed
+     * out, or duplicates - and reading carries on until the right response
+     * arrives or the transport timeout has passed since the first read.
+     *
+     * @return Response to the request
+     *
+     * @throws ModbusIOException If the response cannot be read, or the right
+     *                           response doesn't arrive within the timeout
+     */
+    ModbusResponse readResponse() throws ModbusIOException {
+        TransactionIDAllocator ids = getTransactionIDs();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(transport.timeout);
+        while (true) {
+            ModbusResponse res = transport.readResponse();
+            if (res == null || res.isHeadless() || !validityCheck || res.getTransactionID() == request.getTransactionID()) {
+                ids.release(request.getTransactionID());
+                return res;
+            }
+            transport.getMetrics().transactionIdMismatch();
+            if (ids.release(res.getTransactionID())) {
+                logger.debug("Discarding late response for transaction ID {} while waiting for {}", res.getTransactionID(), request.getTransactionID());
+            }
+            else {
+                logger.debug("Discarding unexpected response for transaction ID {} while waiting for {}", res.getTransactionID(), request.getTransactionID());
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                String message = String.format("No response for transaction ID %d within %d milliseconds", request.getTransactionID(), transport.timeout);
+                throw new ModbusIOException(message, new SocketTimeoutException(message));
+            }
         }
-        return transactionID;
     }
 
     /**
@@ -0,0 +1,514 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.io;
+
+import com.ghgande.j2mod.modbus.Modbus;
+import com.ghgande.j2mod.modbus.ModbusException;
+import com.ghgande.j2mod.modbus.ModbusIOException;
+import com.ghgande.j2mod.modbus.ModbusSlaveException;
+import com.ghgande.j2mod.modbus.msg.ExceptionResponse;
+import com.ghgande.j2mod.modbus.msg.ModbusRequest;
+import com.ghgande.j2mod.modbus.msg.ModbusResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Class that sends Modbus UDP requests to any number of slaves from a single
+ * <tt>DatagramChannel</tt>.
+ * <p>
+ * Rather than binding a socket per slave and waiting for each response in
+ * turn, as the <tt>ModbusUDPTransaction</tt> does, requests are sent as soon
+ * as they are submitted and a single reader thread hands each response to the
+ * request with the same source address and transaction ID. Timeouts and
+ * retransmits are driven by a timer thread, so two threads can keep thousands
+ * of requests in flight.
+ * <p>
+ * Responses are matched on the address they come from, so a slave that
+ * answers from a different address than the one it was sent to (e.g. a
+ * multi-homed host) will time out.
+ */
+public class ModbusUDPMultiplexer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModbusUDPMultiplexer.class);
+
+    private static final int HEADER_LENGTH = 6;
+    private static final int MAX_FRAME_LENGTH = Modbus.MAX_MESSAGE_LENGTH + HEADER_LENGTH;
+
+    private final InetSocketAddress localAddress;
+    private final Map<Key, PendingRequest> pending = new ConcurrentHashMap<Key, PendingRequest>();
+    private final BytesOutputStream frameOutputStream = new BytesOutputStream(MAX_FRAME_LENGTH);
+    private int nextTransactionID = Modbus.DEFAULT_TRANSACTION_ID;
+    private volatile int timeout = Modbus.DEFAULT_TIMEOUT;
+    private volatile int retries = Modbus.DEFAULT_RETRIES;
+    private volatile DatagramChannel channel;
+    private Thread reader;
+    private ScheduledThreadPoolExecutor timer;
+
+    /**
+     * Constructs a new <tt>ModbusUDPMultiplexer</tt> bound to an ephemeral port
+     * on the wildcard address
+     */
+    public ModbusUDPMultiplexer() {
+        this(null, 0);
+    }
+
+    /**
+     * Constructs a new <tt>ModbusUDPMultiplexer</tt>
+     *
+     * @param localAddress Local address to bind to or null for the wildcard address
+     * @param localPort    Local port to bind to or 0 for an ephemeral port
+     */
+    public ModbusUDPMultiplexer(InetAddress localAddress, int localPort) {
+        this.localAddress = new InetSocketAddress(localAddress, localPort);
+    }
+
+    /**
+     * Returns the time (msec) to wait for each response before it is retransmitted
+     *
+     * @return Timeout in milliseconds
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the time (msec) to wait for each response before it is retransmitted.
+     * It applies to requests submitted afterwards.
+     *
+     * @param timeout Timeout in milliseconds
+     */
+    public void setTimeout(int timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout must be > 0: " + timeout);
+        }
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the number of times a request is retransmitted before it fails
+     *
+     * @return Number of retries
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Sets the number of times a request is retransmitted before it fails.
+     * It applies to requests submitted afterwards.
+     *
+     * @param retries Number of retries
+     */
+    public void setRetries(int retries) {
+        if (retries < 0) {
+            throw new IllegalArgumentException("retries must be >= 0: " + retries);
+        }
+        this.retries = retries;
+    }
+
+    /**
+     * Returns the number of requests currently awaiting a response
+     *
+     * @return Number of outstanding requests
+     */
+    public int getOutstanding() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the local address that requests are sent from
+     *
+     * @return Bound address or null if not open
+     */
+    public InetSocketAddress getLocalAddress() {
+        DatagramChannel current = channel;
+        if (current != null) {
+            try {
+                return (InetSocketAddress)current.getLocalAddress();
+            }
+            catch (IOException e) {
+                logger.debug("Cannot read local address - {}", e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens the channel and starts the reader and timer threads
+     *
+     * @throws ModbusIOException If the channel cannot be bound
+     */
+    public synchronized void open() throws ModbusIOException {
+        if (channel != null) {
+            return;
+        }
+        try {
+            channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, Modbus.DEFAULT_UDP_RECEIVE_BUFFER_SIZE);
+            channel.bind(localAddress);
+        }
+        catch (IOException e) {
+            closeChannel();
+            throw new ModbusIOException("Cannot bind UDP multiplexer to %s - %s", localAddress, e.getMessage());
+        }
+        timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, String.format("Modbus UDP Multiplexer Timer %s", getLocalAddress()));
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        reader = new Thread(new Reader(channel), String.format("Modbus UDP Multiplexer Reader %s", getLocalAddress()));
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Closes the channel and fails any requests that are still outstanding
+     */
+    public synchronized void close() {
+        closeChannel();
+        if (reader != null) {
+            reader.interrupt();
+            reader = null;
+        }
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+        ModbusIOException ex = new ModbusIOException("UDP multiplexer %s closed", localAddress);
+        for (PendingRequest request : pending.values()) {
+            request.future.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Sends the request to a slave and returns immediately with a future that is
+     * completed by the reader thread when the matching response arrives.
+     * <p>
+     * The request is given a transaction ID that is unique amongst the requests
+     * outstanding to the same slave. If no response arrives within the timeout the
+     * request is sent again, up to the number of retries, after which the future
+     * fails with a <tt>ModbusIOException</tt>.
+     *
+     * @param target  Address and port of the slave
+     * @param request Request to send, addressed to the Unit ID of the slave
+     *
+     * @return Future response
+     *
+     * @throws ModbusIOException If the multiplexer is not open or the request cannot be encoded
+     */
+    public CompletableFuture<ModbusResponse> submit(InetSocketAddress target, ModbusRequest request) throws ModbusIOException {
+        if (target == null || target.isUnresolved()) {
+            throw new ModbusIOException("Invalid target %s", target);
+        }
+        if (request == null) {
+            throw new ModbusIOException("Invalid request");
+        }
+        ScheduledExecutorService currentTimer;
+        synchronized (this) {
+            if (channel == null) {
+                throw new ModbusIOException("UDP multiplexer %s is not open", localAddress);
+            }
+            currentTimer = timer;
+        }
+
+        PendingRequest pendingRequest = new PendingRequest(retries, timeout);
+        Key key = register(target, pendingRequest);
+        try {
+            pendingRequest.frame = encode(request, key.transactionID);
+        }
+        catch (ModbusIOException | RuntimeException e) {
+
+            // Free the transaction ID for the next request
+            pending.remove(key, pendingRequest);
+            throw e;
+        }
+        pendingRequest.future.whenComplete((response, ex) -> {
+            pending.remove(key, pendingRequest);
+            ScheduledFuture<?> expiry = pendingRequest.expiry;
+            if (expiry != null) {
+                expiry.cancel(false);
+            }
+        });
+        send(key, pendingRequest, currentTimer);
+        return pendingRequest.future;
+    }
+
+    /**
+     * Sends the request to a slave and waits for the matching response
+     *
+     * @param target  Address and port of the slave
+     * @param request Request to send
+     *
+     * @return Response from the slave
+     *
+     * @throws ModbusSlaveException If the slave answers with an exception
+     * @throws ModbusException      If the request times out or the multiplexer is closed
+     */
+    public ModbusResponse execute(InetSocketAddress target, ModbusRequest request) throws ModbusException {
+        CompletableFuture<ModbusResponse> future = submit(target, request);
+        ModbusResponse response;
+        try {
+            response = future.get();
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof ModbusException) {
+                throw (ModbusException)ex.getCause();
+            }
+            throw new ModbusIOException("Multiplexed request failed - %s", ex.getCause().getMessage());
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            throw new ModbusIOException("Interrupted waiting for response to transaction %d", request.getTransactionID());
+        }
+        if (response instanceof ExceptionResponse) {
+            throw new ModbusSlaveException(((ExceptionResponse)response).getExceptionCode());
+        }
+        return response;
+    }
+
+    /**
+     * Allocates a transaction ID that is not in use by an outstanding request to the same slave
+     *
+     * @param target  Address of the slave
+     * @param request Request to register
+     *
+     * @return Key of the request
+     */
+    private synchronized Key register(InetSocketAddress target, PendingRequest request) {
+        while (true) {
+            Key key = new Key(target, nextTransactionID);
+            nextTransactionID = nextTransactionID >= Modbus.MAX_TRANSACTION_ID ? Modbus.DEFAULT_TRANSACTION_ID : nextTransactionID + 1;
+            if (pending.putIfAbsent(key, request) == null) {
+                return key;
+            }
+        }
+    }
+
+    /**
+     * Encodes the request as an MBAP frame
+     *
+     * @param request       Request to encode
+     * @param transactionID Transaction ID to use
+     *
+     * @return Frame
+     *
+     * @throws ModbusIOException If the request cannot be encoded
+     */
+    private byte[] encode(ModbusRequest request, int transactionID) throws ModbusIOException {
+        request.setTransactionID(transactionID);
+        synchronized (frameOutputStream) {
+            try {
+                ModbusTCPTransport.writeFrame(frameOutputStream, request, false, false);
+            }
+            catch (IOException e) {
+                throw new ModbusIOException("Cannot encode request - %s", e.getMessage());
+            }
+            return Arrays.copyOf(frameOutputStream.getBuffer(), frameOutputStream.size());
+        }
+    }
+
+    /**
+     * Sends, or resends, a request and schedules the check for its response
+     *
+     * @param key          Key of the request
+     * @param request      Request to send
+     * @param currentTimer Timer to schedule the timeout on
+     */
+    private void send(Key key, PendingRequest request, ScheduledExecutorService currentTimer) {
+        if (request.future.isDone()) {
+            return;
+        }
+        DatagramChannel currentChannel = channel;
+        if (currentChannel == null) {
+            request.future.completeExceptionally(new ModbusIOException("UDP multiplexer %s closed", localAddress));
+            return;
+        }
+        try {
+            request.expiry = currentTimer.schedule(() -> expire(key, request, currentTimer), request.timeout, TimeUnit.MILLISECONDS);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Sending multiplexed request: transaction ID = {} to {} attempt {}", key.transactionID, key.address, request.attempts + 1);
+            }
+            request.attempts++;
+            currentChannel.send(ByteBuffer.wrap(request.frame), key.address);
+        }
+        catch (RejectedExecutionException | ClosedChannelException ex) {
+            request.future.completeExceptionally(new ModbusIOException("UDP multiplexer %s closed", localAddress));
+        }
+        catch (IOException ex) {
+            request.future.completeExceptionally(new ModbusIOException("Cannot send to %s - %s", key.address, ex.getMessage()));
+        }
+    }
+
+    /**
+     * Retransmits a request that has not been answered or fails it if it has run out of retries
+     *
+     * @param key          Key of the request
+     * @param request      Request that timed out
+     * @param currentTimer Timer to schedule the next timeout on
+     */
+    private void expire(Key key, PendingRequest request, ScheduledExecutorService currentTimer) {
+        if (request.attempts > request.retries) {
+            request.future.completeExceptionally(new ModbusIOException("Timeout waiting for response to transaction %d from %s after %d attempts", key.transactionID, key.address, request.attempts));
+        }
+        else {
+            send(key, request, currentTimer);
+        }
+    }
+
+    /**
+     * Closes the channel ignoring any errors
+     */
+    private void closeChannel() {
+        DatagramChannel current = channel;
+        channel = null;
+        if (current != null) {
+            try {
+                current.close();
+            }
+            catch (IOException e) {
+                logger.debug("Error closing {} - {}", current, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Identifies an outstanding request by the slave it was sent to and its transaction ID
+     */
+    private static class Key {
+        private final SocketAddress address;
+        private final int transactionID;
+
+        Key(SocketAddress address, int transactionID) {
+            this.address = address;
+            this.transactionID = transactionID;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key)o;
+            return transactionID == key.transactionID && address.equals(key.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * address.hashCode() + transactionID;
+        }
+    }
+
+    /**
+     * A request that has been sent and is waiting for its response
+     */
+    private static class PendingRequest {
+        private final CompletableFuture<ModbusResponse> future = new CompletableFuture<ModbusResponse>();
+        private final int retries;
+        private final int timeout;
+        private byte[] frame;
+        private volatile int attempts;
+        private volatile ScheduledFuture<?> expiry;
+
+        PendingRequest(int retries, int timeout) {
+            this.retries = retries;
+            this.timeout = timeout;
+        }
+    }
+
+    /**
+     * Receives responses from the channel and completes the matching requests
+     */
+    private class Reader implements Runnable {
+        private final DatagramChannel readerChannel;
+        private final ByteBuffer input = ByteBuffer.allocateDirect(MAX_FRAME_LENGTH);
+        private final byte[] frame = new byte[MAX_FRAME_LENGTH];
+        private final BytesInputStream frameInputStream = new BytesInputStream(frame);
+
+        Reader(DatagramChannel readerChannel) {
+            this.readerChannel = readerChannel;
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    input.clear();
+                    SocketAddress source = readerChannel.receive(input);
+                    input.flip();
+                    int length = input.remaining();
+                    input.get(frame, 0, length);
+                    process(source, length);
+                }
+                catch (ClosedChannelException e) {
+                    return;
+                }
+                catch (IOException e) {
+                    logger.error("Problem reading UDP channel", e);
+                }
+                catch (RuntimeException e) {
+                    // Drop the datagram rather than the reader
+                    logger.error("Problem processing UDP datagram", e);
+                }
+            }
+        }
+
+        /**
+         * Decodes the response held in the frame buffer and completes the request it answers
+         *
+         * @param source Address of the sender
+         * @param length Length of the datagram
+         */
+        private void process(SocketAddress source, int length) {
+            if (length < HEADER_LENGTH + 2 || (((frame[4] & 0xFF) << 8) | (frame[5] & 0xFF)) != length - HEADER_LENGTH) {
+                logger.debug("Discarding malformed datagram of {} bytes from {}", length, source);
+                return;
+            }
+            int transactionID = ((frame[0] & 0xFF) << 8) | (frame[1] & 0xFF);
+            PendingRequest request = pending.get(new Key(source, transactionID));
+            if (request == null) {
+                logger.debug("Discarding response from {} for unknown or expired transaction ID {}", source, transactionID);
+                return;
+            }
+            try {
+                frameInputStream.reset(frame, length);
+                ModbusResponse response = ModbusResponse.createModbusResponse(frame[HEADER_LENGTH + 1] & 0xFF);
+                response.setHeadless(false);
+                response.readFrom(frameInputStream);
+                request.future.complete(response);
+            }
+            catch (IOException | RuntimeException e) {
+                request.future.completeExceptionally(new ModbusIOException("Cannot decode response from %s - %s", source, e.getMessage()));
+            }
+        }
+    }
+}
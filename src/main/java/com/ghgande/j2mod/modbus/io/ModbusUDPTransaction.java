@@ -15,7 +15,6 @@
  */
 package com.ghgande.j2mod.modbus.io;
 
-import com.ghgande.j2mod.modbus.Modbus;
 import com.ghgande.j2mod.modbus.ModbusException;
 import com.ghgande.j2mod.modbus.ModbusIOException;
 import com.ghgande.j2mod.modbus.ModbusSlaveException;
@@ -27,6 +26,8 @@ import com.ghgande.j2mod.modbus.util.ModbusUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.InterruptedIOException;
+
 /**
  * Class implementing the <tt>ModbusTransaction</tt>
  * interface for the UDP transport mechanism.
@@ -118,15 +119,23 @@ public class ModbusUDPTransaction extends ModbusTransaction {
         //3. Retry transaction retries times, in case of
         //I/O Exception problems.
         int retryCount = 0;
+        long start = System.nanoTime();
         while (retryCount <= retries) {
             try {
                 //3. write request, and read response,
                 //   while holding the lock on the IO object
                 synchronized (this) {
                     //write request message
+                    if (validityCheck) {
+                        getTransactionIDs().register(request.getTransactionID());
+                    }
                     transport.writeRequest(request);
+                    transport.getMetrics().bytesOut(request.getOutputLength());
                     //read response message
-                    response = transport.readResponse();
+                    response = readResponse();
+                    if (response != null) {
+                        transport.getMetrics().bytesIn(response.getOutputLength());
+                    }
                     break;
                 }
             }
@@ -134,15 +143,24 @@ public class ModbusUDPTransaction extends ModbusTransaction {
                 retryCount++;
                 if (retryCount > retries) {
                     logger.error("Cannot send UDP message", ex);
+                    if (ex.getCause() instanceof InterruptedIOException) {
+                        transport.getMetrics().timeout(request.getUnitID());
+                    }
+                    transport.getMetrics().requestFailed(request.getUnitID(), request.getFunctionCode());
                 }
                 else {
+                    transport.getMetrics().retry(request.getFunctionCode());
                     ModbusUtil.sleep(getRandomSleepTime(retryCount));
                 }
             }
         }
 
+        // A reply that is still to come can no longer be matched to this request
+        getTransactionIDs().release(request.getTransactionID());
+
         //4. deal with "application level" exceptions
         if (response instanceof ExceptionResponse) {
+            transport.getMetrics().requestFailed(request.getUnitID(), request.getFunctionCode());
             throw new ModbusSlaveException(((ExceptionResponse)response).getExceptionCode());
         }
 
@@ -151,6 +169,10 @@ public class ModbusUDPTransaction extends ModbusTransaction {
             checkValidity();
         }
 
+        if (retryCount <= retries) {
+            transport.getMetrics().requestCompleted(request.getUnitID(), request.getFunctionCode(), System.nanoTime() - start);
+        }
+
         //toggle the id
         incrementTransactionID();
     }
@@ -167,23 +189,4 @@ public class ModbusUDPTransaction extends ModbusTransaction {
             throw new ModbusException("Assertion failed, transaction not executable");
         }
     }
-
-    /**
-     * Toggles the transaction identifier, to ensure
-     * that each transaction has a distinctive
-     * identifier.<br>
-     * When the maximum value of 65535 has been reached,
-     * the identifiers will start from zero again.
-     */
-    private void incrementTransactionID() {
-        if (isCheckingValidity()) {
-            if (transactionID >= Modbus.MAX_TRANSACTION_ID) {
-                transactionID = Modbus.DEFAULT_TRANSACTION_ID;
-            }
-            else {
-                transactionID++;
-            }
-        }
-        request.setTransactionID(getTransactionID());
-    }
 }
\ No newline at end of file
@@ -64,6 +64,14 @@ public class ModbusUDPTransport extends AbstractModbusTransport {
         }
     }
 
+    @Override
+    protected String getMetricsName() {
+        if (terminal == null || terminal.getAddress() == null) {
+            return super.getMetricsName();
+        }
+        return "udp:" + terminal.getAddress().getHostAddress() + ":" + terminal.getPort();
+    }
+
     @Override
     public void close() throws IOException {
         // No op
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.io;
+
+import com.ghgande.j2mod.modbus.Modbus;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class that allocates the transaction IDs used on a single connection.
+ * <p>
+ * IDs are taken from an atomic counter that wraps from
+ * {@link Modbus#MAX_TRANSACTION_ID} back to {@link Modbus#DEFAULT_TRANSACTION_ID},
+ * so masters on different connections never contend with each other.
+ * <p>
+ * The IDs of requests that have been sent but not yet answered can be
+ * registered as outstanding. When a response arrives, releasing its ID tells
+ * the caller whether it answers a request that is still outstanding or whether
+ * it is a duplicate or a reply to something that was never sent.
+ */
+public class TransactionIDAllocator {
+
+    private final AtomicInteger current = new AtomicInteger(Modbus.DEFAULT_TRANSACTION_ID);
+    private final Set<Integer> outstanding = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Returns the most recently allocated transaction ID
+     *
+     * @return Transaction ID
+     */
+    public int current() {
+        return current.get();
+    }
+
+    /**
+     * Allocates the next transaction ID, wrapping at the end of the range
+     *
+     * @return Transaction ID
+     */
+    public int next() {
+        return current.updateAndGet(id -> id >= Modbus.MAX_TRANSACTION_ID || id < Modbus.DEFAULT_TRANSACTION_ID ? Modbus.DEFAULT_TRANSACTION_ID : id + 1);
+    }
+
+    /**
+     * Allocates the next transaction ID that is not outstanding and registers
+     * it as outstanding
+     *
+     * @return Transaction ID
+     *
+     * @throws IllegalStateException If every ID in the range is outstanding
+     */
+    public int acquire() {
+        for (int i = Modbus.DEFAULT_TRANSACTION_ID; i <= Modbus.MAX_TRANSACTION_ID; i++) {
+            int id = next();
+            if (outstanding.add(id)) {
+                return id;
+            }
+        }
+        throw new IllegalStateException("All transaction IDs are outstanding");
+    }
+
+    /**
+     * Registers a transaction ID as outstanding, i.e. sent and awaiting a
+     * response
+     *
+     * @param id Transaction ID
+     */
+    public void register(int id) {
+        outstanding.add(id);
+    }
+
+    /**
+     * Releases an outstanding transaction ID once its response has arrived
+     *
+     * @param id Transaction ID of the response
+     *
+     * @return True if the ID was outstanding, false if the response is a
+     * duplicate or does not belong to any request
+     */
+    public boolean release(int id) {
+        return outstanding.remove(id);
+    }
+
+    /**
+     * Returns true if a response is still expected for the transaction ID
+     *
+     * @param id Transaction ID
+     *
+     * @return True if outstanding
+     */
+    public boolean isOutstanding(int id) {
+        return outstanding.contains(id);
+    }
+
+    /**
+     * Returns the number of outstanding transaction IDs
+     *
+     * @return Number of outstanding IDs
+     */
+    public int getOutstanding() {
+        return outstanding.size();
+    }
+
+    /**
+     * Forgets all outstanding IDs, e.g. when the connection is re-opened and
+     * responses to earlier requests can no longer arrive
+     */
+    public void clear() {
+        outstanding.clear();
+    }
+}
@@ -139,6 +139,16 @@ public interface ModbusMessage {
      */
     void writeTo(DataOutput dout) throws IOException;
 
+    /**
+     * Writes the function specific data of this message, i.e. everything
+     * after the function code, to the given <tt>DataOutput</tt>.
+     *
+     * @param dout the <tt>DataOutput</tt> to write to.
+     *
+     * @throws java.io.IOException if an I/O error occurs.
+     */
+    void writeData(DataOutput dout) throws IOException;
+
     /**
      * Reads this <tt>Transportable</tt> from the given
      * <tt>DataInput</tt>.
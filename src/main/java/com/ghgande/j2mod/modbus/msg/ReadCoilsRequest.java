@@ -17,6 +17,7 @@ package com.ghgande.j2mod.modbus.msg;
 
 import com.ghgande.j2mod.modbus.Modbus;
 import com.ghgande.j2mod.modbus.net.AbstractModbusListener;
+import com.ghgande.j2mod.modbus.procimg.BulkProcessImage;
 import com.ghgande.j2mod.modbus.procimg.DigitalOut;
 import com.ghgande.j2mod.modbus.procimg.IllegalAddressException;
 import com.ghgande.j2mod.modbus.procimg.ProcessImage;
@@ -84,6 +85,18 @@ public class ReadCoilsRequest extends ModbusRequest {
 
         // 1. get process image
         ProcessImage procimg = listener.getProcessImage(getUnitID());
+        if (procimg instanceof BulkProcessImage) {
+            byte[] packed = new byte[(getBitCount() + 7) / 8];
+            try {
+                ((BulkProcessImage)procimg).getDigitalOutValues(getReference(), getBitCount(), packed, 0);
+            }
+            catch (IllegalAddressException e) {
+                return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
+            }
+            response = getResponse();
+            ((ReadCoilsResponse)response).getCoils().setBytes(packed);
+            return response;
+        }
 
         // 2. get input discretes range
         try {
@@ -154,7 +167,8 @@ public class ReadCoilsRequest extends ModbusRequest {
 
     @Override
     public void writeData(DataOutput dout) throws IOException {
-        dout.write(getMessage());
+        dout.writeShort(reference);
+        dout.writeShort(bitCount);
     }
 
     @Override
@@ -142,9 +142,8 @@ public class ReadCoilsResponse extends ModbusResponse {
 
     @Override
     public void writeData(DataOutput output) throws IOException {
-        byte[] result = getMessage();
-
-        output.write(result);
+        output.writeByte(coils.byteSize());
+        coils.writeTo(output);
     }
 
     @Override
@@ -51,7 +51,10 @@ public class ReadCommEventCounterRequest extends ModbusRequest {
 
     @Override
     public ModbusResponse createResponse(AbstractModbusListener listener) {
-        return createExceptionResponse(Modbus.ILLEGAL_FUNCTION_EXCEPTION);
+        ReadCommEventCounterResponse response = (ReadCommEventCounterResponse)getResponse();
+        response.setStatus(0);
+        response.setEventCount(listener.getDiagnostics().getUnit(getUnitID()).getEventCount());
+        return response;
     }
 
     /**
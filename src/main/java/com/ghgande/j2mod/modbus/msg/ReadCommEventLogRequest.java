@@ -17,6 +17,7 @@ package com.ghgande.j2mod.modbus.msg;
 
 import com.ghgande.j2mod.modbus.Modbus;
 import com.ghgande.j2mod.modbus.net.AbstractModbusListener;
+import com.ghgande.j2mod.modbus.net.ModbusDiagnostics;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -52,7 +53,14 @@ public class ReadCommEventLogRequest extends ModbusRequest {
 
     @Override
     public ModbusResponse createResponse(AbstractModbusListener listener) {
-        return createExceptionResponse(Modbus.ILLEGAL_FUNCTION_EXCEPTION);
+        ModbusDiagnostics diagnostics = listener.getDiagnostics();
+        ModbusDiagnostics.Unit unit = diagnostics.getUnit(getUnitID());
+        ReadCommEventLogResponse response = (ReadCommEventLogResponse)getResponse();
+        response.setStatus(0);
+        response.setEventCount(unit.getEventCount());
+        response.setMessageCount(diagnostics.getBusMessageCount());
+        response.setEvents(unit.getEvents());
+        return response;
     }
 
     /**
@@ -127,10 +127,11 @@ public class ReadCommEventLogResponse extends ModbusResponse {
             throw new IllegalArgumentException("events list too big (> 64 bytes)");
         }
 
-        events = new byte[events.length];
+        this.events = new byte[events.length];
         if (events.length > 0) {
-            System.arraycopy(events, 0, events, 0, events.length);
+            System.arraycopy(events, 0, this.events, 0, events.length);
         }
+        setDataLength(7 + events.length);
     }
 
     public void setEvents(int count) {
@@ -139,6 +140,7 @@ public class ReadCommEventLogResponse extends ModbusResponse {
         }
 
         events = new byte[count];
+        setDataLength(7 + count);
     }
 
     /**
@@ -17,6 +17,7 @@ package com.ghgande.j2mod.modbus.msg;
 
 import com.ghgande.j2mod.modbus.Modbus;
 import com.ghgande.j2mod.modbus.net.AbstractModbusListener;
+import com.ghgande.j2mod.modbus.procimg.BulkProcessImage;
 import com.ghgande.j2mod.modbus.procimg.DigitalIn;
 import com.ghgande.j2mod.modbus.procimg.IllegalAddressException;
 import com.ghgande.j2mod.modbus.procimg.ProcessImage;
@@ -86,6 +87,18 @@ public class ReadInputDiscretesRequest extends ModbusRequest {
 
         // 1. get process image
         ProcessImage procimg = listener.getProcessImage(getUnitID());
+        if (procimg instanceof BulkProcessImage) {
+            byte[] packed = new byte[(getBitCount() + 7) / 8];
+            try {
+                ((BulkProcessImage)procimg).getDigitalInValues(getReference(), getBitCount(), packed, 0);
+            }
+            catch (IllegalAddressException e) {
+                return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
+            }
+            response = (ReadInputDiscretesResponse)getResponse();
+            response.getDiscretes().setBytes(packed);
+            return response;
+        }
         // 2. get input discretes range
         try {
             dins = procimg.getDigitalInRange(getReference(), getBitCount());
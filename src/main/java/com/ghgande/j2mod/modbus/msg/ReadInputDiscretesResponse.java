@@ -130,7 +130,7 @@ public class ReadInputDiscretesResponse extends ModbusResponse {
     @Override
     public void writeData(DataOutput dout) throws IOException {
         dout.writeByte(discretes.byteSize());
-        dout.write(discretes.getBytes(), 0, discretes.byteSize());
+        discretes.writeTo(dout);
     }
 
     @Override
@@ -17,6 +17,7 @@ package com.ghgande.j2mod.modbus.msg;
 
 import com.ghgande.j2mod.modbus.Modbus;
 import com.ghgande.j2mod.modbus.net.AbstractModbusListener;
+import com.ghgande.j2mod.modbus.procimg.BulkProcessImage;
 import com.ghgande.j2mod.modbus.procimg.IllegalAddressException;
 import com.ghgande.j2mod.modbus.procimg.InputRegister;
 import com.ghgande.j2mod.modbus.procimg.ProcessImage;
@@ -84,6 +85,18 @@ public class ReadInputRegistersRequest extends ModbusRequest {
 
         // 1. get process image
         ProcessImage procimg = listener.getProcessImage(getUnitID());
+        if (procimg instanceof BulkProcessImage) {
+            short[] values = new short[getWordCount()];
+            try {
+                ((BulkProcessImage)procimg).getInputRegisterValues(getReference(), values.length, values, 0);
+            }
+            catch (IllegalAddressException iaex) {
+                return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
+            }
+            response = getResponse();
+            response.setRegisterValues(values);
+            return response;
+        }
         // 2. get input registers range
         try {
             inpregs = procimg.getInputRegisterRange(getReference(), getWordCount());
@@ -38,6 +38,7 @@ public class ReadInputRegistersResponse extends ModbusResponse {
     // instance attributes
     private int byteCount;
     private InputRegister[] registers;
+    private short[] values;
 
     /**
      * Constructs a new <tt>ReadInputRegistersResponse</tt> instance.
@@ -101,6 +102,7 @@ public class ReadInputRegistersResponse extends ModbusResponse {
      * @throws IndexOutOfBoundsException if the index is out of bounds.
      */
     public InputRegister getRegister(int index) throws IndexOutOfBoundsException {
+        materialiseRegisters();
         if (index < 0) {
             throw new IndexOutOfBoundsException(index + " < 0");
         }
@@ -124,6 +126,12 @@ public class ReadInputRegistersResponse extends ModbusResponse {
      * @throws IndexOutOfBoundsException if the index is out of bounds.
      */
     public int getRegisterValue(int index) throws IndexOutOfBoundsException {
+        if (values != null) {
+            if (index < 0 || index >= values.length) {
+                throw new IndexOutOfBoundsException(index + " >= " + getWordCount());
+            }
+            return values[index] & 0xFFFF;
+        }
         return getRegister(index).toUnsignedShort();
     }
 
@@ -133,6 +141,7 @@ public class ReadInputRegistersResponse extends ModbusResponse {
      * @return a <tt>InputRegister[]</tt> instance.
      */
     public synchronized InputRegister[] getRegisters() {
+        materialiseRegisters();
         InputRegister[] dest = new InputRegister[registers.length];
         System.arraycopy(registers, 0, dest, 0, dest.length);
         return dest;
@@ -146,14 +155,48 @@ public class ReadInputRegistersResponse extends ModbusResponse {
         setDataLength(registers == null ? 0 : (registers.length * 2 + 1));
         this.registers = registers == null ? null : Arrays.copyOf(registers, registers.length);
         byteCount = registers == null ? 0 : (registers.length * 2);
+        values = null;
+    }
+
+    /**
+     * Sets the entire block of register values for this response without
+     * creating an <tt>InputRegister</tt> for each one. The array is used as is,
+     * not copied.
+     *
+     * @param values Array of register values
+     */
+    public synchronized void setRegisterValues(short[] values) {
+        setDataLength(values == null ? 0 : (values.length * 2 + 1));
+        this.values = values;
+        registers = null;
+        byteCount = values == null ? 0 : (values.length * 2);
+    }
+
+    /**
+     * Creates the <tt>InputRegister</tt> objects for a response that was built
+     * from raw values
+     */
+    private synchronized void materialiseRegisters() {
+        if (values != null && registers == null) {
+            registers = new InputRegister[values.length];
+            for (int k = 0; k < values.length; k++) {
+                registers[k] = new SimpleInputRegister(values[k] & 0xFFFF);
+            }
+        }
     }
 
     @Override
     public void writeData(DataOutput dout) throws IOException {
         dout.writeByte(byteCount);
 
+        if (values != null) {
+            for (short value : values) {
+                dout.writeShort(value);
+            }
+            return;
+        }
         for (int k = 0; k < getWordCount(); k++) {
-            dout.write(registers[k].toBytes());
+            dout.writeShort(registers[k].toShort());
         }
     }
 
@@ -166,20 +209,30 @@ public class ReadInputRegistersResponse extends ModbusResponse {
             inputRegisters[k] = new SimpleInputRegister(din.readByte(), din.readByte());
         }
         registers = inputRegisters;
+        values = null;
 
         setDataLength(byteCount);
     }
 
     @Override
     public byte[] getMessage() {
+        if (values != null) {
+            byte[] result = new byte[values.length * 2 + 1];
+            result[0] = (byte)(values.length * 2);
+            for (int i = 0; i < values.length; i++) {
+                result[1 + i * 2] = (byte)(values[i] >> 8);
+                result[2 + i * 2] = (byte)values[i];
+            }
+            return result;
+        }
         byte[] result = new byte[registers.length * 2 + 1];
         result[0] = (byte)(registers.length * 2);
 
         for (int i = 0; i < registers.length; i++) {
-            byte[] value = registers[i].toBytes();
+            short value = registers[i].toShort();
 
-            result[1 + i * 2] = value[0];
-            result[2 + i * 2] = value[1];
+            result[1 + i * 2] = (byte)(value >> 8);
+            result[2 + i * 2] = (byte)value;
         }
         return result;
     }
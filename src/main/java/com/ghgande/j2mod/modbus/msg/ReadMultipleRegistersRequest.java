@@ -17,6 +17,7 @@ package com.ghgande.j2mod.modbus.msg;
 
 import com.ghgande.j2mod.modbus.Modbus;
 import com.ghgande.j2mod.modbus.net.AbstractModbusListener;
+import com.ghgande.j2mod.modbus.procimg.BulkProcessImage;
 import com.ghgande.j2mod.modbus.procimg.IllegalAddressException;
 import com.ghgande.j2mod.modbus.procimg.ProcessImage;
 import com.ghgande.j2mod.modbus.procimg.Register;
@@ -82,6 +83,18 @@ public class ReadMultipleRegistersRequest extends ModbusRequest {
 
         // 1. get process image
         ProcessImage procimg = listener.getProcessImage(getUnitID());
+        if (procimg instanceof BulkProcessImage) {
+            short[] values = new short[getWordCount()];
+            try {
+                ((BulkProcessImage)procimg).getRegisterValues(getReference(), values.length, values, 0);
+            }
+            catch (IllegalAddressException e) {
+                return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
+            }
+            response = (ReadMultipleRegistersResponse)getResponse();
+            response.setRegisterValues(values);
+            return response;
+        }
         // 2. get input registers range
         try {
             regs = procimg.getRegisterRange(getReference(), getWordCount());
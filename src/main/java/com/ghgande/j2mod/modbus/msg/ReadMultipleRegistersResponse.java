@@ -39,6 +39,7 @@ public class ReadMultipleRegistersResponse extends ModbusResponse {
     // instance attributes
     private int byteCount;
     private Register[] registers;
+    private short[] values;
 
     /**
      * Constructs a new <tt>ReadMultipleRegistersResponse</tt> instance.
@@ -94,6 +95,7 @@ public class ReadMultipleRegistersResponse extends ModbusResponse {
      * @throws IndexOutOfBoundsException if the index is out of bounds.
      */
     public Register getRegister(int index) {
+        materialiseRegisters();
         if (registers == null) {
             throw new IndexOutOfBoundsException("No registers defined!");
         }
@@ -121,6 +123,12 @@ public class ReadMultipleRegistersResponse extends ModbusResponse {
      * @throws IndexOutOfBoundsException if the index is out of bounds.
      */
     public int getRegisterValue(int index) throws IndexOutOfBoundsException {
+        if (values != null) {
+            if (index < 0 || index >= values.length) {
+                throw new IndexOutOfBoundsException(index + " > " + getWordCount());
+            }
+            return values[index] & 0xFFFF;
+        }
         return getRegister(index).toUnsignedShort();
     }
 
@@ -130,6 +138,7 @@ public class ReadMultipleRegistersResponse extends ModbusResponse {
      * @return a <tt>Register[]</tt> instance.
      */
     public synchronized Register[] getRegisters() {
+        materialiseRegisters();
         Register[] dest = new Register[registers.length];
         System.arraycopy(registers, 0, dest, 0, dest.length);
         return dest;
@@ -142,15 +151,49 @@ public class ReadMultipleRegistersResponse extends ModbusResponse {
     public synchronized void setRegisters(Register[] registers) {
         byteCount = registers == null ? 0 : registers.length * 2;
         this.registers = registers == null ? null : Arrays.copyOf(registers, registers.length);
+        values = null;
+        setDataLength(byteCount + 1);
+    }
+
+    /**
+     * Sets the entire block of register values for this response without
+     * creating a <tt>Register</tt> for each one. The array is used as is,
+     * not copied.
+     *
+     * @param values Array of register values to use
+     */
+    public synchronized void setRegisterValues(short[] values) {
+        byteCount = values == null ? 0 : values.length * 2;
+        this.values = values;
+        registers = null;
         setDataLength(byteCount + 1);
     }
 
+    /**
+     * Creates the <tt>Register</tt> objects for a response that was built
+     * from raw values
+     */
+    private synchronized void materialiseRegisters() {
+        if (values != null && registers == null) {
+            registers = new Register[values.length];
+            for (int k = 0; k < values.length; k++) {
+                registers[k] = new SimpleRegister(values[k] & 0xFFFF);
+            }
+        }
+    }
+
     @Override
     public void writeData(DataOutput dout) throws IOException {
         dout.writeByte(byteCount);
 
+        if (values != null) {
+            for (short value : values) {
+                dout.writeShort(value);
+            }
+            return;
+        }
         for (int k = 0; k < getWordCount(); k++) {
-            dout.write(registers[k].toBytes());
+            dout.writeShort(registers[k].toShort());
         }
     }
 
@@ -159,6 +202,7 @@ public class ReadMultipleRegistersResponse extends ModbusResponse {
         byteCount = din.readUnsignedByte();
 
         registers = new Register[getWordCount()];
+        values = null;
 
         for (int k = 0; k < getWordCount(); k++) {
             registers[k] = new SimpleRegister(din.readByte(), din.readByte());
@@ -176,11 +220,18 @@ public class ReadMultipleRegistersResponse extends ModbusResponse {
         int offset = 0;
         result[offset++] = (byte)byteCount;
 
+        if (values != null) {
+            for (short value : values) {
+                result[offset++] = (byte)(value >> 8);
+                result[offset++] = (byte)value;
+            }
+            return result;
+        }
         for (Register register : registers) {
-            byte[] data = register.toBytes();
+            short value = register.toShort();
 
-            result[offset++] = data[0];
-            result[offset++] = data[1];
+            result[offset++] = (byte)(value >> 8);
+            result[offset++] = (byte)value;
         }
         return result;
     }
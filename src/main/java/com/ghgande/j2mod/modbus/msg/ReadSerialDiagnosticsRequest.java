@@ -17,6 +17,7 @@ package com.ghgande.j2mod.modbus.msg;
 
 import com.ghgande.j2mod.modbus.Modbus;
 import com.ghgande.j2mod.modbus.net.AbstractModbusListener;
+import com.ghgande.j2mod.modbus.net.ModbusDiagnostics;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -133,7 +134,59 @@ public class ReadSerialDiagnosticsRequest extends ModbusRequest {
 
     @Override
     public ModbusResponse createResponse(AbstractModbusListener listener) {
-        return createExceptionResponse(Modbus.ILLEGAL_FUNCTION_EXCEPTION);
+        ModbusDiagnostics diagnostics = listener.getDiagnostics();
+        ModbusDiagnostics.Unit unit = diagnostics.getUnit(getUnitID());
+        ReadSerialDiagnosticsResponse response = (ReadSerialDiagnosticsResponse)getResponse();
+        switch (function) {
+            case ModbusDiagnostics.RETURN_QUERY_DATA:
+                response.setData(data);
+                break;
+            case ModbusDiagnostics.RESTART_COMMUNICATIONS:
+                if (data != 0 && data != (short)0xFF00) {
+                    return createExceptionResponse(Modbus.ILLEGAL_VALUE_EXCEPTION);
+                }
+                diagnostics.restart(data != 0);
+                response.setData(data);
+                break;
+            case ModbusDiagnostics.RETURN_DIAGNOSTIC_REGISTER:
+                response.setData(diagnostics.getDiagnosticRegister());
+                break;
+            case ModbusDiagnostics.CLEAR_COUNTERS:
+                diagnostics.clearCounters();
+                response.setData(data);
+                break;
+            case ModbusDiagnostics.RETURN_BUS_MESSAGE_COUNT:
+                response.setData(diagnostics.getBusMessageCount());
+                break;
+            case ModbusDiagnostics.RETURN_BUS_COMM_ERROR_COUNT:
+                response.setData(diagnostics.getBusCommErrorCount());
+                break;
+            case ModbusDiagnostics.RETURN_BUS_EXCEPTION_ERROR_COUNT:
+                response.setData(unit.getExceptionErrorCount());
+                break;
+            case ModbusDiagnostics.RETURN_SLAVE_MESSAGE_COUNT:
+                response.setData(unit.getSlaveMessageCount());
+                break;
+            case ModbusDiagnostics.RETURN_SLAVE_NO_RESPONSE_COUNT:
+                response.setData(unit.getNoResponseCount());
+                break;
+            case ModbusDiagnostics.RETURN_SLAVE_NAK_COUNT:
+                response.setData(unit.getNakCount());
+                break;
+            case ModbusDiagnostics.RETURN_SLAVE_BUSY_COUNT:
+                response.setData(unit.getBusyCount());
+                break;
+            case ModbusDiagnostics.RETURN_BUS_CHARACTER_OVERRUN_COUNT:
+                response.setData(diagnostics.getBusCharacterOverrunCount());
+                break;
+            case ModbusDiagnostics.CLEAR_OVERRUN_COUNTER:
+                diagnostics.clearOverrunCounter();
+                response.setData(data);
+                break;
+            default:
+                return createExceptionResponse(Modbus.ILLEGAL_FUNCTION_EXCEPTION);
+        }
+        return response;
     }
 
     /**
@@ -164,7 +164,7 @@ public class ReadWriteMultipleResponse extends ModbusResponse {
         dout.writeByte(byteCount);
 
         for (int k = 0; k < getWordCount(); k++) {
-            dout.write(registers[k].toBytes());
+            dout.writeShort(registers[k].toShort());
         }
     }
 
@@ -191,10 +191,10 @@ public class ReadWriteMultipleResponse extends ModbusResponse {
         result[offset++] = (byte)byteCount;
 
         for (InputRegister register : registers) {
-            byte[] data = register.toBytes();
+            short value = register.toShort();
 
-            result[offset++] = data[0];
-            result[offset++] = data[1];
+            result[offset++] = (byte)(value >> 8);
+            result[offset++] = (byte)value;
         }
         return result;
     }
@@ -102,7 +102,13 @@ public class WriteCoilResponse extends ModbusResponse {
 
     @Override
     public void writeData(DataOutput dout) throws IOException {
-        dout.write(getMessage());
+        dout.writeShort(reference);
+        if (coil) {
+            dout.write(Modbus.COIL_ON_BYTES, 0, 2);
+        }
+        else {
+            dout.write(Modbus.COIL_OFF_BYTES, 0, 2);
+        }
     }
 
     @Override
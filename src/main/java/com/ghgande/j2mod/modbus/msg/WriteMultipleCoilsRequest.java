@@ -17,6 +17,7 @@ package com.ghgande.j2mod.modbus.msg;
 
 import com.ghgande.j2mod.modbus.Modbus;
 import com.ghgande.j2mod.modbus.net.AbstractModbusListener;
+import com.ghgande.j2mod.modbus.procimg.BulkProcessImage;
 import com.ghgande.j2mod.modbus.procimg.DigitalOut;
 import com.ghgande.j2mod.modbus.procimg.IllegalAddressException;
 import com.ghgande.j2mod.modbus.procimg.ProcessImage;
@@ -112,10 +113,15 @@ public class WriteMultipleCoilsRequest extends ModbusRequest {
         ProcessImage procimg = listener.getProcessImage(getUnitID());
         // 2. get coil range
         try {
-            douts = procimg.getDigitalOutRange(reference, coils.size());
-            // 3. set coils
-            for (int i = 0; i < douts.length; i++) {
-                douts[i].set(coils.getBit(i));
+            if (procimg instanceof BulkProcessImage) {
+                ((BulkProcessImage)procimg).setDigitalOutValues(reference, coils.size(), coils.getBytes(), 0);
+            }
+            else {
+                douts = procimg.getDigitalOutRange(reference, coils.size());
+                // 3. set coils
+                for (int i = 0; i < douts.length; i++) {
+                    douts[i].set(coils.getBit(i));
+                }
             }
         }
         catch (IllegalAddressException iaex) {
@@ -223,7 +229,7 @@ public class WriteMultipleCoilsRequest extends ModbusRequest {
         dout.writeShort(coils.size());
 
         dout.writeByte(coils.byteSize());
-        dout.write(coils.getBytes());
+        coils.writeTo(dout);
     }
 
     @Override
@@ -18,6 +18,7 @@ package com.ghgande.j2mod.modbus.msg;
 import com.ghgande.j2mod.modbus.Modbus;
 import com.ghgande.j2mod.modbus.io.NonWordDataHandler;
 import com.ghgande.j2mod.modbus.net.AbstractModbusListener;
+import com.ghgande.j2mod.modbus.procimg.BulkProcessImage;
 import com.ghgande.j2mod.modbus.procimg.IllegalAddressException;
 import com.ghgande.j2mod.modbus.procimg.ProcessImage;
 import com.ghgande.j2mod.modbus.procimg.Register;
@@ -102,10 +103,19 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
             ProcessImage procimg = listener.getProcessImage(getUnitID());
             // 2. get registers
             try {
-                regs = procimg.getRegisterRange(getReference(), getWordCount());
-                // 3. set Register values
-                for (int i = 0; i < regs.length; i++) {
-                    regs[i].setValue(this.getRegister(i).getValue());
+                if (procimg instanceof BulkProcessImage) {
+                    short[] values = new short[getWordCount()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = (short)getRegister(i).getValue();
+                    }
+                    ((BulkProcessImage)procimg).setRegisterValues(getReference(), values.length, values, 0);
+                }
+                else {
+                    regs = procimg.getRegisterRange(getReference(), getWordCount());
+                    // 3. set Register values
+                    for (int i = 0; i < regs.length; i++) {
+                        regs[i].setValue(this.getRegister(i).getValue());
+                    }
                 }
             }
             catch (IllegalAddressException iaex) {
@@ -264,7 +274,17 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
 
     @Override
     public void writeData(DataOutput output) throws IOException {
-        output.write(getMessage());
+        if (nonWordDataHandler != null) {
+            output.write(getMessage());
+            return;
+        }
+        int registerCount = registers != null ? registers.length : 0;
+        output.writeShort(reference);
+        output.writeShort(registerCount);
+        output.writeByte(registerCount * 2);
+        for (int i = 0; i < registerCount; i++) {
+            output.writeShort(registers[i].toShort());
+        }
     }
 
     @Override
@@ -311,9 +331,9 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
 
         if (nonWordDataHandler == null) {
             for (int i = 0; i < registerCount; i++) {
-                byte[] bytes = registers[i].toBytes();
-                result[offset++] = bytes[0];
-                result[offset++] = bytes[1];
+                short value = registers[i].toShort();
+                result[offset++] = (byte)(value >> 8);
+                result[offset++] = (byte)value;
             }
         }
         else {
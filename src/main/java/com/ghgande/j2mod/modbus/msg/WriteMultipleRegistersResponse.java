@@ -116,7 +116,8 @@ public class WriteMultipleRegistersResponse extends ModbusResponse {
 
     @Override
     public void writeData(DataOutput dout) throws IOException {
-        dout.write(getMessage());
+        dout.writeShort(reference);
+        dout.writeShort(wordCount);
     }
 
     @Override
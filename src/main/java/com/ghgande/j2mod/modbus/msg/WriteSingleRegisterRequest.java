@@ -136,7 +136,7 @@ public class WriteSingleRegisterRequest extends ModbusRequest {
     @Override
     public void writeData(DataOutput dout) throws IOException {
         dout.writeShort(reference);
-        dout.write(register.toBytes());
+        dout.writeShort(register.toShort());
     }
 
     @Override
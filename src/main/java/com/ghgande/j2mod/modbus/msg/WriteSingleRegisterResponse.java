@@ -109,7 +109,8 @@ public class WriteSingleRegisterResponse
 
     @Override
     public void writeData(DataOutput dout) throws IOException {
-        dout.write(getMessage());
+        dout.writeShort(reference);
+        dout.writeShort(registerValue);
     }
 
     @Override
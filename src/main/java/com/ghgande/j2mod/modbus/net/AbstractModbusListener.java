@@ -19,16 +19,20 @@ import com.ghgande.j2mod.modbus.Modbus;
 import com.ghgande.j2mod.modbus.ModbusIOException;
 import com.ghgande.j2mod.modbus.io.AbstractModbusTransport;
 import com.ghgande.j2mod.modbus.io.ModbusRTUTransport;
+import com.ghgande.j2mod.modbus.msg.ExceptionResponse;
 import com.ghgande.j2mod.modbus.msg.ModbusRequest;
 import com.ghgande.j2mod.modbus.msg.ModbusResponse;
 import com.ghgande.j2mod.modbus.msg.ModbusResponse.AuxiliaryMessageTypes;
 import com.ghgande.j2mod.modbus.procimg.ProcessImage;
+import com.ghgande.j2mod.modbus.slave.ModbusGateway;
 import com.ghgande.j2mod.modbus.slave.ModbusSlave;
 import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+import com.ghgande.j2mod.modbus.util.ModbusMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Definition of a listener class
@@ -45,6 +49,9 @@ public abstract class AbstractModbusListener implements Runnable {
     protected String error;
     protected int timeout = Modbus.DEFAULT_TIMEOUT;
     protected String threadName;
+    private ModbusMetrics.Source metrics;
+    private volatile ModbusSlave slave;
+    private final ModbusDiagnostics diagnostics = new ModbusDiagnostics();
 
     /**
      * Stop the listener thread for this <tt>ModbusListener</tt> instance.
@@ -156,17 +163,7 @@ public abstract class AbstractModbusListener implements Runnable {
         if (request == null) {
             throw new ModbusIOException("Request for transport %s is invalid (null)", transport.getClass().getSimpleName());
         }
-        ModbusResponse response;
-
-        // Test if Process image exists for this Unit ID
-        ProcessImage spi = getProcessImage(request.getUnitID());
-        if (spi == null) {
-            response = request.createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
-            response.setAuxiliaryType(ModbusResponse.AuxiliaryMessageTypes.UNIT_ID_MISSMATCH);
-        }
-        else {
-            response = request.createResponse(this);
-        }
+        ModbusResponse response = createResponse(request);
 
         if (logger.isDebugEnabled()) {
             logger.debug("Request:{}", request.getHexMessage());
@@ -180,7 +177,137 @@ public abstract class AbstractModbusListener implements Runnable {
         }
 
         // Write the response
-        transport.writeResponse(response);
+        try {
+            transport.writeResponse(response);
+        }
+        catch (ModbusIOException e) {
+            if (response.getAuxiliaryType() != AuxiliaryMessageTypes.UNIT_ID_MISSMATCH) {
+                diagnostics.noResponse(request.getUnitID());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the response to a request that has already been read from the wire
+     * by applying it to the process image of its Unit ID, or by forwarding it
+     * through the gateway of the slave if there is no local image
+     *
+     * @param request Request to process
+     * @return Response to send back, an exception response if the Unit ID is not served
+     */
+    ModbusResponse createResponse(ModbusRequest request) {
+        long start = System.nanoTime();
+        return recordResponse(request, processRequest(request), start);
+    }
+
+    /**
+     * Creates the response to a request without waiting for a gateway. Requests
+     * for a local process image are answered straight away, those forwarded
+     * through the gateway of the slave are answered by the thread of its bus.
+     *
+     * @param request Request to process
+     * @return Future response to send back
+     */
+    CompletableFuture<ModbusResponse> createResponseAsync(ModbusRequest request) {
+        if (getProcessImage(request.getUnitID()) == null) {
+            ModbusGateway gateway = getGateway(request.getUnitID());
+            if (gateway != null) {
+                long start = System.nanoTime();
+                return gateway.forwardAsync(request).thenApply(response -> recordResponse(request, response, start));
+            }
+        }
+        return CompletableFuture.completedFuture(createResponse(request));
+    }
+
+    /**
+     * Records the statistics and diagnostics of a processed request
+     *
+     * @param request  Request that was processed
+     * @param response Response to it
+     * @param start    Time processing started
+     * @return The response
+     */
+    private ModbusResponse recordResponse(ModbusRequest request, ModbusResponse response, long start) {
+        ModbusMetrics.Recorder recorder = getMetrics();
+        recorder.bytesIn(request.getOutputLength());
+        diagnostics.busMessage();
+        if (response.getAuxiliaryType() != AuxiliaryMessageTypes.UNIT_ID_MISSMATCH) {
+            recorder.bytesOut(response.getOutputLength());
+            diagnostics.requestProcessed(request.getUnitID(), request.getFunctionCode(), response);
+        }
+        if (response instanceof ExceptionResponse) {
+            recorder.requestFailed(request.getUnitID(), request.getFunctionCode());
+        }
+        else {
+            recorder.requestCompleted(request.getUnitID(), request.getFunctionCode(), System.nanoTime() - start);
+        }
+        return response;
+    }
+
+    /**
+     * Applies a request to the process image of its Unit ID, or forwards it
+     * through the gateway of the slave
+     *
+     * @param request Request to process
+     * @return Response to send back
+     */
+    private ModbusResponse processRequest(ModbusRequest request) {
+        ProcessImage spi = getProcessImage(request.getUnitID());
+        if (spi == null) {
+            ModbusGateway gateway = getGateway(request.getUnitID());
+            if (gateway != null) {
+                return gateway.forward(request);
+            }
+            ModbusResponse response = request.createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
+            response.setAuxiliaryType(ModbusResponse.AuxiliaryMessageTypes.UNIT_ID_MISSMATCH);
+            return response;
+        }
+        return request.createResponse(this);
+    }
+
+    /**
+     * Returns the gateway of the slave if it routes a Unit ID
+     *
+     * @param unitId Unit ID
+     * @return Gateway or null if the Unit ID is not forwarded
+     */
+    private ModbusGateway getGateway(int unitId) {
+        ModbusSlave slave = getSlave();
+        ModbusGateway gateway = slave == null ? null : slave.getGateway();
+        return gateway != null && gateway.getBus(unitId) != null ? gateway : null;
+    }
+
+    /**
+     * Returns the diagnostic counters and comm event log of this listener
+     *
+     * @return Diagnostics
+     */
+    public ModbusDiagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Returns the recorder that the statistics of this listener are collected by
+     *
+     * @return Recorder
+     */
+    protected ModbusMetrics.Recorder getMetrics() {
+        ModbusMetrics.Source source = metrics;
+        if (source == null) {
+            source = new ModbusMetrics.Source(getMetricsName());
+            metrics = source;
+        }
+        return source.get();
+    }
+
+    /**
+     * Returns the name that the statistics of this listener are recorded under
+     *
+     * @return Name
+     */
+    protected String getMetricsName() {
+        return getClass().getSimpleName() + ":" + port;
     }
 
     /**
@@ -190,13 +317,34 @@ public abstract class AbstractModbusListener implements Runnable {
      * @return Process image associated with this listener and Unit ID
      */
     public ProcessImage getProcessImage(int unitId) {
-        ModbusSlave slave = ModbusSlaveFactory.getSlave(this);
+        ModbusSlave slave = getSlave();
         if (slave != null) {
             return slave.getProcessImage(unitId);
         }
         return null;
     }
 
+    /**
+     * Returns the slave that this listener serves requests for
+     *
+     * @return Slave or null if the listener isn't part of one
+     */
+    public ModbusSlave getSlave() {
+        ModbusSlave current = slave;
+        return current == null ? ModbusSlaveFactory.getSlave(this) : current;
+    }
+
+    /**
+     * Sets the slave that this listener serves requests for. This is done by
+     * the slave when it is created, so that requests can be routed without
+     * going through the <tt>ModbusSlaveFactory</tt>.
+     *
+     * @param slave Slave
+     */
+    public void setSlave(ModbusSlave slave) {
+        this.slave = slave;
+    }
+
     /**
      * Gets the name of the thread used by the listener
      *
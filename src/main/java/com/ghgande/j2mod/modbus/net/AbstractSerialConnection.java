@@ -79,6 +79,19 @@ public abstract class AbstractSerialConnection {
      */
     public abstract int readBytes(byte[] buffer, long bytesToRead);
 
+    /**
+     * Read a specified number of bytes from the serial port into a buffer
+     * starting at the given offset. Implementations must read straight into
+     * the buffer, as this is called for every refill of the receive buffer of
+     * the serial transports.
+     *
+     * @param buffer      Buffer to recieve bytes from the port
+     * @param bytesToRead Number of bytes to read
+     * @param offset      Position in the buffer of the first byte
+     * @return number of currently bytes read
+     */
+    public abstract int readBytes(byte[] buffer, long bytesToRead, int offset);
+
     /**
      * Write a specified number of bytes to the serial port
      *
@@ -95,6 +108,18 @@ public abstract class AbstractSerialConnection {
      */
     public abstract int bytesAvailable();
 
+    /**
+     * Sets a callback to run whenever data arrives at the port, replacing any
+     * previous one. Connections that cannot signal the arrival of data return
+     * false and the caller must poll {@link #bytesAvailable()} instead.
+     *
+     * @param listener Callback to run, null to remove it
+     * @return true if the connection will signal the arrival of data
+     */
+    public boolean setDataAvailableListener(Runnable listener) {
+        return false;
+    }
+
     /**
      * Close the port and clean up associated elements
      */
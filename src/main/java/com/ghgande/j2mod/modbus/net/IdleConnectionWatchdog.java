@@ -0,0 +1,267 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.net;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class that closes TCP slave connections that have been idle for too long.
+ * <p>
+ * All the connections are tracked by a hashed timer wheel driven by a single
+ * daemon thread, rather than by a thread per connection. Watching a connection
+ * is O(1), and so is resetting its deadline, which is simply the transport
+ * recording the time of each read and write. When a connection's slot comes
+ * round the wheel, its real deadline is worked out from the last activity and
+ * it is either closed or moved to the slot of its new deadline. Cancelling a
+ * watch takes the connection out of its slot straight away.
+ * <p>
+ * The thread is started when the first connection is watched and ends once
+ * there is nothing left to watch.
+ */
+public class IdleConnectionWatchdog {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdleConnectionWatchdog.class);
+    private static final long DEFAULT_TICK_MILLIS = 250;
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+    private static IdleConnectionWatchdog shared;
+
+    private final long tickNanos;
+    private final Queue<Entry>[] wheel;
+    private final int mask;
+    private final AtomicInteger watched = new AtomicInteger();
+    private volatile long currentTick;
+    private Thread ticker;
+
+    /**
+     * Returns the watchdog shared by all the TCP listeners
+     *
+     * @return Shared watchdog
+     */
+    public static synchronized IdleConnectionWatchdog getShared() {
+        if (shared == null) {
+            shared = new IdleConnectionWatchdog(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+        }
+        return shared;
+    }
+
+    /**
+     * Creates a watchdog
+     *
+     * @param tickMillis Resolution of the deadlines in milliseconds
+     * @param wheelSize  Number of slots in the wheel, rounded up to a power of 2
+     */
+    public IdleConnectionWatchdog(long tickMillis, int wheelSize) {
+        if (tickMillis <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("Tick and wheel size must be positive");
+        }
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        mask = size - 1;
+        wheel = createWheel(size);
+    }
+
+    /**
+     * Creates the slots of the wheel, each an empty queue
+     *
+     * @param size Number of slots
+     * @return Slots
+     */
+    @SuppressWarnings("unchecked")
+    private static Queue<Entry>[] createWheel(int size) {
+        Queue<Entry>[] slots = (Queue<Entry>[])new Queue<?>[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new ConcurrentLinkedQueue<Entry>();
+        }
+        return slots;
+    }
+
+    /**
+     * Starts watching a connection
+     *
+     * @param connection     Connection to watch
+     * @param maxIdleSeconds Time the connection may be silent before it is closed
+     * @return Handle used to stop watching the connection
+     */
+    public Entry watch(TCPSlaveConnection connection, int maxIdleSeconds) {
+        if (maxIdleSeconds <= 0) {
+            throw new IllegalArgumentException("maxIdleSeconds must be > 0: " + maxIdleSeconds);
+        }
+        Entry entry = new Entry(this, connection, TimeUnit.SECONDS.toNanos(maxIdleSeconds));
+        synchronized (this) {
+            watched.incrementAndGet();
+            schedule(entry, entry.maxIdleNanos);
+            if (ticker == null) {
+                ticker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        runWheel();
+                    }
+                }, "Modbus TCP Idle Watchdog");
+                ticker.setDaemon(true);
+                ticker.start();
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the number of connections being watched
+     *
+     * @return Number of connections
+     */
+    public int getWatched() {
+        return watched.get();
+    }
+
+    /**
+     * Puts an entry in the slot of the tick its deadline falls in
+     *
+     * @param entry      Entry to schedule
+     * @param delayNanos Time until the deadline
+     */
+    private void schedule(Entry entry, long delayNanos) {
+        long ticks = Math.max(1, (delayNanos + tickNanos - 1) / tickNanos);
+        entry.deadlineTick = currentTick + ticks;
+        offer(entry, entry.deadlineTick);
+    }
+
+    /**
+     * Adds an entry to a slot. If it was cancelled while it was out of the
+     * wheel, it is taken straight back out, so that it does not hold on to its
+     * connection until the slot comes round.
+     *
+     * @param entry Entry to add
+     * @param tick  Tick of the slot
+     */
+    private void offer(Entry entry, long tick) {
+        Queue<Entry> slot = wheel[(int)(tick & mask)];
+        slot.offer(entry);
+        if (entry.cancelled.get()) {
+            slot.remove(entry);
+        }
+    }
+
+    /**
+     * Stops watching an entry that has been cancelled
+     *
+     * @param entry Cancelled entry
+     */
+    private void remove(Entry entry) {
+        watched.decrementAndGet();
+        wheel[(int)(entry.deadlineTick & mask)].remove(entry);
+    }
+
+    /**
+     * Turns the wheel until there is nothing left to watch
+     */
+    private void runWheel() {
+        long start = System.nanoTime();
+        long ticks = 0;
+        while (true) {
+            synchronized (this) {
+                if (watched.get() == 0) {
+                    ticker = null;
+                    return;
+                }
+            }
+            long wait = start + (ticks + 1) * tickNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            ticks++;
+            long tick = ++currentTick;
+            Queue<Entry> slot = wheel[(int)(tick & mask)];
+            for (int i = slot.size(); i > 0; i--) {
+                Entry entry = slot.poll();
+                if (entry == null) {
+                    break;
+                }
+                process(entry, tick);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection of an entry whose deadline has passed, or moves it
+     * on to its new deadline
+     *
+     * @param entry Entry in the current slot
+     * @param tick  Current tick
+     */
+    private void process(Entry entry, long tick) {
+        if (entry.cancelled.get()) {
+            // Already removed from the count when it was cancelled
+            return;
+        }
+        if (entry.deadlineTick > tick) {
+            // Not due until a later turn of the wheel
+            offer(entry, tick);
+        }
+        else {
+            long idle = System.nanoTime() - entry.connection.getLastActivityTimestamp();
+            if (idle >= entry.maxIdleNanos) {
+                if (entry.cancelled.compareAndSet(false, true)) {
+                    logger.warn("Watchdog expired: {}, limit: {}", TimeUnit.NANOSECONDS.toSeconds(idle), TimeUnit.NANOSECONDS.toSeconds(entry.maxIdleNanos));
+
+                    // Socket.close() will cause read operation to fail
+                    watched.decrementAndGet();
+                    entry.connection.close();
+                }
+            }
+            else {
+                schedule(entry, entry.maxIdleNanos - idle);
+            }
+        }
+    }
+
+    /**
+     * A connection being watched
+     */
+    public static class Entry {
+        private final IdleConnectionWatchdog watchdog;
+        private final TCPSlaveConnection connection;
+        private final long maxIdleNanos;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private volatile long deadlineTick;
+
+        private Entry(IdleConnectionWatchdog watchdog, TCPSlaveConnection connection, long maxIdleNanos) {
+            this.watchdog = watchdog;
+            this.connection = connection;
+            this.maxIdleNanos = maxIdleNanos;
+        }
+
+        /**
+         * Stops watching the connection, e.g. because it has been closed
+         */
+        public void cancel() {
+            if (cancelled.compareAndSet(false, true)) {
+                watchdog.remove(this);
+            }
+        }
+    }
+}
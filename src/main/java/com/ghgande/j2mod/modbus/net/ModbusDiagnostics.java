@@ -0,0 +1,434 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.net;
+
+import com.ghgande.j2mod.modbus.Modbus;
+import com.ghgande.j2mod.modbus.msg.ExceptionResponse;
+import com.ghgande.j2mod.modbus.msg.ModbusResponse;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Class that keeps the diagnostic counters and the comm event log of a
+ * listener, as returned by the <tt>Diagnostics</tt> (0x08),
+ * <tt>Get Comm Event Counter</tt> (0x0B) and <tt>Get Comm Event Log</tt>
+ * (0x0C) functions.
+ * <p>
+ * The bus counters (messages, communication errors and character overruns)
+ * are shared by all the Unit IDs the listener serves, everything else is kept
+ * per Unit ID. Counters are atomics and the event logs are fixed size rings,
+ * so recording never blocks the thread that is answering requests. As in the
+ * specification, all counters are 16 bit and roll over.
+ */
+public class ModbusDiagnostics {
+
+    /**
+     * Sub-function <tt>return query data</tt>
+     */
+    public static final int RETURN_QUERY_DATA = 0x00;
+
+    /**
+     * Sub-function <tt>restart communications option</tt>
+     */
+    public static final int RESTART_COMMUNICATIONS = 0x01;
+
+    /**
+     * Sub-function <tt>return diagnostic register</tt>
+     */
+    public static final int RETURN_DIAGNOSTIC_REGISTER = 0x02;
+
+    /**
+     * Sub-function <tt>clear counters and diagnostic register</tt>
+     */
+    public static final int CLEAR_COUNTERS = 0x0A;
+
+    /**
+     * Sub-function <tt>return bus message count</tt>
+     */
+    public static final int RETURN_BUS_MESSAGE_COUNT = 0x0B;
+
+    /**
+     * Sub-function <tt>return bus communication error count</tt>
+     */
+    public static final int RETURN_BUS_COMM_ERROR_COUNT = 0x0C;
+
+    /**
+     * Sub-function <tt>return bus exception error count</tt>
+     */
+    public static final int RETURN_BUS_EXCEPTION_ERROR_COUNT = 0x0D;
+
+    /**
+     * Sub-function <tt>return slave message count</tt>
+     */
+    public static final int RETURN_SLAVE_MESSAGE_COUNT = 0x0E;
+
+    /**
+     * Sub-function <tt>return slave no response count</tt>
+     */
+    public static final int RETURN_SLAVE_NO_RESPONSE_COUNT = 0x0F;
+
+    /**
+     * Sub-function <tt>return slave NAK count</tt>
+     */
+    public static final int RETURN_SLAVE_NAK_COUNT = 0x10;
+
+    /**
+     * Sub-function <tt>return slave busy count</tt>
+     */
+    public static final int RETURN_SLAVE_BUSY_COUNT = 0x11;
+
+    /**
+     * Sub-function <tt>return bus character overrun count</tt>
+     */
+    public static final int RETURN_BUS_CHARACTER_OVERRUN_COUNT = 0x12;
+
+    /**
+     * Sub-function <tt>clear overrun counter and flag</tt>
+     */
+    public static final int CLEAR_OVERRUN_COUNTER = 0x14;
+
+    /**
+     * Maximum number of events kept in the comm event log of a Unit ID
+     */
+    public static final int EVENT_LOG_SIZE = 64;
+
+    /**
+     * Event logged when communications are restarted
+     */
+    public static final int EVENT_RESTART = 0x00;
+
+    /**
+     * Event logged when a request is received, or'ed with the other
+     * <tt>EVENT_RECEIVE_</tt> flags
+     */
+    public static final int EVENT_RECEIVE = 0x80;
+
+    /**
+     * Receive event flag for a communication error
+     */
+    public static final int EVENT_RECEIVE_COMM_ERROR = 0x02;
+
+    /**
+     * Receive event flag for a character overrun
+     */
+    public static final int EVENT_RECEIVE_OVERRUN = 0x10;
+
+    /**
+     * Event logged when a response is sent, or'ed with the other
+     * <tt>EVENT_SEND_</tt> flags
+     */
+    public static final int EVENT_SEND = 0x40;
+
+    /**
+     * Send event flag for an exception code 1 to 3
+     */
+    public static final int EVENT_SEND_READ_EXCEPTION = 0x01;
+
+    /**
+     * Send event flag for an exception code 4
+     */
+    public static final int EVENT_SEND_ABORT_EXCEPTION = 0x02;
+
+    /**
+     * Send event flag for an exception code 5 or 6
+     */
+    public static final int EVENT_SEND_BUSY_EXCEPTION = 0x04;
+
+    /**
+     * Send event flag for an exception code 7
+     */
+    public static final int EVENT_SEND_NAK_EXCEPTION = 0x08;
+
+    private final AtomicInteger busMessages = new AtomicInteger();
+    private final AtomicInteger busCommErrors = new AtomicInteger();
+    private final AtomicInteger busOverruns = new AtomicInteger();
+    private final AtomicInteger diagnosticRegister = new AtomicInteger();
+    private final AtomicReferenceArray<Unit> units = new AtomicReferenceArray<Unit>(256);
+
+    /**
+     * Returns the counters of a Unit ID, creating them the first time
+     *
+     * @param unitId Unit ID
+     * @return Counters
+     */
+    public Unit getUnit(int unitId) {
+        Unit unit = units.get(unitId & 0xFF);
+        if (unit == null) {
+            units.compareAndSet(unitId & 0xFF, null, new Unit());
+            unit = units.get(unitId & 0xFF);
+        }
+        return unit;
+    }
+
+    /**
+     * A message has been seen on the bus, whether or not it is for one of the
+     * Unit IDs served
+     */
+    public void busMessage() {
+        busMessages.incrementAndGet();
+    }
+
+    /**
+     * A frame was received with a bad CRC/LRC or broken framing
+     *
+     * @param unitId Unit ID the frame appeared to be for, -1 if not known
+     */
+    public void communicationError(int unitId) {
+        busCommErrors.incrementAndGet();
+        if (unitId >= 0) {
+            getUnit(unitId).log(EVENT_RECEIVE | EVENT_RECEIVE_COMM_ERROR);
+        }
+    }
+
+    /**
+     * Characters were lost because a frame did not fit in the receive buffer
+     *
+     * @param unitId Unit ID the frame appeared to be for, -1 if not known
+     */
+    public void characterOverrun(int unitId) {
+        busOverruns.incrementAndGet();
+        if (unitId >= 0) {
+            getUnit(unitId).log(EVENT_RECEIVE | EVENT_RECEIVE_OVERRUN);
+        }
+    }
+
+    /**
+     * A request for a served Unit ID has been answered
+     *
+     * @param unitId       Unit ID of the request
+     * @param functionCode Function code of the request
+     * @param response     Response that is being sent back
+     */
+    public void requestProcessed(int unitId, int functionCode, ModbusResponse response) {
+        Unit unit = getUnit(unitId);
+        unit.messages.incrementAndGet();
+        unit.log(EVENT_RECEIVE);
+        if (response instanceof ExceptionResponse) {
+            int code = ((ExceptionResponse)response).getExceptionCode();
+            unit.exceptions.incrementAndGet();
+            if (code == Modbus.SLAVE_BUSY_EXCEPTION) {
+                unit.busy.incrementAndGet();
+            }
+            else if (code == Modbus.NEGATIVE_ACKNOWLEDGEMENT) {
+                unit.naks.incrementAndGet();
+            }
+            unit.log(EVENT_SEND | sendFlags(code));
+        }
+        else {
+            if (functionCode != Modbus.READ_COMM_EVENT_COUNTER && functionCode != Modbus.READ_COMM_EVENT_LOG) {
+                unit.events.incrementAndGet();
+            }
+            unit.log(EVENT_SEND);
+        }
+    }
+
+    /**
+     * The response to a request for a served Unit ID could not be sent
+     *
+     * @param unitId Unit ID of the request
+     */
+    public void noResponse(int unitId) {
+        getUnit(unitId).noResponses.incrementAndGet();
+    }
+
+    /**
+     * Returns the send event flags of an exception code
+     *
+     * @param code Exception code
+     * @return Flags
+     */
+    private static int sendFlags(int code) {
+        if (code <= Modbus.ILLEGAL_VALUE_EXCEPTION) {
+            return EVENT_SEND_READ_EXCEPTION;
+        }
+        else if (code == Modbus.SLAVE_DEVICE_FAILURE) {
+            return EVENT_SEND_ABORT_EXCEPTION;
+        }
+        else if (code <= Modbus.SLAVE_BUSY_EXCEPTION) {
+            return EVENT_SEND_BUSY_EXCEPTION;
+        }
+        else if (code == Modbus.NEGATIVE_ACKNOWLEDGEMENT) {
+            return EVENT_SEND_NAK_EXCEPTION;
+        }
+        return 0;
+    }
+
+    /**
+     * @return Number of messages seen on the bus
+     */
+    public int getBusMessageCount() {
+        return busMessages.get() & 0xFFFF;
+    }
+
+    /**
+     * @return Number of CRC/LRC and framing errors
+     */
+    public int getBusCommErrorCount() {
+        return busCommErrors.get() & 0xFFFF;
+    }
+
+    /**
+     * @return Number of character overruns
+     */
+    public int getBusCharacterOverrunCount() {
+        return busOverruns.get() & 0xFFFF;
+    }
+
+    /**
+     * @return Diagnostic register
+     */
+    public int getDiagnosticRegister() {
+        return diagnosticRegister.get() & 0xFFFF;
+    }
+
+    /**
+     * Sets all the counters and the diagnostic register back to zero
+     */
+    public void clearCounters() {
+        busMessages.set(0);
+        busCommErrors.set(0);
+        busOverruns.set(0);
+        diagnosticRegister.set(0);
+        for (int i = 0; i < units.length(); i++) {
+            Unit unit = units.get(i);
+            if (unit != null) {
+                unit.clear();
+            }
+        }
+    }
+
+    /**
+     * Sets the character overrun counter back to zero
+     */
+    public void clearOverrunCounter() {
+        busOverruns.set(0);
+    }
+
+    /**
+     * Restarts communications, clearing the counters and optionally the event
+     * logs, and logs a restart event for every Unit ID
+     *
+     * @param clearLog True if the comm event logs should be cleared too
+     */
+    public void restart(boolean clearLog) {
+        clearCounters();
+        for (int i = 0; i < units.length(); i++) {
+            Unit unit = units.get(i);
+            if (unit != null) {
+                if (clearLog) {
+                    unit.head.set(0);
+                }
+                unit.log(EVENT_RESTART);
+            }
+        }
+    }
+
+    /**
+     * Counters and comm event log of a single Unit ID
+     */
+    public static class Unit {
+        private final AtomicInteger messages = new AtomicInteger();
+        private final AtomicInteger exceptions = new AtomicInteger();
+        private final AtomicInteger noResponses = new AtomicInteger();
+        private final AtomicInteger naks = new AtomicInteger();
+        private final AtomicInteger busy = new AtomicInteger();
+        private final AtomicInteger events = new AtomicInteger();
+        private final AtomicIntegerArray log = new AtomicIntegerArray(EVENT_LOG_SIZE);
+        private final AtomicLong head = new AtomicLong();
+
+        /**
+         * Adds an event to the log, overwriting the oldest once it is full
+         *
+         * @param event Event byte
+         */
+        private void log(int event) {
+            log.set((int)(head.getAndIncrement() % EVENT_LOG_SIZE), event & 0xFF);
+        }
+
+        /**
+         * Sets the counters back to zero
+         */
+        private void clear() {
+            messages.set(0);
+            exceptions.set(0);
+            noResponses.set(0);
+            naks.set(0);
+            busy.set(0);
+            events.set(0);
+        }
+
+        /**
+         * @return Number of messages addressed to the Unit ID
+         */
+        public int getSlaveMessageCount() {
+            return messages.get() & 0xFFFF;
+        }
+
+        /**
+         * @return Number of exception responses sent
+         */
+        public int getExceptionErrorCount() {
+            return exceptions.get() & 0xFFFF;
+        }
+
+        /**
+         * @return Number of requests that were not answered
+         */
+        public int getNoResponseCount() {
+            return noResponses.get() & 0xFFFF;
+        }
+
+        /**
+         * @return Number of negative acknowledge exceptions sent
+         */
+        public int getNakCount() {
+            return naks.get() & 0xFFFF;
+        }
+
+        /**
+         * @return Number of slave busy exceptions sent
+         */
+        public int getBusyCount() {
+            return busy.get() & 0xFFFF;
+        }
+
+        /**
+         * @return Number of requests completed successfully, as returned by
+         * <tt>Get Comm Event Counter</tt>
+         */
+        public int getEventCount() {
+            return events.get() & 0xFFFF;
+        }
+
+        /**
+         * Returns the comm event log, most recent event first
+         *
+         * @return Event bytes, at most {@link #EVENT_LOG_SIZE}
+         */
+        public byte[] getEvents() {
+            long end = head.get();
+            int count = (int)Math.min(end, EVENT_LOG_SIZE);
+            byte[] result = new byte[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = (byte)log.get((int)((end - 1 - i) % EVENT_LOG_SIZE));
+            }
+            return result;
+        }
+    }
+}
@@ -55,6 +55,11 @@ public class ModbusSerialListener extends AbstractModbusListener {
         this.serialCon = serialCon;
     }
 
+    @Override
+    protected String getMetricsName() {
+        return serialCon == null ? super.getMetricsName() : getClass().getSimpleName() + ":" + serialCon.getPortName();
+    }
+
     @Override
     public void setTimeout(int timeout) {
         super.setTimeout(timeout);
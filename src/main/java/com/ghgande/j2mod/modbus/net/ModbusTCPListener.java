@@ -21,12 +21,22 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * Class that implements a ModbusTCPListener.
  * <p>
  * If listening, it accepts incoming requests passing them on to be handled.
  * If not listening, silently drops the requests.
+ * <p>
+ * Each connection is served by a thread that blocks on it for as long as it
+ * is open. By default the threads come from a fixed size <tt>ThreadPool</tt>,
+ * which limits the number of concurrent connections to the size of the pool.
+ * Alternatively the connections can be run on virtual threads (Java 21 and
+ * later) or on any <tt>ExecutorService</tt>, which lets a slave hold many
+ * thousands of mostly idle connections.
  *
  * @author Dieter Wimberger
  * @author Julie Haugh
@@ -39,6 +49,8 @@ public class ModbusTCPListener extends AbstractModbusListener {
 
     private ServerSocket serverSocket = null;
     private final ThreadPool threadPool;
+    private volatile ExecutorService executor;
+    private final boolean ownsExecutor;
     private Thread listener;
     private final boolean useRtuOverTcp;
     private int maxIdleSeconds;
@@ -64,6 +76,8 @@ public class ModbusTCPListener extends AbstractModbusListener {
      */
     public ModbusTCPListener(int poolsize, InetAddress addr, boolean useRtuOverTcp) {
         threadPool = new ThreadPool(poolsize);
+        executor = null;
+        ownsExecutor = false;
         address = addr;
         this.useRtuOverTcp = useRtuOverTcp;
         maxIdleSeconds = 0;
@@ -93,15 +107,79 @@ public class ModbusTCPListener extends AbstractModbusListener {
      * @param useRtuOverTcp True if the RTU protocol should be used over TCP
      */
     public ModbusTCPListener(int poolsize, boolean useRtuOverTcp) {
-        threadPool = new ThreadPool(poolsize);
+        this(poolsize, useRtuOverTcp, false);
+    }
+
+    /**
+     * Constructs a ModbusTCPListener instance that listens on the wildcard
+     * address and optionally runs each connection on its own virtual thread.
+     * If virtual threads are requested but the JVM is older than Java 21, a
+     * <tt>ThreadPool</tt> of <tt>poolsize</tt> threads is used instead.
+     *
+     * @param poolsize          the size of the <tt>ThreadPool</tt> used to handle incoming
+     *                          requests when virtual threads are not used.
+     * @param useRtuOverTcp     True if the RTU protocol should be used over TCP
+     * @param useVirtualThreads True to run each connection on a virtual thread
+     */
+    public ModbusTCPListener(int poolsize, boolean useRtuOverTcp, boolean useVirtualThreads) {
+        ExecutorService virtualThreads = useVirtualThreads ? ThreadPool.newVirtualThreadExecutor() : null;
+        if (useVirtualThreads && virtualThreads == null) {
+            logger.warn("Virtual threads need Java 21 or later - using a pool of {} threads", poolsize);
+        }
+        threadPool = virtualThreads == null ? new ThreadPool(poolsize) : null;
+
+        // Each run of the listener starts its own executor, as stopping shuts it down
+        executor = virtualThreads;
+        ownsExecutor = virtualThreads != null;
+        address = getWildcardAddress();
+        this.useRtuOverTcp = useRtuOverTcp;
+        maxIdleSeconds = 0;
+    }
+
+    /**
+     * Constructs a ModbusTCPListener instance that listens on the wildcard
+     * address and runs each connection as a task of the given executor.
+     * The executor must be able to run as many tasks at once as there are
+     * connections, and is not shut down when the listener stops.
+     *
+     * @param executor      the executor to run the connections on
+     * @param useRtuOverTcp True if the RTU protocol should be used over TCP
+     */
+    public ModbusTCPListener(ExecutorService executor, boolean useRtuOverTcp) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor is required");
+        }
+        threadPool = null;
+        this.executor = executor;
+        ownsExecutor = false;
+        address = getWildcardAddress();
+        this.useRtuOverTcp = useRtuOverTcp;
+        maxIdleSeconds = 0;
+    }
+
+    /**
+     * Returns the wildcard address (0.0.0.0)
+     *
+     * @return Wildcard address
+     */
+    private static InetAddress getWildcardAddress() {
         try {
-            address = InetAddress.getByAddress(new byte[]{0, 0, 0, 0});
+            return InetAddress.getByAddress(new byte[]{0, 0, 0, 0});
         }
         catch (UnknownHostException ex) {
             // Can't happen -- size is fixed.
+            return null;
         }
-        this.useRtuOverTcp = useRtuOverTcp;
-        maxIdleSeconds = 0;
+    }
+
+    /**
+     * Returns true if the connections are run on an executor rather than on
+     * the listener's own <tt>ThreadPool</tt>
+     *
+     * @return True if an executor is in use
+     */
+    public boolean isUsingExecutor() {
+        return executor != null;
     }
 
     /**
@@ -177,7 +255,12 @@ public class ModbusTCPListener extends AbstractModbusListener {
         try {
 
             // Initialise the message handling pool
-            threadPool.initPool(threadName);
+            if (threadPool != null) {
+                threadPool.initPool(threadName);
+            }
+            else if (ownsExecutor && executor.isShutdown()) {
+                executor = ThreadPool.newVirtualThreadExecutor();
+            }
 
             // Infinite loop, taking care of resources in case of a lot of
             // parallel logins
@@ -193,7 +276,7 @@ public class ModbusTCPListener extends AbstractModbusListener {
                 if (listening) {
                     TCPSlaveConnection slave = new TCPSlaveConnection(incoming, useRtuOverTcp);
                     slave.setTimeout(timeout);
-                    threadPool.execute(new TCPConnectionHandler(this, slave, maxIdleSeconds));
+                    execute(new TCPConnectionHandler(this, slave, maxIdleSeconds), slave);
                 }
                 else {
                     incoming.close();
@@ -201,11 +284,68 @@ public class ModbusTCPListener extends AbstractModbusListener {
             }
         }
         catch (IOException e) {
-            error = String.format("Problem starting listener - %s", e.getMessage());
+
+            // Closing the socket to stop the listener is not an error, and would stop it being opened again
+            if (listening) {
+                error = String.format("Problem starting listener - %s", e.getMessage());
+            }
         }
         finally {
+            closeHandlers();
+        }
+    }
+
+    /**
+     * Hands a connection to a thread. The queue depth is recorded both when
+     * the connection is queued and when a thread takes it off the queue.
+     *
+     * @param handler Handler for the connection
+     * @param slave   Connection
+     */
+    private void execute(TCPConnectionHandler handler, TCPSlaveConnection slave) {
+        Runnable task = () -> {
+            recordQueueDepth();
+            handler.run();
+        };
+        if (threadPool != null) {
+            threadPool.execute(task);
+            recordQueueDepth();
+        }
+        else {
+            try {
+                executor.execute(task);
+                recordQueueDepth();
+            }
+            catch (RejectedExecutionException e) {
+                logger.warn("Connection rejected by executor - {}", e.getMessage());
+                slave.close();
+            }
+        }
+    }
+
+    /**
+     * Records the number of connections waiting for a thread
+     */
+    private void recordQueueDepth() {
+        if (threadPool != null) {
+            getMetrics().queueDepth(threadPool.getQueued());
+        }
+        else if (executor instanceof ThreadPoolExecutor) {
+            getMetrics().queueDepth(((ThreadPoolExecutor)executor).getQueue().size());
+        }
+    }
+
+    /**
+     * Stops the threads handling connections, unless they belong to an
+     * executor that was supplied by the caller
+     */
+    private void closeHandlers() {
+        if (threadPool != null) {
             threadPool.close();
         }
+        else if (ownsExecutor) {
+            executor.shutdownNow();
+        }
     }
 
     @Override
@@ -218,9 +358,7 @@ public class ModbusTCPListener extends AbstractModbusListener {
             if (listener != null) {
                 listener.join();
             }
-            if (threadPool != null) {
-                threadPool.close();
-            }
+            closeHandlers();
         }
         catch (Exception ex) {
             logger.error("Error while stopping ModbusTCPListener", ex);
@@ -0,0 +1,494 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.net;
+
+import com.ghgande.j2mod.modbus.Modbus;
+import com.ghgande.j2mod.modbus.ModbusIOException;
+import com.ghgande.j2mod.modbus.io.BytesInputStream;
+import com.ghgande.j2mod.modbus.io.BytesOutputStream;
+import com.ghgande.j2mod.modbus.io.ModbusTCPTransport;
+import com.ghgande.j2mod.modbus.msg.ModbusRequest;
+import com.ghgande.j2mod.modbus.msg.ModbusResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class that implements a non-blocking Modbus TCP listener.
+ * <p>
+ * Unlike the <tt>ModbusTCPListener</tt>, which ties up a pool thread for the
+ * whole life of each connection, this listener multiplexes all its connections
+ * over a small number of <tt>Selector</tt> threads. Requests are framed from
+ * the MBAP header as bytes arrive and are processed on the selector thread
+ * that owns the connection, so a handful of threads can serve thousands of
+ * mostly idle clients. Requests forwarded through a <tt>ModbusGateway</tt>
+ * are handed to its bus, and their responses are written by the selector
+ * thread once the bus has answered, so a slow bus never stalls the other
+ * connections.
+ * <p>
+ * Only standard MBAP framing is supported - use the <tt>ModbusTCPListener</tt>
+ * for RTU over TCP.
+ */
+public class ModbusTCPNIOListener extends AbstractModbusListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModbusTCPNIOListener.class);
+
+    private static final int HEADER_LENGTH = 6;
+    private static final int MAX_FRAME_LENGTH = Modbus.MAX_MESSAGE_LENGTH + HEADER_LENGTH;
+
+    private final int ioThreads;
+    private int maxIdleSeconds;
+    private volatile Selector acceptSelector;
+    private ServerSocketChannel serverChannel;
+    private SelectorLoop[] loops;
+    private Thread listener;
+
+    /**
+     * Constructs a ModbusTCPNIOListener instance that listens on the wildcard address
+     *
+     * @param ioThreads Number of selector threads used to service the connections
+     */
+    public ModbusTCPNIOListener(int ioThreads) {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("ioThreads must be > 0: " + ioThreads);
+        }
+        this.ioThreads = ioThreads;
+    }
+
+    /**
+     * Sets a maximum time a connection can be idle, i.e. has no input/output.
+     * Idle connections are closed by the selector thread that owns them.
+     * This option is disabled by default (maxIdleSeconds == 0)
+     *
+     * @param maxIdleSeconds 0 to disable the check, or a positive number to set it.
+     */
+    public void setMaxIdleSeconds(int maxIdleSeconds) {
+        if (maxIdleSeconds < 0) {
+            throw new IllegalArgumentException("maxIdleSeconds must be >= 0: " + maxIdleSeconds);
+        }
+        this.maxIdleSeconds = maxIdleSeconds;
+    }
+
+    @Override
+    public void run() {
+
+        // Set a suitable thread name
+        if (threadName == null || threadName.isEmpty()) {
+            threadName = String.format("Modbus TCP NIO Listener [port:%d]", port);
+        }
+        Thread.currentThread().setName(threadName);
+
+        try {
+            int floodProtection = 100;
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(address, port), floodProtection);
+            acceptSelector = Selector.open();
+            serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+            logger.debug("Listening to {} (Port {})", serverChannel, port);
+        }
+
+        // Catch any fatal errors and set the listening flag to false to indicate an error
+        catch (Exception e) {
+            error = String.format("Cannot start TCP NIO listener on port %d - %s", port, e.getMessage());
+            listening = false;
+            closeQuietly(serverChannel);
+            closeQuietly(acceptSelector);
+            return;
+        }
+
+        listener = Thread.currentThread();
+        listening = true;
+        try {
+            loops = new SelectorLoop[ioThreads];
+            for (int i = 0; i < ioThreads; i++) {
+                loops[i] = new SelectorLoop(String.format("%s Handler %d", threadName, i));
+            }
+
+            int next = 0;
+            while (listening) {
+                acceptSelector.select();
+                acceptSelector.selectedKeys().clear();
+                SocketChannel incoming;
+                while (listening && (incoming = serverChannel.accept()) != null) {
+                    logger.debug("Making new connection {}", incoming);
+                    incoming.configureBlocking(false);
+                    incoming.socket().setTcpNoDelay(true);
+                    loops[next].register(incoming);
+                    next = (next + 1) % loops.length;
+                }
+            }
+        }
+        catch (IOException e) {
+            if (listening) {
+                error = String.format("Problem running listener - %s", e.getMessage());
+            }
+        }
+        catch (ClosedSelectorException e) {
+            // Stopped
+        }
+        finally {
+            listening = false;
+            closeQuietly(serverChannel);
+            closeQuietly(acceptSelector);
+            if (loops != null) {
+                for (SelectorLoop loop : loops) {
+                    if (loop != null) {
+                        loop.stop();
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        listening = false;
+        try {
+            Selector selector = acceptSelector;
+            if (selector != null) {
+                selector.wakeup();
+            }
+            if (listener != null) {
+                listener.join();
+            }
+        }
+        catch (Exception ex) {
+            logger.error("Error while stopping ModbusTCPNIOListener", ex);
+        }
+    }
+
+    /**
+     * Closes the resource ignoring any errors
+     *
+     * @param closeable Resource to close - can be null
+     */
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            }
+            catch (IOException e) {
+                logger.debug("Error closing {} - {}", closeable, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A selector thread that services the reading, processing and writing for
+     * a share of the connections
+     */
+    private class SelectorLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<SocketChannel>();
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        private final Thread thread;
+        private long lastIdleCheck = System.nanoTime();
+
+        SelectorLoop(String name) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Hands a newly accepted channel to this loop
+         *
+         * @param channel Channel to service
+         */
+        void register(SocketChannel channel) {
+            registrations.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Runs a task on this loop, e.g. writing a response that another
+         * thread has produced
+         *
+         * @param task Task to run
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Stops the loop and waits for it to close its connections
+         */
+        void stop() {
+            selector.wakeup();
+            try {
+                thread.join(1000);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (listening) {
+                    selector.select(1000);
+                    SocketChannel channel;
+                    while ((channel = registrations.poll()) != null) {
+                        try {
+                            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                            key.attach(new Connection(this, channel, key));
+                        }
+                        catch (IOException e) {
+                            logger.debug("Cannot register connection {} - {}", channel, e.getMessage());
+                            closeQuietly(channel);
+                        }
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection)key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        }
+                        catch (IOException | ModbusIOException e) {
+                            logger.debug("Closing connection {} - {}", connection.channel, e.getMessage());
+                            connection.close();
+                        }
+                    }
+                    closeIdleConnections();
+                }
+            }
+            catch (IOException e) {
+                logger.error("Selector failed", e);
+            }
+            finally {
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly(key.channel());
+                }
+                closeQuietly(selector);
+                SocketChannel channel;
+                while ((channel = registrations.poll()) != null) {
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        /**
+         * Closes any connections that have been silent for longer than the maximum idle time
+         */
+        private void closeIdleConnections() {
+            long now = System.nanoTime();
+            if (maxIdleSeconds > 0 && now - lastIdleCheck >= TimeUnit.SECONDS.toNanos(1)) {
+                lastIdleCheck = now;
+                long maxIdle = TimeUnit.SECONDS.toNanos(maxIdleSeconds);
+                for (SelectionKey key : selector.keys()) {
+                    Connection connection = (Connection)key.attachment();
+                    if (connection != null && now - connection.lastActivityTimestamp > maxIdle) {
+                        logger.debug("Closing idle connection {}", connection.channel);
+                        connection.close();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The framing state of a single client connection
+     */
+    private class Connection {
+        private final SelectorLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer input = ByteBuffer.allocate(MAX_FRAME_LENGTH);
+        private ByteBuffer output = ByteBuffer.allocate(MAX_FRAME_LENGTH * 4);
+        private final byte[] frame = new byte[MAX_FRAME_LENGTH];
+        private final BytesInputStream frameInputStream = new BytesInputStream(frame);
+        private final BytesOutputStream frameOutputStream = new BytesOutputStream(Modbus.MAX_MESSAGE_LENGTH + HEADER_LENGTH);
+        private long lastActivityTimestamp = System.nanoTime();
+
+        Connection(SelectorLoop loop, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+        }
+
+        /**
+         * Reads whatever is available and processes every complete frame
+         *
+         * @throws IOException       If the channel fails
+         * @throws ModbusIOException If a frame is malformed
+         */
+        void read() throws IOException, ModbusIOException {
+            if (channel.read(input) < 0) {
+                close();
+                return;
+            }
+            lastActivityTimestamp = System.nanoTime();
+            input.flip();
+            while (input.remaining() >= HEADER_LENGTH) {
+                int start = input.position();
+                int count = input.getShort(start + 4) & 0xFFFF;
+                if (count < 2 || count > Modbus.MAX_MESSAGE_LENGTH) {
+                    throw new ModbusIOException("Invalid MBAP length %d", count);
+                }
+                if (input.remaining() < HEADER_LENGTH + count) {
+                    break;
+                }
+                input.get(frame, 0, HEADER_LENGTH + count);
+                if (listening) {
+                    process(HEADER_LENGTH + count);
+                }
+            }
+            input.compact();
+            flush();
+        }
+
+        /**
+         * Decodes the request held in the frame buffer and queues the response
+         *
+         * @param length Length of the frame
+         *
+         * @throws ModbusIOException If the request cannot be decoded
+         */
+        private void process(int length) throws ModbusIOException {
+            ModbusRequest request;
+            try {
+                frameInputStream.reset(frame, length);
+                frameInputStream.skip(HEADER_LENGTH + 1);
+                int functionCode = frameInputStream.readUnsignedByte();
+                frameInputStream.reset(frame, length);
+                request = ModbusRequest.createModbusRequest(functionCode);
+                request.setHeadless(false);
+                request.readFrom(frameInputStream);
+            }
+            catch (IOException e) {
+                throw new ModbusIOException("Cannot decode request - %s", e.getMessage());
+            }
+            CompletableFuture<ModbusResponse> response = createResponseAsync(request);
+            if (response.isDone()) {
+                write(request, response.join());
+            }
+            else {
+                response.thenAccept(forwarded -> loop.execute(() -> respond(request, forwarded)));
+            }
+        }
+
+        /**
+         * Writes the response to a forwarded request once its bus has answered
+         *
+         * @param request  Request that was forwarded
+         * @param response Response to it
+         */
+        private void respond(ModbusRequest request, ModbusResponse response) {
+            if (!key.isValid()) {
+                return;
+            }
+            try {
+                write(request, response);
+                flush();
+            }
+            catch (IOException | ModbusIOException e) {
+                logger.debug("Closing connection {} - {}", channel, e.getMessage());
+                close();
+            }
+        }
+
+        /**
+         * Encodes a response into the output buffer
+         *
+         * @param request  Request being answered
+         * @param response Response to it
+         *
+         * @throws ModbusIOException If the response cannot be encoded
+         */
+        private void write(ModbusRequest request, ModbusResponse response) throws ModbusIOException {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Request:{}", request.getHexMessage());
+                logger.debug("Response:{}", response.getHexMessage());
+            }
+
+            try {
+                ModbusTCPTransport.writeFrame(frameOutputStream, response, false, false);
+            }
+            catch (IOException e) {
+                throw new ModbusIOException("Cannot encode response - %s", e.getMessage());
+            }
+            ensureOutputCapacity(frameOutputStream.size());
+            frameOutputStream.writeTo(output);
+        }
+
+        /**
+         * Grows the output buffer if a slow client has let responses pile up
+         *
+         * @param needed Number of bytes about to be written
+         */
+        private void ensureOutputCapacity(int needed) {
+            if (output.remaining() < needed) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(output.capacity() * 2, output.position() + needed));
+                output.flip();
+                larger.put(output);
+                output = larger;
+            }
+        }
+
+        /**
+         * Writes as much of the pending output as the channel will accept. While
+         * output is pending, reading is suspended so that a client that doesn't
+         * read its responses cannot make us buffer without limit.
+         *
+         * @throws IOException If the channel fails
+         */
+        void flush() throws IOException {
+            if (!key.isValid()) {
+                return;
+            }
+            if (output.position() > 0) {
+                output.flip();
+                channel.write(output);
+                output.compact();
+                lastActivityTimestamp = System.nanoTime();
+            }
+            key.interestOps(output.position() > 0 ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        /**
+         * Closes the connection and cancels its key
+         */
+        void close() {
+            key.cancel();
+            closeQuietly(channel);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.net;
+
+import com.ghgande.j2mod.modbus.Modbus;
+import com.ghgande.j2mod.modbus.io.BytesInputStream;
+import com.ghgande.j2mod.modbus.io.BytesOutputStream;
+import com.ghgande.j2mod.modbus.io.ModbusTCPTransport;
+import com.ghgande.j2mod.modbus.msg.ModbusRequest;
+import com.ghgande.j2mod.modbus.msg.ModbusResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Class that implements a multi-threaded Modbus UDP listener.
+ * <p>
+ * Unlike the <tt>ModbusUDPListener</tt>, which hands every datagram through
+ * queues to a single processing thread and matches the responses back to their
+ * senders by transaction ID, each worker thread of this listener receives a
+ * datagram from a shared <tt>DatagramChannel</tt> into its own buffers,
+ * processes it and sends the response straight back to the address it came
+ * from. Requests are therefore processed in parallel and nothing is shared
+ * between the workers apart from the channel itself.
+ * <p>
+ * The socket receive buffer can be sized to absorb bursts from many pollers;
+ * datagrams that arrive while it is full are dropped by the operating system.
+ */
+public class ModbusUDPNIOListener extends AbstractModbusListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModbusUDPNIOListener.class);
+
+    private static final int HEADER_LENGTH = 6;
+    private static final int MAX_FRAME_LENGTH = Modbus.MAX_MESSAGE_LENGTH + HEADER_LENGTH;
+
+    private final int workerThreads;
+    private int receiveBufferSize = Modbus.DEFAULT_UDP_RECEIVE_BUFFER_SIZE;
+    private volatile DatagramChannel channel;
+    private Thread listener;
+
+    /**
+     * Constructs a ModbusUDPNIOListener instance that listens on the wildcard address
+     *
+     * @param workerThreads Number of threads receiving and processing requests
+     */
+    public ModbusUDPNIOListener(int workerThreads) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("workerThreads must be > 0: " + workerThreads);
+        }
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * Sets the size of the socket receive buffer (<tt>SO_RCVBUF</tt>) requested
+     * when the listener starts. The operating system may limit the size it grants.
+     *
+     * @param receiveBufferSize Size in bytes
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize < 1) {
+            throw new IllegalArgumentException("receiveBufferSize must be > 0: " + receiveBufferSize);
+        }
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Returns the size of the socket receive buffer. Once the listener has
+     * started this is the size granted by the operating system.
+     *
+     * @return Size in bytes
+     */
+    public int getReceiveBufferSize() {
+        DatagramChannel current = channel;
+        if (current != null && current.isOpen()) {
+            try {
+                return current.getOption(StandardSocketOptions.SO_RCVBUF);
+            }
+            catch (IOException e) {
+                logger.debug("Cannot read receive buffer size - {}", e.getMessage());
+            }
+        }
+        return receiveBufferSize;
+    }
+
+    @Override
+    public void run() {
+
+        // Set a suitable thread name
+        if (threadName == null || threadName.isEmpty()) {
+            threadName = String.format("Modbus UDP NIO Listener [port:%d]", port);
+        }
+        Thread.currentThread().setName(threadName);
+
+        try {
+            channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            channel.bind(new InetSocketAddress(address, port));
+            logger.debug("Listening to {} (Port {}) with a {} byte receive buffer", channel, port, channel.getOption(StandardSocketOptions.SO_RCVBUF));
+        }
+
+        // Catch any fatal errors and set the listening flag to false to indicate an error
+        catch (Exception e) {
+            error = String.format("Cannot start UDP NIO listener on port %d - %s", port, e.getMessage());
+            listening = false;
+            closeQuietly(channel);
+            return;
+        }
+
+        listener = Thread.currentThread();
+        listening = true;
+        Thread[] workers = new Thread[workerThreads - 1];
+        try {
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new Thread(new Worker(), String.format("%s Worker %d", threadName, i + 1));
+                workers[i].setDaemon(true);
+                workers[i].start();
+            }
+
+            // The listener thread is the first worker
+            new Worker().run();
+        }
+        finally {
+            listening = false;
+            closeQuietly(channel);
+            for (Thread worker : workers) {
+                if (worker != null) {
+                    try {
+                        worker.join(1000);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        listening = false;
+        try {
+            closeQuietly(channel);
+            if (listener != null) {
+                listener.join();
+            }
+        }
+        catch (Exception ex) {
+            logger.error("Error while stopping ModbusUDPNIOListener", ex);
+        }
+    }
+
+    /**
+     * Closes the resource ignoring any errors
+     *
+     * @param closeable Resource to close - can be null
+     */
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            }
+            catch (IOException e) {
+                logger.debug("Error closing {} - {}", closeable, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A thread that receives, processes and answers requests using buffers
+     * that only it touches
+     */
+    private class Worker implements Runnable {
+        private final ByteBuffer input = ByteBuffer.allocateDirect(MAX_FRAME_LENGTH);
+        private final ByteBuffer output = ByteBuffer.allocateDirect(MAX_FRAME_LENGTH);
+        private final byte[] frame = new byte[MAX_FRAME_LENGTH];
+        private final BytesInputStream frameInputStream = new BytesInputStream(frame);
+        private final BytesOutputStream frameOutputStream = new BytesOutputStream(MAX_FRAME_LENGTH);
+
+        @Override
+        public void run() {
+            while (listening) {
+                try {
+                    input.clear();
+                    SocketAddress source = channel.receive(input);
+                    if (source == null) {
+                        continue;
+                    }
+                    input.flip();
+                    int length = input.remaining();
+                    input.get(frame, 0, length);
+                    if (listening) {
+                        process(source, length);
+                    }
+                }
+                catch (ClosedChannelException e) {
+                    // Stopped
+                    break;
+                }
+                catch (IOException e) {
+                    if (listening) {
+                        logger.error("Problem reading UDP channel", e);
+                    }
+                }
+                catch (RuntimeException e) {
+                    // Drop the datagram rather than the worker
+                    logger.error("Problem processing UDP datagram", e);
+                }
+            }
+        }
+
+        /**
+         * Decodes the request held in the frame buffer and sends the response
+         * to where it came from
+         *
+         * @param source Address of the sender
+         * @param length Length of the datagram
+         *
+         * @throws IOException If the response cannot be sent
+         */
+        private void process(SocketAddress source, int length) throws IOException {
+            if (length < HEADER_LENGTH + 2 || (((frame[4] & 0xFF) << 8) | (frame[5] & 0xFF)) != length - HEADER_LENGTH) {
+                logger.debug("Discarding malformed datagram of {} bytes from {}", length, source);
+                return;
+            }
+            if (frame[2] != 0 || frame[3] != 0) {
+                logger.debug("Discarding datagram with protocol ID {} from {}", ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF), source);
+                return;
+            }
+            ModbusRequest request;
+            try {
+                frameInputStream.reset(frame, length);
+                request = ModbusRequest.createModbusRequest(frame[HEADER_LENGTH + 1] & 0xFF);
+                request.setHeadless(false);
+                request.readFrom(frameInputStream);
+            }
+            catch (IOException e) {
+                logger.debug("Cannot decode request from {} - {}", source, e.getMessage());
+                return;
+            }
+            ModbusResponse response = createResponse(request);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Request:{}", request.getHexMessage());
+                logger.debug("Response:{}", response.getHexMessage());
+            }
+
+            ModbusTCPTransport.writeFrame(frameOutputStream, response, false, false);
+            output.clear();
+            frameOutputStream.writeTo(output);
+            output.flip();
+            channel.send(output, source);
+        }
+    }
+}
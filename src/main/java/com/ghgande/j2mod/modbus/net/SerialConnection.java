@@ -16,6 +16,8 @@
 package com.ghgande.j2mod.modbus.net;
 
 import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortDataListener;
+import com.fazecast.jSerialComm.SerialPortEvent;
 import com.ghgande.j2mod.modbus.Modbus;
 import com.ghgande.j2mod.modbus.io.AbstractModbusTransport;
 import com.ghgande.j2mod.modbus.io.ModbusASCIITransport;
@@ -51,6 +53,7 @@ public class SerialConnection extends AbstractSerialConnection {
     private SerialPort serialPort;
     private InputStream inputStream;
     private int timeout = Modbus.DEFAULT_TIMEOUT;
+    private Runnable dataAvailableListener;
 
     /**
      * Default constructor
@@ -95,6 +98,7 @@ public class SerialConnection extends AbstractSerialConnection {
                 throw new IOException(String.format("Port %s is not a valid name for a port on this platform", parameters.getPortName()));
             }
         }
+        serialPort.removeDataListener();
         serialPort.closePort();
         applyConnectionParameters();
 
@@ -135,6 +139,30 @@ public class SerialConnection extends AbstractSerialConnection {
             throw new IOException(String.format("Port [%s] cannot be opened after [%d] attempts - valid ports are: [%s]", parameters.getPortName(), attempts, portList));
         }
         inputStream = serialPort.getInputStream();
+        applyDataAvailableListener();
+    }
+
+    /**
+     * Registers the data available callback with the port, if there is one
+     */
+    private void applyDataAvailableListener() {
+        if (serialPort != null) {
+            serialPort.removeDataListener();
+            final Runnable listener = dataAvailableListener;
+            if (listener != null) {
+                serialPort.addDataListener(new SerialPortDataListener() {
+                    @Override
+                    public int getListeningEvents() {
+                        return SerialPort.LISTENING_EVENT_DATA_AVAILABLE;
+                    }
+
+                    @Override
+                    public void serialEvent(SerialPortEvent event) {
+                        listener.run();
+                    }
+                });
+            }
+        }
     }
 
     /**
@@ -165,6 +193,7 @@ public class SerialConnection extends AbstractSerialConnection {
             }
             finally {
                 // Close the port.
+                serialPort.removeDataListener();
                 serialPort.closePort();
             }
         }
@@ -194,6 +223,20 @@ public class SerialConnection extends AbstractSerialConnection {
         return serialPort == null ? 0 : serialPort.readBytes(buffer, bytesToRead);
     }
 
+    @Override
+    public int readBytes(byte[] buffer, long bytesToRead, int offset) {
+        return serialPort == null ? 0 : serialPort.readBytes(buffer, bytesToRead, offset);
+    }
+
+    @Override
+    public synchronized boolean setDataAvailableListener(Runnable listener) {
+        dataAvailableListener = listener;
+        if (serialPort != null && serialPort.isOpen()) {
+            applyDataAvailableListener();
+        }
+        return true;
+    }
+
     @Override
     public int writeBytes(byte[] buffer, long bytesToWrite) {
         return serialPort == null ? 0 : serialPort.writeBytes(buffer, bytesToWrite);
@@ -20,10 +20,6 @@ import com.ghgande.j2mod.modbus.io.AbstractModbusTransport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-
 /**
  * Class implementing a handler for incoming Modbus/TCP requests.
  *
@@ -34,14 +30,12 @@ import java.util.concurrent.TimeUnit;
 public class TCPConnectionHandler implements Runnable {
 
     private static final Logger logger = LoggerFactory.getLogger(TCPConnectionHandler.class);
-    private static final long watchDogResolution = 5000L; // Check connection status every 5 seconds
-    private static final long nanosPerSecond = 1000L * 1000L * 1000L;
 
     private final TCPSlaveConnection connection;
     private final AbstractModbusTransport transport;
     private final AbstractModbusListener listener;
 
-    private final ScheduledExecutorService watchDog;
+    private final IdleConnectionWatchdog.Entry watchDog;
 
     /**
      * Constructs a new <tt>TCPConnectionHandler</tt> instance.
@@ -53,7 +47,8 @@ public class TCPConnectionHandler implements Runnable {
      *
      * @param listener       the listener that handled the incoming request
      * @param connection     an incoming connection.
-     * @param maxIdleSeconds 0 or maximum inactivity time for the connection
+     * @param maxIdleSeconds 0 or maximum inactivity time for the connection, enforced
+     *                       by the shared {@link IdleConnectionWatchdog}
      */
     public TCPConnectionHandler(AbstractModbusListener listener, TCPSlaveConnection connection, final int maxIdleSeconds) {
         this.listener = listener;
@@ -61,24 +56,7 @@ public class TCPConnectionHandler implements Runnable {
         transport = this.connection.getModbusTransport();
 
         if (maxIdleSeconds > 0) {
-            watchDog = Executors.newSingleThreadScheduledExecutor();
-            long checkRate = Math.min(maxIdleSeconds * 1000L, watchDogResolution);
-            watchDog.scheduleWithFixedDelay(new Runnable() {
-                @Override
-                public void run() {
-                    long nanosIdle = System.nanoTime() - TCPConnectionHandler.this.connection.getLastActivityTimestamp();
-                    if (nanosIdle > (maxIdleSeconds * nanosPerSecond)) {
-                        // Watchdog timer elapsed
-                        logger.warn("Watchdog expired: {}, limit: {}", nanosIdle / nanosPerSecond, maxIdleSeconds);
-
-                        // Socket.close() will cause read operation to fail
-                        TCPConnectionHandler.this.connection.close();
-
-                        // Stop the watchdog, it is not needed anymore
-                        watchDog.shutdown();
-                    }
-                }
-            }, checkRate, checkRate, TimeUnit.MILLISECONDS);
+            watchDog = IdleConnectionWatchdog.getShared().watch(connection, maxIdleSeconds);
         }
         else {
             watchDog = null;
@@ -98,6 +76,9 @@ public class TCPConnectionHandler implements Runnable {
             }
         }
         finally {
+            if (watchDog != null) {
+                watchDog.cancel();
+            }
             connection.close();
         }
     }
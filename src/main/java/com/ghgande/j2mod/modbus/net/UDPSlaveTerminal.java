@@ -15,6 +15,7 @@
  */
 package com.ghgande.j2mod.modbus.net;
 
+import com.ghgande.j2mod.modbus.Modbus;
 import com.ghgande.j2mod.modbus.io.ModbusUDPTransport;
 import com.ghgande.j2mod.modbus.util.ModbusUtil;
 import org.slf4j.Logger;
@@ -67,7 +68,7 @@ class UDPSlaveTerminal extends AbstractUDPTerminal {
             logger.debug("UDPSlaveTerminal::haveSocket():{}", socket);
             logger.debug("UDPSlaveTerminal::addr=:{}:port={}", address, port);
 
-            socket.setReceiveBufferSize(1024);
+            socket.setReceiveBufferSize(Modbus.DEFAULT_UDP_RECEIVE_BUFFER_SIZE);
             socket.setSendBufferSize(1024);
 
             // Never timeout the receive
@@ -0,0 +1,793 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.procimg;
+
+/**
+ * Class implementing a process image held in primitive arrays.
+ * <p>
+ * Holding and input registers are stored in contiguous <tt>short[]</tt> arrays
+ * and coils and discrete inputs in <tt>long[]</tt> bitsets, so a fully populated
+ * image of 65536 registers costs 128KB rather than an object per register.
+ * The areas have a fixed size set at construction and every reference within
+ * that size is valid.
+ * <p>
+ * The request handlers read and write ranges through the {@link BulkProcessImage}
+ * methods without creating any register objects. The object based methods of
+ * <tt>ProcessImage</tt> are still supported - they return lightweight views onto
+ * the arrays - and adding or setting a register copies its current value into
+ * the array. Adding a point without a reference fills the next slot after the
+ * highest one added so far, and removing a view shifts the points above it
+ * down, as the <tt>SimpleProcessImage</tt> does. Files and FIFOs are handled as
+ * in the <tt>SimpleProcessImage</tt>.
+ */
+public class ArrayProcessImage extends SimpleProcessImage implements BulkProcessImage {
+
+    private static final int MAX_SIZE = 65536;
+
+    private final short[] holdingRegisters;
+    private final short[] inputRegisterValues;
+    private final long[] coils;
+    private final int coilCount;
+    private final long[] discretes;
+    private final int discreteCount;
+
+    // Slot filled by the next point added without a reference
+    private int nextCoil;
+    private int nextDiscrete;
+    private int nextInputRegister;
+    private int nextRegister;
+
+    /**
+     * Constructs a new <tt>ArrayProcessImage</tt> with the same number of
+     * coils, discrete inputs, input registers and holding registers
+     *
+     * @param unit Unit ID of this image
+     * @param size Number of each type of point
+     */
+    public ArrayProcessImage(int unit, int size) {
+        this(unit, size, size, size, size);
+    }
+
+    /**
+     * Constructs a new <tt>ArrayProcessImage</tt>
+     *
+     * @param unit              Unit ID of this image
+     * @param coilCount         Number of coils
+     * @param discreteCount     Number of discrete inputs
+     * @param inputRegisterCount Number of input registers
+     * @param registerCount     Number of holding registers
+     */
+    public ArrayProcessImage(int unit, int coilCount, int discreteCount, int inputRegisterCount, int registerCount) {
+        super(unit);
+        checkSize(coilCount);
+        checkSize(discreteCount);
+        checkSize(inputRegisterCount);
+        checkSize(registerCount);
+        this.coilCount = coilCount;
+        this.discreteCount = discreteCount;
+        coils = new long[(coilCount + 63) >>> 6];
+        discretes = new long[(discreteCount + 63) >>> 6];
+        inputRegisterValues = new short[inputRegisterCount];
+        holdingRegisters = new short[registerCount];
+    }
+
+    @Override
+    public synchronized void getRegisterValues(int ref, int count, short[] dest, int offset) {
+        checkRange(ref, count, holdingRegisters.length);
+        System.arraycopy(holdingRegisters, ref, dest, offset, count);
+    }
+
+    @Override
+    public synchronized void setRegisterValues(int ref, int count, short[] src, int offset) {
+        checkRange(ref, count, holdingRegisters.length);
+        System.arraycopy(src, offset, holdingRegisters, ref, count);
+    }
+
+    @Override
+    public synchronized void getInputRegisterValues(int ref, int count, short[] dest, int offset) {
+        checkRange(ref, count, inputRegisterValues.length);
+        System.arraycopy(inputRegisterValues, ref, dest, offset, count);
+    }
+
+    @Override
+    public synchronized void setInputRegisterValues(int ref, int count, short[] src, int offset) {
+        checkRange(ref, count, inputRegisterValues.length);
+        System.arraycopy(src, offset, inputRegisterValues, ref, count);
+    }
+
+    @Override
+    public synchronized void getDigitalOutValues(int ref, int count, byte[] dest, int offset) {
+        checkRange(ref, count, coilCount);
+        packBits(coils, ref, count, dest, offset);
+    }
+
+    @Override
+    public synchronized void setDigitalOutValues(int ref, int count, byte[] src, int offset) {
+        checkRange(ref, count, coilCount);
+        unpackBits(coils, ref, count, src, offset);
+    }
+
+    @Override
+    public synchronized void getDigitalInValues(int ref, int count, byte[] dest, int offset) {
+        checkRange(ref, count, discreteCount);
+        packBits(discretes, ref, count, dest, offset);
+    }
+
+    @Override
+    public synchronized void setDigitalInValues(int ref, int count, byte[] src, int offset) {
+        checkRange(ref, count, discreteCount);
+        unpackBits(discretes, ref, count, src, offset);
+    }
+
+    /**
+     * Returns the value of a holding register
+     *
+     * @param ref Reference of the register
+     * @return Unsigned value
+     */
+    public synchronized int getRegisterValue(int ref) {
+        checkRange(ref, 1, holdingRegisters.length);
+        return holdingRegisters[ref] & 0xFFFF;
+    }
+
+    /**
+     * Sets the value of a holding register
+     *
+     * @param ref   Reference of the register
+     * @param value New value
+     */
+    public synchronized void setRegisterValue(int ref, int value) {
+        checkRange(ref, 1, holdingRegisters.length);
+        holdingRegisters[ref] = (short)value;
+    }
+
+    /**
+     * Returns the value of an input register
+     *
+     * @param ref Reference of the input register
+     * @return Unsigned value
+     */
+    public synchronized int getInputRegisterValue(int ref) {
+        checkRange(ref, 1, inputRegisterValues.length);
+        return inputRegisterValues[ref] & 0xFFFF;
+    }
+
+    /**
+     * Sets the value of an input register
+     *
+     * @param ref   Reference of the input register
+     * @param value New value
+     */
+    public synchronized void setInputRegisterValue(int ref, int value) {
+        checkRange(ref, 1, inputRegisterValues.length);
+        inputRegisterValues[ref] = (short)value;
+    }
+
+    /**
+     * Returns the state of a coil
+     *
+     * @param ref Reference of the coil
+     * @return True if set
+     */
+    public synchronized boolean getDigitalOutValue(int ref) {
+        checkRange(ref, 1, coilCount);
+        return getBit(coils, ref);
+    }
+
+    /**
+     * Sets the state of a coil
+     *
+     * @param ref   Reference of the coil
+     * @param value New state
+     */
+    public synchronized void setDigitalOutValue(int ref, boolean value) {
+        checkRange(ref, 1, coilCount);
+        setBit(coils, ref, value);
+    }
+
+    /**
+     * Returns the state of a discrete input
+     *
+     * @param ref Reference of the discrete input
+     * @return True if set
+     */
+    public synchronized boolean getDigitalInValue(int ref) {
+        checkRange(ref, 1, discreteCount);
+        return getBit(discretes, ref);
+    }
+
+    /**
+     * Sets the state of a discrete input
+     *
+     * @param ref   Reference of the discrete input
+     * @param value New state
+     */
+    public synchronized void setDigitalInValue(int ref, boolean value) {
+        checkRange(ref, 1, discreteCount);
+        setBit(discretes, ref, value);
+    }
+
+    @Override
+    public DigitalOut[] getDigitalOutRange(int ref, int count) {
+        checkRange(ref, count, getDigitalOutCount());
+        DigitalOut[] douts = new DigitalOut[count];
+        for (int i = 0; i < count; i++) {
+            douts[i] = new DigitalOutView(ref + i);
+        }
+        return douts;
+    }
+
+    @Override
+    public DigitalOut getDigitalOut(int ref) throws IllegalAddressException {
+        checkRange(ref, 1, getDigitalOutCount());
+        return new DigitalOutView(ref);
+    }
+
+    @Override
+    public int getDigitalOutCount() {
+        return coilCount;
+    }
+
+    @Override
+    public DigitalIn[] getDigitalInRange(int ref, int count) {
+        checkRange(ref, count, getDigitalInCount());
+        DigitalIn[] dins = new DigitalIn[count];
+        for (int i = 0; i < count; i++) {
+            dins[i] = new DigitalInView(ref + i);
+        }
+        return dins;
+    }
+
+    @Override
+    public DigitalIn getDigitalIn(int ref) throws IllegalAddressException {
+        checkRange(ref, 1, getDigitalInCount());
+        return new DigitalInView(ref);
+    }
+
+    @Override
+    public int getDigitalInCount() {
+        return discreteCount;
+    }
+
+    @Override
+    public InputRegister[] getInputRegisterRange(int ref, int count) {
+        checkRange(ref, count, getInputRegisterCount());
+        InputRegister[] iregs = new InputRegister[count];
+        for (int i = 0; i < count; i++) {
+            iregs[i] = new InputRegisterView(ref + i);
+        }
+        return iregs;
+    }
+
+    @Override
+    public InputRegister getInputRegister(int ref) throws IllegalAddressException {
+        checkRange(ref, 1, getInputRegisterCount());
+        return new InputRegisterView(ref);
+    }
+
+    @Override
+    public int getInputRegisterCount() {
+        return inputRegisterValues.length;
+    }
+
+    @Override
+    public Register[] getRegisterRange(int ref, int count) {
+        checkRange(ref, count, getRegisterCount());
+        Register[] regs = new Register[count];
+        for (int i = 0; i < count; i++) {
+            regs[i] = new RegisterView(ref + i);
+        }
+        return regs;
+    }
+
+    @Override
+    public Register getRegister(int ref) throws IllegalAddressException {
+        checkRange(ref, 1, getRegisterCount());
+        return new RegisterView(ref);
+    }
+
+    @Override
+    public int getRegisterCount() {
+        return holdingRegisters.length;
+    }
+
+    @Override
+    public void setDigitalOut(int ref, DigitalOut out) throws IllegalAddressException {
+        if (!isLocked()) {
+            setDigitalOutValue(ref, out.isSet());
+        }
+    }
+
+    /**
+     * Copies the value of the point into the slot after the highest one added so far
+     *
+     * @param out the <tt>DigitalOut</tt> instance to be added.
+     *
+     * @throws IllegalArgumentException If every slot of the image has been filled
+     */
+    @Override
+    public synchronized void addDigitalOut(DigitalOut out) {
+        if (!isLocked()) {
+            if (nextCoil >= getDigitalOutCount()) {
+                throw new IllegalArgumentException(String.format("All %d slots of the image have been filled", getDigitalOutCount()));
+            }
+            setDigitalOut(nextCoil++, out);
+        }
+    }
+
+    @Override
+    public synchronized void addDigitalOut(int ref, DigitalOut out) {
+        if (ref < 0 || ref >= MAX_SIZE) {
+            throw new IllegalArgumentException();
+        }
+        if (!isLocked()) {
+            setDigitalOut(ref, out);
+            nextCoil = Math.max(nextCoil, ref + 1);
+        }
+    }
+
+    /**
+     * Removes a point returned by this image, shifting the points above it down
+     * one slot and clearing the last. Values that were added are copied into the
+     * image, so any other object is not part of it and is ignored.
+     *
+     * @param out the <tt>DigitalOut</tt> instance to be removed.
+     */
+    @Override
+    public synchronized void removeDigitalOut(DigitalOut out) {
+        if (!isLocked() && out instanceof DigitalOutView && ((DigitalOutView)out).image() == this) {
+            int ref = ((DigitalOutView)out).ref;
+            removeDigitalOutSlot(ref);
+            if (ref < nextCoil) {
+                nextCoil--;
+            }
+        }
+    }
+
+    @Override
+    public void setDigitalIn(int ref, DigitalIn di) throws IllegalAddressException {
+        if (!isLocked()) {
+            setDigitalInValue(ref, di.isSet());
+        }
+    }
+
+    /**
+     * Copies the value of the point into the slot after the highest one added so far
+     *
+     * @param di the <tt>DigitalIn</tt> instance to be added.
+     *
+     * @throws IllegalArgumentException If every slot of the image has been filled
+     */
+    @Override
+    public synchronized void addDigitalIn(DigitalIn di) {
+        if (!isLocked()) {
+            if (nextDiscrete >= getDigitalInCount()) {
+                throw new IllegalArgumentException(String.format("All %d slots of the image have been filled", getDigitalInCount()));
+            }
+            setDigitalIn(nextDiscrete++, di);
+        }
+    }
+
+    @Override
+    public synchronized void addDigitalIn(int ref, DigitalIn di) {
+        if (ref < 0 || ref >= MAX_SIZE) {
+            throw new IllegalArgumentException();
+        }
+        if (!isLocked()) {
+            setDigitalIn(ref, di);
+            nextDiscrete = Math.max(nextDiscrete, ref + 1);
+        }
+    }
+
+    /**
+     * Removes a point returned by this image, shifting the points above it down
+     * one slot and clearing the last. Values that were added are copied into the
+     * image, so any other object is not part of it and is ignored.
+     *
+     * @param di the <tt>DigitalIn</tt> instance to be removed.
+     */
+    @Override
+    public synchronized void removeDigitalIn(DigitalIn di) {
+        if (!isLocked() && di instanceof DigitalInView && ((DigitalInView)di).image() == this) {
+            int ref = ((DigitalInView)di).ref;
+            removeDigitalInSlot(ref);
+            if (ref < nextDiscrete) {
+                nextDiscrete--;
+            }
+        }
+    }
+
+    @Override
+    public void setInputRegister(int ref, InputRegister reg) throws IllegalAddressException {
+        if (!isLocked()) {
+            setInputRegisterValue(ref, reg.getValue());
+        }
+    }
+
+    /**
+     * Copies the value of the point into the slot after the highest one added so far
+     *
+     * @param reg the <tt>InputRegister</tt> instance to be added.
+     *
+     * @throws IllegalArgumentException If every slot of the image has been filled
+     */
+    @Override
+    public synchronized void addInputRegister(InputRegister reg) {
+        if (!isLocked()) {
+            if (nextInputRegister >= getInputRegisterCount()) {
+                throw new IllegalArgumentException(String.format("All %d slots of the image have been filled", getInputRegisterCount()));
+            }
+            setInputRegister(nextInputRegister++, reg);
+        }
+    }
+
+    @Override
+    public synchronized void addInputRegister(int ref, InputRegister reg) {
+        if (ref < 0 || ref >= MAX_SIZE) {
+            throw new IllegalArgumentException();
+        }
+        if (!isLocked()) {
+            setInputRegister(ref, reg);
+            nextInputRegister = Math.max(nextInputRegister, ref + 1);
+        }
+    }
+
+    /**
+     * Removes a point returned by this image, shifting the points above it down
+     * one slot and clearing the last. Values that were added are copied into the
+     * image, so any other object is not part of it and is ignored.
+     *
+     * @param reg the <tt>InputRegister</tt> instance to be removed.
+     */
+    @Override
+    public synchronized void removeInputRegister(InputRegister reg) {
+        if (!isLocked() && reg instanceof InputRegisterView && ((InputRegisterView)reg).image() == this) {
+            int ref = ((InputRegisterView)reg).ref;
+            removeInputRegisterSlot(ref);
+            if (ref < nextInputRegister) {
+                nextInputRegister--;
+            }
+        }
+    }
+
+    @Override
+    public void setRegister(int ref, Register reg) throws IllegalAddressException {
+        if (!isLocked()) {
+            setRegisterValue(ref, reg.getValue());
+        }
+    }
+
+    /**
+     * Copies the value of the point into the slot after the highest one added so far
+     *
+     * @param reg the <tt>Register</tt> instance to be added.
+     *
+     * @throws IllegalArgumentException If every slot of the image has been filled
+     */
+    @Override
+    public synchronized void addRegister(Register reg) {
+        if (!isLocked()) {
+            if (nextRegister >= getRegisterCount()) {
+                throw new IllegalArgumentException(String.format("All %d slots of the image have been filled", getRegisterCount()));
+            }
+            setRegister(nextRegister++, reg);
+        }
+    }
+
+    @Override
+    public synchronized void addRegister(int ref, Register reg) {
+        if (ref < 0 || ref >= MAX_SIZE) {
+            throw new IllegalArgumentException();
+        }
+        if (!isLocked()) {
+            setRegister(ref, reg);
+            nextRegister = Math.max(nextRegister, ref + 1);
+        }
+    }
+
+    /**
+     * Removes a point returned by this image, shifting the points above it down
+     * one slot and clearing the last. Values that were added are copied into the
+     * image, so any other object is not part of it and is ignored.
+     *
+     * @param reg the <tt>Register</tt> instance to be removed.
+     */
+    @Override
+    public synchronized void removeRegister(Register reg) {
+        if (!isLocked() && reg instanceof RegisterView && ((RegisterView)reg).image() == this) {
+            int ref = ((RegisterView)reg).ref;
+            removeRegisterSlot(ref);
+            if (ref < nextRegister) {
+                nextRegister--;
+            }
+        }
+    }
+
+    /**
+     * Shifts the holding registers above a slot down by one
+     *
+     * @param ref Slot to remove
+     */
+    private void removeRegisterSlot(int ref) {
+        int count = getRegisterCount() - ref - 1;
+        short[] values = new short[count];
+        getRegisterValues(ref + 1, count, values, 0);
+        setRegisterValues(ref, count, values, 0);
+        setRegisterValue(ref + count, 0);
+    }
+
+    /**
+     * Shifts the input registers above a slot down by one
+     *
+     * @param ref Slot to remove
+     */
+    private void removeInputRegisterSlot(int ref) {
+        int count = getInputRegisterCount() - ref - 1;
+        short[] values = new short[count];
+        getInputRegisterValues(ref + 1, count, values, 0);
+        setInputRegisterValues(ref, count, values, 0);
+        setInputRegisterValue(ref + count, 0);
+    }
+
+    /**
+     * Shifts the coils above a slot down by one
+     *
+     * @param ref Slot to remove
+     */
+    private void removeDigitalOutSlot(int ref) {
+        int last = getDigitalOutCount() - 1;
+        for (int i = ref; i < last; i++) {
+            setDigitalOutValue(i, getDigitalOutValue(i + 1));
+        }
+        setDigitalOutValue(last, false);
+    }
+
+    /**
+     * Shifts the discrete inputs above a slot down by one
+     *
+     * @param ref Slot to remove
+     */
+    private void removeDigitalInSlot(int ref) {
+        int last = getDigitalInCount() - 1;
+        for (int i = ref; i < last; i++) {
+            setDigitalInValue(i, getDigitalInValue(i + 1));
+        }
+        setDigitalInValue(last, false);
+    }
+
+    /**
+     * Checks the size of an area is one that Modbus can address
+     *
+     * @param size Number of points
+     */
+    static void checkSize(int size) {
+        if (size < 0 || size > MAX_SIZE) {
+            throw new IllegalArgumentException(String.format("Size must be between 0 and %d", MAX_SIZE));
+        }
+    }
+
+    /**
+     * Checks that a range lies within an area
+     *
+     * @param ref   First reference
+     * @param count Number of points
+     * @param size  Size of the area
+     */
+    static void checkRange(int ref, int count, int size) {
+        if (ref < 0 || count < 0 || ref + count > size) {
+            throw new IllegalAddressException();
+        }
+    }
+
+    /**
+     * @param bits  Bitset
+     * @param index Bit number
+     * @return True if the bit is set
+     */
+    private static boolean getBit(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * @param bits  Bitset
+     * @param index Bit number
+     * @param value New state
+     */
+    private static void setBit(long[] bits, int index, boolean value) {
+        if (value) {
+            bits[index >>> 6] |= 1L << index;
+        }
+        else {
+            bits[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * Packs a range of the bitset into bytes a whole byte at a time
+     *
+     * @param bits   Bitset
+     * @param ref    First bit
+     * @param count  Number of bits
+     * @param dest   Destination
+     * @param offset Position of the first byte in the destination
+     */
+    private static void packBits(long[] bits, int ref, int count, byte[] dest, int offset) {
+        for (int i = 0; i < count; i += 8) {
+            int position = ref + i;
+            int word = position >>> 6;
+            int shift = position & 63;
+            long value = bits[word] >>> shift;
+            if (shift > 56 && word + 1 < bits.length) {
+                value |= bits[word + 1] << (64 - shift);
+            }
+            int remaining = count - i;
+            if (remaining < 8) {
+                value &= (1L << remaining) - 1;
+            }
+            dest[offset + (i >>> 3)] = (byte)value;
+        }
+    }
+
+    /**
+     * Unpacks bytes into a range of the bitset
+     *
+     * @param bits   Bitset
+     * @param ref    First bit
+     * @param count  Number of bits
+     * @param src    Source
+     * @param offset Position of the first byte in the source
+     */
+    private static void unpackBits(long[] bits, int ref, int count, byte[] src, int offset) {
+        for (int i = 0; i < count; i++) {
+            setBit(bits, ref + i, (src[offset + (i >>> 3)] & (1 << (i & 7))) != 0);
+        }
+    }
+
+    /**
+     * A holding register that reads and writes its slot in the array
+     */
+    private class RegisterView implements Register {
+        private final int ref;
+
+        RegisterView(int ref) {
+            this.ref = ref;
+        }
+
+        ArrayProcessImage image() {
+            return ArrayProcessImage.this;
+        }
+
+        @Override
+        public int getValue() {
+            return getRegisterValue(ref);
+        }
+
+        @Override
+        public int toUnsignedShort() {
+            return getValue();
+        }
+
+        @Override
+        public short toShort() {
+            return (short)getValue();
+        }
+
+        @Override
+        public byte[] toBytes() {
+            int value = getValue();
+            return new byte[]{(byte)(value >> 8), (byte)value};
+        }
+
+        @Override
+        public void setValue(int v) {
+            setRegisterValue(ref, v);
+        }
+
+        @Override
+        public void setValue(short s) {
+            setRegisterValue(ref, s);
+        }
+
+        @Override
+        public void setValue(byte[] bytes) {
+            if (bytes.length < 2) {
+                throw new IllegalArgumentException();
+            }
+            setRegisterValue(ref, ((bytes[0] & 0xff) << 8) | (bytes[1] & 0xff));
+        }
+    }
+
+    /**
+     * An input register that reads its slot in the array
+     */
+    private class InputRegisterView implements InputRegister {
+        private final int ref;
+
+        InputRegisterView(int ref) {
+            this.ref = ref;
+        }
+
+        ArrayProcessImage image() {
+            return ArrayProcessImage.this;
+        }
+
+        @Override
+        public int getValue() {
+            return getInputRegisterValue(ref);
+        }
+
+        @Override
+        public int toUnsignedShort() {
+            return getValue();
+        }
+
+        @Override
+        public short toShort() {
+            return (short)getValue();
+        }
+
+        @Override
+        public byte[] toBytes() {
+            int value = getValue();
+            return new byte[]{(byte)(value >> 8), (byte)value};
+        }
+    }
+
+    /**
+     * A coil that reads and writes its bit in the bitset
+     */
+    private class DigitalOutView implements DigitalOut {
+        private final int ref;
+
+        DigitalOutView(int ref) {
+            this.ref = ref;
+        }
+
+        ArrayProcessImage image() {
+            return ArrayProcessImage.this;
+        }
+
+        @Override
+        public boolean isSet() {
+            return getDigitalOutValue(ref);
+        }
+
+        @Override
+        public void set(boolean b) {
+            setDigitalOutValue(ref, b);
+        }
+    }
+
+    /**
+     * A discrete input that reads its bit in the bitset
+     */
+    private class DigitalInView implements DigitalIn {
+        private final int ref;
+
+        DigitalInView(int ref) {
+            this.ref = ref;
+        }
+
+        ArrayProcessImage image() {
+            return ArrayProcessImage.this;
+        }
+
+        @Override
+        public boolean isSet() {
+            return getDigitalInValue(ref);
+        }
+    }
+}
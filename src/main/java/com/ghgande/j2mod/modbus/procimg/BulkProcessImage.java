@@ -0,0 +1,127 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.procimg;
+
+/**
+ * Interface for a <tt>ProcessImage</tt> that can copy whole ranges of values
+ * in and out without materialising <tt>Register</tt> or <tt>DigitalOut</tt>
+ * objects.
+ * <p>
+ * The request handlers use these methods in preference to the object based
+ * ones when the process image supports them. Each range is copied atomically
+ * with respect to the other bulk methods of the image.
+ * <p>
+ * Bits are packed the way they are on the wire, i.e. eight to a byte with the
+ * first bit of the range in the least significant bit of the first byte.
+ */
+public interface BulkProcessImage extends ProcessImage {
+
+    /**
+     * Copies a range of holding register values.
+     *
+     * @param ref    the reference of the first register.
+     * @param count  the number of registers to copy.
+     * @param dest   the array to copy the values into.
+     * @param offset the position in <tt>dest</tt> of the first value.
+     *
+     * @throws IllegalAddressException if the range is invalid.
+     */
+    void getRegisterValues(int ref, int count, short[] dest, int offset) throws IllegalAddressException;
+
+    /**
+     * Sets a range of holding register values.
+     *
+     * @param ref    the reference of the first register.
+     * @param count  the number of registers to set.
+     * @param src    the array holding the new values.
+     * @param offset the position in <tt>src</tt> of the first value.
+     *
+     * @throws IllegalAddressException if the range is invalid.
+     */
+    void setRegisterValues(int ref, int count, short[] src, int offset) throws IllegalAddressException;
+
+    /**
+     * Copies a range of input register values.
+     *
+     * @param ref    the reference of the first input register.
+     * @param count  the number of input registers to copy.
+     * @param dest   the array to copy the values into.
+     * @param offset the position in <tt>dest</tt> of the first value.
+     *
+     * @throws IllegalAddressException if the range is invalid.
+     */
+    void getInputRegisterValues(int ref, int count, short[] dest, int offset) throws IllegalAddressException;
+
+    /**
+     * Sets a range of input register values.
+     *
+     * @param ref    the reference of the first input register.
+     * @param count  the number of input registers to set.
+     * @param src    the array holding the new values.
+     * @param offset the position in <tt>src</tt> of the first value.
+     *
+     * @throws IllegalAddressException if the range is invalid.
+     */
+    void setInputRegisterValues(int ref, int count, short[] src, int offset) throws IllegalAddressException;
+
+    /**
+     * Copies a range of coil states, packed eight to a byte.
+     *
+     * @param ref    the reference of the first coil.
+     * @param count  the number of coils to copy.
+     * @param dest   the array to pack the states into.
+     * @param offset the position in <tt>dest</tt> of the first byte.
+     *
+     * @throws IllegalAddressException if the range is invalid.
+     */
+    void getDigitalOutValues(int ref, int count, byte[] dest, int offset) throws IllegalAddressException;
+
+    /**
+     * Sets a range of coil states from bits packed eight to a byte.
+     *
+     * @param ref    the reference of the first coil.
+     * @param count  the number of coils to set.
+     * @param src    the array holding the packed states.
+     * @param offset the position in <tt>src</tt> of the first byte.
+     *
+     * @throws IllegalAddressException if the range is invalid.
+     */
+    void setDigitalOutValues(int ref, int count, byte[] src, int offset) throws IllegalAddressException;
+
+    /**
+     * Copies a range of discrete input states, packed eight to a byte.
+     *
+     * @param ref    the reference of the first discrete input.
+     * @param count  the number of discrete inputs to copy.
+     * @param dest   the array to pack the states into.
+     * @param offset the position in <tt>dest</tt> of the first byte.
+     *
+     * @throws IllegalAddressException if the range is invalid.
+     */
+    void getDigitalInValues(int ref, int count, byte[] dest, int offset) throws IllegalAddressException;
+
+    /**
+     * Sets a range of discrete input states from bits packed eight to a byte.
+     *
+     * @param ref    the reference of the first discrete input.
+     * @param count  the number of discrete inputs to set.
+     * @param src    the array holding the packed states.
+     * @param offset the position in <tt>src</tt> of the first byte.
+     *
+     * @throws IllegalAddressException if the range is invalid.
+     */
+    void setDigitalInValues(int ref, int count, byte[] src, int offset) throws IllegalAddressException;
+}
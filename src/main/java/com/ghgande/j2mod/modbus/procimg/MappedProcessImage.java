@@ -0,0 +1,381 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.procimg;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class implementing a process image whose coils, discrete inputs, input
+ * registers and holding registers live in a memory mapped file.
+ * <p>
+ * The values survive a restart and opening an existing image costs no more
+ * than mapping the file, whatever its size. Writes go straight into the
+ * mapping, so they are seen at once by other processes that map the same
+ * file, e.g. a program that feeds live input register values to the slave.
+ * Within this process the image is synchronized like an
+ * <tt>ArrayProcessImage</tt>, but there is no locking between processes,
+ * so another process only sees each register as a whole if it writes it
+ * with a single aligned 16 bit store.
+ * <p>
+ * The file starts with a 24 byte header, the magic number <tt>J2MP</tt>, a
+ * version and the number of coils, discrete inputs, input registers and
+ * holding registers as big endian ints. The coils and discrete inputs follow
+ * as bitsets packed eight to a byte, least significant bit first as on the
+ * wire, then the input registers and holding registers as big endian
+ * shorts.
+ * <p>
+ * Files and FIFOs are not persisted and are handled as in the
+ * <tt>SimpleProcessImage</tt>.
+ */
+public class MappedProcessImage extends ArrayProcessImage implements Closeable {
+
+    private static final int MAGIC = 0x4A324D50;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 24;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int coilCount;
+    private final int discreteCount;
+    private final int inputRegisterCount;
+    private final int registerCount;
+    private final int coilOffset;
+    private final int discreteOffset;
+    private final int inputRegisterOffset;
+    private final int registerOffset;
+
+    /**
+     * Opens an existing image file, taking the size of each area from the
+     * header of the file
+     *
+     * @param unit Unit ID of this image
+     * @param path File to map
+     * @throws IOException If the file cannot be mapped or is not an image
+     */
+    public MappedProcessImage(int unit, Path path) throws IOException {
+        this(unit, path, -1, -1, -1, -1);
+    }
+
+    /**
+     * Opens an image file, creating it with all the values zero if it doesn't
+     * exist
+     *
+     * @param unit               Unit ID of this image
+     * @param path               File to map
+     * @param coilCount          Number of coils
+     * @param discreteCount      Number of discrete inputs
+     * @param inputRegisterCount Number of input registers
+     * @param registerCount      Number of holding registers
+     * @throws IOException If the file cannot be mapped, is not an image or has
+     *                     areas of a different size
+     */
+    public MappedProcessImage(int unit, Path path, int coilCount, int discreteCount, int inputRegisterCount, int registerCount) throws IOException {
+        // The arrays of the parent are not used, all the values are in the mapping
+        super(unit, 0, 0, 0, 0);
+        if (coilCount < 0) {
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        else {
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        }
+        int[] counts = {coilCount, discreteCount, inputRegisterCount, registerCount};
+        try {
+            if (channel.size() == 0 && coilCount >= 0) {
+                for (int count : counts) {
+                    checkSize(count);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length(counts));
+                buffer.order(ByteOrder.BIG_ENDIAN);
+                buffer.putInt(4, VERSION);
+                for (int i = 0; i < counts.length; i++) {
+                    buffer.putInt(8 + i * 4, counts[i]);
+                }
+                // Written last so that a partly initialised file is not taken for an image
+                buffer.putInt(0, MAGIC);
+            }
+            else {
+                if (channel.size() < HEADER_LENGTH) {
+                    throw new IOException(String.format("%s is not a process image file", path));
+                }
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                    throw new IOException(String.format("%s is not a process image file", path));
+                }
+                for (int i = 0; i < counts.length; i++) {
+                    int stored = header.getInt(8 + i * 4);
+                    try {
+                        checkSize(stored);
+                    }
+                    catch (IllegalArgumentException e) {
+                        throw new IOException(String.format("Image file %s has an invalid size of %d for area %d", path, stored, i));
+                    }
+                    if (counts[i] >= 0 && counts[i] != stored) {
+                        throw new IOException(String.format("Image file %s has %d points in area %d, expected %d", path, stored, i, counts[i]));
+                    }
+                    counts[i] = stored;
+                }
+                if (channel.size() < length(counts)) {
+                    throw new IOException(String.format("Image file %s is truncated", path));
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length(counts));
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        this.coilCount = counts[0];
+        this.discreteCount = counts[1];
+        this.inputRegisterCount = counts[2];
+        this.registerCount = counts[3];
+        coilOffset = HEADER_LENGTH;
+        discreteOffset = coilOffset + ((this.coilCount + 7) >>> 3);
+        inputRegisterOffset = discreteOffset + ((this.discreteCount + 7) >>> 3);
+        registerOffset = inputRegisterOffset + this.inputRegisterCount * 2;
+    }
+
+    /**
+     * Returns the length of the file for a set of area sizes
+     *
+     * @param counts Number of coils, discrete inputs, input registers and holding registers
+     * @return Length in bytes
+     */
+    private static int length(int[] counts) {
+        return HEADER_LENGTH + ((counts[0] + 7) >>> 3) + ((counts[1] + 7) >>> 3) + counts[2] * 2 + counts[3] * 2;
+    }
+
+    /**
+     * Writes any changes held in memory out to the file
+     */
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    /**
+     * Writes any changes out to the file and closes it. The mapping itself is
+     * released when the image is garbage collected.
+     *
+     * @throws IOException If the file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    @Override
+    public synchronized void getRegisterValues(int ref, int count, short[] dest, int offset) {
+        checkRange(ref, count, registerCount);
+        for (int i = 0; i < count; i++) {
+            dest[offset + i] = buffer.getShort(registerOffset + (ref + i) * 2);
+        }
+    }
+
+    @Override
+    public synchronized void setRegisterValues(int ref, int count, short[] src, int offset) {
+        checkRange(ref, count, registerCount);
+        for (int i = 0; i < count; i++) {
+            buffer.putShort(registerOffset + (ref + i) * 2, src[offset + i]);
+        }
+    }
+
+    @Override
+    public synchronized void getInputRegisterValues(int ref, int count, short[] dest, int offset) {
+        checkRange(ref, count, inputRegisterCount);
+        for (int i = 0; i < count; i++) {
+            dest[offset + i] = buffer.getShort(inputRegisterOffset + (ref + i) * 2);
+        }
+    }
+
+    @Override
+    public synchronized void setInputRegisterValues(int ref, int count, short[] src, int offset) {
+        checkRange(ref, count, inputRegisterCount);
+        for (int i = 0; i < count; i++) {
+            buffer.putShort(inputRegisterOffset + (ref + i) * 2, src[offset + i]);
+        }
+    }
+
+    @Override
+    public synchronized void getDigitalOutValues(int ref, int count, byte[] dest, int offset) {
+        checkRange(ref, count, coilCount);
+        packBits(coilOffset, ref, count, dest, offset);
+    }
+
+    @Override
+    public synchronized void setDigitalOutValues(int ref, int count, byte[] src, int offset) {
+        checkRange(ref, count, coilCount);
+        unpackBits(coilOffset, ref, count, src, offset);
+    }
+
+    @Override
+    public synchronized void getDigitalInValues(int ref, int count, byte[] dest, int offset) {
+        checkRange(ref, count, discreteCount);
+        packBits(discreteOffset, ref, count, dest, offset);
+    }
+
+    @Override
+    public synchronized void setDigitalInValues(int ref, int count, byte[] src, int offset) {
+        checkRange(ref, count, discreteCount);
+        unpackBits(discreteOffset, ref, count, src, offset);
+    }
+
+    @Override
+    public synchronized int getRegisterValue(int ref) {
+        checkRange(ref, 1, registerCount);
+        return buffer.getShort(registerOffset + ref * 2) & 0xFFFF;
+    }
+
+    @Override
+    public synchronized void setRegisterValue(int ref, int value) {
+        checkRange(ref, 1, registerCount);
+        buffer.putShort(registerOffset + ref * 2, (short)value);
+    }
+
+    @Override
+    public synchronized int getInputRegisterValue(int ref) {
+        checkRange(ref, 1, inputRegisterCount);
+        return buffer.getShort(inputRegisterOffset + ref * 2) & 0xFFFF;
+    }
+
+    @Override
+    public synchronized void setInputRegisterValue(int ref, int value) {
+        checkRange(ref, 1, inputRegisterCount);
+        buffer.putShort(inputRegisterOffset + ref * 2, (short)value);
+    }
+
+    @Override
+    public synchronized boolean getDigitalOutValue(int ref) {
+        checkRange(ref, 1, coilCount);
+        return getBit(coilOffset, ref);
+    }
+
+    @Override
+    public synchronized void setDigitalOutValue(int ref, boolean value) {
+        checkRange(ref, 1, coilCount);
+        setBit(coilOffset, ref, value);
+    }
+
+    @Override
+    public synchronized boolean getDigitalInValue(int ref) {
+        checkRange(ref, 1, discreteCount);
+        return getBit(discreteOffset, ref);
+    }
+
+    @Override
+    public synchronized void setDigitalInValue(int ref, boolean value) {
+        checkRange(ref, 1, discreteCount);
+        setBit(discreteOffset, ref, value);
+    }
+
+    @Override
+    public int getDigitalOutCount() {
+        return coilCount;
+    }
+
+    @Override
+    public int getDigitalInCount() {
+        return discreteCount;
+    }
+
+    @Override
+    public int getInputRegisterCount() {
+        return inputRegisterCount;
+    }
+
+    @Override
+    public int getRegisterCount() {
+        return registerCount;
+    }
+
+    /**
+     * @param area  Offset of the bitset in the mapping
+     * @param index Bit number
+     * @return True if the bit is set
+     */
+    private boolean getBit(int area, int index) {
+        return (buffer.get(area + (index >>> 3)) & (1 << (index & 7))) != 0;
+    }
+
+    /**
+     * @param area  Offset of the bitset in the mapping
+     * @param index Bit number
+     * @param value New state
+     */
+    private void setBit(int area, int index, boolean value) {
+        int position = area + (index >>> 3);
+        int bits = buffer.get(position);
+        if (value) {
+            bits |= 1 << (index & 7);
+        }
+        else {
+            bits &= ~(1 << (index & 7));
+        }
+        buffer.put(position, (byte)bits);
+    }
+
+    /**
+     * Packs a range of a bitset into bytes, copying whole bytes when the
+     * range starts on a byte boundary
+     *
+     * @param area   Offset of the bitset in the mapping
+     * @param ref    First bit
+     * @param count  Number of bits
+     * @param dest   Destination
+     * @param offset Position of the first byte in the destination
+     */
+    private void packBits(int area, int ref, int count, byte[] dest, int offset) {
+        for (int i = 0; i < count; i += 8) {
+            int position = ref + i;
+            int shift = position & 7;
+            int value = (buffer.get(area + (position >>> 3)) & 0xFF) >>> shift;
+            if (shift > 0 && i + 8 - shift < count) {
+                value |= buffer.get(area + (position >>> 3) + 1) << (8 - shift);
+            }
+            int remaining = count - i;
+            if (remaining < 8) {
+                value &= (1 << remaining) - 1;
+            }
+            dest[offset + (i >>> 3)] = (byte)value;
+        }
+    }
+
+    /**
+     * Unpacks bytes into a range of a bitset
+     *
+     * @param area   Offset of the bitset in the mapping
+     * @param ref    First bit
+     * @param count  Number of bits
+     * @param src    Source
+     * @param offset Position of the first byte in the source
+     */
+    private void unpackBits(int area, int ref, int count, byte[] src, int offset) {
+        int i = 0;
+        if ((ref & 7) == 0) {
+            for (; i + 8 <= count; i += 8) {
+                buffer.put(area + ((ref + i) >>> 3), src[offset + (i >>> 3)]);
+            }
+        }
+        for (; i < count; i++) {
+            setBit(area, ref + i, (src[offset + (i >>> 3)] & (1 << (i & 7))) != 0);
+        }
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.procimg;
+
+/**
+ * Class implementing a process image whose readers never block and always see
+ * a consistent set of values.
+ * <p>
+ * The values are kept in pages of 256 points and the image as a whole is an
+ * immutable set of page tables held in a single volatile field. A reader takes
+ * the current tables once and copies its range out of them, so a read of a
+ * 32 or 64 bit value spread over several registers can never mix old and new
+ * values, and readers don't contend with each other or with writers.
+ * <p>
+ * Writers are serialized. A write copies the tables and only the pages it
+ * changes, then publishes the new tables in one step. To publish a number of
+ * changes together, possibly across several areas, make them inside
+ * {@link #update(Runnable)}:
+ * <pre>
+ *     image.update(() -&gt; {
+ *         image.setRegisterValues(0, 4, values, 0);
+ *         image.setDigitalInValue(10, true);
+ *     });
+ * </pre>
+ * This suits images that are read much more often than they are written; each
+ * publication costs a copy of the page tables and of the changed pages.
+ */
+public class SnapshotProcessImage extends ArrayProcessImage {
+
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    private final int coilCount;
+    private final int discreteCount;
+    private final int inputRegisterCount;
+    private final int registerCount;
+    private volatile Pages current;
+
+    // Guarded by this
+    private Pages working;
+    private int updateDepth;
+
+    /**
+     * Constructs a new <tt>SnapshotProcessImage</tt> with the same number of
+     * coils, discrete inputs, input registers and holding registers
+     *
+     * @param unit Unit ID of this image
+     * @param size Number of each type of point
+     */
+    public SnapshotProcessImage(int unit, int size) {
+        this(unit, size, size, size, size);
+    }
+
+    /**
+     * Constructs a new <tt>SnapshotProcessImage</tt>
+     *
+     * @param unit               Unit ID of this image
+     * @param coilCount          Number of coils
+     * @param discreteCount      Number of discrete inputs
+     * @param inputRegisterCount Number of input registers
+     * @param registerCount      Number of holding registers
+     */
+    public SnapshotProcessImage(int unit, int coilCount, int discreteCount, int inputRegisterCount, int registerCount) {
+        // The arrays of the parent are not used, all the values are in the pages
+        super(unit, 0, 0, 0, 0);
+        checkSize(coilCount);
+        checkSize(discreteCount);
+        checkSize(inputRegisterCount);
+        checkSize(registerCount);
+        this.coilCount = coilCount;
+        this.discreteCount = discreteCount;
+        this.inputRegisterCount = inputRegisterCount;
+        this.registerCount = registerCount;
+        current = new Pages(coilCount, discreteCount, inputRegisterCount, registerCount);
+    }
+
+    /**
+     * Makes a number of changes and publishes them together once they are all
+     * done. Readers see either none or all of them. If the changes throw an
+     * exception, none of them are published.
+     * <p>
+     * Calls can be nested, in which case the changes are published when the
+     * outermost call returns, and thrown away if it throws.
+     *
+     * @param changes Changes to make
+     */
+    public synchronized void update(Runnable changes) {
+        begin();
+        boolean done = false;
+        try {
+            changes.run();
+            done = true;
+        }
+        finally {
+            end(done);
+        }
+    }
+
+    /**
+     * Starts a set of changes, taking a copy of the page tables if this is the
+     * outermost one
+     */
+    private void begin() {
+        if (updateDepth++ == 0) {
+            working = new Pages(current);
+        }
+    }
+
+    /**
+     * Finishes a set of changes, publishing them if this is the outermost one
+     *
+     * @param publish False to throw the changes away
+     */
+    private void end(boolean publish) {
+        if (--updateDepth == 0) {
+            if (publish) {
+                current = working;
+            }
+            working = null;
+        }
+    }
+
+    @Override
+    public void getRegisterValues(int ref, int count, short[] dest, int offset) {
+        checkRange(ref, count, registerCount);
+        copyOut(current.registers, ref, count, dest, offset);
+    }
+
+    @Override
+    public synchronized void setRegisterValues(int ref, int count, short[] src, int offset) {
+        checkRange(ref, count, registerCount);
+        begin();
+        boolean done = false;
+        try {
+            copyIn(working.registers, working.copiedRegisters, ref, count, src, offset);
+            done = true;
+        }
+        finally {
+            end(done);
+        }
+    }
+
+    @Override
+    public void getInputRegisterValues(int ref, int count, short[] dest, int offset) {
+        checkRange(ref, count, inputRegisterCount);
+        copyOut(current.inputRegisters, ref, count, dest, offset);
+    }
+
+    @Override
+    public synchronized void setInputRegisterValues(int ref, int count, short[] src, int offset) {
+        checkRange(ref, count, inputRegisterCount);
+        begin();
+        boolean done = false;
+        try {
+            copyIn(working.inputRegisters, working.copiedInputRegisters, ref, count, src, offset);
+            done = true;
+        }
+        finally {
+            end(done);
+        }
+    }
+
+    @Override
+    public void getDigitalOutValues(int ref, int count, byte[] dest, int offset) {
+        checkRange(ref, count, coilCount);
+        packBits(current.coils, ref, count, dest, offset);
+    }
+
+    @Override
+    public synchronized void setDigitalOutValues(int ref, int count, byte[] src, int offset) {
+        checkRange(ref, count, coilCount);
+        begin();
+        boolean done = false;
+        try {
+            unpackBits(working.coils, working.copiedCoils, ref, count, src, offset);
+            done = true;
+        }
+        finally {
+            end(done);
+        }
+    }
+
+    @Override
+    public void getDigitalInValues(int ref, int count, byte[] dest, int offset) {
+        checkRange(ref, count, discreteCount);
+        packBits(current.discretes, ref, count, dest, offset);
+    }
+
+    @Override
+    public synchronized void setDigitalInValues(int ref, int count, byte[] src, int offset) {
+        checkRange(ref, count, discreteCount);
+        begin();
+        boolean done = false;
+        try {
+            unpackBits(working.discretes, working.copiedDiscretes, ref, count, src, offset);
+            done = true;
+        }
+        finally {
+            end(done);
+        }
+    }
+
+    @Override
+    public int getRegisterValue(int ref) {
+        checkRange(ref, 1, registerCount);
+        return current.registers[ref >>> PAGE_SHIFT][ref & (PAGE_SIZE - 1)] & 0xFFFF;
+    }
+
+    @Override
+    public void setRegisterValue(int ref, int value) {
+        setRegisterValues(ref, 1, new short[]{(short)value}, 0);
+    }
+
+    @Override
+    public int getInputRegisterValue(int ref) {
+        checkRange(ref, 1, inputRegisterCount);
+        return current.inputRegisters[ref >>> PAGE_SHIFT][ref & (PAGE_SIZE - 1)] & 0xFFFF;
+    }
+
+    @Override
+    public void setInputRegisterValue(int ref, int value) {
+        setInputRegisterValues(ref, 1, new short[]{(short)value}, 0);
+    }
+
+    @Override
+    public boolean getDigitalOutValue(int ref) {
+        checkRange(ref, 1, coilCount);
+        return getBit(current.coils, ref);
+    }
+
+    @Override
+    public void setDigitalOutValue(int ref, boolean value) {
+        setDigitalOutValues(ref, 1, new byte[]{(byte)(value ? 1 : 0)}, 0);
+    }
+
+    @Override
+    public boolean getDigitalInValue(int ref) {
+        checkRange(ref, 1, discreteCount);
+        return getBit(current.discretes, ref);
+    }
+
+    @Override
+    public void setDigitalInValue(int ref, boolean value) {
+        setDigitalInValues(ref, 1, new byte[]{(byte)(value ? 1 : 0)}, 0);
+    }
+
+    @Override
+    public int getDigitalOutCount() {
+        return coilCount;
+    }
+
+    @Override
+    public int getDigitalInCount() {
+        return discreteCount;
+    }
+
+    @Override
+    public int getInputRegisterCount() {
+        return inputRegisterCount;
+    }
+
+    @Override
+    public int getRegisterCount() {
+        return registerCount;
+    }
+
+    /**
+     * Copies a range of registers out of a page table
+     *
+     * @param pages  Page table
+     * @param ref    First register
+     * @param count  Number of registers
+     * @param dest   Destination
+     * @param offset Position of the first value in the destination
+     */
+    private static void copyOut(short[][] pages, int ref, int count, short[] dest, int offset) {
+        while (count > 0) {
+            int index = ref & (PAGE_SIZE - 1);
+            int length = Math.min(count, PAGE_SIZE - index);
+            System.arraycopy(pages[ref >>> PAGE_SHIFT], index, dest, offset, length);
+            ref += length;
+            offset += length;
+            count -= length;
+        }
+    }
+
+    /**
+     * Copies a range of registers into a working page table, copying each
+     * page the first time it is changed
+     *
+     * @param pages  Working page table
+     * @param copied Pages that have already been copied
+     * @param ref    First register
+     * @param count  Number of registers
+     * @param src    Source
+     * @param offset Position of the first value in the source
+     */
+    private static void copyIn(short[][] pages, boolean[] copied, int ref, int count, short[] src, int offset) {
+        while (count > 0) {
+            int page = ref >>> PAGE_SHIFT;
+            int index = ref & (PAGE_SIZE - 1);
+            int length = Math.min(count, PAGE_SIZE - index);
+            if (!copied[page]) {
+                pages[page] = pages[page].clone();
+                copied[page] = true;
+            }
+            System.arraycopy(src, offset, pages[page], index, length);
+            ref += length;
+            offset += length;
+            count -= length;
+        }
+    }
+
+    /**
+     * @param pages Page table
+     * @param index Bit number
+     * @return True if the bit is set
+     */
+    private static boolean getBit(long[][] pages, int index) {
+        return (pages[index >>> PAGE_SHIFT][(index & (PAGE_SIZE - 1)) >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Packs a range of bits into bytes
+     *
+     * @param pages  Page table
+     * @param ref    First bit
+     * @param count  Number of bits
+     * @param dest   Destination
+     * @param offset Position of the first byte in the destination
+     */
+    private static void packBits(long[][] pages, int ref, int count, byte[] dest, int offset) {
+        for (int i = 0; i < count; i += 8) {
+            int value = 0;
+            for (int bit = 0; bit < 8 && i + bit < count; bit++) {
+                if (getBit(pages, ref + i + bit)) {
+                    value |= 1 << bit;
+                }
+            }
+            dest[offset + (i >>> 3)] = (byte)value;
+        }
+    }
+
+    /**
+     * Unpacks bytes into a range of bits in a working page table, copying
+     * each page the first time it is changed
+     *
+     * @param pages  Working page table
+     * @param copied Pages that have already been copied
+     * @param ref    First bit
+     * @param count  Number of bits
+     * @param src    Source
+     * @param offset Position of the first byte in the source
+     */
+    private static void unpackBits(long[][] pages, boolean[] copied, int ref, int count, byte[] src, int offset) {
+        for (int i = 0; i < count; i++) {
+            int index = ref + i;
+            int page = index >>> PAGE_SHIFT;
+            if (!copied[page]) {
+                pages[page] = pages[page].clone();
+                copied[page] = true;
+            }
+            int word = (index & (PAGE_SIZE - 1)) >>> 6;
+            if ((src[offset + (i >>> 3)] & (1 << (i & 7))) != 0) {
+                pages[page][word] |= 1L << index;
+            }
+            else {
+                pages[page][word] &= ~(1L << index);
+            }
+        }
+    }
+
+    /**
+     * The page tables of one version of the image. Once published a
+     * <tt>Pages</tt> and its pages are never changed.
+     */
+    private static class Pages {
+        private final short[][] registers;
+        private final short[][] inputRegisters;
+        private final long[][] coils;
+        private final long[][] discretes;
+        private final boolean[] copiedRegisters;
+        private final boolean[] copiedInputRegisters;
+        private final boolean[] copiedCoils;
+        private final boolean[] copiedDiscretes;
+
+        /**
+         * Creates the first version with all the values zero
+         *
+         * @param coilCount          Number of coils
+         * @param discreteCount      Number of discrete inputs
+         * @param inputRegisterCount Number of input registers
+         * @param registerCount      Number of holding registers
+         */
+        Pages(int coilCount, int discreteCount, int inputRegisterCount, int registerCount) {
+            registers = registerPages(registerCount);
+            inputRegisters = registerPages(inputRegisterCount);
+            coils = bitPages(coilCount);
+            discretes = bitPages(discreteCount);
+            copiedRegisters = null;
+            copiedInputRegisters = null;
+            copiedCoils = null;
+            copiedDiscretes = null;
+        }
+
+        /**
+         * Creates a working copy of a version that shares all of its pages
+         *
+         * @param pages Version to copy
+         */
+        Pages(Pages pages) {
+            registers = pages.registers.clone();
+            inputRegisters = pages.inputRegisters.clone();
+            coils = pages.coils.clone();
+            discretes = pages.discretes.clone();
+            copiedRegisters = new boolean[registers.length];
+            copiedInputRegisters = new boolean[inputRegisters.length];
+            copiedCoils = new boolean[coils.length];
+            copiedDiscretes = new boolean[discretes.length];
+        }
+
+        private static short[][] registerPages(int count) {
+            short[][] pages = new short[(count + PAGE_SIZE - 1) >>> PAGE_SHIFT][];
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = new short[Math.min(PAGE_SIZE, count - (i << PAGE_SHIFT))];
+            }
+            return pages;
+        }
+
+        private static long[][] bitPages(int count) {
+            long[][] pages = new long[(count + PAGE_SIZE - 1) >>> PAGE_SHIFT][];
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = new long[(Math.min(PAGE_SIZE, count - (i << PAGE_SHIFT)) + 63) >>> 6];
+            }
+            return pages;
+        }
+    }
+}
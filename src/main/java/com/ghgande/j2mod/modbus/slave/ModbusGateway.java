@@ -0,0 +1,566 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.slave;
+
+import com.ghgande.j2mod.modbus.Modbus;
+import com.ghgande.j2mod.modbus.ModbusException;
+import com.ghgande.j2mod.modbus.ModbusSlaveException;
+import com.ghgande.j2mod.modbus.facade.AbstractModbusMaster;
+import com.ghgande.j2mod.modbus.facade.ModbusSerialMaster;
+import com.ghgande.j2mod.modbus.io.AbstractModbusTransport;
+import com.ghgande.j2mod.modbus.io.ModbusTransaction;
+import com.ghgande.j2mod.modbus.msg.ModbusRequest;
+import com.ghgande.j2mod.modbus.msg.ModbusResponse;
+import com.ghgande.j2mod.modbus.util.SerialParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Class that forwards requests for Unit IDs that have no local process image
+ * to slaves on other buses, typically TCP clients to RTU slaves.
+ * <p>
+ * Each <tt>Bus</tt> has a bounded queue and a single worker thread that owns
+ * the master. The worker sends the queued requests back to back, so the line
+ * is kept busy while the serial transaction still honours the 3.5 character
+ * gap between frames. The threads servicing the TCP clients only ever wait
+ * on their own request, never on each other.
+ * <p>
+ * When a queue is full the request is refused straight away with a
+ * <tt>gateway path unavailable</tt> exception. A request that is still
+ * queued when its timeout expires is dropped without being sent, and the
+ * client is told that the <tt>gateway target failed to respond</tt>.
+ * <p>
+ * A gateway is attached to a slave with {@link ModbusSlave#setGateway(ModbusGateway)}
+ * and is opened and closed along with it. {@link #forward(ModbusRequest)}
+ * waits for the bus, which suits the thread per connection and executor TCP
+ * listeners, whereas {@link #forwardAsync(ModbusRequest)} returns straight
+ * away so that a caller such as a selector thread is never held up by a slow
+ * bus.
+ */
+public class ModbusGateway {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModbusGateway.class);
+
+    private final Map<Integer, Bus> routes = new ConcurrentHashMap<Integer, Bus>();
+    private final List<Bus> buses = new CopyOnWriteArrayList<Bus>();
+    private volatile boolean open;
+    private volatile ModbusResponseCache responseCache;
+    private volatile ScheduledExecutorService timer;
+
+    /**
+     * Adds a serial bus with the default queue size and a timeout of
+     * {@link Modbus#DEFAULT_TIMEOUT}
+     *
+     * @param parameters Parameters of the serial port
+     * @param unitIds    Unit IDs of the slaves on the bus
+     * @return Bus
+     */
+    public Bus addBus(SerialParameters parameters, int... unitIds) {
+        return addBus(new ModbusSerialMaster(parameters), Modbus.DEFAULT_GATEWAY_QUEUE_SIZE, Modbus.DEFAULT_TIMEOUT, unitIds);
+    }
+
+    /**
+     * Adds a serial bus
+     *
+     * @param parameters    Parameters of the serial port
+     * @param queueSize     Number of requests that can wait for the bus
+     * @param timeoutMillis Time a client will wait for its response, including the time spent queueing
+     * @param unitIds       Unit IDs of the slaves on the bus
+     * @return Bus
+     */
+    public Bus addBus(SerialParameters parameters, int queueSize, int timeoutMillis, int... unitIds) {
+        return addBus(new ModbusSerialMaster(parameters), queueSize, timeoutMillis, unitIds);
+    }
+
+    /**
+     * Adds a bus reached through any master, e.g. a TCP master to a
+     * downstream gateway
+     *
+     * @param master        Master for the bus, connected when the gateway is opened
+     * @param queueSize     Number of requests that can wait for the bus
+     * @param timeoutMillis Time a client will wait for its response, including the time spent queueing
+     * @param unitIds       Unit IDs of the slaves on the bus
+     * @return Bus
+     */
+    public synchronized Bus addBus(AbstractModbusMaster master, int queueSize, int timeoutMillis, int... unitIds) {
+        if (master == null) {
+            throw new IllegalArgumentException("Master is required");
+        }
+        if (queueSize <= 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Queue size and timeout must be positive");
+        }
+        if (open) {
+            throw new IllegalStateException("Buses cannot be added to an open gateway");
+        }
+        for (int unitId : unitIds) {
+            if (unitId < 0 || unitId > 255) {
+                throw new IllegalArgumentException("Unit ID must be between 0 and 255: " + unitId);
+            }
+            if (routes.containsKey(unitId)) {
+                throw new IllegalArgumentException("Unit ID is already routed: " + unitId);
+            }
+        }
+        Bus bus = new Bus(master, queueSize, timeoutMillis);
+        buses.add(bus);
+        for (int unitId : unitIds) {
+            routes.put(unitId, bus);
+        }
+        return bus;
+    }
+
+    /**
+     * Returns the bus serving a Unit ID
+     *
+     * @param unitId Unit ID
+     * @return Bus or null if the Unit ID is not routed
+     */
+    public Bus getBus(int unitId) {
+        return routes.get(unitId);
+    }
+
+    /**
+     * Returns all the buses of this gateway
+     *
+     * @return Buses
+     */
+    public List<Bus> getBuses() {
+        return new ArrayList<Bus>(buses);
+    }
+
+    /**
+     * Returns the cache that repeated reads are answered from
+     *
+     * @return Cache or null if every request goes to the bus
+     */
+    public ModbusResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Sets the cache that repeated reads are answered from, so that clients
+     * polling the same blocks don't each cost a transaction on the bus
+     *
+     * @param responseCache Cache to use, null to send every request to the bus
+     */
+    public void setResponseCache(ModbusResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Returns true if the gateway is open
+     *
+     * @return True if open
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Connects the masters of all the buses and starts their workers
+     *
+     * @throws ModbusException If a bus cannot be connected
+     */
+    public synchronized void open() throws ModbusException {
+        if (!open) {
+            try {
+                for (Bus bus : buses) {
+                    bus.open();
+                }
+                timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "Modbus Gateway Timer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                open = true;
+            }
+            catch (ModbusException e) {
+                for (Bus bus : buses) {
+                    bus.close();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stops the workers and disconnects the masters. Any requests still
+     * queued are answered with a gateway exception.
+     */
+    public synchronized void close() {
+        if (open) {
+            open = false;
+            for (Bus bus : buses) {
+                bus.close();
+            }
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    /**
+     * Forwards a request to the bus of its Unit ID and waits for the response
+     *
+     * @param request Request to forward
+     * @return Response from the slave, or a gateway exception response
+     */
+    public ModbusResponse forward(ModbusRequest request) {
+        Bus bus = routes.get(request.getUnitID());
+        if (bus == null || !open) {
+            return request.createExceptionResponse(Modbus.GATEWAY_PATH_UNAVAILABLE);
+        }
+        ModbusResponseCache cache = responseCache;
+        return cache == null ? bus.forward(request) : cache.process(request, bus::forward);
+    }
+
+    /**
+     * Forwards a request to the bus of its Unit ID without waiting for it.
+     * The future is completed by the worker of the bus, or with a gateway
+     * exception response when the request is refused or times out.
+     *
+     * @param request Request to forward
+     * @return Future response from the slave, or a gateway exception response
+     */
+    public CompletableFuture<ModbusResponse> forwardAsync(ModbusRequest request) {
+        Bus bus = routes.get(request.getUnitID());
+        ScheduledExecutorService currentTimer = timer;
+        if (bus == null || !open || currentTimer == null) {
+            return CompletableFuture.completedFuture(request.createExceptionResponse(Modbus.GATEWAY_PATH_UNAVAILABLE));
+        }
+        Function<ModbusRequest, CompletableFuture<ModbusResponse>> source = forwarded -> bus.forwardAsync(forwarded, currentTimer);
+        ModbusResponseCache cache = responseCache;
+        return cache == null ? source.apply(request) : cache.processAsync(request, source);
+    }
+
+    /**
+     * A bus of slaves behind a single master, serviced by its own worker
+     */
+    public static class Bus {
+        private final AbstractModbusMaster master;
+        private final BlockingQueue<Pending> queue;
+        private final long timeoutNanos;
+        private final AtomicLong forwarded = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong shed = new AtomicLong();
+        private int retries = 1;
+        private ModbusTransaction transaction;
+        private volatile boolean running;
+        private Thread worker;
+
+        private Bus(AbstractModbusMaster master, int queueSize, int timeoutMillis) {
+            this.master = master;
+            this.queue = new ArrayBlockingQueue<Pending>(queueSize);
+            this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        }
+
+        /**
+         * @return Master used to reach the slaves
+         */
+        public AbstractModbusMaster getMaster() {
+            return master;
+        }
+
+        /**
+         * Sets the number of times a request is sent to a slave that does
+         * not answer, 1 by default so that a dead slave holds up the rest of
+         * the queue for as short a time as possible
+         *
+         * @param retries Number of attempts
+         */
+        public synchronized void setRetries(int retries) {
+            this.retries = Math.max(1, retries);
+            if (transaction != null) {
+                transaction.setRetries(this.retries);
+            }
+        }
+
+        /**
+         * @return Number of requests waiting for the bus
+         */
+        public int getQueued() {
+            return queue.size();
+        }
+
+        /**
+         * @return Number of requests sent on the bus
+         */
+        public long getForwarded() {
+            return forwarded.get();
+        }
+
+        /**
+         * @return Number of requests refused because the queue was full
+         */
+        public long getRejected() {
+            return rejected.get();
+        }
+
+        /**
+         * @return Number of requests dropped because they timed out in the queue
+         */
+        public long getShed() {
+            return shed.get();
+        }
+
+        /**
+         * Connects the master and starts the worker
+         *
+         * @throws ModbusException If the master cannot connect
+         */
+        synchronized void open() throws ModbusException {
+            if (running) {
+                return;
+            }
+            try {
+                master.connect();
+            }
+            catch (Exception e) {
+                throw new ModbusException("Cannot connect gateway bus - %s", e.getMessage());
+            }
+            AbstractModbusTransport transport = master.getTransport();
+            if (transport == null) {
+                master.disconnect();
+                throw new ModbusException("Gateway bus has no transport");
+            }
+            transaction = transport.createTransaction();
+            transaction.setRetries(retries);
+            running = true;
+            worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            }, "Modbus Gateway " + transport.getClass().getSimpleName());
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        /**
+         * Stops the worker and disconnects the master
+         */
+        void close() {
+            Thread thread;
+            synchronized (this) {
+                running = false;
+                thread = worker;
+                worker = null;
+            }
+            if (thread != null) {
+                thread.interrupt();
+                try {
+                    thread.join(TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Pending pending;
+            while ((pending = queue.poll()) != null) {
+                pending.result.complete(pending.createExceptionResponse(Modbus.GATEWAY_PATH_UNAVAILABLE));
+            }
+            master.disconnect();
+        }
+
+        /**
+         * Queues a request and waits for the worker to answer it
+         *
+         * @param request Request to forward
+         * @return Response
+         */
+        ModbusResponse forward(ModbusRequest request) {
+            Pending pending = submit(request);
+            try {
+                return pending.result.get(timeoutNanos, TimeUnit.NANOSECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException | TimeoutException e) {
+                logger.debug("Gateway request for unit {} timed out", pending.unitId);
+            }
+            pending.expire();
+            return pending.result.join();
+        }
+
+        /**
+         * Queues a request and returns straight away
+         *
+         * @param request      Request to forward
+         * @param currentTimer Timer that answers the request if the bus doesn't in time
+         * @return Future response
+         */
+        CompletableFuture<ModbusResponse> forwardAsync(ModbusRequest request, ScheduledExecutorService currentTimer) {
+            Pending pending = submit(request);
+            if (!pending.result.isDone()) {
+                try {
+                    ScheduledFuture<?> expiry = currentTimer.schedule(pending::expire, timeoutNanos, TimeUnit.NANOSECONDS);
+                    pending.result.whenComplete((response, e) -> expiry.cancel(false));
+                }
+                catch (RejectedExecutionException e) {
+                    // The gateway is closing
+                    pending.expire();
+                }
+            }
+            return pending.result;
+        }
+
+        /**
+         * Puts a request in the queue, or answers it straight away if the
+         * queue is full
+         *
+         * @param request Request to forward
+         * @return Request waiting for the bus
+         */
+        private Pending submit(ModbusRequest request) {
+
+            // The header is captured before the worker can get at the request
+            Pending pending = new Pending(request, System.nanoTime() + timeoutNanos);
+            if (!running || !queue.offer(pending)) {
+                rejected.incrementAndGet();
+                logger.debug("Gateway queue full, rejecting request for unit {}", pending.unitId);
+                pending.result.complete(pending.createExceptionResponse(Modbus.GATEWAY_PATH_UNAVAILABLE));
+            }
+            return pending;
+        }
+
+        /**
+         * Sends the queued requests one after another until the bus is closed
+         */
+        private void drain() {
+            while (running) {
+                Pending pending;
+                try {
+                    pending = queue.take();
+                }
+                catch (InterruptedException e) {
+                    break;
+                }
+                if (pending.result.isDone() || System.nanoTime() - pending.deadline >= 0) {
+                    shed.incrementAndGet();
+                    pending.expire();
+                }
+                else {
+                    try {
+                        pending.result.complete(execute(pending));
+                    }
+                    catch (RuntimeException e) {
+                        logger.error("Gateway request for unit {} failed", pending.unitId, e);
+                        pending.expire();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Sends a request on the bus and returns the response with the header
+         * of the request it answers
+         *
+         * @param pending Request to send
+         * @return Response or exception response
+         */
+        private ModbusResponse execute(Pending pending) {
+            ModbusRequest request = pending.request;
+            ModbusResponse response = null;
+            int exceptionCode = Modbus.GATEWAY_TARGET_NO_RESPONSE;
+            try {
+                synchronized (this) {
+                    transaction.setRequest(request);
+                    transaction.execute();
+                    response = transaction.getResponse();
+                }
+                forwarded.incrementAndGet();
+            }
+            catch (ModbusSlaveException e) {
+                forwarded.incrementAndGet();
+                exceptionCode = e.getType();
+            }
+            catch (ModbusException e) {
+                logger.debug("Gateway target {} failed to respond - {}", pending.unitId, e.getMessage());
+            }
+            finally {
+
+                // The transaction and transport overwrite the header, so put the client's back
+                request.setHeadless(pending.headless);
+                request.setTransactionID(pending.transactionId);
+                request.setProtocolID(pending.protocolId);
+            }
+            return response == null ? pending.createExceptionResponse(exceptionCode) : pending.withHeader(response);
+        }
+    }
+
+    /**
+     * A request waiting for its bus, along with the header it arrived with so
+     * that it can be answered while the worker has the request on the bus
+     */
+    private static class Pending {
+        private final ModbusRequest request;
+        private final long deadline;
+        private final int transactionId;
+        private final int protocolId;
+        private final int unitId;
+        private final boolean headless;
+        private final CompletableFuture<ModbusResponse> result = new CompletableFuture<ModbusResponse>();
+
+        private Pending(ModbusRequest request, long deadline) {
+            this.request = request;
+            this.deadline = deadline;
+            transactionId = request.getTransactionID();
+            protocolId = request.getProtocolID();
+            unitId = request.getUnitID();
+            headless = request.isHeadless();
+        }
+
+        /**
+         * Answers the client with a <tt>gateway target failed to respond</tt>
+         * exception unless it has been answered already
+         */
+        private void expire() {
+            if (!result.isDone()) {
+                result.complete(createExceptionResponse(Modbus.GATEWAY_TARGET_NO_RESPONSE));
+            }
+        }
+
+        /**
+         * Creates an exception response with the header of the client's request
+         *
+         * @param code Exception code
+         * @return Exception response
+         */
+        private ModbusResponse createExceptionResponse(int code) {
+            return withHeader(request.createExceptionResponse(code));
+        }
+
+        /**
+         * Gives a response the header of the client's request
+         *
+         * @param response Response
+         * @return The response
+         */
+        private ModbusResponse withHeader(ModbusResponse response) {
+            response.setHeadless(headless);
+            response.setTransactionID(transactionId);
+            response.setProtocolID(protocolId);
+            response.setUnitID(unitId);
+            return response;
+        }
+    }
+}
@@ -0,0 +1,503 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.slave;
+
+import com.ghgande.j2mod.modbus.Modbus;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Table;
+import com.ghgande.j2mod.modbus.msg.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Class that caches the responses to reads so that repeated polls of the same
+ * block are answered without going back to the device.
+ * <p>
+ * Responses to the four read functions are cached by Unit ID, function code,
+ * reference and count for the time to live of their table. The cache holds at
+ * most <tt>maxEntries</tt> responses and evicts the least recently used one
+ * when it is full. Concurrent misses for the same block are collapsed into a
+ * single request and all the callers share its response.
+ * <p>
+ * Writes are always passed through, and once they complete every cached read
+ * of the table that overlaps the written range is dropped. A write to the
+ * broadcast Unit ID 0 drops the range for all units. Reads that were already
+ * in progress when a write completed are not cached.
+ * <p>
+ * Exception responses are shared with the callers waiting on the same miss
+ * but are never cached.
+ */
+public class ModbusResponseCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModbusResponseCache.class);
+
+    private final int maxEntries;
+    private final Map<Table, Long> timeToLive = new EnumMap<Table, Long>(Table.class);
+    private final LinkedHashMap<Key, Snapshot> entries;
+    private final Map<Key, CompletableFuture<Snapshot>> loading = new ConcurrentHashMap<Key, CompletableFuture<Snapshot>>();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache with the same time to live for every table
+     *
+     * @param maxEntries       Maximum number of responses to hold
+     * @param timeToLiveMillis Time a response stays valid, 0 to disable caching
+     */
+    public ModbusResponseCache(int maxEntries, long timeToLiveMillis) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Maximum entries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Key, Snapshot>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Snapshot> eldest) {
+                return size() > ModbusResponseCache.this.maxEntries;
+            }
+        };
+        for (Table table : Table.values()) {
+            setTimeToLive(table, timeToLiveMillis);
+        }
+    }
+
+    /**
+     * Sets the time that responses read from a table stay valid
+     *
+     * @param table            Table
+     * @param timeToLiveMillis Time to live, 0 to disable caching of the table
+     */
+    public synchronized void setTimeToLive(Table table, long timeToLiveMillis) {
+        if (timeToLiveMillis < 0) {
+            throw new IllegalArgumentException("Time to live cannot be negative");
+        }
+        timeToLive.put(table, TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis));
+    }
+
+    /**
+     * Returns the time that responses read from a table stay valid
+     *
+     * @param table Table
+     * @return Time to live in milliseconds
+     */
+    public synchronized long getTimeToLive(Table table) {
+        return TimeUnit.NANOSECONDS.toMillis(timeToLive.get(table));
+    }
+
+    /**
+     * @return Number of responses held
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Number of reads answered from the cache, including those that shared a miss
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of reads passed on to the source
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Drops every cached response
+     */
+    public synchronized void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Drops the cached responses that include any of a range of a table
+     *
+     * @param unitId    Unit ID, 0 for all units
+     * @param table     Table
+     * @param reference First address of the range
+     * @param count     Number of addresses
+     */
+    public synchronized void invalidate(int unitId, Table table, int reference, int count) {
+        generation.incrementAndGet();
+        Iterator<Key> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            Key key = keys.next();
+            if ((unitId == 0 || key.unitId == unitId) && key.table == table &&
+                    key.reference < reference + count && reference < key.reference + key.count) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Answers a request from the cache or from the source, invalidating the
+     * cache for writes
+     *
+     * @param request Request to answer
+     * @param source  Function that produces the response when it isn't cached
+     * @return Response with the header of the request
+     */
+    public ModbusResponse process(ModbusRequest request, Function<ModbusRequest, ModbusResponse> source) {
+        Key key = Key.of(request);
+        if (key == null) {
+            ModbusResponse response = source.apply(request);
+            invalidate(request, response);
+            return response;
+        }
+        long ttl = getTimeToLiveNanos(key.table);
+        Snapshot cached = lookup(key, ttl);
+        if (cached != null) {
+            return cached.toResponse(request);
+        }
+        if (ttl <= 0) {
+            misses.incrementAndGet();
+            return source.apply(request);
+        }
+
+        // Only the first caller goes to the source, the rest wait for its answer
+        CompletableFuture<Snapshot> pending = new CompletableFuture<Snapshot>();
+        CompletableFuture<Snapshot> existing = loading.putIfAbsent(key, pending);
+        if (existing != null) {
+            try {
+                Snapshot snapshot = existing.get();
+                if (snapshot != null) {
+                    hits.incrementAndGet();
+                    return snapshot.toResponse(request);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException e) {
+                logger.debug("Shared read failed - {}", e.getMessage());
+            }
+            misses.incrementAndGet();
+            return source.apply(request);
+        }
+
+        misses.incrementAndGet();
+        long loadGeneration = generation.get();
+        Snapshot snapshot = null;
+        try {
+            ModbusResponse response = source.apply(request);
+            snapshot = store(key, response, ttl, loadGeneration);
+            return response;
+        }
+        finally {
+            loading.remove(key);
+            pending.complete(snapshot);
+        }
+    }
+
+    /**
+     * Answers a request from the cache or from a source that doesn't block,
+     * invalidating the cache for writes. Callers sharing a miss are answered
+     * on the thread that completes the source.
+     *
+     * @param request Request to answer
+     * @param source  Function that starts producing the response when it isn't cached
+     * @return Future response with the header of the request
+     */
+    public CompletableFuture<ModbusResponse> processAsync(ModbusRequest request, Function<ModbusRequest, CompletableFuture<ModbusResponse>> source) {
+        Key key = Key.of(request);
+        if (key == null) {
+            return source.apply(request).thenApply(response -> {
+                invalidate(request, response);
+                return response;
+            });
+        }
+        long ttl = getTimeToLiveNanos(key.table);
+        Snapshot cached = lookup(key, ttl);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.toResponse(request));
+        }
+        if (ttl <= 0) {
+            misses.incrementAndGet();
+            return source.apply(request);
+        }
+
+        // Only the first caller goes to the source, the rest are answered when it is
+        CompletableFuture<Snapshot> pending = new CompletableFuture<Snapshot>();
+        CompletableFuture<Snapshot> existing = loading.putIfAbsent(key, pending);
+        if (existing != null) {
+            return existing.thenCompose(snapshot -> {
+                if (snapshot != null) {
+                    hits.incrementAndGet();
+                    return CompletableFuture.completedFuture(snapshot.toResponse(request));
+                }
+                misses.incrementAndGet();
+                return source.apply(request);
+            });
+        }
+
+        misses.incrementAndGet();
+        long loadGeneration = generation.get();
+        CompletableFuture<ModbusResponse> result;
+        try {
+            result = source.apply(request);
+        }
+        catch (RuntimeException e) {
+            loading.remove(key);
+            pending.complete(null);
+            throw e;
+        }
+        return result.whenComplete((response, e) -> {
+            Snapshot snapshot = null;
+            try {
+                if (response != null) {
+                    snapshot = store(key, response, ttl, loadGeneration);
+                }
+            }
+            finally {
+                loading.remove(key);
+                pending.complete(snapshot);
+            }
+        });
+    }
+
+    /**
+     * Returns the time to live of a table
+     *
+     * @param table Table
+     * @return Time to live in nanoseconds, 0 if its reads are not cached
+     */
+    private synchronized long getTimeToLiveNanos(Table table) {
+        return timeToLive.get(table);
+    }
+
+    /**
+     * Returns the cached read for a key if it is still fresh
+     *
+     * @param key Key of the read
+     * @param ttl Time to live of its table
+     * @return Cached read or null if there isn't one
+     */
+    private synchronized Snapshot lookup(Key key, long ttl) {
+        if (ttl > 0) {
+            Snapshot snapshot = entries.get(key);
+            if (snapshot != null) {
+                if (System.nanoTime() - snapshot.expires < 0) {
+                    hits.incrementAndGet();
+                    return snapshot;
+                }
+                entries.remove(key);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Caches a response unless it is an exception or a write completed while
+     * it was being read
+     *
+     * @param key            Key of the read
+     * @param response       Response from the source
+     * @param ttl            Time to live of its table
+     * @param loadGeneration Write generation when the read was started
+     * @return Snapshot shared with the callers waiting on the same read
+     */
+    private Snapshot store(Key key, ModbusResponse response, long ttl, long loadGeneration) {
+        Snapshot snapshot = Snapshot.of(response, System.nanoTime() + ttl);
+        if (snapshot != null && !(response instanceof ExceptionResponse)) {
+            synchronized (this) {
+                if (generation.get() == loadGeneration) {
+                    entries.put(key, snapshot);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Drops the cached reads that overlap a successful write
+     *
+     * @param request  Request that was sent
+     * @param response Response it got
+     */
+    private void invalidate(ModbusRequest request, ModbusResponse response) {
+        if (response instanceof ExceptionResponse) {
+            return;
+        }
+        int unitId = request.getUnitID();
+        if (request instanceof WriteCoilRequest) {
+            invalidate(unitId, Table.COIL, ((WriteCoilRequest)request).getReference(), 1);
+        }
+        else if (request instanceof WriteMultipleCoilsRequest) {
+            WriteMultipleCoilsRequest write = (WriteMultipleCoilsRequest)request;
+            invalidate(unitId, Table.COIL, write.getReference(), write.getBitCount());
+        }
+        else if (request instanceof WriteSingleRegisterRequest) {
+            invalidate(unitId, Table.HOLDING_REGISTER, ((WriteSingleRegisterRequest)request).getReference(), 1);
+        }
+        else if (request instanceof WriteMultipleRegistersRequest) {
+            WriteMultipleRegistersRequest write = (WriteMultipleRegistersRequest)request;
+            invalidate(unitId, Table.HOLDING_REGISTER, write.getReference(), write.getWordCount());
+        }
+        else if (request instanceof MaskWriteRegisterRequest) {
+            invalidate(unitId, Table.HOLDING_REGISTER, ((MaskWriteRegisterRequest)request).getReference(), 1);
+        }
+        else if (request instanceof ReadWriteMultipleRequest) {
+            ReadWriteMultipleRequest write = (ReadWriteMultipleRequest)request;
+            invalidate(unitId, Table.HOLDING_REGISTER, write.getWriteReference(), write.getWriteWordCount());
+        }
+    }
+
+    /**
+     * Identifies a cacheable read
+     */
+    private static class Key {
+        private final int unitId;
+        private final int functionCode;
+        private final Table table;
+        private final int reference;
+        private final int count;
+
+        private Key(int unitId, int functionCode, Table table, int reference, int count) {
+            this.unitId = unitId;
+            this.functionCode = functionCode;
+            this.table = table;
+            this.reference = reference;
+            this.count = count;
+        }
+
+        /**
+         * Returns the key of a request
+         *
+         * @param request Request
+         * @return Key or null if the request is not a cacheable read
+         */
+        private static Key of(ModbusRequest request) {
+            int unitId = request.getUnitID();
+            int functionCode = request.getFunctionCode();
+            if (request instanceof ReadCoilsRequest) {
+                ReadCoilsRequest read = (ReadCoilsRequest)request;
+                return new Key(unitId, functionCode, Table.COIL, read.getReference(), read.getBitCount());
+            }
+            else if (request instanceof ReadInputDiscretesRequest) {
+                ReadInputDiscretesRequest read = (ReadInputDiscretesRequest)request;
+                return new Key(unitId, functionCode, Table.DISCRETE_INPUT, read.getReference(), read.getBitCount());
+            }
+            else if (request instanceof ReadInputRegistersRequest) {
+                ReadInputRegistersRequest read = (ReadInputRegistersRequest)request;
+                return new Key(unitId, functionCode, Table.INPUT_REGISTER, read.getReference(), read.getWordCount());
+            }
+            else if (request instanceof ReadMultipleRegistersRequest) {
+                ReadMultipleRegistersRequest read = (ReadMultipleRegistersRequest)request;
+                return new Key(unitId, functionCode, Table.HOLDING_REGISTER, read.getReference(), read.getWordCount());
+            }
+            return null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key)o;
+            return unitId == key.unitId && functionCode == key.functionCode && reference == key.reference && count == key.count;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((unitId * 31 + functionCode) * 65537 + reference) * 31 + count;
+        }
+    }
+
+    /**
+     * The encoded body of a response, from which a copy is made for each caller
+     */
+    private static class Snapshot {
+        private final int functionCode;
+        private final int exceptionCode;
+        private final byte[] data;
+        private final long expires;
+
+        private Snapshot(int functionCode, int exceptionCode, byte[] data, long expires) {
+            this.functionCode = functionCode;
+            this.exceptionCode = exceptionCode;
+            this.data = data;
+            this.expires = expires;
+        }
+
+        /**
+         * Encodes a response
+         *
+         * @param response Response to encode
+         * @param expires  Time the response expires
+         * @return Snapshot or null if the response cannot be encoded
+         */
+        private static Snapshot of(ModbusResponse response, long expires) {
+            if (response == null) {
+                return null;
+            }
+            if (response instanceof ExceptionResponse) {
+                return new Snapshot(response.getFunctionCode(), ((ExceptionResponse)response).getExceptionCode(), null, expires);
+            }
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                response.writeData(new DataOutputStream(bytes));
+                return new Snapshot(response.getFunctionCode(), 0, bytes.toByteArray(), expires);
+            }
+            catch (IOException e) {
+                logger.debug("Cannot cache response - {}", e.getMessage());
+                return null;
+            }
+        }
+
+        /**
+         * Creates a response to a request from the snapshot
+         *
+         * @param request Request being answered
+         * @return Response with the header of the request
+         */
+        private ModbusResponse toResponse(ModbusRequest request) {
+            if (data == null) {
+                return request.createExceptionResponse(exceptionCode);
+            }
+            ModbusResponse response = ModbusResponse.createModbusResponse(functionCode);
+            try {
+                response.readData(new DataInputStream(new ByteArrayInputStream(data)));
+            }
+            catch (IOException e) {
+                // Cannot happen, the data was written by the same class
+                return request.createExceptionResponse(Modbus.SLAVE_DEVICE_FAILURE);
+            }
+            response.setHeadless(request.isHeadless());
+            response.setTransactionID(request.getTransactionID());
+            response.setProtocolID(request.getProtocolID());
+            response.setUnitID(request.getUnitID());
+            return response;
+        }
+    }
+}
@@ -19,7 +19,9 @@ import com.ghgande.j2mod.modbus.ModbusException;
 import com.ghgande.j2mod.modbus.net.AbstractModbusListener;
 import com.ghgande.j2mod.modbus.net.ModbusSerialListener;
 import com.ghgande.j2mod.modbus.net.ModbusTCPListener;
+import com.ghgande.j2mod.modbus.net.ModbusTCPNIOListener;
 import com.ghgande.j2mod.modbus.net.ModbusUDPListener;
+import com.ghgande.j2mod.modbus.net.ModbusUDPNIOListener;
 import com.ghgande.j2mod.modbus.procimg.ProcessImage;
 import com.ghgande.j2mod.modbus.util.ModbusUtil;
 import com.ghgande.j2mod.modbus.util.SerialParameters;
@@ -27,8 +29,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetAddress;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Class that implements a wrapper around a Slave Listener
@@ -46,8 +48,9 @@ public class ModbusSlave {
     private final AbstractModbusListener listener;
     private boolean isRunning;
     private Thread listenerThread;
+    private volatile ModbusGateway gateway;
 
-    private final Map<Integer, ProcessImage> processImages = new HashMap<Integer, ProcessImage>();
+    private final AtomicReferenceArray<ProcessImage> processImages = new AtomicReferenceArray<ProcessImage>(256);
 
     /**
      * Creates a TCP modbus slave
@@ -107,6 +110,61 @@ public class ModbusSlave {
         this(ModbusSlaveType.SERIAL, null, 0, 0, serialParams, false, 0);
     }
 
+    /**
+     * Creates a TCP modbus slave that optionally runs each connection on a
+     * virtual thread
+     *
+     * @param address           IP address to listen on
+     * @param port              Port to listen on
+     * @param poolSize          Pool size for TCP slaves when virtual threads are not used
+     * @param useRtuOverTcp     True if the RTU protocol should be used over TCP
+     * @param maxIdleSeconds    Maximum idle seconds for TCP connection
+     * @param useVirtualThreads True to run each connection on a virtual thread (Java 21+)
+     * @throws ModbusException If a problem occurs e.g. port already in use
+     */
+    protected ModbusSlave(InetAddress address, int port, int poolSize, boolean useRtuOverTcp, int maxIdleSeconds, boolean useVirtualThreads) throws ModbusException {
+        this(ModbusSlaveType.TCP, address, port, null, createTCPListener(new ModbusTCPListener(poolSize, useRtuOverTcp, useVirtualThreads), maxIdleSeconds));
+    }
+
+    /**
+     * Creates a TCP modbus slave that runs each connection on an executor
+     *
+     * @param address        IP address to listen on
+     * @param port           Port to listen on
+     * @param executor       Executor to run the connections on
+     * @param useRtuOverTcp  True if the RTU protocol should be used over TCP
+     * @param maxIdleSeconds Maximum idle seconds for TCP connection
+     * @throws ModbusException If a problem occurs e.g. port already in use
+     */
+    protected ModbusSlave(InetAddress address, int port, ExecutorService executor, boolean useRtuOverTcp, int maxIdleSeconds) throws ModbusException {
+        this(ModbusSlaveType.TCP, address, port, null, createTCPListener(new ModbusTCPListener(executor, useRtuOverTcp), maxIdleSeconds));
+    }
+
+    /**
+     * Creates a TCP modbus slave that uses a non-blocking listener
+     *
+     * @param address        IP address to listen on
+     * @param port           Port to listen on
+     * @param ioThreads      Number of selector threads servicing the connections
+     * @param maxIdleSeconds Maximum idle seconds for TCP connection
+     * @throws ModbusException If a problem occurs e.g. port already in use
+     */
+    protected ModbusSlave(InetAddress address, int port, int ioThreads, int maxIdleSeconds) throws ModbusException {
+        this(ModbusSlaveType.TCP, address, port, null, createNIOListener(ioThreads, maxIdleSeconds));
+    }
+
+    /**
+     * Creates a UDP modbus slave that processes requests on several threads
+     *
+     * @param address  IP address to listen on
+     * @param port     Port to listen on
+     * @param listener Multi-threaded UDP listener to service the requests
+     * @throws ModbusException If a problem occurs e.g. port already in use
+     */
+    protected ModbusSlave(InetAddress address, int port, ModbusUDPNIOListener listener) throws ModbusException {
+        this(ModbusSlaveType.UDP, address, port, null, listener);
+    }
+
     /**
      * Creates an appropriate type of listener
      *
@@ -119,28 +177,78 @@ public class ModbusSlave {
      * @param maxIdleSeconds Maximum idle seconds for TCP connection
      */
     private ModbusSlave(ModbusSlaveType type, InetAddress address, int port, int poolSize, SerialParameters serialParams, boolean useRtuOverTcp, int maxIdleSeconds) {
+        this(type, address, port, serialParams, createListener(type, poolSize, serialParams, useRtuOverTcp, maxIdleSeconds));
+    }
+
+    /**
+     * Wraps the given listener
+     *
+     * @param type         Type of slave
+     * @param address      IP address to listen on
+     * @param port         Port to listen on if IP type
+     * @param serialParams Serial parameters for serial type slaves
+     * @param listener     Listener to service the requests
+     */
+    private ModbusSlave(ModbusSlaveType type, InetAddress address, int port, SerialParameters serialParams, AbstractModbusListener listener) {
         this.type = type == null ? ModbusSlaveType.TCP : type;
         this.port = port;
         this.serialParams = serialParams;
+        this.listener = listener;
 
-        // Create the listener
+        listener.setSlave(this);
+        listener.setAddress(address);
+        listener.setPort(port);
+        listener.setTimeout(0);
+    }
 
-        logger.debug("Creating {} listener", this.type);
-        if (this.type.is(ModbusSlaveType.UDP)) {
-            listener = new ModbusUDPListener();
+    /**
+     * Creates an appropriate type of listener
+     *
+     * @param type           Type of slave to create
+     * @param poolSize       Pool size for TCP slaves
+     * @param serialParams   Serial parameters for serial type slaves
+     * @param useRtuOverTcp  True if the RTU protocol should be used over TCP
+     * @param maxIdleSeconds Maximum idle seconds for TCP connection
+     * @return Listener
+     */
+    private static AbstractModbusListener createListener(ModbusSlaveType type, int poolSize, SerialParameters serialParams, boolean useRtuOverTcp, int maxIdleSeconds) {
+        type = type == null ? ModbusSlaveType.TCP : type;
+        logger.debug("Creating {} listener", type);
+        if (type.is(ModbusSlaveType.UDP)) {
+            return new ModbusUDPListener();
         }
-        else if (this.type.is(ModbusSlaveType.TCP)) {
-            ModbusTCPListener tcpListener = new ModbusTCPListener(poolSize, useRtuOverTcp);
-            tcpListener.setMaxIdleSeconds(maxIdleSeconds);
-            listener = tcpListener;
+        else if (type.is(ModbusSlaveType.TCP)) {
+            return createTCPListener(new ModbusTCPListener(poolSize, useRtuOverTcp), maxIdleSeconds);
         }
         else {
-            listener = new ModbusSerialListener(serialParams);
+            return new ModbusSerialListener(serialParams);
         }
+    }
 
-        listener.setAddress(address);
-        listener.setPort(port);
-        listener.setTimeout(0);
+    /**
+     * Applies the common settings to a TCP listener
+     *
+     * @param tcpListener    Listener to set up
+     * @param maxIdleSeconds Maximum idle seconds for TCP connection
+     * @return Listener
+     */
+    private static AbstractModbusListener createTCPListener(ModbusTCPListener tcpListener, int maxIdleSeconds) {
+        tcpListener.setMaxIdleSeconds(maxIdleSeconds);
+        return tcpListener;
+    }
+
+    /**
+     * Creates a non-blocking TCP listener
+     *
+     * @param ioThreads      Number of selector threads servicing the connections
+     * @param maxIdleSeconds Maximum idle seconds for TCP connection
+     * @return Listener
+     */
+    private static AbstractModbusListener createNIOListener(int ioThreads, int maxIdleSeconds) {
+        logger.debug("Creating {} NIO listener", ModbusSlaveType.TCP);
+        ModbusTCPNIOListener nioListener = new ModbusTCPNIOListener(ioThreads);
+        nioListener.setMaxIdleSeconds(maxIdleSeconds);
+        return nioListener;
     }
 
     /**
@@ -162,34 +270,80 @@ public class ModbusSlave {
     }
 
     /**
-     * Returns the process image for the given Unit ID
+     * Returns the process image for the given Unit ID. This is called for
+     * every request, so it is a plain read of a 256 entry table that never
+     * locks. Images can be added, replaced and removed while the slave is
+     * running; a request sees either the old or the new image.
      *
      * @param unitId Unit ID of the associated image
-     * @return Process image
+     * @return Process image or null if there isn't one for the Unit ID
      */
     public ProcessImage getProcessImage(int unitId) {
-        return processImages.get(unitId);
+        return unitId < 0 || unitId > 255 ? null : processImages.get(unitId);
     }
 
     /**
      * Removes the process image for the given Unit ID
      *
      * @param unitId Unit ID of the associated image
-     * @return Process image
+     * @return Process image that was removed or null if there wasn't one
      */
     public ProcessImage removeProcessImage(int unitId) {
-        return processImages.remove(unitId);
+        return unitId < 0 || unitId > 255 ? null : processImages.getAndSet(unitId, null);
     }
 
     /**
-     * Adds a process image for the given Unit ID
+     * Adds a process image for the given Unit ID, replacing any image that
+     * is already there
      *
      * @param unitId       Unit ID to associate with this image
      * @param processImage Process image to add
-     * @return Process image
+     * @return Process image that was replaced or null if there wasn't one
+     * @throws IllegalArgumentException If the Unit ID is not between 0 and 255
      */
     public ProcessImage addProcessImage(int unitId, ProcessImage processImage) {
-        return processImages.put(unitId, processImage);
+        if (unitId < 0 || unitId > 255) {
+            throw new IllegalArgumentException(String.format("Unit ID %d must be between 0 and 255", unitId));
+        }
+        return processImages.getAndSet(unitId, processImage);
+    }
+
+    /**
+     * Replaces the process image for the given Unit ID only if it is still
+     * the one expected, e.g. when swapping in a freshly loaded image without
+     * losing a change made by another thread
+     *
+     * @param unitId       Unit ID of the associated image
+     * @param expected     Image expected to be there, null if none
+     * @param processImage Image to put in its place, null to remove it
+     * @return True if the image was replaced
+     * @throws IllegalArgumentException If the Unit ID is not between 0 and 255
+     */
+    public boolean replaceProcessImage(int unitId, ProcessImage expected, ProcessImage processImage) {
+        if (unitId < 0 || unitId > 255) {
+            throw new IllegalArgumentException(String.format("Unit ID %d must be between 0 and 255", unitId));
+        }
+        return processImages.compareAndSet(unitId, expected, processImage);
+    }
+
+    /**
+     * Returns the gateway that requests for Unit IDs without a process image
+     * are forwarded to
+     *
+     * @return Gateway or null if there isn't one
+     */
+    public ModbusGateway getGateway() {
+        return gateway;
+    }
+
+    /**
+     * Sets the gateway that requests for Unit IDs without a process image are
+     * forwarded to. The gateway is opened and closed along with the slave.
+     *
+     * @param gateway Gateway to use, null to stop forwarding
+     */
+    public void setGateway(ModbusGateway gateway) {
+        this.gateway = gateway;
     }
 
     /**
@@ -211,6 +365,9 @@ public class ModbusSlave {
         // Start the listener if it isn' already running
         if (!isRunning) {
             try {
+                if (gateway != null) {
+                    gateway.open();
+                }
                 listenerThread = new Thread(listener);
                 listenerThread.start();
 
@@ -277,6 +434,9 @@ public class ModbusSlave {
             }
             listenerThread = null;
         }
+        if (gateway != null) {
+            gateway.close();
+        }
         isRunning = false;
     }
 
@@ -15,8 +15,10 @@
  */
 package com.ghgande.j2mod.modbus.slave;
 
+import com.ghgande.j2mod.modbus.Modbus;
 import com.ghgande.j2mod.modbus.ModbusException;
 import com.ghgande.j2mod.modbus.net.AbstractModbusListener;
+import com.ghgande.j2mod.modbus.net.ModbusUDPNIOListener;
 import com.ghgande.j2mod.modbus.util.ModbusUtil;
 import com.ghgande.j2mod.modbus.util.SerialParameters;
 
@@ -24,6 +26,7 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  * This is a factory class that allows users to easily create and manage slaves.<br>
@@ -104,6 +107,98 @@ public class ModbusSlaveFactory {
         }
     }
 
+    /**
+     * Creates a TCP modbus slave or returns the one already allocated to this port.
+     * With <tt>useVirtualThreads</tt> each connection is run on its own virtual
+     * thread, so the number of connections is not limited by the pool size. Virtual
+     * threads need Java 21 or later; on older JVMs a pool of <tt>poolSize</tt>
+     * threads is used as normal.
+     *
+     * @param address           IP address to listen on
+     * @param port              Port to listen on
+     * @param poolSize          Pool size of listener threads when virtual threads are not used
+     * @param useRtuOverTcp     True if the RTU protocol should be used over TCP
+     * @param maxIdleSeconds    Maximum idle seconds for TCP connection
+     * @param useVirtualThreads True to run each connection on a virtual thread
+     * @return new or existing TCP modbus slave associated with the port
+     * @throws ModbusException If a problem occurs e.g. port already in use
+     */
+    public static synchronized ModbusSlave createTCPSlave(InetAddress address, int port, int poolSize, boolean useRtuOverTcp, int maxIdleSeconds, boolean useVirtualThreads) throws ModbusException {
+        String key = ModbusSlaveType.TCP.getKey(port);
+        if (slaves.containsKey(key)) {
+            return slaves.get(key);
+        }
+        else {
+            ModbusSlave slave = new ModbusSlave(address, port, poolSize, useRtuOverTcp, maxIdleSeconds, useVirtualThreads);
+            slaves.put(key, slave);
+            return slave;
+        }
+    }
+
+    /**
+     * Creates a TCP modbus slave that runs each connection as a task of the given
+     * executor, or returns the one already allocated to this port.
+     * The executor must be able to run a task per open connection and is not shut
+     * down when the slave is closed.
+     *
+     * @param address        IP address to listen on
+     * @param port           Port to listen on
+     * @param executor       Executor to run the connections on
+     * @param useRtuOverTcp  True if the RTU protocol should be used over TCP
+     * @param maxIdleSeconds Maximum idle seconds for TCP connection
+     * @return new or existing TCP modbus slave associated with the port
+     * @throws ModbusException If a problem occurs e.g. port already in use
+     */
+    public static synchronized ModbusSlave createTCPSlave(InetAddress address, int port, ExecutorService executor, boolean useRtuOverTcp, int maxIdleSeconds) throws ModbusException {
+        String key = ModbusSlaveType.TCP.getKey(port);
+        if (slaves.containsKey(key)) {
+            return slaves.get(key);
+        }
+        else {
+            ModbusSlave slave = new ModbusSlave(address, port, executor, useRtuOverTcp, maxIdleSeconds);
+            slaves.put(key, slave);
+            return slave;
+        }
+    }
+
+    /**
+     * Creates a TCP modbus slave serviced by a non-blocking listener or returns the
+     * one already allocated to this port
+     *
+     * @param port      Port to listen on
+     * @param ioThreads Number of selector threads servicing the connections
+     * @return new or existing TCP modbus slave associated with the port
+     * @throws ModbusException If a problem occurs e.g. port already in use
+     */
+    public static synchronized ModbusSlave createNIOTCPSlave(int port, int ioThreads) throws ModbusException {
+        return createNIOTCPSlave(null, port, ioThreads, 0);
+    }
+
+    /**
+     * Creates a TCP modbus slave serviced by a non-blocking listener or returns the
+     * one already allocated to this port.
+     * A few selector threads can serve thousands of concurrent connections, but RTU over
+     * TCP is not supported.
+     *
+     * @param address        IP address to listen on
+     * @param port           Port to listen on
+     * @param ioThreads      Number of selector threads servicing the connections
+     * @param maxIdleSeconds Maximum idle seconds for TCP connection
+     * @return new or existing TCP modbus slave associated with the port
+     * @throws ModbusException If a problem occurs e.g. port already in use
+     */
+    public static synchronized ModbusSlave createNIOTCPSlave(InetAddress address, int port, int ioThreads, int maxIdleSeconds) throws ModbusException {
+        String key = ModbusSlaveType.TCP.getKey(port);
+        if (slaves.containsKey(key)) {
+            return slaves.get(key);
+        }
+        else {
+            ModbusSlave slave = new ModbusSlave(address, port, ioThreads, maxIdleSeconds);
+            slaves.put(key, slave);
+            return slave;
+        }
+    }
+
     /**
      * Creates a UDP modbus slave or returns the one already allocated to this port
      *
@@ -135,6 +230,46 @@ public class ModbusSlaveFactory {
         }
     }
 
+    /**
+     * Creates a UDP modbus slave serviced by a multi-threaded listener or returns the
+     * one already allocated to this port
+     *
+     * @param port          Port to listen on
+     * @param workerThreads Number of threads receiving and processing requests
+     * @return new or existing UDP modbus slave associated with the port
+     * @throws ModbusException If a problem occurs e.g. port already in use
+     */
+    public static synchronized ModbusSlave createNIOUDPSlave(int port, int workerThreads) throws ModbusException {
+        return createNIOUDPSlave(null, port, workerThreads, Modbus.DEFAULT_UDP_RECEIVE_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a UDP modbus slave serviced by a multi-threaded listener or returns the
+     * one already allocated to this port.
+     * Each worker thread receives, processes and answers its own requests, and the
+     * receive buffer can be sized to absorb bursts from many pollers.
+     *
+     * @param address           IP address to listen on
+     * @param port              Port to listen on
+     * @param workerThreads     Number of threads receiving and processing requests
+     * @param receiveBufferSize Size of the socket receive buffer in bytes
+     * @return new or existing UDP modbus slave associated with the port
+     * @throws ModbusException If a problem occurs e.g. port already in use
+     */
+    public static synchronized ModbusSlave createNIOUDPSlave(InetAddress address, int port, int workerThreads, int receiveBufferSize) throws ModbusException {
+        String key = ModbusSlaveType.UDP.getKey(port);
+        if (slaves.containsKey(key)) {
+            return slaves.get(key);
+        }
+        else {
+            ModbusUDPNIOListener listener = new ModbusUDPNIOListener(workerThreads);
+            listener.setReceiveBufferSize(receiveBufferSize);
+            ModbusSlave slave = new ModbusSlave(address, port, listener);
+            slaves.put(key, slave);
+            return slave;
+        }
+    }
+
     /**
      * Creates a serial modbus slave or returns the one already allocated to this port
      *
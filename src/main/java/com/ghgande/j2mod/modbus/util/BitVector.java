@@ -18,6 +18,9 @@ package com.ghgande.j2mod.modbus.util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Class that implements a collection for
  * bits, storing them packed into bytes.
@@ -240,6 +243,19 @@ public class BitVector {
         return data.length;
     }
 
+    /**
+     * Writes the bytes storing the bits of this <tt>BitVector</tt>
+     * to the given <tt>DataOutput</tt> without copying them first.
+     * <p>
+     *
+     * @param out the <tt>DataOutput</tt> to write to.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        out.write(data, 0, data.length);
+    }
+
     /**
      * Returns a <tt>String</tt> representing the
      * contents of the bit collection in a way that
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Metrics implementation that exports the statistics of each source as a
+ * <tt>ModbusStats</tt> MBean named
+ * <tt>com.ghgande.j2mod:type=ModbusStats,name="&lt;source&gt;"</tt>.
+ * <p>
+ * To start collecting, install an instance as the default:
+ * <pre>
+ *     ModbusMetrics.setDefault(new JmxModbusMetrics());
+ * </pre>
+ */
+public class JmxModbusMetrics extends ModbusMetrics {
+
+    /**
+     * Domain of the MBean names
+     */
+    public static final String DOMAIN = "com.ghgande.j2mod";
+
+    private static final Logger logger = LoggerFactory.getLogger(JmxModbusMetrics.class);
+
+    private final MBeanServer server;
+    private final ConcurrentMap<String, ModbusStats> stats = new ConcurrentHashMap<String, ModbusStats>();
+
+    /**
+     * Creates metrics that register with the platform MBean server
+     */
+    public JmxModbusMetrics() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * Creates metrics that register with an MBean server
+     *
+     * @param server Server to register with, null to keep the statistics without exporting them
+     */
+    public JmxModbusMetrics(MBeanServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public Recorder recorder(String name) {
+        return stats.computeIfAbsent(name, this::register);
+    }
+
+    /**
+     * Returns the statistics of a source
+     *
+     * @param name Name of the source
+     * @return Statistics or null if the source hasn't recorded anything
+     */
+    public ModbusStats getStats(String name) {
+        return stats.get(name);
+    }
+
+    /**
+     * Returns the statistics of all the sources
+     *
+     * @return Statistics
+     */
+    public List<ModbusStats> getStats() {
+        return new ArrayList<ModbusStats>(stats.values());
+    }
+
+    /**
+     * Stops exporting the statistics of a source, e.g. once a connection
+     * has been closed for good
+     *
+     * @param name Name of the source
+     */
+    public void remove(String name) {
+        ModbusStats removed = stats.remove(name);
+        if (removed != null && server != null) {
+            try {
+                server.unregisterMBean(getObjectName(name));
+            }
+            catch (Exception e) {
+                logger.debug("Cannot unregister statistics for {} - {}", name, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops exporting all the statistics
+     */
+    public void close() {
+        for (String name : new ArrayList<String>(stats.keySet())) {
+            remove(name);
+        }
+    }
+
+    /**
+     * Returns the name of the MBean of a source
+     *
+     * @param name Name of the source
+     * @return MBean name
+     * @throws MalformedObjectNameException If the name cannot be built
+     */
+    public static ObjectName getObjectName(String name) throws MalformedObjectNameException {
+        return new ObjectName(DOMAIN + ":type=ModbusStats,name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * Creates and registers the statistics of a source
+     *
+     * @param name Name of the source
+     * @return Statistics
+     */
+    private ModbusStats register(String name) {
+        ModbusStats sourceStats = new ModbusStats(this, name);
+        if (server != null) {
+            try {
+                ObjectName objectName = getObjectName(name);
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+                server.registerMBean(sourceStats, objectName);
+            }
+            catch (Exception e) {
+                logger.warn("Cannot register statistics for {} - {}", name, e.getMessage());
+            }
+        }
+        return sourceStats;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Class that calculates the checksums used by the serial encodings, the
+ * CRC-16 of RTU frames and the LRC of ASCII frames.
+ * <p>
+ * Checksums are returned packed in an <tt>int</tt>. For the CRC the low byte
+ * is the one sent first on the wire, so a frame is terminated by writing
+ * <tt>crc &amp; 0xFF</tt> followed by <tt>crc &gt;&gt;&gt; 8</tt>. Running the
+ * CRC over a complete frame including its CRC gives 0.
+ * <p>
+ * All the methods can be used incrementally, by passing the result of one
+ * call as the starting value of the next, so a checksum can be built up as
+ * the bytes of a frame arrive. The CRC is calculated eight bytes at a time
+ * using the slicing-by-8 table algorithm.
+ */
+public class ModbusChecksum {
+
+    /**
+     * Starting value of the CRC
+     */
+    public static final int CRC16_INITIAL = 0xFFFF;
+
+    /**
+     * Starting value of the LRC
+     */
+    public static final int LRC_INITIAL = 0;
+
+    private static final int CRC16_POLYNOMIAL = 0xA001;
+
+    /**
+     * Slicing tables, table k at offset k * 256 gives the effect of a byte
+     * followed by k zero bytes
+     */
+    private static final int[] CRC_TABLE = new int[8 * 256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ CRC16_POLYNOMIAL : crc >>> 1;
+            }
+            CRC_TABLE[i] = crc;
+        }
+        for (int i = 0; i < 256; i++) {
+            int crc = CRC_TABLE[i];
+            for (int k = 1; k < 8; k++) {
+                crc = (crc >>> 8) ^ CRC_TABLE[crc & 0xFF];
+                CRC_TABLE[k * 256 + i] = crc;
+            }
+        }
+    }
+
+    /**
+     * Prevent instantiation
+     */
+    private ModbusChecksum() {}
+
+    /**
+     * Calculates the CRC of a range of bytes
+     *
+     * @param data   Data to use
+     * @param offset Offset of the first byte
+     * @param length Number of bytes
+     * @return CRC, low byte first on the wire
+     */
+    public static int crc16(byte[] data, int offset, int length) {
+        return updateCRC16(CRC16_INITIAL, data, offset, length);
+    }
+
+    /**
+     * Calculates the CRC of the bytes between the position and limit of a
+     * buffer. The position of the buffer is not changed.
+     *
+     * @param data Data to use, heap or direct
+     * @return CRC, low byte first on the wire
+     */
+    public static int crc16(ByteBuffer data) {
+        return updateCRC16(CRC16_INITIAL, data);
+    }
+
+    /**
+     * Adds a single byte to a CRC
+     *
+     * @param crc   CRC so far
+     * @param value Byte to add
+     * @return Updated CRC
+     */
+    public static int updateCRC16(int crc, int value) {
+        return (crc >>> 8) ^ CRC_TABLE[(crc ^ value) & 0xFF];
+    }
+
+    /**
+     * Adds a range of bytes to a CRC
+     *
+     * @param crc    CRC so far
+     * @param data   Data to add
+     * @param offset Offset of the first byte
+     * @param length Number of bytes
+     * @return Updated CRC
+     */
+    public static int updateCRC16(int crc, byte[] data, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        for (; i <= end - 8; i += 8) {
+            crc ^= (data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8;
+            crc = CRC_TABLE[7 * 256 + (crc & 0xFF)] ^
+                  CRC_TABLE[6 * 256 + (crc >>> 8)] ^
+                  CRC_TABLE[5 * 256 + (data[i + 2] & 0xFF)] ^
+                  CRC_TABLE[4 * 256 + (data[i + 3] & 0xFF)] ^
+                  CRC_TABLE[3 * 256 + (data[i + 4] & 0xFF)] ^
+                  CRC_TABLE[2 * 256 + (data[i + 5] & 0xFF)] ^
+                  CRC_TABLE[256 + (data[i + 6] & 0xFF)] ^
+                  CRC_TABLE[data[i + 7] & 0xFF];
+        }
+        for (; i < end; i++) {
+            crc = (crc >>> 8) ^ CRC_TABLE[(crc ^ data[i]) & 0xFF];
+        }
+        return crc;
+    }
+
+    /**
+     * Adds the bytes between the position and limit of a buffer to a CRC.
+     * The position of the buffer is not changed.
+     *
+     * @param crc  CRC so far
+     * @param data Data to add, heap or direct
+     * @return Updated CRC
+     */
+    public static int updateCRC16(int crc, ByteBuffer data) {
+        if (data.hasArray()) {
+            return updateCRC16(crc, data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        int i = data.position();
+        int end = data.limit();
+        boolean bigEndian = data.order() == ByteOrder.BIG_ENDIAN;
+        for (; i <= end - 8; i += 8) {
+            long word = data.getLong(i);
+            if (bigEndian) {
+                word = Long.reverseBytes(word);
+            }
+            crc ^= (int)word & 0xFFFF;
+            crc = CRC_TABLE[7 * 256 + (crc & 0xFF)] ^
+                  CRC_TABLE[6 * 256 + (crc >>> 8)] ^
+                  CRC_TABLE[5 * 256 + (int)(word >>> 16 & 0xFF)] ^
+                  CRC_TABLE[4 * 256 + (int)(word >>> 24 & 0xFF)] ^
+                  CRC_TABLE[3 * 256 + (int)(word >>> 32 & 0xFF)] ^
+                  CRC_TABLE[2 * 256 + (int)(word >>> 40 & 0xFF)] ^
+                  CRC_TABLE[256 + (int)(word >>> 48 & 0xFF)] ^
+                  CRC_TABLE[(int)(word >>> 56)];
+        }
+        for (; i < end; i++) {
+            crc = (crc >>> 8) ^ CRC_TABLE[(crc ^ data.get(i)) & 0xFF];
+        }
+        return crc;
+    }
+
+    /**
+     * Calculates the LRC of a range of bytes
+     *
+     * @param data   Data to use
+     * @param offset Offset of the first byte
+     * @param length Number of bytes
+     * @return LRC
+     */
+    public static int lrc(byte[] data, int offset, int length) {
+        return updateLRC(LRC_INITIAL, data, offset, length);
+    }
+
+    /**
+     * Calculates the LRC of the bytes between the position and limit of a
+     * buffer. The position of the buffer is not changed.
+     *
+     * @param data Data to use, heap or direct
+     * @return LRC
+     */
+    public static int lrc(ByteBuffer data) {
+        return updateLRC(LRC_INITIAL, data);
+    }
+
+    /**
+     * Adds a single byte to an LRC
+     *
+     * @param lrc   LRC so far
+     * @param value Byte to add
+     * @return Updated LRC
+     */
+    public static int updateLRC(int lrc, int value) {
+        return (lrc - (value & 0xFF)) & 0xFF;
+    }
+
+    /**
+     * Adds a range of bytes to an LRC
+     *
+     * @param lrc    LRC so far
+     * @param data   Data to add
+     * @param offset Offset of the first byte
+     * @param length Number of bytes
+     * @return Updated LRC
+     */
+    public static int updateLRC(int lrc, byte[] data, int offset, int length) {
+        int sum = 0;
+        for (int i = offset; i < offset + length; i++) {
+            sum += data[i] & 0xFF;
+        }
+        return (lrc - sum) & 0xFF;
+    }
+
+    /**
+     * Adds the bytes between the position and limit of a buffer to an LRC.
+     * The position of the buffer is not changed.
+     *
+     * @param lrc  LRC so far
+     * @param data Data to add, heap or direct
+     * @return Updated LRC
+     */
+    public static int updateLRC(int lrc, ByteBuffer data) {
+        if (data.hasArray()) {
+            return updateLRC(lrc, data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        int sum = 0;
+        for (int i = data.position(); i < data.limit(); i++) {
+            sum += data.get(i) & 0xFF;
+        }
+        return (lrc - sum) & 0xFF;
+    }
+}
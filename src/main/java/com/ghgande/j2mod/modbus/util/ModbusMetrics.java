@@ -0,0 +1,204 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.util;
+
+/**
+ * Service provider interface for collecting statistics from the transactions,
+ * transports and listeners.
+ * <p>
+ * Statistics are recorded against a named source, e.g. a master connection
+ * <tt>tcp:192.168.1.10:502</tt> or a listener <tt>ModbusTCPListener:502</tt>.
+ * Each source looks up its <tt>Recorder</tt> once and then calls it directly,
+ * so an implementation should make the recorder methods lock-free and must
+ * not allocate in them. Nothing is recorded until an implementation is
+ * installed with {@link #setDefault(ModbusMetrics)}, for example
+ * {@link JmxModbusMetrics}.
+ */
+public abstract class ModbusMetrics {
+
+    /**
+     * Implementation that records nothing
+     */
+    public static final ModbusMetrics NONE = new ModbusMetrics() {
+        private final Recorder recorder = new Recorder(this) {};
+
+        @Override
+        public Recorder recorder(String name) {
+            return recorder;
+        }
+    };
+
+    private static volatile ModbusMetrics current = NONE;
+
+    /**
+     * Returns the implementation in use
+     *
+     * @return Metrics, {@link #NONE} if none has been installed
+     */
+    public static ModbusMetrics getDefault() {
+        return current;
+    }
+
+    /**
+     * Installs the implementation that all sources record to. Sources pick
+     * up the change the next time they record something.
+     *
+     * @param metrics Metrics to use, null to stop recording
+     */
+    public static void setDefault(ModbusMetrics metrics) {
+        current = metrics == null ? NONE : metrics;
+    }
+
+    /**
+     * Returns the recorder for a source. This is called once per source, not
+     * on every request, and should return the same recorder for the same name.
+     *
+     * @param name Name of the source
+     * @return Recorder
+     */
+    public abstract Recorder recorder(String name);
+
+    /**
+     * Receives the statistics of a single source. All the methods do nothing
+     * by default, so an implementation only needs to override the ones it is
+     * interested in.
+     */
+    public abstract static class Recorder {
+        private final ModbusMetrics metrics;
+
+        /**
+         * Creates a recorder
+         *
+         * @param metrics Implementation the recorder belongs to
+         */
+        protected Recorder(ModbusMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        /**
+         * A request has been answered
+         *
+         * @param unitId       Unit ID of the request
+         * @param functionCode Function code of the request
+         * @param latencyNanos Time taken, including any retries
+         */
+        public void requestCompleted(int unitId, int functionCode, long latencyNanos) {
+        }
+
+        /**
+         * A request failed, either with an exception response or because no
+         * valid response could be had
+         *
+         * @param unitId       Unit ID of the request
+         * @param functionCode Function code of the request
+         */
+        public void requestFailed(int unitId, int functionCode) {
+        }
+
+        /**
+         * A request is being sent again
+         *
+         * @param functionCode Function code of the request
+         */
+        public void retry(int functionCode) {
+        }
+
+        /**
+         * A transaction gave up without getting a response
+         *
+         * @param unitId Unit ID of the request
+         */
+        public void timeout(int unitId) {
+        }
+
+        /**
+         * A frame was received with a bad CRC or LRC
+         */
+        public void checksumError() {
+        }
+
+        /**
+         * A response was received with a transaction ID that didn't match
+         * the request
+         */
+        public void transactionIdMismatch() {
+        }
+
+        /**
+         * Bytes have been received
+         *
+         * @param count Number of bytes
+         */
+        public void bytesIn(int count) {
+        }
+
+        /**
+         * Bytes have been sent
+         *
+         * @param count Number of bytes
+         */
+        public void bytesOut(int count) {
+        }
+
+        /**
+         * The number of requests or connections waiting to be serviced
+         *
+         * @param depth Current depth of the queue
+         */
+        public void queueDepth(int depth) {
+        }
+    }
+
+    /**
+     * Holds the recorder of a source, looking it up again if the
+     * implementation in use is changed
+     */
+    public static final class Source {
+        private final String name;
+        private volatile Recorder recorder;
+
+        /**
+         * Creates a source
+         *
+         * @param name Name of the source
+         */
+        public Source(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return Name of the source
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the recorder of the implementation in use
+         *
+         * @return Recorder
+         */
+        public Recorder get() {
+            Recorder recorder = this.recorder;
+            ModbusMetrics metrics = current;
+            if (recorder == null || recorder.metrics != metrics) {
+                recorder = metrics.recorder(name);
+                this.recorder = recorder;
+            }
+            return recorder;
+        }
+    }
+}
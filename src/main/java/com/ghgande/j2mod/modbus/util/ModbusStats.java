@@ -0,0 +1,271 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class that accumulates the statistics of a single source.
+ * <p>
+ * Counters are <tt>LongAdder</tt>s and atomic arrays, so recording never
+ * blocks. Latencies go into a histogram per function code with power of two
+ * buckets, bucket <tt>i</tt> counting the requests that took less than
+ * 2<sup>i</sup> microseconds and at least half that. A function code's
+ * histogram is created the first time the code is seen; after that nothing
+ * is allocated when recording.
+ */
+public class ModbusStats extends ModbusMetrics.Recorder implements ModbusStatsMBean {
+
+    /**
+     * Number of buckets in each latency histogram, the last one catching
+     * everything over about 9 minutes
+     */
+    public static final int LATENCY_BUCKETS = 31;
+
+    private final String name;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder checksumErrors = new LongAdder();
+    private final LongAdder transactionIdMismatches = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLongArray unitRequests = new AtomicLongArray(256);
+    private final AtomicReferenceArray<AtomicLongArray> latencies = new AtomicReferenceArray<AtomicLongArray>(256);
+
+    /**
+     * Creates the statistics of a source
+     *
+     * @param metrics Implementation the statistics belong to
+     * @param name    Name of the source
+     */
+    public ModbusStats(ModbusMetrics metrics, String name) {
+        super(metrics);
+        this.name = name;
+    }
+
+    @Override
+    public void requestCompleted(int unitId, int functionCode, long latencyNanos) {
+        requests.increment();
+        unitRequests.incrementAndGet(unitId & 0xFF);
+        totalLatencyNanos.add(latencyNanos);
+        AtomicLongArray histogram = latencies.get(functionCode & 0xFF);
+        if (histogram == null) {
+
+            // A plain get() after creating it could see the slot cleared again by reset()
+            histogram = latencies.updateAndGet(functionCode & 0xFF, current -> current == null ? new AtomicLongArray(LATENCY_BUCKETS) : current);
+        }
+        histogram.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+    }
+
+    @Override
+    public void requestFailed(int unitId, int functionCode) {
+        failures.increment();
+    }
+
+    @Override
+    public void retry(int functionCode) {
+        retries.increment();
+    }
+
+    @Override
+    public void timeout(int unitId) {
+        timeouts.increment();
+    }
+
+    @Override
+    public void checksumError() {
+        checksumErrors.increment();
+    }
+
+    @Override
+    public void transactionIdMismatch() {
+        transactionIdMismatches.increment();
+    }
+
+    @Override
+    public void bytesIn(int count) {
+        bytesIn.add(count);
+    }
+
+    @Override
+    public void bytesOut(int count) {
+        bytesOut.add(count);
+    }
+
+    @Override
+    public void queueDepth(int depth) {
+        queueDepth.set(depth);
+        int max;
+        while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+            // Lost a race with another thread, try again
+        }
+    }
+
+    /**
+     * Returns the histogram bucket of a latency
+     *
+     * @param micros Latency in microseconds
+     * @return Bucket
+     */
+    private static int bucket(long micros) {
+        return Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getChecksumErrors() {
+        return checksumErrors.sum();
+    }
+
+    @Override
+    public long getTransactionIdMismatches() {
+        return transactionIdMismatches.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    @Override
+    public double getMeanLatencyMicros() {
+        long count = requests.sum();
+        return count == 0 ? 0 : totalLatencyNanos.sum() / 1000.0 / count;
+    }
+
+    @Override
+    public long[] getRequestsByUnit() {
+        long[] counts = new long[unitRequests.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = unitRequests.get(i);
+        }
+        return counts;
+    }
+
+    @Override
+    public int[] getFunctionCodes() {
+        int count = 0;
+        for (int i = 0; i < latencies.length(); i++) {
+            if (latencies.get(i) != null) {
+                count++;
+            }
+        }
+        int[] codes = new int[count];
+        count = 0;
+        for (int i = 0; i < latencies.length() && count < codes.length; i++) {
+            if (latencies.get(i) != null) {
+                codes[count++] = i;
+            }
+        }
+        return codes;
+    }
+
+    @Override
+    public long[] getLatencyBucketLimitsMicros() {
+        long[] limits = new long[LATENCY_BUCKETS];
+        for (int i = 0; i < limits.length - 1; i++) {
+            limits[i] = 1L << i;
+        }
+        limits[limits.length - 1] = Long.MAX_VALUE;
+        return limits;
+    }
+
+    @Override
+    public long[] getLatencyHistogram(int functionCode) {
+        long[] counts = new long[LATENCY_BUCKETS];
+        AtomicLongArray histogram = latencies.get(functionCode & 0xFF);
+        if (histogram != null) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = histogram.get(i);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public void reset() {
+        requests.reset();
+        failures.reset();
+        retries.reset();
+        timeouts.reset();
+        checksumErrors.reset();
+        transactionIdMismatches.reset();
+        bytesIn.reset();
+        bytesOut.reset();
+        totalLatencyNanos.reset();
+        queueDepth.set(0);
+        maxQueueDepth.set(0);
+        for (int i = 0; i < unitRequests.length(); i++) {
+            unitRequests.set(i, 0);
+        }
+        for (int i = 0; i < latencies.length(); i++) {
+            latencies.set(i, null);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s requests=%d failures=%d retries=%d timeouts=%d", name, getRequests(), getFailures(), getRetries(), getTimeouts());
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus.util;
+
+/**
+ * Management interface of the statistics of a single source, as exported
+ * by {@link JmxModbusMetrics}
+ */
+public interface ModbusStatsMBean {
+
+    /**
+     * @return Name of the source
+     */
+    String getName();
+
+    /**
+     * @return Number of requests answered
+     */
+    long getRequests();
+
+    /**
+     * @return Number of requests that failed
+     */
+    long getFailures();
+
+    /**
+     * @return Number of times a request was sent again
+     */
+    long getRetries();
+
+    /**
+     * @return Number of transactions that gave up without a response
+     */
+    long getTimeouts();
+
+    /**
+     * @return Number of frames received with a bad CRC or LRC
+     */
+    long getChecksumErrors();
+
+    /**
+     * @return Number of responses with the wrong transaction ID
+     */
+    long getTransactionIdMismatches();
+
+    /**
+     * @return Number of bytes received
+     */
+    long getBytesIn();
+
+    /**
+     * @return Number of bytes sent
+     */
+    long getBytesOut();
+
+    /**
+     * @return Last reported queue depth
+     */
+    int getQueueDepth();
+
+    /**
+     * @return Largest reported queue depth
+     */
+    int getMaxQueueDepth();
+
+    /**
+     * @return Mean time taken to answer a request in microseconds
+     */
+    double getMeanLatencyMicros();
+
+    /**
+     * @return Number of requests answered for each Unit ID, indexed by Unit ID
+     */
+    long[] getRequestsByUnit();
+
+    /**
+     * @return Function codes that have a latency histogram
+     */
+    int[] getFunctionCodes();
+
+    /**
+     * @return Upper limit in microseconds of each bucket of the latency histograms
+     */
+    long[] getLatencyBucketLimitsMicros();
+
+    /**
+     * Returns the latency histogram of a function code
+     *
+     * @param functionCode Function code
+     * @return Number of requests in each bucket
+     */
+    long[] getLatencyHistogram(int functionCode);
+
+    /**
+     * Sets all the statistics back to zero
+     */
+    void reset();
+}
@@ -20,6 +20,8 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
@@ -48,6 +50,23 @@ public class ThreadPool {
         taskPool = new LinkedBlockingQueue<Runnable>();
     }
 
+    /**
+     * Creates an executor that runs each task on a new virtual thread.
+     * Virtual threads arrived in Java 21, so the executor is looked up
+     * reflectively to keep the library running on older JVMs.
+     *
+     * @return Executor or null if the JVM does not support virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (Exception e) {
+            logger.debug("Virtual threads are not available - {}", e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Execute the <tt>Runnable</tt> instance
      * through a thread in this <tt>ThreadPool</tt>.
@@ -65,6 +84,15 @@ public class ThreadPool {
         }
     }
 
+    /**
+     * Returns the number of tasks waiting for a thread
+     *
+     * @return Number of tasks
+     */
+    public int getQueued() {
+        return taskPool.size();
+    }
+
     /**
      * Initializes the pool, populating it with
      * n started threads.
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.util.ModbusChecksum;
+import com.ghgande.j2mod.modbus.util.ModbusUtil;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the CRC and LRC calculations
+ */
+public class TestModbusChecksum {
+
+    @Test
+    public void testCrc() {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x4B37, ModbusChecksum.crc16(check, 0, check.length));
+
+        Random random = new Random(42);
+        for (int length = 0; length < 300; length++) {
+            byte[] data = new byte[length + 3];
+            random.nextBytes(data);
+            int crc = ModbusChecksum.crc16(data, 3, length);
+            assertEquals("Incorrect CRC for length " + length, bitwiseCrc(data, 3, length), crc);
+
+            int[] legacy = ModbusUtil.calculateCRC(data, 3, length + 3);
+            assertEquals(legacy[0], crc & 0xFF);
+            assertEquals(legacy[1], crc >>> 8);
+
+            int split = length / 3;
+            int incremental = ModbusChecksum.updateCRC16(ModbusChecksum.CRC16_INITIAL, data, 3, split);
+            if (length > split) {
+                incremental = ModbusChecksum.updateCRC16(incremental, data[3 + split]);
+                incremental = ModbusChecksum.updateCRC16(incremental, data, 4 + split, length - split - 1);
+            }
+            assertEquals("Incorrect incremental CRC for length " + length, crc, incremental);
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            direct.put(data);
+            direct.position(3);
+            assertEquals(crc, ModbusChecksum.crc16(direct));
+            direct.order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(crc, ModbusChecksum.crc16(direct));
+            assertEquals("Buffer position changed", 3, direct.position());
+        }
+    }
+
+    @Test
+    public void testCrcResidue() {
+        byte[] frame = {1, 3, 0, 0, 0, 10, 0, 0};
+        int crc = ModbusChecksum.crc16(frame, 0, 6);
+        frame[6] = (byte)crc;
+        frame[7] = (byte)(crc >>> 8);
+        assertEquals(0, ModbusChecksum.crc16(frame, 0, frame.length));
+    }
+
+    @Test
+    public void testLrc() {
+        byte[] data = {1, 3, 0, 0, 0, 10, (byte)0xF0};
+        int lrc = ModbusChecksum.lrc(data, 0, data.length);
+        assertEquals(0x02, lrc);
+        assertEquals((byte)lrc, ModbusUtil.calculateLRC(data, 0, data.length, 0));
+        int incremental = ModbusChecksum.updateLRC(ModbusChecksum.LRC_INITIAL, data, 0, 3);
+        incremental = ModbusChecksum.updateLRC(incremental, ByteBuffer.wrap(data, 3, 4));
+        assertEquals(lrc, incremental);
+    }
+
+    private static int bitwiseCrc(byte[] data, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= data[i] & 0xFF;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0xA001 : crc >>> 1;
+            }
+        }
+        return crc;
+    }
+}
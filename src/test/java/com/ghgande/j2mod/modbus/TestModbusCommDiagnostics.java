@@ -0,0 +1,153 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMaster;
+import com.ghgande.j2mod.modbus.io.ModbusTransaction;
+import com.ghgande.j2mod.modbus.msg.*;
+import com.ghgande.j2mod.modbus.net.ModbusDiagnostics;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbus;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the diagnostic counters and comm event log of a slave
+ */
+public class TestModbusCommDiagnostics extends AbstractTestModbus {
+
+    private static final int DIAGNOSTICS_PORT = PORT + 37;
+    private static ModbusTCPMaster master;
+
+    @BeforeClass
+    public static void setUpSlave() throws Exception {
+        slave = ModbusSlaveFactory.createTCPSlave(DIAGNOSTICS_PORT, 5);
+        slave.addProcessImage(UNIT_ID, getSimpleProcessImage());
+        slave.open();
+        master = new ModbusTCPMaster(LOCALHOST, DIAGNOSTICS_PORT);
+        master.connect();
+    }
+
+    @AfterClass
+    public static void tearDownSlave() {
+        if (master != null) {
+            master.disconnect();
+        }
+        if (slave != null) {
+            slave.close();
+        }
+    }
+
+    private static ModbusResponse execute(ModbusRequest request) throws ModbusException {
+        request.setUnitID(UNIT_ID);
+        ModbusTransaction transaction = master.getTransport().createTransaction();
+        transaction.setRequest(request);
+        transaction.execute();
+        return transaction.getResponse();
+    }
+
+    private static int diagnostic(int function, int data) throws ModbusException {
+        ReadSerialDiagnosticsRequest request = new ReadSerialDiagnosticsRequest();
+        request.setFunction(function);
+        request.setData(data);
+        ReadSerialDiagnosticsResponse response = (ReadSerialDiagnosticsResponse)execute(request);
+        assertEquals("Incorrect sub-function", function, response.getFunction());
+        return response.getData() & 0xFFFF;
+    }
+
+    @Test
+    public void testCountersAndEventLog() throws Exception {
+        assertEquals("Query data not echoed", 0x1234, diagnostic(ModbusDiagnostics.RETURN_QUERY_DATA, 0x1234));
+        assertEquals("Restart not echoed", 0xFF00, diagnostic(ModbusDiagnostics.RESTART_COMMUNICATIONS, 0xFF00));
+
+        master.readMultipleRegisters(UNIT_ID, 0, 2);
+        master.readMultipleRegisters(UNIT_ID, 0, 2);
+        try {
+            master.readMultipleRegisters(UNIT_ID, 5000, 1);
+            fail("Invalid address not thrown");
+        }
+        catch (ModbusSlaveException e) {
+            // Expected
+        }
+
+        // The restart and the 3 reads, a request is counted once it has been answered
+        assertEquals("Incorrect bus message count", 4, diagnostic(ModbusDiagnostics.RETURN_BUS_MESSAGE_COUNT, 0));
+        assertEquals("Incorrect slave message count", 5, diagnostic(ModbusDiagnostics.RETURN_SLAVE_MESSAGE_COUNT, 0));
+        assertEquals("Incorrect exception count", 1, diagnostic(ModbusDiagnostics.RETURN_BUS_EXCEPTION_ERROR_COUNT, 0));
+        assertEquals("Incorrect comm error count", 0, diagnostic(ModbusDiagnostics.RETURN_BUS_COMM_ERROR_COUNT, 0));
+
+        ReadCommEventCounterResponse counter = (ReadCommEventCounterResponse)execute(new ReadCommEventCounterRequest());
+        // Everything but the exception
+        assertEquals("Incorrect event count", 7, counter.getEventCount());
+        assertEquals("Incorrect status", 0, counter.getStatus());
+
+        ReadCommEventLogResponse log = (ReadCommEventLogResponse)execute(new ReadCommEventLogRequest());
+        assertEquals("Incorrect log event count", 7, log.getEventCount());
+        assertEquals("Incorrect log message count", 9, log.getMessageCount());
+        byte[] events = log.getEvents();
+        assertEquals("Incorrect newest event", ModbusDiagnostics.EVENT_SEND, events[0] & 0xFF);
+        assertEquals("Incorrect newest receive event", ModbusDiagnostics.EVENT_RECEIVE, events[1] & 0xFF);
+        // The log was cleared by the restart, which is logged before its own request
+        assertEquals("Incorrect oldest event", ModbusDiagnostics.EVENT_RESTART, events[events.length - 1] & 0xFF);
+        assertTrue("Exception not logged", contains(events, ModbusDiagnostics.EVENT_SEND | ModbusDiagnostics.EVENT_SEND_READ_EXCEPTION));
+
+        diagnostic(ModbusDiagnostics.CLEAR_COUNTERS, 0);
+        assertEquals("Counters not cleared", 1, diagnostic(ModbusDiagnostics.RETURN_BUS_MESSAGE_COUNT, 0));
+    }
+
+    @Test
+    public void testUnsupportedSubFunction() throws Exception {
+        ReadSerialDiagnosticsRequest request = new ReadSerialDiagnosticsRequest();
+        request.setFunction(0x04);
+        try {
+            execute(request);
+            fail("Listen only mode accepted");
+        }
+        catch (ModbusSlaveException e) {
+            assertEquals(Modbus.ILLEGAL_FUNCTION_EXCEPTION, e.getType());
+        }
+    }
+
+    @Test
+    public void testEventLogWraps() {
+        ModbusDiagnostics diagnostics = new ModbusDiagnostics();
+        for (int i = 0; i < ModbusDiagnostics.EVENT_LOG_SIZE; i++) {
+            diagnostics.communicationError(1);
+        }
+        diagnostics.characterOverrun(1);
+        diagnostics.communicationError(-1);
+        byte[] events = diagnostics.getUnit(1).getEvents();
+        assertEquals("Log not bounded", ModbusDiagnostics.EVENT_LOG_SIZE, events.length);
+        assertEquals("Incorrect newest event", ModbusDiagnostics.EVENT_RECEIVE | ModbusDiagnostics.EVENT_RECEIVE_OVERRUN, events[0] & 0xFF);
+        assertEquals("Incorrect comm error count", ModbusDiagnostics.EVENT_LOG_SIZE + 1, diagnostics.getBusCommErrorCount());
+        assertEquals("Incorrect overrun count", 1, diagnostics.getBusCharacterOverrunCount());
+        diagnostics.clearOverrunCounter();
+        assertEquals("Overruns not cleared", 0, diagnostics.getBusCharacterOverrunCount());
+        assertEquals("Unknown unit logged", 0, diagnostics.getUnit(2).getEvents().length);
+    }
+
+    private static boolean contains(byte[] events, int event) {
+        for (byte b : events) {
+            if ((b & 0xFF) == event) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
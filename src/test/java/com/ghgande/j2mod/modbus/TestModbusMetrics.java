@@ -0,0 +1,265 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMaster;
+import com.ghgande.j2mod.modbus.facade.ModbusUDPMaster;
+import com.ghgande.j2mod.modbus.io.ModbusTCPTransport;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+import com.ghgande.j2mod.modbus.util.JmxModbusMetrics;
+import com.ghgande.j2mod.modbus.util.ModbusMetrics;
+import com.ghgande.j2mod.modbus.util.ModbusStats;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbus;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the collection and JMX export of statistics
+ */
+public class TestModbusMetrics extends AbstractTestModbus {
+
+    private static final int METRICS_PORT = PORT + 36;
+    private static final int CLOSING_PORT = PORT + 49;
+    private static final int GARBLING_PORT = PORT + 52;
+    private static final int SILENT_UDP_PORT = PORT + 53;
+    private static final int RECONNECT_PORT = PORT + 54;
+    private static JmxModbusMetrics metrics;
+    private static ModbusTCPMaster master;
+
+    @BeforeClass
+    public static void setUpSlave() throws Exception {
+        metrics = new JmxModbusMetrics();
+        ModbusMetrics.setDefault(metrics);
+        slave = ModbusSlaveFactory.createTCPSlave(METRICS_PORT, 5);
+        slave.addProcessImage(UNIT_ID, getSimpleProcessImage());
+        slave.open();
+        master = new ModbusTCPMaster(LOCALHOST, METRICS_PORT);
+        master.connect();
+    }
+
+    @AfterClass
+    public static void tearDownSlave() {
+        if (master != null) {
+            master.disconnect();
+        }
+        if (slave != null) {
+            slave.close();
+        }
+        ModbusMetrics.setDefault(null);
+        metrics.close();
+    }
+
+    @Test
+    public void testTransactionAndListenerStats() throws Exception {
+        master.readMultipleRegisters(UNIT_ID, 0, 1);
+        ModbusStats masterStats = metrics.getStats("tcp:" + LOCALHOST + ":" + METRICS_PORT);
+        ModbusStats listenerStats = metrics.getStats("ModbusTCPListener:" + METRICS_PORT);
+        assertNotNull("No statistics for the master connection", masterStats);
+        assertNotNull("No statistics for the listener", listenerStats);
+        masterStats.reset();
+        listenerStats.reset();
+
+        for (int i = 0; i < 5; i++) {
+            master.readMultipleRegisters(UNIT_ID, 0, 2);
+        }
+        try {
+            master.readMultipleRegisters(UNIT_ID, 5000, 1);
+            fail("Invalid address not thrown");
+        }
+        catch (ModbusSlaveException e) {
+            // Expected
+        }
+
+        assertEquals("Incorrect request count", 5, masterStats.getRequests());
+        assertEquals("Incorrect failure count", 1, masterStats.getFailures());
+        assertEquals("Incorrect unit count", 5, masterStats.getRequestsByUnit()[UNIT_ID]);
+        assertEquals("Incorrect bytes out", 6 * 12, masterStats.getBytesOut());
+        assertTrue("No bytes in", masterStats.getBytesIn() > 0);
+        long histogramTotal = 0;
+        for (long count : masterStats.getLatencyHistogram(Modbus.READ_MULTIPLE_REGISTERS)) {
+            histogramTotal += count;
+        }
+        assertEquals("Incorrect histogram total", 5, histogramTotal);
+        assertArrayEquals("Incorrect function codes", new int[]{Modbus.READ_MULTIPLE_REGISTERS}, masterStats.getFunctionCodes());
+
+        assertEquals("Incorrect listener request count", 5, listenerStats.getRequests());
+        assertEquals("Incorrect listener failure count", 1, listenerStats.getFailures());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        master.readInputRegisters(UNIT_ID, 0, 1);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Object requests = server.getAttribute(JmxModbusMetrics.getObjectName("tcp:" + LOCALHOST + ":" + METRICS_PORT), "Requests");
+        assertTrue("Requests not exported", (Long)requests > 0);
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        ModbusStats stats = new ModbusStats(ModbusMetrics.NONE, "test");
+        stats.requestCompleted(1, 3, 0);
+        stats.requestCompleted(1, 3, 1500);
+        stats.requestCompleted(1, 3, 3000000);
+        stats.queueDepth(7);
+        stats.queueDepth(2);
+        long[] histogram = stats.getLatencyHistogram(3);
+        long[] limits = stats.getLatencyBucketLimitsMicros();
+        assertEquals("Incorrect bucket for 0us", 1, histogram[0]);
+        assertEquals("Incorrect bucket for 1us", 1, histogram[1]);
+        assertEquals("Incorrect bucket for 3000us", 1, histogram[12]);
+        assertTrue("Incorrect bucket limit", 3000 < limits[12] && 3000 >= limits[11]);
+        assertEquals("Incorrect queue depth", 2, stats.getQueueDepth());
+        assertEquals("Incorrect max queue depth", 7, stats.getMaxQueueDepth());
+        stats.reset();
+        assertEquals("Not reset", 0, stats.getRequests());
+        assertEquals("Histogram not reset", 0, stats.getLatencyHistogram(3)[12]);
+    }
+
+    @Test
+    public void testClosedConnectionIsNotTimeout() throws Exception {
+        ServerSocket closing = new ServerSocket(CLOSING_PORT);
+        Thread acceptor = new Thread(() -> {
+            while (!closing.isClosed()) {
+                try (Socket socket = closing.accept()) {
+                    InputStream in = socket.getInputStream();
+                    in.read(new byte[Modbus.MAX_MESSAGE_LENGTH]);
+                }
+                catch (Exception e) {
+                    // Closed
+                }
+            }
+        });
+        acceptor.start();
+        ModbusTCPMaster dropped = new ModbusTCPMaster(LOCALHOST, CLOSING_PORT);
+        try {
+            dropped.setRetries(1);
+            dropped.connect();
+            try {
+                dropped.readMultipleRegisters(UNIT_ID, 0, 1);
+                fail("Closed connection not reported");
+            }
+            catch (ModbusIOException e) {
+                // Expected
+            }
+            ModbusStats stats = metrics.getStats("tcp:" + LOCALHOST + ":" + CLOSING_PORT);
+            assertEquals("Incorrect failure count", 1, stats.getFailures());
+            assertEquals("Closed connection counted as a timeout", 0, stats.getTimeouts());
+        }
+        finally {
+            dropped.disconnect();
+            closing.close();
+            acceptor.join(5000);
+        }
+    }
+
+    @Test
+    public void testUnreadableDatagramIsNotTimeout() throws Exception {
+        DatagramSocket garbling = new DatagramSocket(GARBLING_PORT);
+        Thread responder = new Thread(() -> {
+            byte[] buffer = new byte[Modbus.MAX_MESSAGE_LENGTH];
+            while (!garbling.isClosed()) {
+                try {
+                    DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+                    garbling.receive(request);
+
+                    // Answer with the request's header and a byte count that runs past the end of any datagram
+                    byte[] reply = new byte[9];
+                    System.arraycopy(buffer, 0, reply, 0, 7);
+                    reply[7] = 3;
+                    reply[8] = (byte)0xFF;
+                    garbling.send(new DatagramPacket(reply, reply.length, request.getSocketAddress()));
+                }
+                catch (Exception e) {
+                    // Closed
+                }
+            }
+        });
+        responder.start();
+        ModbusUDPMaster garbled = new ModbusUDPMaster(LOCALHOST, GARBLING_PORT, 500);
+        try {
+            garbled.connect();
+            garbled.setRetries(0);
+            try {
+                garbled.readMultipleRegisters(UNIT_ID, 0, 1);
+                fail("Unreadable response accepted");
+            }
+            catch (ModbusException e) {
+                // Expected
+            }
+            ModbusStats stats = metrics.getStats("udp:" + LOCALHOST + ":" + GARBLING_PORT);
+            assertEquals("Incorrect failure count", 1, stats.getFailures());
+            assertEquals("Unreadable response counted as a timeout", 0, stats.getTimeouts());
+        }
+        finally {
+            garbled.disconnect();
+            garbling.close();
+            responder.join(5000);
+        }
+    }
+
+    @Test
+    public void testUDPTimeout() throws Exception {
+        DatagramSocket silent = new DatagramSocket(SILENT_UDP_PORT);
+        ModbusUDPMaster unanswered = new ModbusUDPMaster(LOCALHOST, SILENT_UDP_PORT, 200);
+        try {
+            unanswered.connect();
+            unanswered.setRetries(0);
+            try {
+                unanswered.readMultipleRegisters(UNIT_ID, 0, 1);
+                fail("Unanswered request succeeded");
+            }
+            catch (ModbusException e) {
+                // Expected
+            }
+            ModbusStats stats = metrics.getStats("udp:" + LOCALHOST + ":" + SILENT_UDP_PORT);
+            assertEquals("Incorrect failure count", 1, stats.getFailures());
+            assertEquals("Timeout not counted", 1, stats.getTimeouts());
+        }
+        finally {
+            unanswered.disconnect();
+            silent.close();
+        }
+    }
+
+    @Test
+    public void testNamedAfterCurrentEndpoint() throws Exception {
+        ServerSocket endpoint = new ServerSocket(RECONNECT_PORT);
+        ModbusTCPTransport transport = new ModbusTCPTransport();
+        try {
+
+            // Statistics recorded before the transport is connected must not pin its name
+            transport.getMetrics().bytesOut(1);
+            transport.setSocket(new Socket(LOCALHOST, RECONNECT_PORT));
+            transport.getMetrics().bytesOut(5);
+            assertEquals("Not recorded under the endpoint", 5, metrics.getStats("tcp:" + LOCALHOST + ":" + RECONNECT_PORT).getBytesOut());
+        }
+        finally {
+            transport.close();
+            endpoint.close();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.io.AbstractModbusTransport;
+import com.ghgande.j2mod.modbus.io.ModbusRTUTransport;
+import com.ghgande.j2mod.modbus.io.ModbusSerialTransaction;
+import com.ghgande.j2mod.modbus.msg.ReadMultipleRegistersRequest;
+import com.ghgande.j2mod.modbus.msg.ReadMultipleRegistersResponse;
+import com.ghgande.j2mod.modbus.msg.WriteSingleRegisterRequest;
+import com.ghgande.j2mod.modbus.msg.WriteSingleRegisterResponse;
+import com.ghgande.j2mod.modbus.net.AbstractSerialConnection;
+import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
+import com.ghgande.j2mod.modbus.util.JmxModbusMetrics;
+import com.ghgande.j2mod.modbus.util.ModbusMetrics;
+import com.ghgande.j2mod.modbus.util.ModbusStats;
+import com.ghgande.j2mod.modbus.util.ModbusUtil;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the RTU transport reading frames through its receive buffer
+ */
+public class TestModbusRTUTransport {
+
+    @Test
+    public void testBulkRead() throws Exception {
+        FakeSerialConnection port = new FakeSerialConnection();
+        ModbusRTUTransport transport = new ModbusRTUTransport();
+        transport.setCommPort(port);
+
+        // Two responses arrive back to back, the second must come out of the buffer
+        port.receive(frame(1, 3, 6, 0, 1, 0, 2, 0, 3));
+        port.receive(frame(1, 6, 0, 10, 0, 99));
+
+        ReadMultipleRegistersResponse read = (ReadMultipleRegistersResponse)transport.readResponse();
+        assertEquals(3, read.getWordCount());
+        assertEquals(1, read.getRegisterValue(0));
+        assertEquals(3, read.getRegisterValue(2));
+
+        WriteSingleRegisterResponse write = (WriteSingleRegisterResponse)transport.readResponse();
+        assertEquals(10, write.getReference());
+        assertEquals(99, write.getRegisterValue());
+        assertEquals("Frames not read in bulk", 1, port.reads);
+    }
+
+    @Test
+    public void testCrcError() throws Exception {
+        FakeSerialConnection port = new FakeSerialConnection();
+        ModbusRTUTransport transport = new ModbusRTUTransport();
+        transport.setCommPort(port);
+
+        WriteSingleRegisterRequest request = new WriteSingleRegisterRequest(10, new SimpleRegister(99));
+        request.setUnitID(1);
+        transport.writeRequest(request);
+
+        byte[] frame = frame(1, 6, 0, 10, 0, 99);
+        frame[frame.length - 1]++;
+        port.receive(frame);
+        try {
+            transport.readResponse();
+            fail("CRC error not detected");
+        }
+        catch (ModbusIOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testCrcErrorIsNotTimeout() throws Exception {
+        FakeSerialConnection port = new FakeSerialConnection();
+        byte[] frame = frame(1, 3, 2, 0, 99);
+        frame[frame.length - 1]++;
+        port.answer(frame);
+
+        ModbusStats stats = executeRead(port);
+        assertEquals("Incorrect checksum error count", 1, stats.getChecksumErrors());
+        assertEquals("Incorrect failure count", 1, stats.getFailures());
+        assertEquals("Checksum error counted as a timeout", 0, stats.getTimeouts());
+    }
+
+    @Test
+    public void testSilenceIsTimeout() throws Exception {
+        ModbusStats stats = executeRead(new FakeSerialConnection());
+        assertEquals("Incorrect failure count", 1, stats.getFailures());
+        assertEquals("Timeout not counted", 1, stats.getTimeouts());
+    }
+
+    /**
+     * Reads a register over the port without retrying, and returns the statistics collected
+     *
+     * @param port Port to read from
+     * @return Statistics of the port
+     * @throws Exception If the transport cannot be set up
+     */
+    private static ModbusStats executeRead(FakeSerialConnection port) throws Exception {
+        JmxModbusMetrics metrics = new JmxModbusMetrics();
+        ModbusMetrics.setDefault(metrics);
+        try {
+            ModbusRTUTransport transport = new ModbusRTUTransport();
+            transport.setCommPort(port);
+            ReadMultipleRegistersRequest request = new ReadMultipleRegistersRequest(0, 1);
+            request.setUnitID(1);
+            ModbusSerialTransaction transaction = new ModbusSerialTransaction(request);
+            transaction.setTransport(transport);
+            transaction.setRetries(1);
+            try {
+                transaction.execute();
+                fail("Read succeeded");
+            }
+            catch (ModbusIOException e) {
+                // Expected
+            }
+            return metrics.getStats("serial:" + port.getPortName());
+        }
+        finally {
+            ModbusMetrics.setDefault(null);
+            metrics.close();
+        }
+    }
+
+    private static byte[] frame(int... values) {
+        byte[] frame = new byte[values.length + 2];
+        for (int i = 0; i < values.length; i++) {
+            frame[i] = (byte)values[i];
+        }
+        int[] crc = ModbusUtil.calculateCRC(frame, 0, values.length);
+        frame[values.length] = (byte)crc[0];
+        frame[values.length + 1] = (byte)crc[1];
+        return frame;
+    }
+
+    /**
+     * Serial connection that serves bytes from memory and counts the reads
+     */
+    private static class FakeSerialConnection extends AbstractSerialConnection {
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private int position;
+        private int reads;
+        private byte[] answer;
+
+        void receive(byte[] data) {
+            pending.write(data, 0, data.length);
+        }
+
+        void answer(byte[] data) {
+            answer = data;
+        }
+
+        @Override
+        public int readBytes(byte[] buffer, long bytesToRead) {
+            return readBytes(buffer, bytesToRead, 0);
+        }
+
+        @Override
+        public int readBytes(byte[] buffer, long bytesToRead, int offset) {
+            reads++;
+            int cnt = (int)Math.min(bytesToRead, bytesAvailable());
+            System.arraycopy(pending.toByteArray(), position, buffer, offset, cnt);
+            position += cnt;
+            return cnt;
+        }
+
+        @Override
+        public int bytesAvailable() {
+            return pending.size() - position;
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public AbstractModbusTransport getModbusTransport() {
+            return null;
+        }
+
+        @Override
+        public int writeBytes(byte[] buffer, long bytesToWrite) {
+            if (answer != null) {
+                receive(answer);
+            }
+            return (int)bytesToWrite;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public int getBaudRate() {
+            return 19200;
+        }
+
+        @Override
+        public int getNumDataBits() {
+            return 8;
+        }
+
+        @Override
+        public int getNumStopBits() {
+            return 1;
+        }
+
+        @Override
+        public int getParity() {
+            return NO_PARITY;
+        }
+
+        @Override
+        public String getPortName() {
+            return "fake";
+        }
+
+        @Override
+        public String getDescriptivePortName() {
+            return "fake";
+        }
+
+        @Override
+        public void setComPortTimeouts(int newTimeoutMode, int newReadTimeout, int newWriteTimeout) {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public int getTimeout() {
+            return 0;
+        }
+
+        @Override
+        public void setTimeout(int timeout) {
+        }
+
+        @Override
+        public Set<String> getCommPorts() {
+            return Collections.emptySet();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Table;
+import com.ghgande.j2mod.modbus.msg.*;
+import com.ghgande.j2mod.modbus.procimg.Register;
+import com.ghgande.j2mod.modbus.procimg.SimpleProcessImage;
+import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
+import com.ghgande.j2mod.modbus.slave.ModbusResponseCache;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbus;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the caching of read responses
+ */
+public class TestModbusResponseCache extends AbstractTestModbus {
+
+    private SimpleProcessImage image;
+    private final AtomicInteger calls = new AtomicInteger();
+    private final Function<ModbusRequest, ModbusResponse> source = new Function<ModbusRequest, ModbusResponse>() {
+        @Override
+        public ModbusResponse apply(ModbusRequest request) {
+            calls.incrementAndGet();
+            ModbusResponse response;
+            if (request instanceof WriteSingleRegisterRequest) {
+                WriteSingleRegisterRequest write = (WriteSingleRegisterRequest)request;
+                image.getRegister(write.getReference()).setValue(write.getRegister().getValue());
+                response = new WriteSingleRegisterResponse(write.getReference(), write.getRegister().getValue());
+            }
+            else {
+                ReadMultipleRegistersRequest read = (ReadMultipleRegistersRequest)request;
+                Register[] registers = new Register[read.getWordCount()];
+                for (int i = 0; i < registers.length; i++) {
+                    registers[i] = new SimpleRegister(image.getRegister(read.getReference() + i).getValue());
+                }
+                response = new ReadMultipleRegistersResponse(registers);
+            }
+            response.setUnitID(request.getUnitID());
+            response.setTransactionID(request.getTransactionID());
+            return response;
+        }
+    };
+
+    @Before
+    public void setUpImage() {
+        image = new SimpleProcessImage(UNIT_ID);
+        for (int i = 0; i < 20; i++) {
+            image.addRegister(new SimpleRegister(i * 10));
+        }
+        calls.set(0);
+    }
+
+    @Test
+    public void testHit() {
+        ModbusResponseCache cache = new ModbusResponseCache(10, 60000);
+        ReadMultipleRegistersResponse first = (ReadMultipleRegistersResponse)cache.process(createRead(2, 3, 1), source);
+        ReadMultipleRegistersResponse second = (ReadMultipleRegistersResponse)cache.process(createRead(2, 3, 2), source);
+        assertEquals("Incorrect number of calls", 1, calls.get());
+        assertEquals("Incorrect cached value", 20, second.getRegisterValue(0));
+        assertEquals("Incorrect cached value", 40, second.getRegisterValue(2));
+        assertEquals("Incorrect transaction ID", 1, first.getTransactionID());
+        assertEquals("Transaction ID not copied", 2, second.getTransactionID());
+        assertEquals("Incorrect hits", 1, cache.getHits());
+        assertEquals("Incorrect misses", 1, cache.getMisses());
+
+        // A different count is a different block
+        cache.process(createRead(2, 4, 3), source);
+        assertEquals("Incorrect number of calls", 2, calls.get());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        ModbusResponseCache cache = new ModbusResponseCache(10, 60000);
+        cache.setTimeToLive(Table.HOLDING_REGISTER, 50);
+        cache.process(createRead(0, 1, 1), source);
+        Thread.sleep(100);
+        cache.process(createRead(0, 1, 2), source);
+        assertEquals("Expired response used", 2, calls.get());
+    }
+
+    @Test
+    public void testWriteInvalidates() {
+        ModbusResponseCache cache = new ModbusResponseCache(10, 60000);
+        cache.process(createRead(0, 5, 1), source);
+        cache.process(createRead(10, 5, 2), source);
+        assertEquals("Incorrect size", 2, cache.size());
+
+        WriteSingleRegisterRequest write = new WriteSingleRegisterRequest(4, new SimpleRegister(999));
+        write.setUnitID(UNIT_ID);
+        cache.process(write, source);
+        assertEquals("Overlapping read not dropped", 1, cache.size());
+
+        ReadMultipleRegistersResponse response = (ReadMultipleRegistersResponse)cache.process(createRead(0, 5, 3), source);
+        assertEquals("Stale value returned", 999, response.getRegisterValue(4));
+        cache.process(createRead(10, 5, 4), source);
+        assertEquals("Incorrect number of calls", 4, calls.get());
+    }
+
+    @Test
+    public void testEviction() {
+        ModbusResponseCache cache = new ModbusResponseCache(2, 60000);
+        cache.process(createRead(0, 1, 1), source);
+        cache.process(createRead(1, 1, 2), source);
+        cache.process(createRead(0, 1, 3), source);
+        cache.process(createRead(2, 1, 4), source);
+        assertEquals("Incorrect size", 2, cache.size());
+
+        // Reference 1 was the least recently used
+        cache.process(createRead(0, 1, 5), source);
+        assertEquals("Recently used entry evicted", 3, calls.get());
+        cache.process(createRead(1, 1, 6), source);
+        assertEquals("Least recently used entry kept", 4, calls.get());
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Function<ModbusRequest, ModbusResponse> slow = request -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return source.apply(request);
+        };
+        final ModbusResponseCache cache = new ModbusResponseCache(10, 60000);
+        ExecutorService clients = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<ModbusResponse>> results = new ArrayList<Future<ModbusResponse>>();
+            for (int i = 0; i < 5; i++) {
+                final int transactionId = i + 1;
+                results.add(clients.submit(() -> cache.process(createRead(0, 2, transactionId), slow)));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (int i = 0; i < results.size(); i++) {
+                ModbusResponse response = results.get(i).get(5, TimeUnit.SECONDS);
+                assertEquals("Incorrect transaction ID", i + 1, response.getTransactionID());
+                assertEquals("Incorrect value", 10, ((ReadMultipleRegistersResponse)response).getRegisterValue(1));
+            }
+            assertEquals("Concurrent misses not collapsed", 1, calls.get());
+        }
+        finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncSingleFlight() throws Exception {
+        final AtomicInteger started = new AtomicInteger();
+        final CompletableFuture<ModbusResponse> pending = new CompletableFuture<ModbusResponse>();
+        final Function<ModbusRequest, CompletableFuture<ModbusResponse>> async = request -> {
+            started.incrementAndGet();
+            return pending;
+        };
+        ModbusResponseCache cache = new ModbusResponseCache(10, 60000);
+
+        // Neither caller blocks while the read is outstanding
+        CompletableFuture<ModbusResponse> first = cache.processAsync(createRead(0, 2, 1), async);
+        CompletableFuture<ModbusResponse> second = cache.processAsync(createRead(0, 2, 2), async);
+        assertFalse("Completed before the source", first.isDone() || second.isDone());
+
+        pending.complete(source.apply(createRead(0, 2, 1)));
+        assertEquals("Incorrect transaction ID", 1, first.get(5, TimeUnit.SECONDS).getTransactionID());
+        assertEquals("Transaction ID not copied", 2, second.get(5, TimeUnit.SECONDS).getTransactionID());
+        assertEquals("Incorrect value", 10, ((ReadMultipleRegistersResponse)second.get()).getRegisterValue(1));
+        assertEquals("Concurrent misses not collapsed", 1, started.get());
+
+        // And the response is now cached
+        assertTrue("Cached read not answered straight away", cache.processAsync(createRead(0, 2, 3), async).isDone());
+        assertEquals("Incorrect number of reads", 1, started.get());
+    }
+
+    private static ReadMultipleRegistersRequest createRead(int reference, int count, int transactionId) {
+        ReadMultipleRegistersRequest request = new ReadMultipleRegistersRequest(reference, count);
+        request.setUnitID(UNIT_ID);
+        request.setTransactionID(transactionId);
+        return request;
+    }
+}
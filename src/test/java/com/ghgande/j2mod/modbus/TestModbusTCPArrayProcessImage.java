@@ -0,0 +1,161 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMaster;
+import com.ghgande.j2mod.modbus.procimg.ArrayProcessImage;
+import com.ghgande.j2mod.modbus.procimg.IllegalAddressException;
+import com.ghgande.j2mod.modbus.procimg.Register;
+import com.ghgande.j2mod.modbus.procimg.SimpleDigitalOut;
+import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+import com.ghgande.j2mod.modbus.util.BitVector;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbus;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests a slave serving an array backed process image
+ */
+public class TestModbusTCPArrayProcessImage extends AbstractTestModbus {
+
+    private static final int ARRAY_PORT = PORT + 20;
+    private static final int SIZE = 65536;
+    private static ArrayProcessImage image;
+    private static ModbusTCPMaster master;
+
+    @BeforeClass
+    public static void setUpSlave() throws Exception {
+        image = new ArrayProcessImage(UNIT_ID, SIZE);
+        for (int i = 0; i < image.getRegisterCount(); i++) {
+            image.setRegisterValue(i, i);
+            image.setInputRegisterValue(i, 65535 - i);
+        }
+        for (int i = 0; i < image.getDigitalOutCount(); i += 3) {
+            image.setDigitalOutValue(i, true);
+            image.setDigitalInValue(i, true);
+        }
+        slave = ModbusSlaveFactory.createTCPSlave(ARRAY_PORT, 5);
+        slave.addProcessImage(UNIT_ID, image);
+        slave.open();
+        master = new ModbusTCPMaster(LOCALHOST, ARRAY_PORT);
+        master.connect();
+    }
+
+    @AfterClass
+    public static void tearDownSlave() {
+        if (master != null) {
+            master.disconnect();
+        }
+        if (slave != null) {
+            slave.close();
+        }
+    }
+
+    @Test
+    public void testReadRegisters() throws Exception {
+        Register[] regs = master.readMultipleRegisters(UNIT_ID, 1000, 125);
+        for (int i = 0; i < regs.length; i++) {
+            assertEquals("Incorrect value for register " + (1000 + i), 1000 + i, regs[i].getValue());
+        }
+        assertEquals("Incorrect value for input register 5", 65530, master.readInputRegisters(UNIT_ID, 5, 1)[0].getValue());
+    }
+
+    @Test
+    public void testReadBits() throws Exception {
+        BitVector coils = master.readCoils(UNIT_ID, 7, 19);
+        BitVector discretes = master.readInputDiscretes(UNIT_ID, 61, 10);
+        for (int i = 0; i < 19; i++) {
+            assertEquals("Incorrect status for coil " + (7 + i), (7 + i) % 3 == 0, coils.getBit(i));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals("Incorrect status for discrete " + (61 + i), (61 + i) % 3 == 0, discretes.getBit(i));
+        }
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        master.writeMultipleRegisters(UNIT_ID, 2000, new Register[]{new SimpleRegister(40000), new SimpleRegister(7)});
+        assertEquals("Incorrect value for register 2000", 40000, image.getRegisterValue(2000));
+        assertEquals("Incorrect value for register 2001", 7, image.getRegister(2001).getValue());
+
+        BitVector bits = new BitVector(10);
+        bits.setBit(0, true);
+        bits.setBit(9, true);
+        master.writeMultipleCoils(UNIT_ID, 100, bits);
+        assertTrue("Incorrect status for coil 100", image.getDigitalOutValue(100));
+        assertFalse("Incorrect status for coil 102", image.getDigitalOutValue(102));
+        assertTrue("Incorrect status for coil 109", image.getDigitalOut(109).isSet());
+    }
+
+    @Test
+    public void testIllegalAddress() throws Exception {
+        ArrayProcessImage small = new ArrayProcessImage(UNIT_ID, 10);
+        try {
+            small.getRegisterRange(5, 6);
+            fail("Invalid range not rejected");
+        }
+        catch (IllegalAddressException e) {
+            // Expected
+        }
+        try {
+            master.readMultipleRegisters(UNIT_ID, SIZE - 1, 2);
+            fail("Invalid address not thrown");
+        }
+        catch (ModbusSlaveException e) {
+            assertEquals(Modbus.ILLEGAL_ADDRESS_EXCEPTION, e.getType());
+        }
+    }
+
+    @Test
+    public void testObjectMethods() {
+        ArrayProcessImage small = new ArrayProcessImage(UNIT_ID, 4);
+        small.addRegister(new SimpleRegister(10));
+        small.addRegister(new SimpleRegister(20));
+        small.addRegister(new SimpleRegister(30));
+        small.addDigitalOut(new SimpleDigitalOut(true));
+        small.addDigitalOut(new SimpleDigitalOut(false));
+        small.addDigitalOut(new SimpleDigitalOut(true));
+        assertEquals(30, small.getRegisterValue(2));
+
+        // Removing a view closes the gap and frees the last slot for the next add
+        small.removeRegister(small.getRegister(0));
+        assertEquals(20, small.getRegisterValue(0));
+        assertEquals(30, small.getRegisterValue(1));
+        assertEquals(0, small.getRegisterValue(2));
+        small.removeDigitalOut(small.getDigitalOut(1));
+        assertTrue(small.getDigitalOutValue(1));
+        assertFalse(small.getDigitalOutValue(2));
+        small.addRegister(new SimpleRegister(40));
+        assertEquals(40, small.getRegisterValue(2));
+
+        // Objects that were copied in are not part of the image
+        small.removeRegister(new SimpleRegister(20));
+        assertEquals(20, small.getRegisterValue(0));
+
+        small.addRegister(3, new SimpleRegister(50));
+        try {
+            small.addRegister(new SimpleRegister(60));
+            fail("Register added to a full image");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.io.BytesOutputStream;
+import com.ghgande.j2mod.modbus.io.ModbusTCPTransport;
+import com.ghgande.j2mod.modbus.msg.*;
+import com.ghgande.j2mod.modbus.procimg.InputRegister;
+import com.ghgande.j2mod.modbus.procimg.Register;
+import com.ghgande.j2mod.modbus.procimg.SimpleInputRegister;
+import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
+import com.ghgande.j2mod.modbus.util.BitVector;
+import com.ghgande.j2mod.modbus.util.ModbusUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests that the TCP frame encoder writes the same bytes as
+ * framing the output of <tt>getMessage()</tt>
+ */
+public class TestModbusTCPFrameEncoder {
+
+    @Test
+    public void testMatchesMessageFraming() throws Exception {
+        for (ModbusMessage msg : createMessages()) {
+            assertArrayEquals("Frame differs for " + msg.getClass().getSimpleName(), frameMessage(msg, false, false), encode(msg, false, false));
+        }
+    }
+
+    @Test
+    public void testMatchesHeadlessMessageFraming() throws Exception {
+        for (ModbusMessage msg : createMessages()) {
+            assertArrayEquals("RTU over TCP frame differs for " + msg.getClass().getSimpleName(), frameMessage(msg, true, true), encode(msg, true, true));
+        }
+    }
+
+    @Test
+    public void testHeader() throws Exception {
+        ReadMultipleRegistersResponse response = new ReadMultipleRegistersResponse(new Register[] {new SimpleRegister(0x8001), new SimpleRegister(0xFFFE)});
+        response.setTransactionID(0x1234);
+        response.setUnitID(17);
+        assertArrayEquals(new byte[] {0x12, 0x34, 0, 0, 0, 7, 17, 3, 4, (byte)0x80, 1, (byte)0xFF, (byte)0xFE}, encode(response, false, false));
+    }
+
+    @Test
+    public void testBufferReused() throws Exception {
+        BytesOutputStream out = new BytesOutputStream(Modbus.MAX_MESSAGE_LENGTH);
+        List<ModbusMessageImpl> messages = createMessages();
+        ModbusTCPTransport.writeFrame(out, messages.get(messages.size() - 1), false, false);
+        ModbusMessage first = messages.get(0);
+        ModbusTCPTransport.writeFrame(out, first, false, false);
+        assertArrayEquals("Previous frame left in the buffer", frameMessage(first, false, false), out.toByteArray());
+    }
+
+    /**
+     * Creates one message of each kind whose data is written without
+     * <tt>getMessage()</tt>, with register values that use the sign bit
+     *
+     * @return Messages
+     */
+    private static List<ModbusMessageImpl> createMessages() {
+        List<ModbusMessageImpl> messages = new ArrayList<ModbusMessageImpl>();
+        Register[] registers = {new SimpleRegister(1), new SimpleRegister(0x8001), new SimpleRegister(0xFFFF)};
+        InputRegister[] inputRegisters = {new SimpleInputRegister(2), new SimpleInputRegister(0x7FFF), new SimpleInputRegister(0x8000)};
+        BitVector bits = new BitVector(11);
+        bits.setBit(0, true);
+        bits.setBit(7, true);
+        bits.setBit(10, true);
+
+        messages.add(new ReadCoilsRequest(0x1234, 11));
+
+        ReadCoilsResponse coils = new ReadCoilsResponse(11);
+        coils.setCoilStatus(1, true);
+        coils.setCoilStatus(9, true);
+        messages.add(coils);
+
+        ReadInputDiscretesResponse discretes = new ReadInputDiscretesResponse(11);
+        discretes.setDiscreteStatus(2, true);
+        discretes.setDiscreteStatus(10, true);
+        messages.add(discretes);
+
+        messages.add(new ReadInputRegistersResponse(inputRegisters));
+        messages.add(new ReadMultipleRegistersResponse(registers));
+        messages.add(new ReadWriteMultipleResponse(inputRegisters));
+        messages.add(new WriteCoilResponse(0x2345, true));
+        messages.add(new WriteCoilResponse(0x2345, false));
+        messages.add(new WriteMultipleCoilsRequest(0x3456, bits));
+        messages.add(new WriteMultipleRegistersRequest(0x4567, registers));
+        messages.add(new WriteMultipleRegistersResponse(0x5678, 3));
+        messages.add(new WriteSingleRegisterRequest(0x6789, new SimpleRegister(0xABCD)));
+        messages.add(new WriteSingleRegisterResponse(0x789A, 0xFEDC));
+
+        int transactionID = 0xFFF0;
+        for (ModbusMessageImpl msg : messages) {
+            msg.setTransactionID(transactionID++);
+            msg.setUnitID(0xF7);
+        }
+        return messages;
+    }
+
+    /**
+     * Encodes a message with the transport's frame encoder
+     *
+     * @param msg           Message to encode
+     * @param headless      True if the frame has no MBAP header
+     * @param useRtuOverTcp True if a CRC is appended
+     * @return Frame
+     * @throws Exception If the message cannot be encoded
+     */
+    private static byte[] encode(ModbusMessage msg, boolean headless, boolean useRtuOverTcp) throws Exception {
+        BytesOutputStream out = new BytesOutputStream(Modbus.MAX_MESSAGE_LENGTH);
+        ModbusTCPTransport.writeFrame(out, msg, headless, useRtuOverTcp);
+        return out.toByteArray();
+    }
+
+    /**
+     * Frames the output of <tt>getMessage()</tt> the way the TCP transport
+     * did before it encoded messages directly
+     *
+     * @param msg           Message to frame
+     * @param headless      True if the frame has no MBAP header
+     * @param useRtuOverTcp True if a CRC is appended
+     * @return Frame
+     * @throws Exception If the message cannot be framed
+     */
+    private static byte[] frameMessage(ModbusMessage msg, boolean headless, boolean useRtuOverTcp) throws Exception {
+        byte[] message = msg.getMessage();
+        BytesOutputStream out = new BytesOutputStream(Modbus.MAX_MESSAGE_LENGTH);
+        if (!headless) {
+            out.writeShort(msg.getTransactionID());
+            out.writeShort(msg.getProtocolID());
+            out.writeShort((message != null ? message.length : 0) + 2);
+        }
+        out.writeByte(msg.getUnitID());
+        out.writeByte(msg.getFunctionCode());
+        if (message != null && message.length > 0) {
+            out.write(message);
+        }
+        if (useRtuOverTcp) {
+            int[] crc = ModbusUtil.calculateCRC(out.getBuffer(), 0, out.size());
+            out.writeByte(crc[0]);
+            out.writeByte(crc[1]);
+        }
+        return out.toByteArray();
+    }
+}
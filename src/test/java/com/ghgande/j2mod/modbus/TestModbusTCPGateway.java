@@ -0,0 +1,249 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMaster;
+import com.ghgande.j2mod.modbus.msg.ExceptionResponse;
+import com.ghgande.j2mod.modbus.msg.ModbusResponse;
+import com.ghgande.j2mod.modbus.msg.ReadMultipleRegistersRequest;
+import com.ghgande.j2mod.modbus.procimg.InputRegister;
+import com.ghgande.j2mod.modbus.slave.ModbusGateway;
+import com.ghgande.j2mod.modbus.slave.ModbusSlave;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbus;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests a slave that forwards requests through a gateway
+ */
+public class TestModbusTCPGateway extends AbstractTestModbus {
+
+    private static final int GATEWAY_PORT = PORT + 33;
+    private static final int TARGET_PORT = PORT + 34;
+    private static final int SILENT_PORT = PORT + 35;
+    private static final int ASYNC_SILENT_PORT = PORT + 48;
+    private static final int OTHER_UNIT_ID = UNIT_ID + 1;
+    private static ModbusSlave target;
+    private static ModbusTCPMaster master;
+
+    @BeforeClass
+    public static void setUpSlave() throws Exception {
+        target = ModbusSlaveFactory.createTCPSlave(TARGET_PORT, 5);
+        target.addProcessImage(UNIT_ID, getSimpleProcessImage());
+        target.open();
+
+        ModbusGateway gateway = new ModbusGateway();
+        gateway.addBus(new ModbusTCPMaster(LOCALHOST, TARGET_PORT), 4, 2000, UNIT_ID);
+        slave = ModbusSlaveFactory.createTCPSlave(GATEWAY_PORT, 5);
+        slave.setGateway(gateway);
+        slave.open();
+
+        master = new ModbusTCPMaster(LOCALHOST, GATEWAY_PORT);
+        master.connect();
+    }
+
+    @AfterClass
+    public static void tearDownSlave() {
+        if (master != null) {
+            master.disconnect();
+        }
+        if (slave != null) {
+            slave.close();
+        }
+        if (target != null) {
+            target.close();
+        }
+    }
+
+    @Test
+    public void testForwardedRead() throws Exception {
+        InputRegister[] regs = master.readMultipleRegisters(UNIT_ID, 0, 5);
+        assertEquals("Incorrect number of registers", 5, regs.length);
+        assertEquals("Incorrect value for register 0", 251, regs[0].getValue());
+        assertEquals("Incorrect value for register 4", 4444, regs[4].getValue());
+        assertTrue("Request not forwarded", slave.getGateway().getBus(UNIT_ID).getForwarded() > 0);
+    }
+
+    @Test
+    public void testForwardedException() throws Exception {
+        try {
+            master.readMultipleRegisters(UNIT_ID, 5000, 1);
+            fail("Slave exception not forwarded");
+        }
+        catch (ModbusSlaveException e) {
+            assertEquals(Modbus.ILLEGAL_ADDRESS_EXCEPTION, e.getType());
+        }
+    }
+
+    @Test
+    public void testConcurrentClients() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 4; i++) {
+                results.add(clients.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        ModbusTCPMaster client = new ModbusTCPMaster(LOCALHOST, GATEWAY_PORT);
+                        client.connect();
+                        try {
+                            int total = 0;
+                            for (int j = 0; j < 10; j++) {
+                                total += client.readMultipleRegisters(UNIT_ID, 1, 1)[0].getValue();
+                            }
+                            return total;
+                        }
+                        finally {
+                            client.disconnect();
+                        }
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals("Incorrect total", 11110, (int)result.get(10, TimeUnit.SECONDS));
+            }
+        }
+        finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBackpressureAndShedding() throws Exception {
+        ServerSocket silent = new ServerSocket(SILENT_PORT);
+        final List<Socket> accepted = new CopyOnWriteArrayList<Socket>();
+        Thread acceptor = new Thread(() -> {
+            try {
+                accepted.add(silent.accept());
+            }
+            catch (Exception e) {
+                // Closed
+            }
+        });
+        acceptor.start();
+
+        ModbusTCPMaster stuck = new ModbusTCPMaster(LOCALHOST, SILENT_PORT);
+        stuck.setTimeout(1500);
+        final ModbusGateway gateway = new ModbusGateway();
+        final ModbusGateway.Bus bus = gateway.addBus(stuck, 1, 500, OTHER_UNIT_ID);
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        try {
+            gateway.open();
+
+            // The first request occupies the bus, the second fills the queue
+            List<Future<ModbusResponse>> waiting = new ArrayList<Future<ModbusResponse>>();
+            for (int i = 0; i < 2; i++) {
+                waiting.add(clients.submit(() -> gateway.forward(createRequest())));
+                Thread.sleep(100);
+            }
+
+            // So the third is turned away straight away
+            ModbusResponse rejected = gateway.forward(createRequest());
+            assertTrue("Request not rejected", rejected instanceof ExceptionResponse);
+            assertEquals(Modbus.GATEWAY_PATH_UNAVAILABLE, ((ExceptionResponse)rejected).getExceptionCode());
+            assertEquals("Incorrect rejected count", 1, bus.getRejected());
+
+            // The others time out
+            for (Future<ModbusResponse> result : waiting) {
+                ModbusResponse response = result.get(5, TimeUnit.SECONDS);
+                assertTrue("Request did not time out", response instanceof ExceptionResponse);
+                assertEquals(Modbus.GATEWAY_TARGET_NO_RESPONSE, ((ExceptionResponse)response).getExceptionCode());
+            }
+
+            // And the queued one is never sent
+            long end = System.currentTimeMillis() + 5000;
+            while (bus.getShed() == 0 && System.currentTimeMillis() < end) {
+                Thread.sleep(50);
+            }
+            assertEquals("Incorrect shed count", 1, bus.getShed());
+            assertEquals("Unexpected forwarded count", 0, bus.getForwarded());
+        }
+        finally {
+            clients.shutdownNow();
+            gateway.close();
+            silent.close();
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testAsyncTimeout() throws Exception {
+        ServerSocket silent = new ServerSocket(ASYNC_SILENT_PORT);
+        final List<Socket> accepted = new CopyOnWriteArrayList<Socket>();
+        Thread acceptor = new Thread(() -> {
+            try {
+                accepted.add(silent.accept());
+            }
+            catch (Exception e) {
+                // Closed
+            }
+        });
+        acceptor.start();
+
+        ModbusTCPMaster stuck = new ModbusTCPMaster(LOCALHOST, ASYNC_SILENT_PORT);
+        stuck.setTimeout(3000);
+        ModbusGateway gateway = new ModbusGateway();
+        gateway.addBus(stuck, 4, 500, OTHER_UNIT_ID);
+        try {
+            gateway.open();
+            ReadMultipleRegistersRequest request = createRequest();
+            request.setTransactionID(1234);
+            long start = System.nanoTime();
+            CompletableFuture<ModbusResponse> future = gateway.forwardAsync(request);
+            assertTrue("Caller held up by the bus", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 250);
+
+            // The client is answered with the header of its own request while the bus is still busy with it
+            ModbusResponse response = future.get(5, TimeUnit.SECONDS);
+            assertTrue("Request did not time out", response instanceof ExceptionResponse);
+            assertEquals(Modbus.GATEWAY_TARGET_NO_RESPONSE, ((ExceptionResponse)response).getExceptionCode());
+            assertEquals("Incorrect transaction ID", 1234, response.getTransactionID());
+            assertEquals("Incorrect unit ID", OTHER_UNIT_ID, response.getUnitID());
+        }
+        finally {
+            gateway.close();
+            silent.close();
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testUnroutedUnit() throws Exception {
+        ModbusGateway gateway = new ModbusGateway();
+        ModbusResponse response = gateway.forward(createRequest());
+        assertTrue("Request not rejected", response instanceof ExceptionResponse);
+        assertEquals(Modbus.GATEWAY_PATH_UNAVAILABLE, ((ExceptionResponse)response).getExceptionCode());
+    }
+
+    private static ReadMultipleRegistersRequest createRequest() {
+        ReadMultipleRegistersRequest request = new ReadMultipleRegistersRequest(0, 1);
+        request.setUnitID(OTHER_UNIT_ID);
+        return request;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.net.IdleConnectionWatchdog;
+import com.ghgande.j2mod.modbus.net.TCPSlaveConnection;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbus;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the closing of idle TCP slave connections
+ */
+public class TestModbusTCPIdleWatchdog extends AbstractTestModbus {
+
+    private static final int IDLE_PORT = PORT + 32;
+    private static final byte[] REQUEST = {0, 1, 0, 0, 0, 6, UNIT_ID, 3, 0, 0, 0, 1};
+
+    @BeforeClass
+    public static void setUpSlave() throws Exception {
+        slave = ModbusSlaveFactory.createTCPSlave(null, IDLE_PORT, 5, false, 1);
+        slave.addProcessImage(UNIT_ID, getSimpleProcessImage());
+        slave.open();
+    }
+
+    @AfterClass
+    public static void tearDownSlave() {
+        if (slave != null) {
+            slave.close();
+        }
+    }
+
+    @Test
+    public void testIdleConnectionClosed() throws Exception {
+        Socket socket = new Socket(LOCALHOST, IDLE_PORT);
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] response = new byte[11];
+
+            // Keep the connection busy for longer than the idle limit
+            long end = System.currentTimeMillis() + 2000;
+            while (System.currentTimeMillis() < end) {
+                out.write(REQUEST);
+                out.flush();
+                in.readFully(response);
+                assertEquals("Incorrect value for register 0", 251, ((response[9] & 0xFF) << 8) | (response[10] & 0xFF));
+                Thread.sleep(300);
+            }
+            assertTrue("Connection not watched", IdleConnectionWatchdog.getShared().getWatched() > 0);
+
+            // Then go quiet and wait for the slave to hang up
+            long start = System.currentTimeMillis();
+            assertEquals("Connection not closed", -1, ((InputStream)in).read());
+            assertTrue("Connection closed early", System.currentTimeMillis() - start >= 700);
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        IdleConnectionWatchdog watchdog = new IdleConnectionWatchdog(100, 8);
+        ServerSocket server = new ServerSocket(IDLE_PORT + 1);
+        Socket client = new Socket(LOCALHOST, IDLE_PORT + 1);
+        Socket accepted = server.accept();
+        try {
+            TCPSlaveConnection connection = new TCPSlaveConnection(accepted);
+            IdleConnectionWatchdog.Entry first = watchdog.watch(connection, 60);
+            IdleConnectionWatchdog.Entry second = watchdog.watch(connection, 60);
+            assertEquals(2, watchdog.getWatched());
+
+            // The count drops at once rather than when the slot comes round in a minute
+            first.cancel();
+            first.cancel();
+            assertEquals("Cancelled connection still watched", 1, watchdog.getWatched());
+            second.cancel();
+            assertEquals("Cancelled connection still watched", 0, watchdog.getWatched());
+        }
+        finally {
+            accepted.close();
+            client.close();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMaster;
+import com.ghgande.j2mod.modbus.slave.ModbusSlave;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbus;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the TCP slave listener running connections on an executor
+ * or on virtual threads
+ */
+public class TestModbusTCPListenerExecutor extends AbstractTestModbus {
+
+    private static final int EXECUTOR_PORT = PORT + 30;
+    private static final int VIRTUAL_PORT = PORT + 31;
+    private static ExecutorService executor;
+    private static ModbusSlave virtualSlave;
+
+    @BeforeClass
+    public static void setUpSlave() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        slave = ModbusSlaveFactory.createTCPSlave(null, EXECUTOR_PORT, executor, false, 0);
+        slave.addProcessImage(UNIT_ID, getSimpleProcessImage());
+        slave.open();
+
+        // Falls back to a thread pool before Java 21
+        virtualSlave = ModbusSlaveFactory.createTCPSlave(null, VIRTUAL_PORT, 5, false, 0, true);
+        virtualSlave.addProcessImage(UNIT_ID, getSimpleProcessImage());
+        virtualSlave.open();
+    }
+
+    @AfterClass
+    public static void tearDownSlave() {
+        if (slave != null) {
+            slave.close();
+        }
+        if (virtualSlave != null) {
+            virtualSlave.close();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExecutor() throws Exception {
+        // More connections than a thread pool would normally be given
+        readFromMany(EXECUTOR_PORT, 50);
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        readFromMany(VIRTUAL_PORT, 3);
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        // Stopping shuts down the threads the listener started, so a restart needs new ones
+        virtualSlave.close();
+        virtualSlave.open();
+        readFromMany(VIRTUAL_PORT, 3);
+        slave.close();
+        slave.open();
+        readFromMany(EXECUTOR_PORT, 3);
+    }
+
+    private static void readFromMany(int port, int connections) throws Exception {
+        List<ModbusTCPMaster> masters = new ArrayList<ModbusTCPMaster>();
+        try {
+            for (int i = 0; i < connections; i++) {
+                ModbusTCPMaster master = new ModbusTCPMaster(LOCALHOST, port);
+                master.connect();
+                masters.add(master);
+            }
+            for (ModbusTCPMaster master : masters) {
+                assertEquals("Incorrect value for register 0", 251, master.readMultipleRegisters(UNIT_ID, 0, 1)[0].getValue());
+            }
+        }
+        finally {
+            for (ModbusTCPMaster master : masters) {
+                master.disconnect();
+            }
+        }
+    }
+}
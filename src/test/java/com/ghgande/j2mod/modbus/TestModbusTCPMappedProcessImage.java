@@ -0,0 +1,144 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMaster;
+import com.ghgande.j2mod.modbus.procimg.MappedProcessImage;
+import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+import com.ghgande.j2mod.modbus.util.BitVector;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbus;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests a slave serving a memory mapped process image
+ */
+public class TestModbusTCPMappedProcessImage extends AbstractTestModbus {
+
+    private static final int MAPPED_PORT = PORT + 38;
+    private static final int SIZE = 65536;
+    private static Path file;
+    private static MappedProcessImage image;
+    private static ModbusTCPMaster master;
+
+    @BeforeClass
+    public static void setUpSlave() throws Exception {
+        file = Files.createTempFile("j2mod", ".img");
+        Files.delete(file);
+        image = new MappedProcessImage(UNIT_ID, file, SIZE, SIZE, SIZE, SIZE);
+        slave = ModbusSlaveFactory.createTCPSlave(MAPPED_PORT, 5);
+        slave.addProcessImage(UNIT_ID, image);
+        slave.open();
+        master = new ModbusTCPMaster(LOCALHOST, MAPPED_PORT);
+        master.connect();
+    }
+
+    @AfterClass
+    public static void tearDownSlave() throws Exception {
+        if (master != null) {
+            master.disconnect();
+        }
+        if (slave != null) {
+            slave.close();
+        }
+        image.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testWritesPersist() throws Exception {
+        master.writeSingleRegister(UNIT_ID, 100, new SimpleRegister(0xBEEF));
+        BitVector coils = new BitVector(11);
+        coils.setBit(0, true);
+        coils.setBit(10, true);
+        master.writeMultipleCoils(UNIT_ID, 13, coils);
+        image.force();
+
+        try (MappedProcessImage reopened = new MappedProcessImage(UNIT_ID, file)) {
+            assertEquals("Incorrect register count", SIZE, reopened.getRegisterCount());
+            assertEquals("Register not persisted", 0xBEEF, reopened.getRegisterValue(100));
+            assertTrue("Coil 13 not persisted", reopened.getDigitalOutValue(13));
+            assertFalse("Coil 14 set", reopened.getDigitalOutValue(14));
+            assertTrue("Coil 23 not persisted", reopened.getDigitalOutValue(23));
+        }
+    }
+
+    @Test
+    public void testSharedMapping() throws Exception {
+        try (MappedProcessImage feeder = new MappedProcessImage(UNIT_ID, file)) {
+            feeder.setInputRegisterValue(7, 4321);
+            feeder.setDigitalInValue(9, true);
+            feeder.setDigitalInValue(17, true);
+        }
+        assertEquals("Input register not shared", 4321, master.readInputRegisters(UNIT_ID, 7, 1)[0].getValue());
+        BitVector inputs = master.readInputDiscretes(UNIT_ID, 5, 13);
+        for (int i = 0; i < inputs.size(); i++) {
+            assertEquals("Incorrect discrete input " + (5 + i), i == 4 || i == 12, inputs.getBit(i));
+        }
+    }
+
+    @Test
+    public void testBadFiles() throws Exception {
+        try {
+            new MappedProcessImage(UNIT_ID, file, SIZE, SIZE, SIZE, 10).close();
+            fail("Size mismatch not detected");
+        }
+        catch (IOException e) {
+            // Expected
+        }
+
+        Path other = Files.createTempFile("j2mod", ".img");
+        try {
+            Files.write(other, new byte[32]);
+            new MappedProcessImage(UNIT_ID, other).close();
+            fail("Invalid file accepted");
+        }
+        catch (IOException e) {
+            // Expected
+        }
+        finally {
+            Files.delete(other);
+        }
+
+        // A valid image whose header has been corrupted
+        Path corrupt = Files.createTempFile("j2mod", ".img");
+        try {
+            Files.delete(corrupt);
+            new MappedProcessImage(UNIT_ID, corrupt, 8, 8, 8, 8).close();
+            byte[] contents = Files.readAllBytes(corrupt);
+            contents[20] = (byte)0xFF;
+            contents[21] = (byte)0xFF;
+            contents[22] = (byte)0xFF;
+            Files.write(corrupt, contents);
+            new MappedProcessImage(UNIT_ID, corrupt).close();
+            fail("Corrupt header accepted");
+        }
+        catch (IOException e) {
+            // Expected
+        }
+        finally {
+            Files.deleteIfExists(corrupt);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMaster;
+import com.ghgande.j2mod.modbus.procimg.Register;
+import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbusTCPMaster;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the asynchronous TCP master methods
+ */
+public class TestModbusTCPMasterAsync extends AbstractTestModbusTCPMaster {
+
+    @Test
+    public void testReadAsync() throws Exception {
+        assertTrue("Incorrect status for coil 0", master.readCoilsAsync(UNIT_ID, 0, 1).get().getBit(0));
+        assertTrue("Incorrect status for discrete 1", master.readInputDiscretesAsync(UNIT_ID, 1, 1).get().getBit(0));
+        assertEquals("Incorrect value for input register 0", 45, master.readInputRegistersAsync(UNIT_ID, 0, 1).get()[0].getValue());
+        assertEquals("Incorrect value for register 1", 1111, master.readMultipleRegistersAsync(UNIT_ID, 1, 1).get()[0].getValue());
+    }
+
+    @Test
+    public void testWriteAsync() throws Exception {
+        assertEquals("Incorrect write count", 1, (int)master.writeMultipleRegistersAsync(UNIT_ID, 3, new Register[]{new SimpleRegister(3333)}).get());
+        assertEquals("Incorrect register value", 3333, master.readMultipleRegistersAsync(UNIT_ID, 3, 1).get()[0].getValue());
+    }
+
+    @Test
+    public void testExceptionAsync() throws Exception {
+        try {
+            master.readMultipleRegistersAsync(UNIT_ID, 100, 1).get();
+            fail("Invalid address not thrown");
+        }
+        catch (ExecutionException e) {
+            assertTrue("Unexpected cause " + e.getCause(), e.getCause() instanceof ModbusSlaveException);
+        }
+    }
+
+    @Test
+    public void testPipelinedAsync() throws Exception {
+        ModbusTCPMaster pipelinedMaster = new ModbusTCPMaster(LOCALHOST, PORT);
+        pipelinedMaster.setPipelineDepth(8);
+        try {
+            pipelinedMaster.connect();
+            List<CompletableFuture<Register[]>> futures = new ArrayList<CompletableFuture<Register[]>>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(pipelinedMaster.readMultipleRegistersAsync(UNIT_ID, i % 3, 1));
+            }
+            int[] expected = {251, 1111, 2222};
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals("Incorrect value for read " + i, expected[i % 3], futures.get(i).get()[0].getValue());
+            }
+
+            // Blocking calls still work on a pipelined master
+            assertEquals("Incorrect value for register 0", 251, pipelinedMaster.readMultipleRegisters(UNIT_ID, 0, 1)[0].getValue());
+        }
+        finally {
+            pipelinedMaster.disconnect();
+        }
+    }
+}
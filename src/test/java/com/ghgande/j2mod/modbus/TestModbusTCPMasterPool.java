@@ -0,0 +1,124 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMaster;
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMasterPool;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbusTCPMaster;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the pooling of TCP masters
+ */
+public class TestModbusTCPMasterPool extends AbstractTestModbusTCPMaster {
+
+    private ModbusTCPMasterPool pool;
+
+    @Before
+    public void createPool() {
+        pool = new ModbusTCPMasterPool(2);
+        pool.setBorrowTimeout(5000);
+    }
+
+    @After
+    public void closePool() {
+        pool.close();
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final AtomicReference<String> error = new AtomicReference<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 6; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 20; i++) {
+                        int value = pool.execute(LOCALHOST, PORT, pooled -> {
+                            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                            try {
+                                return pooled.readMultipleRegisters(UNIT_ID, 0, 1)[0].getValue();
+                            }
+                            finally {
+                                active.decrementAndGet();
+                            }
+                        });
+                        if (value != 251) {
+                            error.set("Register 0 returned " + value);
+                        }
+                    }
+                }
+                catch (Exception e) {
+                    error.set(e.getMessage());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get(), error.get());
+        assertTrue("Too many concurrent leases " + maxActive.get(), maxActive.get() <= 2);
+
+        ModbusTCPMasterPool.Stats stats = pool.getStats(LOCALHOST, PORT);
+        assertTrue("Too many connections opened " + stats, stats.getCreated() <= 2);
+        assertEquals(120, stats.getBorrowed());
+        assertEquals(0, stats.getLeased());
+    }
+
+    @Test
+    public void testBorrowTimeout() throws Exception {
+        pool.setBorrowTimeout(100);
+        ModbusTCPMaster first = pool.borrow(LOCALHOST, PORT);
+        ModbusTCPMaster second = pool.borrow(LOCALHOST, PORT);
+        try {
+            pool.borrow(LOCALHOST, PORT);
+            fail("Connection limit not enforced");
+        }
+        catch (ModbusException e) {
+            assertEquals(1, pool.getStats(LOCALHOST, PORT).getWaitTimeouts());
+        }
+        finally {
+            pool.release(first);
+            pool.invalidate(second);
+        }
+        ModbusTCPMasterPool.Stats stats = pool.getStats(LOCALHOST, PORT);
+        assertEquals(1, stats.getIdle());
+        assertEquals(1, stats.getEvicted());
+    }
+
+    @Test
+    public void testEvictIdle() throws Exception {
+        pool.release(pool.borrow(LOCALHOST, PORT));
+        assertEquals(1, pool.getStats(LOCALHOST, PORT).getIdle());
+        pool.setMaxIdleMillis(0);
+        Thread.sleep(10);
+        pool.evictIdle();
+        assertEquals(0, pool.getStats(LOCALHOST, PORT).getIdle());
+        assertEquals(1, pool.getStats(LOCALHOST, PORT).getEvicted());
+    }
+}
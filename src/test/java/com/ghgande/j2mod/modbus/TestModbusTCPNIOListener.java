@@ -0,0 +1,184 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMaster;
+import com.ghgande.j2mod.modbus.io.ModbusTCPPipeline;
+import com.ghgande.j2mod.modbus.msg.ModbusResponse;
+import com.ghgande.j2mod.modbus.msg.ReadMultipleRegistersRequest;
+import com.ghgande.j2mod.modbus.msg.ReadMultipleRegistersResponse;
+import com.ghgande.j2mod.modbus.net.TCPMasterConnection;
+import com.ghgande.j2mod.modbus.slave.ModbusGateway;
+import com.ghgande.j2mod.modbus.slave.ModbusSlave;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbus;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the non-blocking TCP slave listener
+ */
+public class TestModbusTCPNIOListener extends AbstractTestModbus {
+
+    private static final int NIO_PORT = PORT + 10;
+    private static final int GATEWAY_PORT = PORT + 47;
+    private static final int SILENT_PORT = PORT + 50;
+
+    @BeforeClass
+    public static void setUpSlave() throws Exception {
+        slave = ModbusSlaveFactory.createNIOTCPSlave(NIO_PORT, 2);
+        slave.addProcessImage(UNIT_ID, getSimpleProcessImage());
+        slave.open();
+    }
+
+    @AfterClass
+    public static void tearDownSlave() {
+        if (slave != null) {
+            slave.close();
+        }
+    }
+
+    @Test
+    public void testManyConnections() throws Exception {
+        List<ModbusTCPMaster> masters = new ArrayList<ModbusTCPMaster>();
+        try {
+            for (int i = 0; i < 50; i++) {
+                ModbusTCPMaster master = new ModbusTCPMaster(LOCALHOST, NIO_PORT);
+                master.connect();
+                masters.add(master);
+            }
+            for (ModbusTCPMaster master : masters) {
+                assertEquals("Incorrect value for register 0", 251, master.readMultipleRegisters(UNIT_ID, 0, 1)[0].getValue());
+                assertEquals("Incorrect value for input register 0", 45, master.readInputRegisters(UNIT_ID, 0, 1)[0].getValue());
+            }
+        }
+        finally {
+            for (ModbusTCPMaster master : masters) {
+                master.disconnect();
+            }
+        }
+    }
+
+    @Test
+    public void testPipelinedFrames() throws Exception {
+        TCPMasterConnection connection = new TCPMasterConnection(InetAddress.getByName(LOCALHOST));
+        connection.setPort(NIO_PORT);
+        ModbusTCPPipeline pipeline = new ModbusTCPPipeline(connection, 8);
+        try {
+            List<CompletableFuture<ModbusResponse>> futures = new ArrayList<CompletableFuture<ModbusResponse>>();
+            for (int i = 0; i < 32; i++) {
+                ReadMultipleRegistersRequest request = new ReadMultipleRegistersRequest(1, 2);
+                request.setUnitID(UNIT_ID);
+                futures.add(pipeline.submit(request));
+            }
+            for (CompletableFuture<ModbusResponse> future : futures) {
+                ReadMultipleRegistersResponse response = (ReadMultipleRegistersResponse)future.get();
+                assertEquals(1111, response.getRegisterValue(0));
+                assertEquals(2222, response.getRegisterValue(1));
+            }
+        }
+        finally {
+            pipeline.close();
+        }
+    }
+
+    @Test
+    public void testUnknownUnitId() throws Exception {
+        ModbusTCPMaster master = new ModbusTCPMaster(LOCALHOST, NIO_PORT);
+        try {
+            master.connect();
+            master.readMultipleRegisters(UNIT_ID + 1, 0, 1);
+            fail("Unknown unit ID not reported");
+        }
+        catch (ModbusSlaveException e) {
+            assertEquals(Modbus.ILLEGAL_ADDRESS_EXCEPTION, e.getType());
+        }
+        finally {
+            master.disconnect();
+        }
+    }
+
+    @Test
+    public void testGatewayDoesNotBlockSelector() throws Exception {
+        ServerSocket silent = new ServerSocket(SILENT_PORT);
+        final List<Socket> accepted = new CopyOnWriteArrayList<Socket>();
+        Thread acceptor = new Thread(() -> {
+            try {
+                accepted.add(silent.accept());
+            }
+            catch (Exception e) {
+                // Closed
+            }
+        });
+        acceptor.start();
+
+        ModbusTCPMaster stuck = new ModbusTCPMaster(LOCALHOST, SILENT_PORT);
+        stuck.setTimeout(3000);
+        ModbusGateway gateway = new ModbusGateway();
+        gateway.addBus(stuck, 4, 1500, UNIT_ID + 1);
+        ModbusSlave gatewaySlave = ModbusSlaveFactory.createNIOTCPSlave(GATEWAY_PORT, 1);
+        gatewaySlave.addProcessImage(UNIT_ID, getSimpleProcessImage());
+        gatewaySlave.setGateway(gateway);
+        ModbusTCPMaster forwarded = new ModbusTCPMaster(LOCALHOST, GATEWAY_PORT);
+        ModbusTCPMaster local = new ModbusTCPMaster(LOCALHOST, GATEWAY_PORT);
+        ExecutorService clients = Executors.newSingleThreadExecutor();
+        try {
+            gatewaySlave.open();
+            forwarded.connect();
+            local.connect();
+
+            // The forwarded request waits for the silent bus...
+            Future<Integer> result = clients.submit(() -> {
+                try {
+                    forwarded.readMultipleRegisters(UNIT_ID + 1, 0, 1);
+                    return 0;
+                }
+                catch (ModbusSlaveException e) {
+                    return e.getType();
+                }
+            });
+            Thread.sleep(100);
+
+            // ...without holding up the only selector thread
+            long start = System.nanoTime();
+            assertEquals("Incorrect value for register 0", 251, local.readMultipleRegisters(UNIT_ID, 0, 1)[0].getValue());
+            assertTrue("Local request held up by the bus", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+
+            // The forwarded client still gets its answer on the same connection
+            assertEquals("Incorrect exception", Modbus.GATEWAY_TARGET_NO_RESPONSE, (int)result.get(5, TimeUnit.SECONDS));
+        }
+        finally {
+            clients.shutdownNow();
+            forwarded.disconnect();
+            local.disconnect();
+            gatewaySlave.close();
+            silent.close();
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+    }
+}
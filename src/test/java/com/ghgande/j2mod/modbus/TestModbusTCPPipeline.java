@@ -0,0 +1,147 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.io.ModbusTCPPipeline;
+import com.ghgande.j2mod.modbus.io.ModbusTCPPipelinedTransaction;
+import com.ghgande.j2mod.modbus.msg.ModbusResponse;
+import com.ghgande.j2mod.modbus.msg.ReadMultipleRegistersRequest;
+import com.ghgande.j2mod.modbus.msg.ReadMultipleRegistersResponse;
+import com.ghgande.j2mod.modbus.net.TCPMasterConnection;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbusTCPMaster;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests pipelining of requests over a single TCP connection
+ */
+public class TestModbusTCPPipeline extends AbstractTestModbusTCPMaster {
+
+    private static final int[] HOLDING_REGISTERS = {251, 1111, 2222, 3333, 4444};
+
+    private ModbusTCPPipeline pipeline;
+
+    @Before
+    public void openPipeline() throws Exception {
+        TCPMasterConnection connection = new TCPMasterConnection(InetAddress.getByName(LOCALHOST));
+        connection.setPort(PORT);
+        pipeline = new ModbusTCPPipeline(connection, 4);
+        pipeline.open();
+    }
+
+    @After
+    public void closePipeline() {
+        pipeline.close();
+    }
+
+    @Test
+    public void testSubmitMoreThanDepth() throws Exception {
+        List<CompletableFuture<ModbusResponse>> futures = new ArrayList<CompletableFuture<ModbusResponse>>();
+        for (int i = 0; i < 20; i++) {
+            ReadMultipleRegistersRequest request = new ReadMultipleRegistersRequest(i % HOLDING_REGISTERS.length, 1);
+            request.setUnitID(UNIT_ID);
+            futures.add(pipeline.submit(request));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            ReadMultipleRegistersResponse response = (ReadMultipleRegistersResponse)futures.get(i).get();
+            assertEquals("Incorrect value for register " + i, HOLDING_REGISTERS[i % HOLDING_REGISTERS.length], response.getRegisterValue(0));
+        }
+        assertEquals("Requests still outstanding", 0, pipeline.getOutstanding());
+    }
+
+    @Test
+    public void testConcurrentTransactions() throws Exception {
+        final AtomicReference<String> error = new AtomicReference<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final int ref = t % HOLDING_REGISTERS.length;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        ReadMultipleRegistersRequest request = new ReadMultipleRegistersRequest(ref, 1);
+                        request.setUnitID(UNIT_ID);
+                        ModbusTCPPipelinedTransaction transaction = pipeline.createTransaction();
+                        transaction.setRequest(request);
+                        transaction.execute();
+                        int value = ((ReadMultipleRegistersResponse)transaction.getResponse()).getRegisterValue(0);
+                        if (value != HOLDING_REGISTERS[ref]) {
+                            error.set(String.format("Register %d returned %d", ref, value));
+                        }
+                    }
+                }
+                catch (Exception e) {
+                    error.set(e.getMessage());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get(), error.get());
+    }
+
+    @Test
+    public void testExceptionResponse() {
+        ReadMultipleRegistersRequest request = new ReadMultipleRegistersRequest(100, 1);
+        request.setUnitID(UNIT_ID);
+        try {
+            new ModbusTCPPipelinedTransaction(pipeline, request).execute();
+            fail("Invalid address not thrown");
+        }
+        catch (ModbusSlaveException e) {
+            assertEquals(Modbus.ILLEGAL_ADDRESS_EXCEPTION, e.getType());
+        }
+        catch (ModbusException e) {
+            fail(String.format("Unexpected error - %s", e.getMessage()));
+        }
+    }
+
+    @Test
+    public void testSubmitDoesNotBlock() throws Exception {
+        TCPMasterConnection connection = new TCPMasterConnection(InetAddress.getByName(LOCALHOST));
+        connection.setPort(PORT + 45);
+        ModbusTCPPipeline unreachable = new ModbusTCPPipeline(connection, 1);
+        try {
+            ReadMultipleRegistersRequest request = new ReadMultipleRegistersRequest(0, 1);
+            request.setUnitID(UNIT_ID);
+            long start = System.nanoTime();
+            CompletableFuture<ModbusResponse> future = unreachable.submit(request);
+            assertTrue("Submit waited for the connection", System.nanoTime() - start < 50000000L);
+            try {
+                future.get();
+                fail("Request to an unreachable slave succeeded");
+            }
+            catch (ExecutionException e) {
+                assertTrue("Incorrect failure " + e.getCause(), e.getCause() instanceof ModbusIOException);
+            }
+        }
+        finally {
+            unreachable.close();
+        }
+    }
+}
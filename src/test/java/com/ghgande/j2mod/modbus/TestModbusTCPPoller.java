@@ -0,0 +1,165 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusPoller;
+import com.ghgande.j2mod.modbus.facade.ModbusPoller.Group;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Point;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Table;
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMasterPool;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbusTCPMaster;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the scheduled scanning of poll groups
+ */
+public class TestModbusTCPPoller extends AbstractTestModbusTCPMaster {
+
+    private ModbusTCPMasterPool pool;
+    private ModbusPoller poller;
+
+    @Before
+    public void createPoller() {
+        pool = new ModbusTCPMasterPool(2);
+        poller = new ModbusPoller(pool, 2);
+    }
+
+    @After
+    public void closePoller() {
+        poller.stop();
+        pool.close();
+    }
+
+    @Test
+    public void testScans() throws Exception {
+        final AtomicReference<String> error = new AtomicReference<String>();
+        final CountDownLatch fastScans = new CountDownLatch(10);
+        final CountDownLatch slowScans = new CountDownLatch(2);
+        Group fast = new Group("fast", LOCALHOST, PORT, 20, new Listener(error) {
+            @Override
+            public void scanCompleted(Group group, Map<Point, Integer> values) {
+                check(values, new Point(UNIT_ID, Table.HOLDING_REGISTER, 0), 251);
+                check(values, new Point(UNIT_ID, Table.HOLDING_REGISTER, 2), 2222);
+                fastScans.countDown();
+            }
+        }).addBlock(UNIT_ID, Table.HOLDING_REGISTER, 0, 3);
+        Group slow = new Group("slow", LOCALHOST, PORT, 100, new Listener(error) {
+            @Override
+            public void scanCompleted(Group group, Map<Point, Integer> values) {
+                check(values, new Point(UNIT_ID, Table.INPUT_REGISTER, 0), 45);
+                check(values, new Point(UNIT_ID, Table.COIL, 0), 1);
+                slowScans.countDown();
+            }
+        }).addPoint(new Point(UNIT_ID, Table.INPUT_REGISTER, 0)).addPoint(new Point(UNIT_ID, Table.COIL, 0));
+        poller.addGroup(fast);
+        poller.addGroup(slow);
+        poller.start();
+
+        assertTrue("Fast group not scanned", fastScans.await(5, TimeUnit.SECONDS));
+        assertTrue("Slow group not scanned", slowScans.await(5, TimeUnit.SECONDS));
+        poller.stop();
+        assertNull(error.get(), error.get());
+
+        ModbusPoller.Stats stats = fast.getStats();
+        assertEquals("Scans failed " + stats, 0, stats.getFailures());
+        assertTrue("Jitter not recorded " + stats, stats.getScans() < 2 || stats.getMaxJitterNanos() > 0);
+
+        // Each worker needs at most one connection, whatever the number of scans
+        assertTrue("Connections not re-used", pool.getStats(LOCALHOST, PORT).getCreated() <= 2);
+    }
+
+    @Test
+    public void testFailedScan() throws Exception {
+        final CountDownLatch failed = new CountDownLatch(1);
+        final AtomicReference<ModbusException> error = new AtomicReference<ModbusException>();
+        Group group = new Group("invalid", LOCALHOST, PORT, 50, new ModbusPoller.Listener() {
+            @Override
+            public void scanCompleted(Group group, Map<Point, Integer> values) {
+            }
+
+            @Override
+            public void scanFailed(Group group, ModbusException e) {
+                error.set(e);
+                failed.countDown();
+            }
+        }).addPoint(new Point(UNIT_ID, Table.HOLDING_REGISTER, 5000));
+        poller.addGroup(group);
+        poller.start();
+        assertTrue("Failure not reported", failed.await(5, TimeUnit.SECONDS));
+        assertTrue("Incorrect failure " + error.get(), error.get() instanceof ModbusSlaveException);
+    }
+
+    @Test
+    public void testOverrun() throws Exception {
+        final AtomicInteger scans = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(3);
+        Group group = new Group("overrun", LOCALHOST, PORT, 20, new Listener(new AtomicReference<String>()) {
+            @Override
+            public void scanCompleted(Group group, Map<Point, Integer> values) {
+                scans.incrementAndGet();
+                try {
+                    Thread.sleep(70);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        }).addPoint(new Point(UNIT_ID, Table.HOLDING_REGISTER, 0));
+        poller.setOverrunPolicy(ModbusPoller.OverrunPolicy.SKIP);
+        poller.addGroup(group);
+        poller.start();
+        assertTrue("Group not scanned", done.await(5, TimeUnit.SECONDS));
+        poller.stop();
+
+        ModbusPoller.Stats stats = group.getStats();
+        assertEquals("Incorrect scan count " + stats, scans.get(), stats.getScans());
+        assertTrue("Missed cycles not counted " + stats, stats.getMissedCycles() >= 3 * (stats.getScans() - 1));
+    }
+
+    /**
+     * Listener that records the first unexpected value
+     */
+    private abstract static class Listener implements ModbusPoller.Listener {
+        private final AtomicReference<String> error;
+
+        Listener(AtomicReference<String> error) {
+            this.error = error;
+        }
+
+        void check(Map<Point, Integer> values, Point point, int expected) {
+            Integer value = values.get(point);
+            if (value == null || value != expected) {
+                error.compareAndSet(null, String.format("Point %s returned %s instead of %d", point, value, expected));
+            }
+        }
+
+        @Override
+        public void scanFailed(Group group, ModbusException e) {
+            error.compareAndSet(null, String.format("Scan of %s failed - %s", group, e.getMessage()));
+        }
+    }
+}
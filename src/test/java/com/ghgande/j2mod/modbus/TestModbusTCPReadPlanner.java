@@ -0,0 +1,103 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Point;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Read;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Table;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbusTCPMaster;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the coalescing of scattered reads
+ */
+public class TestModbusTCPReadPlanner extends AbstractTestModbusTCPMaster {
+
+    @Test
+    public void testPlan() {
+        ModbusReadPlanner planner = new ModbusReadPlanner();
+        List<Point> points = Arrays.asList(
+                new Point(UNIT_ID, Table.HOLDING_REGISTER, 10),
+                new Point(UNIT_ID, Table.HOLDING_REGISTER, 11),
+                new Point(UNIT_ID, Table.HOLDING_REGISTER, 14),
+                new Point(UNIT_ID, Table.HOLDING_REGISTER, 11),
+                new Point(UNIT_ID, Table.COIL, 3),
+                new Point(UNIT_ID + 1, Table.HOLDING_REGISTER, 10));
+
+        List<Read> reads = planner.plan(points);
+        assertEquals(4, reads.size());
+        assertRead(reads.get(0), UNIT_ID, Table.COIL, 3, 1);
+        assertRead(reads.get(1), UNIT_ID, Table.HOLDING_REGISTER, 10, 2);
+        assertRead(reads.get(2), UNIT_ID, Table.HOLDING_REGISTER, 14, 1);
+
+        planner.setMaxGap(2);
+        reads = planner.plan(points);
+        assertEquals(3, reads.size());
+        assertRead(reads.get(1), UNIT_ID, Table.HOLDING_REGISTER, 10, 5);
+    }
+
+    @Test
+    public void testPlanLimits() {
+        ModbusReadPlanner planner = new ModbusReadPlanner();
+        List<Point> points = new ArrayList<Point>();
+        for (int i = 0; i < 300; i++) {
+            points.add(new Point(UNIT_ID, Table.INPUT_REGISTER, i));
+        }
+        for (int i = 0; i < 2001; i++) {
+            points.add(new Point(UNIT_ID, Table.DISCRETE_INPUT, i));
+        }
+
+        List<Read> reads = planner.plan(points);
+        assertEquals(5, reads.size());
+        assertRead(reads.get(0), UNIT_ID, Table.DISCRETE_INPUT, 0, Modbus.MAX_BITS);
+        assertRead(reads.get(1), UNIT_ID, Table.DISCRETE_INPUT, Modbus.MAX_BITS, 1);
+        assertRead(reads.get(2), UNIT_ID, Table.INPUT_REGISTER, 0, Modbus.MAX_REGISTERS);
+        assertRead(reads.get(3), UNIT_ID, Table.INPUT_REGISTER, Modbus.MAX_REGISTERS, Modbus.MAX_REGISTERS);
+        assertRead(reads.get(4), UNIT_ID, Table.INPUT_REGISTER, 2 * Modbus.MAX_REGISTERS, 50);
+    }
+
+    @Test
+    public void testReadPoints() throws Exception {
+        Point holding0 = new Point(UNIT_ID, Table.HOLDING_REGISTER, 0);
+        Point holding4 = new Point(UNIT_ID, Table.HOLDING_REGISTER, 4);
+        Point input1 = new Point(UNIT_ID, Table.INPUT_REGISTER, 1);
+        Point coil0 = new Point(UNIT_ID, Table.COIL, 0);
+        Point discrete1 = new Point(UNIT_ID, Table.DISCRETE_INPUT, 1);
+
+        Map<Point, Integer> values = master.readPoints(Arrays.asList(holding0, holding4, input1, coil0, discrete1), 3);
+        assertEquals("Unwanted points returned", 5, values.size());
+        assertEquals(251, (int)values.get(holding0));
+        assertEquals(4444, (int)values.get(holding4));
+        assertEquals(9999, (int)values.get(input1));
+        assertEquals(1, (int)values.get(coil0));
+        assertEquals(1, (int)values.get(discrete1));
+    }
+
+    private static void assertRead(Read read, int unitId, Table table, int reference, int count) {
+        assertEquals("Incorrect unit for " + read, unitId, read.getUnitId());
+        assertEquals("Incorrect table for " + read, table, read.getTable());
+        assertEquals("Incorrect reference for " + read, reference, read.getReference());
+        assertEquals("Incorrect count for " + read, count, read.getCount());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMaster;
+import com.ghgande.j2mod.modbus.procimg.Register;
+import com.ghgande.j2mod.modbus.procimg.SnapshotProcessImage;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+import com.ghgande.j2mod.modbus.util.BitVector;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbus;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests a slave serving a copy-on-write process image
+ */
+public class TestModbusTCPSnapshotProcessImage extends AbstractTestModbus {
+
+    private static final int SNAPSHOT_PORT = PORT + 39;
+    private static final int SIZE = 1000;
+    private static SnapshotProcessImage image;
+    private static ModbusTCPMaster master;
+
+    @BeforeClass
+    public static void setUpSlave() throws Exception {
+        image = new SnapshotProcessImage(UNIT_ID, SIZE);
+        slave = ModbusSlaveFactory.createTCPSlave(SNAPSHOT_PORT, 5);
+        slave.addProcessImage(UNIT_ID, image);
+        slave.open();
+        master = new ModbusTCPMaster(LOCALHOST, SNAPSHOT_PORT);
+        master.connect();
+    }
+
+    @AfterClass
+    public static void tearDownSlave() {
+        if (master != null) {
+            master.disconnect();
+        }
+        if (slave != null) {
+            slave.close();
+        }
+    }
+
+    @Test
+    public void testNoTornReads() throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            short[] values = new short[125];
+            short value = 0;
+            while (running.get()) {
+                Arrays.fill(values, value++);
+                // Spans a page boundary
+                image.setRegisterValues(200, values.length, values, 0);
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 200; i++) {
+                Register[] regs = master.readMultipleRegisters(UNIT_ID, 200, 125);
+                for (Register reg : regs) {
+                    assertEquals("Torn read", regs[0].getValue(), reg.getValue());
+                }
+            }
+        }
+        finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        image.update(() -> {
+            image.setRegisterValue(900, 1);
+            image.setInputRegisterValue(900, 2);
+            image.setDigitalOutValue(900, true);
+        });
+        assertEquals("Register not published", 1, master.readMultipleRegisters(UNIT_ID, 900, 1)[0].getValue());
+        assertEquals("Input register not published", 2, master.readInputRegisters(UNIT_ID, 900, 1)[0].getValue());
+        assertTrue("Coil not published", master.readCoils(UNIT_ID, 900, 1).getBit(0));
+
+        try {
+            image.update(() -> {
+                image.setRegisterValue(900, 3);
+                throw new IllegalStateException("Abandoned");
+            });
+            fail("Exception not thrown");
+        }
+        catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals("Failed update published", 1, image.getRegisterValue(900));
+    }
+
+    @Test
+    public void testBits() throws Exception {
+        BitVector coils = new BitVector(20);
+        coils.setBit(0, true);
+        coils.setBit(19, true);
+        master.writeMultipleCoils(UNIT_ID, 250, coils);
+        BitVector read = master.readCoils(UNIT_ID, 249, 22);
+        for (int i = 0; i < read.size(); i++) {
+            assertEquals("Incorrect coil " + (249 + i), i == 1 || i == 20, read.getBit(i));
+        }
+    }
+}
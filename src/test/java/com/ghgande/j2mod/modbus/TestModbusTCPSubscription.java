@@ -0,0 +1,148 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusPoller;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Point;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Table;
+import com.ghgande.j2mod.modbus.facade.ModbusSubscription;
+import com.ghgande.j2mod.modbus.facade.ModbusSubscription.DataType;
+import com.ghgande.j2mod.modbus.facade.ModbusSubscription.Subscription;
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMasterPool;
+import com.ghgande.j2mod.modbus.procimg.SimpleRegister;
+import com.ghgande.j2mod.modbus.util.ModbusUtil;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbusTCPMaster;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the reporting of changed values
+ */
+public class TestModbusTCPSubscription extends AbstractTestModbusTCPMaster {
+
+    private ModbusTCPMasterPool pool;
+    private ModbusPoller poller;
+    private ModbusSubscription group;
+
+    @Before
+    public void createPoller() {
+        pool = new ModbusTCPMasterPool(1);
+        poller = new ModbusPoller(pool, 1);
+        group = new ModbusSubscription("subscription", LOCALHOST, PORT, 20);
+    }
+
+    @After
+    public void closePoller() {
+        poller.stop();
+        pool.close();
+    }
+
+    @Test
+    public void testDeadband() throws Exception {
+        List<double[]> absolute = new CopyOnWriteArrayList<double[]>();
+        List<double[]> any = new CopyOnWriteArrayList<double[]>();
+        List<double[]> wide = new CopyOnWriteArrayList<double[]>();
+        Point point = new Point(UNIT_ID, Table.HOLDING_REGISTER, 1);
+        group.subscribe(point, DataType.UINT16, 10, false, (subscription, value, previous) -> absolute.add(new double[]{value, previous}));
+        group.subscribe(point, DataType.INT32, (subscription, value, previous) -> any.add(new double[]{value, previous}));
+        Subscription percent = group.subscribe(point, DataType.INT16, 50, true, (subscription, value, previous) -> wide.add(new double[]{value, previous}));
+        poller.addGroup(group);
+        poller.start();
+
+        int original = master.readMultipleRegisters(UNIT_ID, 1, 1)[0].getValue();
+        try {
+            awaitScans(2);
+            assertEquals("Initial value not reported", 1, absolute.size());
+            assertEquals(1111, absolute.get(0)[0], 0);
+            assertTrue("Initial value has a previous value", Double.isNaN(absolute.get(0)[1]));
+            assertEquals("Incorrect 32 bit value", (1111 << 16) | 2222, any.get(0)[0], 0);
+
+            // Within the deadband
+            master.writeSingleRegister(UNIT_ID, 1, new SimpleRegister(1115));
+            awaitScans(2);
+            assertEquals("Change within deadband reported", 1, absolute.size());
+            assertEquals("Change not reported", 2, any.size());
+
+            // Outside the absolute deadband but within the percentage
+            master.writeSingleRegister(UNIT_ID, 1, new SimpleRegister(1130));
+            awaitScans(2);
+            assertEquals("Change outside deadband not reported", 2, absolute.size());
+            assertEquals(1130, absolute.get(1)[0], 0);
+            assertEquals("Incorrect previous value", 1111, absolute.get(1)[1], 0);
+            assertEquals("Change within percentage deadband reported", 1, wide.size());
+            assertEquals(1111, percent.getValue(), 0);
+
+            // Steady values are not reported again
+            awaitScans(3);
+            assertEquals(2, absolute.size());
+            assertEquals(3, any.size());
+        }
+        finally {
+            master.writeSingleRegister(UNIT_ID, 1, new SimpleRegister(original));
+        }
+    }
+
+    @Test
+    public void testUnsubscribe() throws Exception {
+        Point point = new Point(UNIT_ID, Table.INPUT_REGISTER, 0);
+        Subscription subscription = group.subscribe(point, DataType.UINT16, (s, value, previous) -> {
+        });
+        group.subscribe(new Point(UNIT_ID, Table.COIL, 0), DataType.BIT, (s, value, previous) -> {
+        });
+        poller.addGroup(group);
+        poller.start();
+        awaitScans(1);
+        assertEquals(45, subscription.getValue(), 0);
+        assertEquals(2, group.getPoints().size());
+
+        group.unsubscribe(subscription);
+        assertEquals("Point still read", 1, group.getPoints().size());
+        assertEquals(1, group.getSubscriptions().size());
+
+        try {
+            group.subscribe(point, DataType.BIT, (s, value, previous) -> {
+            });
+            fail("Bit type accepted for a register");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Waits until the group has been scanned a number of times. The statistics are
+     * recorded before the listeners are called, so one more scan is waited for to
+     * be sure the last one has been reported.
+     *
+     * @param count Number of scans to wait for
+     */
+    private void awaitScans(int count) {
+        long target = group.getStats().getScans() + count + 1;
+        long end = System.currentTimeMillis() + 5000;
+        while (group.getStats().getScans() < target) {
+            if (System.currentTimeMillis() > end) {
+                fail("Group not scanned");
+            }
+            ModbusUtil.sleep(5);
+        }
+    }
+}
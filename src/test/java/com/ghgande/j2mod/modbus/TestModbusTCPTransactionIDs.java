@@ -0,0 +1,166 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMaster;
+import com.ghgande.j2mod.modbus.io.TransactionIDAllocator;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbusTCPMaster;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the allocation of transaction IDs per connection
+ */
+public class TestModbusTCPTransactionIDs extends AbstractTestModbusTCPMaster {
+
+    @Test
+    public void testAllocator() {
+        TransactionIDAllocator ids = new TransactionIDAllocator();
+        assertEquals(Modbus.DEFAULT_TRANSACTION_ID, ids.current());
+        assertEquals(Modbus.DEFAULT_TRANSACTION_ID + 1, ids.next());
+
+        int first = ids.acquire();
+        assertTrue("ID not outstanding", ids.isOutstanding(first));
+        assertTrue("Outstanding ID not released", ids.release(first));
+        assertFalse("Duplicate release accepted", ids.release(first));
+
+        // Run the counter round so that it wraps onto an ID that is still outstanding
+        int held = ids.acquire();
+        while (ids.current() != held - 1) {
+            ids.next();
+        }
+        assertNotEquals("Outstanding ID reallocated", held, ids.acquire());
+        assertEquals(2, ids.getOutstanding());
+        ids.clear();
+        assertEquals(0, ids.getOutstanding());
+    }
+
+    @Test
+    public void testParallelMasters() throws Exception {
+        final AtomicReference<String> error = new AtomicReference<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                ModbusTCPMaster parallelMaster = new ModbusTCPMaster(LOCALHOST, PORT);
+                try {
+                    parallelMaster.connect();
+                    for (int i = 0; i < 50; i++) {
+                        if (parallelMaster.readMultipleRegisters(UNIT_ID, 0, 1)[0].getValue() != 251) {
+                            error.set("Incorrect value for register 0");
+                        }
+                    }
+                    TransactionIDAllocator ids = parallelMaster.getTransport().getTransactionIDs();
+                    if (ids.current() != 50) {
+                        error.set("Transaction IDs shared between connections - current ID " + ids.current());
+                    }
+                    if (ids.getOutstanding() != 0) {
+                        error.set("Responses not matched - " + ids.getOutstanding() + " outstanding");
+                    }
+                }
+                catch (Exception e) {
+                    error.set(e.getMessage());
+                }
+                finally {
+                    parallelMaster.disconnect();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get(), error.get());
+    }
+
+    @Test
+    public void testReleasedOnTimeout() throws Exception {
+        ServerSocket silent = new ServerSocket(PORT + 46);
+        ModbusTCPMaster silentMaster = new ModbusTCPMaster(LOCALHOST, PORT + 46, 100, false);
+        try {
+            silentMaster.setRetries(2);
+            silentMaster.connect();
+            try {
+                silentMaster.readMultipleRegisters(UNIT_ID, 0, 1);
+                fail("Unanswered request succeeded");
+            }
+            catch (ModbusIOException e) {
+                // Expected
+            }
+            assertEquals("Unanswered IDs still outstanding", 0, silentMaster.getTransport().getTransactionIDs().getOutstanding());
+        }
+        finally {
+            silentMaster.disconnect();
+            silent.close();
+        }
+    }
+
+    @Test
+    public void testMismatchedResponsesTimeOut() throws Exception {
+
+        // A slave that answers every request with a stream of responses for another transaction
+        ServerSocket flooding = new ServerSocket(PORT + 51);
+        Thread flooder = new Thread(() -> {
+            byte[] reply = {0x7F, 0x7F, 0, 0, 0, 5, (byte)UNIT_ID, 3, 2, 0, (byte)251};
+            while (!flooding.isClosed()) {
+                try (Socket socket = flooding.accept()) {
+                    InputStream in = socket.getInputStream();
+                    OutputStream out = socket.getOutputStream();
+                    in.read(new byte[Modbus.MAX_MESSAGE_LENGTH]);
+                    while (true) {
+                        out.write(reply);
+                        out.flush();
+                        Thread.sleep(10);
+                    }
+                }
+                catch (Exception e) {
+                    // Closed
+                }
+            }
+        });
+        flooder.start();
+        ModbusTCPMaster floodedMaster = new ModbusTCPMaster(LOCALHOST, PORT + 51, 300, false);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            floodedMaster.connect();
+            floodedMaster.setRetries(1);
+            Future<?> read = executor.submit(() -> floodedMaster.readMultipleRegisters(UNIT_ID, 0, 1));
+            try {
+                read.get(5, TimeUnit.SECONDS);
+                fail("Mismatched response accepted");
+            }
+            catch (ExecutionException e) {
+                assertTrue("Incorrect exception " + e.getCause(), e.getCause() instanceof ModbusIOException);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            floodedMaster.disconnect();
+            flooding.close();
+            flooder.join(5000);
+        }
+    }
+}
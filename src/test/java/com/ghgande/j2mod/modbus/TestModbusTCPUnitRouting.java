@@ -0,0 +1,117 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusTCPMaster;
+import com.ghgande.j2mod.modbus.procimg.ArrayProcessImage;
+import com.ghgande.j2mod.modbus.procimg.ProcessImage;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbus;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the routing of requests to the process image of their Unit ID
+ */
+public class TestModbusTCPUnitRouting extends AbstractTestModbus {
+
+    private static final int ROUTING_PORT = PORT + 40;
+    private static ModbusTCPMaster master;
+
+    @BeforeClass
+    public static void setUpSlave() throws Exception {
+        slave = ModbusSlaveFactory.createTCPSlave(ROUTING_PORT, 5);
+        slave.addProcessImage(UNIT_ID, getSimpleProcessImage());
+        slave.open();
+        master = new ModbusTCPMaster(LOCALHOST, ROUTING_PORT);
+        master.connect();
+    }
+
+    @AfterClass
+    public static void tearDownSlave() {
+        if (master != null) {
+            master.disconnect();
+        }
+        if (slave != null) {
+            slave.close();
+        }
+    }
+
+    @Test
+    public void testUnitIdRange() {
+        assertNull("Unit ID out of range routed", slave.getProcessImage(256));
+        try {
+            slave.addProcessImage(300, getSimpleProcessImage());
+            fail("Unit ID out of range accepted");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testHotSwap() throws Exception {
+        ArrayProcessImage first = new ArrayProcessImage(UNIT_ID + 1, 10);
+        first.setRegisterValue(0, 1);
+        ArrayProcessImage second = new ArrayProcessImage(UNIT_ID + 1, 10);
+        second.setRegisterValue(0, 2);
+        assertNull(slave.addProcessImage(UNIT_ID + 1, first));
+        try {
+            assertEquals(1, master.readMultipleRegisters(UNIT_ID + 1, 0, 1)[0].getValue());
+
+            final AtomicBoolean running = new AtomicBoolean(true);
+            Thread swapper = new Thread(() -> {
+                boolean odd = true;
+                while (running.get()) {
+                    slave.addProcessImage(UNIT_ID + 1, odd ? second : first);
+                    odd = !odd;
+                }
+            });
+            swapper.start();
+            try {
+                for (int i = 0; i < 100; i++) {
+                    int value = master.readMultipleRegisters(UNIT_ID + 1, 0, 1)[0].getValue();
+                    assertTrue("Incorrect value " + value, value == 1 || value == 2);
+                }
+            }
+            finally {
+                running.set(false);
+                swapper.join();
+            }
+
+            ProcessImage current = slave.getProcessImage(UNIT_ID + 1);
+            assertFalse("Stale image replaced", slave.replaceProcessImage(UNIT_ID + 1, current == first ? second : first, null));
+            assertTrue("Image not replaced", slave.replaceProcessImage(UNIT_ID + 1, current, second));
+            assertEquals(2, master.readMultipleRegisters(UNIT_ID + 1, 0, 1)[0].getValue());
+        }
+        finally {
+            slave.removeProcessImage(UNIT_ID + 1);
+        }
+
+        try {
+            master.readMultipleRegisters(UNIT_ID + 1, 0, 1);
+            fail("Removed image still served");
+        }
+        catch (ModbusSlaveException e) {
+            assertEquals(Modbus.ILLEGAL_ADDRESS_EXCEPTION, e.getType());
+        }
+    }
+}
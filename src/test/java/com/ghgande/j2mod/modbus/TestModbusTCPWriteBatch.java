@@ -0,0 +1,95 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Point;
+import com.ghgande.j2mod.modbus.facade.ModbusReadPlanner.Table;
+import com.ghgande.j2mod.modbus.facade.ModbusWriteBatch;
+import com.ghgande.j2mod.modbus.facade.ModbusWriteBatch.Write;
+import com.ghgande.j2mod.modbus.procimg.Register;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbusTCPMaster;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the merging of batched writes
+ */
+public class TestModbusTCPWriteBatch extends AbstractTestModbusTCPMaster {
+
+    @Test
+    public void testPlan() {
+        ModbusWriteBatch batch = new ModbusWriteBatch();
+        batch.writeRegister(UNIT_ID, 11, 2);
+        batch.writeRegister(UNIT_ID, 10, 1);
+        batch.writeRegister(UNIT_ID, 13, 3);
+        batch.writeRegister(UNIT_ID, 11, 4);
+        batch.writeCoil(UNIT_ID, 3, true);
+        batch.writeCoil(UNIT_ID, 4, false);
+        for (int i = 0; i < Modbus.MAX_WRITE_REGISTERS + 1; i++) {
+            batch.writeRegister(UNIT_ID + 1, i, i);
+        }
+
+        List<Write> writes = batch.plan();
+        assertEquals(5, writes.size());
+        assertWrite(writes.get(0), UNIT_ID, Table.COIL, 3, 2);
+        assertWrite(writes.get(1), UNIT_ID, Table.HOLDING_REGISTER, 10, 2);
+        assertWrite(writes.get(2), UNIT_ID, Table.HOLDING_REGISTER, 13, 1);
+        assertWrite(writes.get(3), UNIT_ID + 1, Table.HOLDING_REGISTER, 0, Modbus.MAX_WRITE_REGISTERS);
+        assertWrite(writes.get(4), UNIT_ID + 1, Table.HOLDING_REGISTER, Modbus.MAX_WRITE_REGISTERS, 1);
+    }
+
+    @Test
+    public void testCommit() throws Exception {
+        Register[] original = master.readMultipleRegisters(UNIT_ID, 1, 3);
+        boolean coil = master.readCoils(UNIT_ID, 1, 1).getBit(0);
+        try {
+            ModbusWriteBatch batch = new ModbusWriteBatch()
+                    .writeRegister(UNIT_ID, 3, 30)
+                    .writeRegister(UNIT_ID, 1, 10)
+                    .writeRegister(UNIT_ID, 2, 20)
+                    .writeRegister(UNIT_ID, 5000, 1)
+                    .writeCoil(UNIT_ID, 1, !coil);
+
+            ModbusWriteBatch.Result result = master.writePoints(batch);
+            assertEquals("Incorrect request count", 3, result.getRequestCount());
+            assertFalse("Failure not reported", result.isSuccessful());
+            assertEquals("Incorrect failures", 1, result.getFailures().size());
+            assertTrue("Invalid address written", result.getFailures().containsKey(new Point(UNIT_ID, Table.HOLDING_REGISTER, 5000)));
+            assertTrue("Register not written", result.isWritten(new Point(UNIT_ID, Table.HOLDING_REGISTER, 2)));
+            assertTrue("Coil not written", result.isWritten(new Point(UNIT_ID, Table.COIL, 1)));
+
+            Register[] regs = master.readMultipleRegisters(UNIT_ID, 1, 3);
+            assertEquals(10, regs[0].getValue());
+            assertEquals(20, regs[1].getValue());
+            assertEquals(30, regs[2].getValue());
+            assertEquals("Coil not changed", !coil, master.readCoils(UNIT_ID, 1, 1).getBit(0));
+        }
+        finally {
+            master.writeMultipleRegisters(UNIT_ID, 1, original);
+            master.writeCoil(UNIT_ID, 1, coil);
+        }
+    }
+
+    private static void assertWrite(Write write, int unitId, Table table, int reference, int count) {
+        assertEquals("Incorrect unit for " + write, unitId, write.getUnitId());
+        assertEquals("Incorrect table for " + write, table, write.getTable());
+        assertEquals("Incorrect reference for " + write, reference, write.getReference());
+        assertEquals("Incorrect count for " + write, count, write.getCount());
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.io.ModbusUDPMultiplexer;
+import com.ghgande.j2mod.modbus.msg.ModbusResponse;
+import com.ghgande.j2mod.modbus.msg.ReadInputRegistersRequest;
+import com.ghgande.j2mod.modbus.msg.ReadInputRegistersResponse;
+import com.ghgande.j2mod.modbus.msg.ReadMultipleRegistersRequest;
+import com.ghgande.j2mod.modbus.msg.ReadMultipleRegistersResponse;
+import com.ghgande.j2mod.modbus.slave.ModbusSlave;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbus;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests polling several UDP slaves through one multiplexer
+ */
+public class TestModbusUDPMultiplexer extends AbstractTestModbus {
+
+    private static final int FIRST_PORT = PORT + 42;
+    private static final int SECOND_PORT = PORT + 43;
+    private static final int SILENT_PORT = PORT + 44;
+    private static ModbusSlave secondSlave;
+    private static ModbusUDPMultiplexer multiplexer;
+
+    @BeforeClass
+    public static void setUpSlaves() throws Exception {
+        slave = ModbusSlaveFactory.createNIOUDPSlave(FIRST_PORT, 2);
+        slave.addProcessImage(UNIT_ID, getSimpleProcessImage());
+        slave.open();
+        secondSlave = ModbusSlaveFactory.createUDPSlave(SECOND_PORT);
+        secondSlave.addProcessImage(UNIT_ID, getSimpleProcessImage());
+        secondSlave.open();
+        multiplexer = new ModbusUDPMultiplexer();
+        multiplexer.open();
+    }
+
+    @AfterClass
+    public static void tearDownSlaves() {
+        if (multiplexer != null) {
+            multiplexer.close();
+        }
+        if (slave != null) {
+            slave.close();
+        }
+        if (secondSlave != null) {
+            secondSlave.close();
+        }
+    }
+
+    @Test
+    public void testManyInFlight() throws Exception {
+        InetAddress localhost = InetAddress.getByName(LOCALHOST);
+        InetSocketAddress[] targets = {new InetSocketAddress(localhost, FIRST_PORT), new InetSocketAddress(localhost, SECOND_PORT)};
+        List<CompletableFuture<ModbusResponse>> holding = new ArrayList<CompletableFuture<ModbusResponse>>();
+        List<CompletableFuture<ModbusResponse>> input = new ArrayList<CompletableFuture<ModbusResponse>>();
+        for (int i = 0; i < 100; i++) {
+            ReadMultipleRegistersRequest holdingRequest = new ReadMultipleRegistersRequest(1, 2);
+            holdingRequest.setUnitID(UNIT_ID);
+            holding.add(multiplexer.submit(targets[i % 2], holdingRequest));
+            ReadInputRegistersRequest inputRequest = new ReadInputRegistersRequest(0, 1);
+            inputRequest.setUnitID(UNIT_ID);
+            input.add(multiplexer.submit(targets[i % 2], inputRequest));
+        }
+        for (CompletableFuture<ModbusResponse> future : holding) {
+            ReadMultipleRegistersResponse response = (ReadMultipleRegistersResponse)future.get();
+            assertEquals(1111, response.getRegisterValue(0));
+            assertEquals(2222, response.getRegisterValue(1));
+        }
+        for (CompletableFuture<ModbusResponse> future : input) {
+            ReadInputRegistersResponse response = (ReadInputRegistersResponse)future.get();
+            assertEquals(45, response.getRegisterValue(0));
+        }
+        assertEquals("Requests still outstanding", 0, multiplexer.getOutstanding());
+    }
+
+    @Test
+    public void testExecuteThrowsSlaveException() throws Exception {
+        ReadMultipleRegistersRequest request = new ReadMultipleRegistersRequest(1000, 1);
+        request.setUnitID(UNIT_ID);
+        try {
+            multiplexer.execute(new InetSocketAddress(InetAddress.getByName(LOCALHOST), FIRST_PORT), request);
+            fail("Exception response returned as a response");
+        }
+        catch (ModbusSlaveException e) {
+            assertEquals("Incorrect exception", Modbus.ILLEGAL_ADDRESS_EXCEPTION, e.getType());
+        }
+        assertEquals("Request still outstanding", 0, multiplexer.getOutstanding());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        ModbusUDPMultiplexer silent = new ModbusUDPMultiplexer();
+        silent.setTimeout(100);
+        silent.setRetries(2);
+        silent.open();
+        try {
+            ReadMultipleRegistersRequest request = new ReadMultipleRegistersRequest(1, 2);
+            request.setUnitID(UNIT_ID);
+            long start = System.nanoTime();
+            CompletableFuture<ModbusResponse> future = silent.submit(new InetSocketAddress(InetAddress.getByName(LOCALHOST), SILENT_PORT), request);
+            try {
+                future.get();
+                fail("Unanswered request did not time out");
+            }
+            catch (ExecutionException e) {
+                assertTrue("Incorrect failure " + e.getCause(), e.getCause() instanceof ModbusIOException);
+            }
+            long elapsed = (System.nanoTime() - start) / 1000000;
+            assertTrue("Request not retried - failed after " + elapsed + "ms", elapsed >= 300);
+            assertEquals("Request still outstanding", 0, silent.getOutstanding());
+        }
+        finally {
+            silent.close();
+        }
+    }
+
+    @Test
+    public void testEncodeFailure() throws Exception {
+        ModbusUDPMultiplexer local = new ModbusUDPMultiplexer();
+        local.open();
+        try {
+            ReadMultipleRegistersRequest request = new ReadMultipleRegistersRequest(1, 2) {
+                @Override
+                public void writeData(DataOutput dout) throws IOException {
+                    throw new IOException("Cannot write");
+                }
+            };
+            request.setUnitID(UNIT_ID);
+            try {
+                local.submit(new InetSocketAddress(InetAddress.getByName(LOCALHOST), SILENT_PORT), request);
+                fail("Unencodable request was submitted");
+            }
+            catch (ModbusIOException e) {
+                // Expected
+            }
+            assertEquals("Transaction ID still held", 0, local.getOutstanding());
+        }
+        finally {
+            local.close();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ghgande.j2mod.modbus;
+
+import com.ghgande.j2mod.modbus.facade.ModbusUDPMaster;
+import com.ghgande.j2mod.modbus.slave.ModbusSlaveFactory;
+import com.ghgande.j2mod.modbus.utils.AbstractTestModbus;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the multi-threaded UDP slave listener
+ */
+public class TestModbusUDPNIOListener extends AbstractTestModbus {
+
+    private static final int NIO_PORT = PORT + 41;
+
+    @BeforeClass
+    public static void setUpSlave() throws Exception {
+        slave = ModbusSlaveFactory.createNIOUDPSlave(null, NIO_PORT, 4, 1 << 20);
+        slave.addProcessImage(UNIT_ID, getSimpleProcessImage());
+        slave.open();
+    }
+
+    @AfterClass
+    public static void tearDownSlave() {
+        if (slave != null) {
+            slave.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentMasters() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> {
+                    ModbusUDPMaster master = new ModbusUDPMaster(LOCALHOST, NIO_PORT);
+                    master.connect();
+                    try {
+                        for (int j = 0; j < 25; j++) {
+                            assertEquals("Incorrect value for register 0", 251, master.readMultipleRegisters(UNIT_ID, 0, 1)[0].getValue());
+                            assertEquals("Incorrect value for input register 0", 45, master.readInputRegisters(UNIT_ID, 0, 1)[0].getValue());
+                        }
+                    }
+                    finally {
+                        master.disconnect();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBursts() throws Exception {
+        int burst = 100;
+        DatagramSocket socket = new DatagramSocket();
+        try {
+            socket.connect(new InetSocketAddress(LOCALHOST, NIO_PORT));
+            socket.setSoTimeout(5000);
+            byte[] response = new byte[Modbus.MAX_MESSAGE_LENGTH];
+            for (int first = 0; first < 500; first += burst) {
+                for (int tid = first; tid < first + burst; tid++) {
+                    ByteBuffer request = ByteBuffer.allocate(12);
+                    request.putShort((short)tid).putShort((short)0).putShort((short)6);
+                    request.put((byte)UNIT_ID).put((byte)Modbus.READ_MULTIPLE_REGISTERS).putShort((short)1).putShort((short)2);
+                    socket.send(new DatagramPacket(request.array(), request.capacity()));
+                }
+
+                // Every request gets its own answer, sent back to this socket
+                BitSet answered = new BitSet();
+                while (answered.cardinality() < burst) {
+                    DatagramPacket packet = new DatagramPacket(response, response.length);
+                    socket.receive(packet);
+                    ByteBuffer buffer = ByteBuffer.wrap(response, 0, packet.getLength());
+                    assertEquals("Incorrect response length", 13, packet.getLength());
+                    assertEquals("Incorrect value for register 1", 1111, buffer.getShort(9));
+                    assertEquals("Incorrect value for register 2", 2222, buffer.getShort(11));
+                    int tid = buffer.getShort(0) & 0xFFFF;
+                    assertTrue("Unexpected transaction " + tid, tid >= first && tid < first + burst);
+                    answered.set(tid);
+                }
+            }
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testForeignProtocolDropped() throws Exception {
+        DatagramSocket socket = new DatagramSocket();
+        try {
+            socket.connect(new InetSocketAddress(LOCALHOST, NIO_PORT));
+            socket.setSoTimeout(5000);
+            for (int tid = 1; tid <= 2; tid++) {
+                ByteBuffer request = ByteBuffer.allocate(12);
+                request.putShort((short)tid).putShort((short)(2 - tid)).putShort((short)6);
+                request.put((byte)UNIT_ID).put((byte)Modbus.READ_MULTIPLE_REGISTERS).putShort((short)1).putShort((short)2);
+                socket.send(new DatagramPacket(request.array(), request.capacity()));
+            }
+
+            // Only the request with the Modbus protocol ID is answered
+            byte[] response = new byte[Modbus.MAX_MESSAGE_LENGTH];
+            DatagramPacket packet = new DatagramPacket(response, response.length);
+            socket.receive(packet);
+            assertEquals("Incorrect transaction ID", 2, ByteBuffer.wrap(response).getShort(0));
+        }
+        finally {
+            socket.close();
+        }
+    }
+}